@@ -0,0 +1,48 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRoute;
+import com.markmcguill.express.routing.ExpressRouteCompileMode;
+import com.markmcguill.express.routing.ExpressRouteCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compiling a whole table of routes at startup in each {@link ExpressRouteCompileMode}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkCompileBenchmark {
+    @Param({"1000", "10000"})
+    public int routeCount;
+
+    @Param({"EAGER", "PARALLEL", "LAZY"})
+    public ExpressRouteCompileMode mode;
+
+    private List<String> definitions;
+
+    @Setup
+    public void setUp() {
+        definitions = RouteTables.definitions(routeCount);
+    }
+
+    @Benchmark
+    public List<ExpressRoute> compileAll() {
+        return new ExpressRouteCompiler().compileAll(definitions, mode);
+    }
+}
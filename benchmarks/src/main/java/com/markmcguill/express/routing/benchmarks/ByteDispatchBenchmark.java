@@ -0,0 +1,80 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRouteEngineType;
+import com.markmcguill.express.routing.ExpressRouteMatch;
+import com.markmcguill.express.routing.ExpressRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the route for request targets held in direct buffers, as a network server receives them, by decoding each
+ * into a String first and by matching the bytes in place.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteDispatchBenchmark {
+    @Param({"100", "1000"})
+    public int routeCount;
+
+    @Param({"REGEX", "TRIE"})
+    public ExpressRouteEngineType engine;
+
+    private final ExpressRouteMatch match = new ExpressRouteMatch();
+    private ExpressRouter<String> router;
+    private ByteBuffer[] targets;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        router = new ExpressRouter<>(engine);
+
+        for (String definition : RouteTables.definitions(routeCount)) {
+            router.add(definition, definition);
+        }
+
+        final String[] paths = RouteTables.paths(routeCount);
+        targets = new ByteBuffer[paths.length];
+
+        for (int i = 0; i < paths.length; i++) {
+            final byte[] bytes = paths[i].getBytes(StandardCharsets.US_ASCII);
+
+            targets[i] = ByteBuffer.allocateDirect(bytes.length);
+            targets[i].put(bytes).flip();
+            router.find(targets[i], match);
+        }
+    }
+
+    private ByteBuffer next() {
+        final ByteBuffer target = targets[next];
+        next = next + 1 == targets.length ? 0 : next + 1;
+
+        return target;
+    }
+
+    @Benchmark
+    public String decodeAndFind() {
+        return router.find(StandardCharsets.US_ASCII.decode(next().duplicate()), match);
+    }
+
+    @Benchmark
+    public String findBytes() {
+        return router.find(next(), match);
+    }
+}
@@ -0,0 +1,60 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRoute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The cost of constructing an {@link ExpressRoute}: parsing the definition and compiling its pattern.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+    @Param({
+            "/offers",
+            "/:commoditySlug/options/:optionId",
+            "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?",
+            "/:commoditySlug/straddles/:straddleSlug/bid/:bidId"
+    })
+    public String definition;
+
+    private final List<String> table = RouteTables.baseDefinitions();
+
+    @Benchmark
+    public ExpressRoute compile() {
+        return new ExpressRoute(definition);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ExpressRoute compileThreads4() {
+        return new ExpressRoute(definition);
+    }
+
+    /**
+     * Every route of the test set, as a service registering its table at startup would.
+     */
+    @Benchmark
+    public void compileTable(Blackhole blackhole) {
+        for (String pathDefinition : table) {
+            blackhole.consume(new ExpressRoute(pathDefinition));
+        }
+    }
+}
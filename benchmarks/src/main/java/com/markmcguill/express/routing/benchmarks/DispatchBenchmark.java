@@ -0,0 +1,93 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRouteEngineType;
+import com.markmcguill.express.routing.ExpressRouteMatch;
+import com.markmcguill.express.routing.ExpressRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the best route for a path in a whole {@link ExpressRouter} table, for each engine and table size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @State(Scope.Benchmark)
+    public static class Table {
+        @Param({"10", "100", "1000", "10000"})
+        public int routeCount;
+
+        @Param({"REGEX", "TRIE", "AUTOMATON"})
+        public ExpressRouteEngineType engine;
+
+        private ExpressRouter<String> router;
+        private String[] paths;
+        private String[] missingPaths;
+
+        @Setup
+        public void setUp() {
+            router = new ExpressRouter<>(engine);
+
+            for (String definition : RouteTables.definitions(routeCount)) {
+                router.add(definition, definition);
+            }
+
+            paths = RouteTables.paths(routeCount);
+            missingPaths = RouteTables.missingPaths();
+
+            // Compiles the table, and warms the automaton's states, outside the measurement.
+            for (String path : paths) {
+                router.find(path);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final ExpressRouteMatch match = new ExpressRouteMatch();
+        private int next;
+
+        private String next(String[] paths) {
+            final String path = paths[next];
+            next = next + 1 == paths.length ? 0 : next + 1;
+
+            return path;
+        }
+    }
+
+    @Benchmark
+    public Object find(Table table, Cursor cursor) {
+        return table.router.find(cursor.next(table.paths));
+    }
+
+    @Benchmark
+    public String findIntoMatch(Table table, Cursor cursor) {
+        return table.router.find(cursor.next(table.paths), cursor.match);
+    }
+
+    @Benchmark
+    public String findMissing(Table table, Cursor cursor) {
+        return table.router.find(cursor.next(table.missingPaths), cursor.match);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String findIntoMatchThreads4(Table table, Cursor cursor) {
+        return table.router.find(cursor.next(table.paths), cursor.match);
+    }
+}
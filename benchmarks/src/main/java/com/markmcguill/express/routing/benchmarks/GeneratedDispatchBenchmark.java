@@ -0,0 +1,87 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRouteEngineFactory;
+import com.markmcguill.express.routing.ExpressRouteEngineType;
+import com.markmcguill.express.routing.ExpressRouteMatch;
+import com.markmcguill.express.routing.ExpressRouter;
+import com.markmcguill.express.routing.ExpressRoutes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups in the test route set through the matcher generated at build time, against the runtime engines.
+ */
+@ExpressRoutes(name = "TestRouteMatcher", value = {
+        "/",
+        "/active",
+        "/offers",
+        "/offers/:offerslug",
+        "/trades",
+        "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?",
+        "/trades/:commoditySlug/:optionId/:date?",
+        "/trades/:commoditySlug/:optionId/bid/:bidId",
+        "/:commoditySlug",
+        "/:commoditySlug/alpha",
+        "/:commoditySlug/active",
+        "/:commoditySlug/active/bid/:bidId",
+        "/:commoditySlug/futures/:date?",
+        "/:commoditySlug/futures/bid/:bidId",
+        "/:commoditySlug/options",
+        "/:commoditySlug/options/:optionId",
+        "/:commoditySlug/options/bid/:bidId",
+        "/:commoditySlug/exchanges",
+        "/:commoditySlug/shorts",
+        "/:commoditySlug/shorts/:shortId",
+        "/:commoditySlug/straddles/:straddleSlug?",
+        "/:commoditySlug/straddles/:straddleSlug/bid/:bidId",
+        "/:commoditySlug/future",
+        "/:commoditySlug/trades"
+})
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeneratedDispatchBenchmark {
+    @Param({"GENERATED", "TRIE", "AUTOMATON"})
+    public String engine;
+
+    private final ExpressRouteMatch match = new ExpressRouteMatch();
+    private ExpressRouter<String> router;
+    private String[] paths;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final ExpressRouteEngineFactory factory = engine.equals("GENERATED") ?
+                TestRouteMatcher.FACTORY : ExpressRouteEngineType.valueOf(engine);
+
+        router = new ExpressRouter<>(factory);
+
+        for (String definition : RouteTables.baseDefinitions()) {
+            router.add(definition, definition);
+        }
+
+        paths = RouteTables.basePaths().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public String find() {
+        final String path = paths[next];
+        next = next + 1 == paths.length ? 0 : next + 1;
+
+        return router.find(path, match);
+    }
+}
@@ -0,0 +1,73 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRoute;
+import com.markmcguill.express.routing.ExpressRouteMatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a single route against a path it matches and one it does not, through {@link ExpressRoute#matches} and
+ * {@link ExpressRoute#getParametersFromPath}, and through the single pass {@link ExpressRoute#match}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchBenchmark {
+    @Param({"hit", "miss"})
+    public String outcome;
+
+    private final ExpressRoute route = new ExpressRoute("/:commoditySlug/straddles/:straddleSlug/bid/:bidId");
+    private final ExpressRouteMatch match = new ExpressRouteMatch();
+    private String path;
+
+    @Setup
+    public void setUp() {
+        path = outcome.equals("hit") ? "/porkbelly/straddles/porkbelly-euro/bid/1" : "/porkbelly/straddles/porkbelly-euro/ask/1";
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return route.matches(path);
+    }
+
+    /**
+     * The usual pattern of use, which runs the pattern twice on a hit.
+     */
+    @Benchmark
+    public Map<String, String> matchesThenGetParameters() {
+        return route.matches(path) ? route.getParametersFromPath(path) : null;
+    }
+
+    @Benchmark
+    public CharSequence match() {
+        return route.match(path, match) ? match.getParameter(2) : null;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Map<String, String> matchesThenGetParametersThreads4() {
+        return route.matches(path) ? route.getParametersFromPath(path) : null;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CharSequence matchThreads4() {
+        return route.match(path, match) ? match.getParameter(2) : null;
+    }
+}
@@ -0,0 +1,74 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRouteEngineType;
+import com.markmcguill.express.routing.ExpressRouteMatch;
+import com.markmcguill.express.routing.ExpressRouteMetrics;
+import com.markmcguill.express.routing.ExpressRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What counting lookups costs: the same lookups without metrics, with them, and with Flight Recorder events enabled
+ * but no recording running.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    @Param({"100"})
+    public int routeCount;
+
+    @Param({"TRIE"})
+    public ExpressRouteEngineType engine;
+
+    @Param({"OFF", "ON", "EVENTS"})
+    public String metrics;
+
+    private final ExpressRouteMatch match = new ExpressRouteMatch();
+    private ExpressRouter<String> router;
+    private String[] paths;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        router = new ExpressRouter<>(engine);
+
+        for (String definition : RouteTables.definitions(routeCount)) {
+            router.add(definition, definition);
+        }
+
+        if (!metrics.equals("OFF")) {
+            final ExpressRouteMetrics routeMetrics = new ExpressRouteMetrics();
+            routeMetrics.setFlightRecorderEvents(metrics.equals("EVENTS"));
+            router.setMetrics(routeMetrics);
+        }
+
+        paths = RouteTables.paths(routeCount);
+
+        for (String path : paths) {
+            router.find(path, match);
+        }
+    }
+
+    @Benchmark
+    public String find() {
+        final String path = paths[next];
+        next = next + 1 == paths.length ? 0 : next + 1;
+
+        return router.find(path, match);
+    }
+}
@@ -0,0 +1,86 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRouteEngineType;
+import com.markmcguill.express.routing.ExpressRouteMatch;
+import com.markmcguill.express.routing.ExpressRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The same table as one flat router, and as a root router with each copy of the route set mounted under its "/vN"
+ * prefix, so a lookup matches the prefixes and then searches a single copy.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MountBenchmark {
+    @Param({"1000"})
+    public int routeCount;
+
+    @Param({"REGEX", "TRIE"})
+    public ExpressRouteEngineType engine;
+
+    @Param({"FLAT", "MOUNTED"})
+    public String layout;
+
+    private final ExpressRouteMatch match = new ExpressRouteMatch();
+    private ExpressRouter<String> router;
+    private String[] paths;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final List<String> definitions = RouteTables.definitions(routeCount);
+
+        router = new ExpressRouter<>(engine);
+
+        if (layout.equals("FLAT")) {
+            for (String definition : definitions) {
+                router.add(definition, definition);
+            }
+        }
+        else {
+            final List<String> base = RouteTables.baseDefinitions();
+
+            for (int copy = 0; copy * base.size() < definitions.size(); copy++) {
+                final ExpressRouter<String> child = new ExpressRouter<>(engine);
+
+                for (int i = copy * base.size(); i < Math.min(definitions.size(), (copy + 1) * base.size()); i++) {
+                    child.add(base.get(i % base.size()), definitions.get(i));
+                }
+
+                // The unprefixed copy goes under "", which ranks after every "/vN".
+                router.mount(copy == 0 ? "" : "/v" + copy, child);
+            }
+        }
+
+        paths = RouteTables.paths(routeCount);
+
+        for (String path : paths) {
+            router.find(path, match);
+        }
+    }
+
+    @Benchmark
+    public String find() {
+        final String path = paths[next];
+        next = next + 1 == paths.length ? 0 : next + 1;
+
+        return router.find(path, match);
+    }
+}
@@ -0,0 +1,60 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRoute;
+import com.markmcguill.express.routing.ExpressRouteTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a link from a route and its parameters with an {@link ExpressRouteTemplate}, into a reused builder and
+ * into a new string.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathGenerationBenchmark {
+    @Param({"/:commoditySlug/straddles/:straddleSlug/bid/:bidId", "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?"})
+    public String definition;
+
+    private final StringBuilder out = new StringBuilder();
+    private final Map<String, Object> parameters = new HashMap<>();
+    private ExpressRouteTemplate template;
+
+    @Setup
+    public void setUp() {
+        template = new ExpressRoute(definition).getTemplate();
+
+        parameters.put("commoditySlug", "porkbelly");
+        parameters.put("straddleSlug", "porkbelly euro");
+        parameters.put("bidId", 1234);
+        parameters.put("date", "07-06-2017");
+    }
+
+    @Benchmark
+    public StringBuilder appendTo() {
+        out.setLength(0);
+
+        return template.appendTo(out, parameters);
+    }
+
+    @Benchmark
+    public String toPath() {
+        return template.toPath(parameters);
+    }
+}
@@ -0,0 +1,104 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The commodity and trades route set from the unit tests, with a path each route should match, scaled up to larger
+ * tables by repeating it under numbered prefixes.
+ */
+final class RouteTables {
+    private static final String[][] ROUTES = {
+            {"/", "/"},
+            {"/active", "/active"},
+            {"/offers", "/offers"},
+            {"/offers/:offerslug", "/offers/e1264"},
+            {"/trades", "/trades"},
+            {"/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?", "/trades/porkbelly/07-06-2017"},
+            {"/trades/:commoditySlug/:optionId/:date?", "/trades/porkbelly/2000/07-06-2017"},
+            {"/trades/:commoditySlug/:optionId/bid/:bidId", "/trades/porkbelly/2000/bid/1"},
+            {"/:commoditySlug", "/porkbelly"},
+            {"/:commoditySlug/alpha", "/porkbelly/alpha"},
+            {"/:commoditySlug/active", "/porkbelly/active"},
+            {"/:commoditySlug/active/bid/:bidId", "/porkbelly/active/bid/2"},
+            {"/:commoditySlug/futures/:date?", "/porkbelly/futures/10-06-2017"},
+            {"/:commoditySlug/futures/bid/:bidId", "/porkbelly/futures/bid/1"},
+            {"/:commoditySlug/options", "/porkbelly/options"},
+            {"/:commoditySlug/options/:optionId", "/porkbelly/options/2000"},
+            {"/:commoditySlug/options/bid/:bidId", "/porkbelly/options/bid/1"},
+            {"/:commoditySlug/exchanges", "/porkbelly/exchanges"},
+            {"/:commoditySlug/shorts", "/porkbelly/shorts"},
+            {"/:commoditySlug/shorts/:shortId", "/porkbelly/shorts/481"},
+            {"/:commoditySlug/straddles/:straddleSlug?", "/porkbelly/straddles/porkbelly-euro"},
+            {"/:commoditySlug/straddles/:straddleSlug/bid/:bidId", "/porkbelly/straddles/porkbelly-euro/bid/1"},
+            {"/:commoditySlug/future", "/porkbelly/future"},
+            {"/:commoditySlug/trades", "/porkbelly/trades"},
+    };
+
+    private RouteTables() {
+    }
+
+    /**
+     * @return routeCount definitions: the test set, then copies of it under "/v1", "/v2" and so on
+     */
+    static List<String> definitions(int routeCount) {
+        final List<String> definitions = new ArrayList<>(routeCount);
+
+        for (int i = 0; definitions.size() < routeCount; i++) {
+            definitions.add(prefixed(i / ROUTES.length, ROUTES[i % ROUTES.length][0]));
+        }
+
+        return definitions;
+    }
+
+    /**
+     * @return a path matching each of the first routeCount definitions, shuffled with a fixed seed so the access
+     * pattern does not follow the table's order
+     */
+    static String[] paths(int routeCount) {
+        final List<String> paths = new ArrayList<>(routeCount);
+
+        for (int i = 0; paths.size() < routeCount; i++) {
+            paths.add(prefixed(i / ROUTES.length, ROUTES[i % ROUTES.length][1]));
+        }
+
+        Collections.shuffle(paths, new Random(42));
+
+        return paths.toArray(new String[paths.size()]);
+    }
+
+    /**
+     * @return paths no route in a table of any size matches without a catch all
+     */
+    static String[] missingPaths() {
+        return new String[]{"/porkbelly/options/2000/extra/segments", "/trades/porkbelly/2000/ask/1/x/y"};
+    }
+
+    static List<String> baseDefinitions() {
+        final List<String> definitions = new ArrayList<>();
+
+        for (String[] route : ROUTES) {
+            definitions.add(route[0]);
+        }
+
+        return definitions;
+    }
+
+    static List<String> basePaths() {
+        return Arrays.asList(paths(ROUTES.length));
+    }
+
+    /**
+     * @return the definition or path under the copy's prefix, where the root of a copy is its prefix alone
+     */
+    private static String prefixed(int copy, String path) {
+        if (copy == 0) {
+            return path;
+        }
+
+        return path.equals("/") ? "/v" + copy : "/v" + copy + path;
+    }
+}
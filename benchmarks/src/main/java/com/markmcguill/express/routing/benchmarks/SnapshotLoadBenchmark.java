@@ -0,0 +1,65 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRoute;
+import com.markmcguill.express.routing.ExpressRouteCompileMode;
+import com.markmcguill.express.routing.ExpressRouteCompiler;
+import com.markmcguill.express.routing.ExpressRouteSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading a table from an {@link ExpressRouteSnapshot} at startup, against parsing its definitions lazily, which
+ * defers the same pattern compilation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotLoadBenchmark {
+    @Param({"1000", "10000"})
+    public int routeCount;
+
+    private List<String> definitions;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        definitions = RouteTables.definitions(routeCount);
+        file = Files.createTempFile("routes", ".snapshot");
+
+        ExpressRouteSnapshot.write(new ExpressRouteCompiler().compileAll(definitions, ExpressRouteCompileMode.LAZY), file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public List<ExpressRoute> parseLazily() {
+        return new ExpressRouteCompiler().compileAll(definitions, ExpressRouteCompileMode.LAZY);
+    }
+
+    @Benchmark
+    public List<ExpressRoute> loadSnapshot() throws IOException {
+        return ExpressRouteSnapshot.read(file).getRoutes();
+    }
+}
@@ -0,0 +1,72 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRoute;
+import com.markmcguill.express.routing.ExpressRoutePatternComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ranking the routes which match a path with {@link ExpressRoutePatternComparator}, the lookup a table did before
+ * {@link com.markmcguill.express.routing.ExpressRouter} ranked routes once up front.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SortBenchmark {
+    @Param({"10", "100", "1000"})
+    public int routeCount;
+
+    private final List<ExpressRoute> routes = new ArrayList<>();
+    private ExpressRoutePatternComparator comparator;
+
+    @Setup
+    public void setUp() {
+        for (String definition : RouteTables.definitions(routeCount)) {
+            routes.add(new ExpressRoute(definition));
+        }
+
+        comparator = new ExpressRoutePatternComparator("/porkbelly/options/2000");
+    }
+
+    @Benchmark
+    public List<ExpressRoute> sort() {
+        final List<ExpressRoute> sorted = new ArrayList<>(routes);
+        sorted.sort(comparator);
+
+        return sorted;
+    }
+
+    /**
+     * Filtering the table to the matching routes and sorting them, as a lookup without a router does.
+     */
+    @Benchmark
+    public ExpressRoute filterAndSort() {
+        final List<ExpressRoute> matching = new ArrayList<>();
+
+        for (ExpressRoute route : routes) {
+            if (route.matches("/porkbelly/options/2000")) {
+                matching.add(route);
+            }
+        }
+
+        matching.sort(comparator);
+
+        return matching.isEmpty() ? null : matching.get(0);
+    }
+}
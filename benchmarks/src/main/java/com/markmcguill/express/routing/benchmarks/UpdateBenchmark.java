@@ -0,0 +1,84 @@
+package com.markmcguill.express.routing.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.markmcguill.express.routing.ExpressRoute;
+import com.markmcguill.express.routing.ExpressRouteEngineType;
+import com.markmcguill.express.routing.ExpressRouteMatch;
+import com.markmcguill.express.routing.ExpressRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The latency of lookups while another thread keeps adding and removing a route, so every few lookups find a table
+ * which has just changed and not yet been compiled. Compare the percentiles of {@code lookup} with those of
+ * {@link DispatchBenchmark}.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class UpdateBenchmark {
+    @Param({"1000"})
+    public int routeCount;
+
+    @Param({"TRIE", "AUTOMATON"})
+    public ExpressRouteEngineType engine;
+
+    private final ExpressRoute toggled = new ExpressRoute("/offers/:offerslug/v2");
+    private ExpressRouter<String> router;
+    private String[] paths;
+
+    @State(Scope.Thread)
+    public static class Reader {
+        private final ExpressRouteMatch match = new ExpressRouteMatch();
+        private int next;
+    }
+
+    @Setup
+    public void setUp() {
+        router = new ExpressRouter<>(engine);
+
+        for (String definition : RouteTables.definitions(routeCount)) {
+            router.add(definition, definition);
+        }
+
+        paths = RouteTables.paths(routeCount);
+    }
+
+    @Benchmark
+    @Group("update")
+    @GroupThreads(3)
+    public String lookup(Reader reader) {
+        final String path = paths[reader.next];
+        reader.next = reader.next + 1 == paths.length ? 0 : reader.next + 1;
+
+        return router.find(path, reader.match);
+    }
+
+    @Benchmark
+    @Group("update")
+    @GroupThreads(1)
+    public boolean toggle() {
+        return router.remove(toggled) || addToggled();
+    }
+
+    private boolean addToggled() {
+        router.add(toggled, "toggled");
+
+        return false;
+    }
+}
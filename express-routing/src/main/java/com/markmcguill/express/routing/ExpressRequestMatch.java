@@ -0,0 +1,61 @@
+package com.markmcguill.express.routing;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The outcome of an {@link ExpressRequestRouter} lookup: whether a route was found, and if so the route, handler and
+ * parameters as for {@link ExpressRouterMatch}. When the path matched only routes for other methods, the match holds
+ * no route, and the methods those routes allow, for an {@code Allow} header.
+ */
+public class ExpressRequestMatch<T> extends ExpressRouterMatch<T> {
+    private ExpressRequestStatus status = ExpressRequestStatus.NOT_FOUND;
+    private Set<String> allowedMethods = Collections.emptySet();
+    private long otherMethods;
+
+    public ExpressRequestStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the methods of every route which matched the path, for any host the request may use, if the status is
+     * {@link ExpressRequestStatus#METHOD_NOT_ALLOWED}, otherwise an empty set
+     */
+    public Set<String> getAllowedMethods() {
+        return allowedMethods;
+    }
+
+    void setStatus(ExpressRequestStatus status, Set<String> allowedMethods) {
+        this.status = status;
+        this.allowedMethods = allowedMethods;
+    }
+
+    /**
+     * @return the bits of the methods of the routes for other methods which the path has matched so far in a lookup,
+     * which a {@link #reset} keeps, since a lookup resets the match for each host's routes
+     */
+    long getOtherMethods() {
+        return otherMethods;
+    }
+
+    void setOtherMethods(long otherMethods) {
+        this.otherMethods = otherMethods;
+    }
+
+    @Override
+    void reset(CharSequence input, int keyCapacity) {
+        super.reset(input, keyCapacity);
+        this.status = ExpressRequestStatus.NOT_FOUND;
+        this.allowedMethods = Collections.emptySet();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRequestMatch{" +
+                "status=" + status +
+                ", route=" + (getRoute() == null ? null : getRoute().getPathDefinition()) +
+                ", handler=" + getHandler() +
+                ", allowedMethods=" + allowedMethods +
+                '}';
+    }
+}
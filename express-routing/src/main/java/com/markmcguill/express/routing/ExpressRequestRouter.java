@@ -0,0 +1,767 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A table of routes keyed by HTTP method and host as well as path, which narrows a request to the routes that can
+ * apply to it before any path is matched.
+ * <p>
+ * Routes are grouped by host: an exact host such as {@code api.example.com}, a wildcard such as
+ * {@code *.tenant.example}, which matches any host ending in {@code .tenant.example}, or any host. A request tries the
+ * group of its exact host, then its wildcard groups from the longest suffix to the shortest, then the routes for any
+ * host; each is one hash lookup, so the routes of other hosts cost nothing. The first group with a route for the path
+ * and method decides the match.
+ * <p>
+ * Each group is one {@link ExpressRouter} of the host's routes for every method, each route tagged with the methods it
+ * applies to: the one it was added for, and, as in Express, {@code HEAD} as well for a {@code GET} route, or every
+ * method. The router ranks and compiles them as an {@link ExpressRouter} on its own does, and a lookup finds the most
+ * specific route for the path in one pass of its engine, whatever the method. Only if that route is for another method
+ * does the lookup walk on down the ranked routes below it for the first route for the request's method, noting the
+ * methods of the other routes the path matches on the way. So a request no route matches costs one lookup per group,
+ * and one which only other methods' routes match learns every method it could have used, for the {@code Allow} header
+ * of a 405, from the same walk, which runs each route's pattern at most once and passes over the routes of methods it
+ * has already noted. There may be routes for at most 63 different methods.
+ * <p>
+ * A change is made to copies of the routers of the groups it touches, which are published together by a single
+ * volatile write, so a lookup sees all of a change or none of it, however many methods and hosts it spans, and never
+ * locks. Copying a router copies its ranked table, which a change to a single {@link ExpressRouter} does too.
+ */
+public class ExpressRequestRouter<T> {
+    private static final String ANY = "*";
+
+    private final ExpressRouteEngineFactory engineFactory;
+    private final ExpressRouteCompiler compiler = new ExpressRouteCompiler();
+    private final List<Registration<T>> registrations = new ArrayList<>();
+    private int lookupCacheSize;
+    private ExpressRouteAdmissionPolicy admissionPolicy;
+    private ExpressRouteMetrics metrics;
+    private int stepBudget;
+    private volatile Index<T> index = new Index<>(new Hosts(Collections.emptyList()), newRouters(0),
+            new Methods(Collections.singletonList(null)), Collections.emptySet());
+
+    public ExpressRequestRouter() {
+        this(ExpressRouteEngineType.REGEX);
+    }
+
+    /**
+     * @param engineFactory compiles each host's routes, e.g. one of {@link ExpressRouteEngineType}
+     */
+    public ExpressRequestRouter(ExpressRouteEngineFactory engineFactory) {
+        if (engineFactory == null) {
+            throw new IllegalArgumentException("engineFactory must not be null");
+        }
+
+        this.engineFactory = engineFactory;
+    }
+
+    /**
+     * @param method the HTTP method, case sensitive as in HTTP, or null or {@code *} for any method
+     * @param host   a host, a wildcard host such as {@code *.tenant.example}, or null or {@code *} for any host
+     */
+    public ExpressRoute add(String method, String host, String pathDefinition, T handler) {
+        final ExpressRoute route = compiler.compile(pathDefinition);
+
+        add(method, host, route, handler);
+
+        return route;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the route would be the first for a 64th method
+     */
+    public synchronized void add(String method, String host, ExpressRoute route, T handler) {
+        if (route == null) {
+            throw new IllegalArgumentException("route must not be null");
+        }
+
+        final String methodKey = methodKey(method);
+        final String hostKey = hostKey(host);
+        final Changes changes = new Changes(methodKey);
+
+        changes.router(hostKey).add(route, handler, changes.methods.bits(methodKey));
+        registrations.add(new Registration<>(hostKey, route, null));
+        changes.publish();
+    }
+
+    /**
+     * Removes the route, for every method and host it was added with.
+     *
+     * @return true if the route was in the table
+     */
+    public synchronized boolean remove(ExpressRoute route) {
+        return removeIf(registration -> registration.route == route, router -> router.remove(route));
+    }
+
+    /**
+     * Removes every route with the definition, for every method and host.
+     *
+     * @return true if any route had it
+     */
+    public synchronized boolean remove(String pathDefinition) {
+        return removeIf(registration -> registration.route.getPathDefinition().equals(pathDefinition),
+                router -> router.remove(pathDefinition));
+    }
+
+    /**
+     * Swaps the route for the replacement, with the handler, for every method and host the route was added with, as
+     * {@link ExpressRouter#replace} does.
+     *
+     * @return true if the route was in the table, otherwise nothing is changed
+     */
+    public synchronized boolean replace(ExpressRoute route, ExpressRoute replacement, T handler) {
+        final Set<String> hosts = hostsOf(registration -> registration.child == null && registration.route == route);
+
+        if (hosts.isEmpty()) {
+            return false;
+        }
+
+        if (replacement == null) {
+            throw new IllegalArgumentException("replacement must not be null");
+        }
+
+        final Changes changes = new Changes(null);
+
+        for (String host : hosts) {
+            changes.router(host).replace(route, replacement, handler);
+        }
+
+        registrations.replaceAll(registration -> registration.child == null && registration.route == route ?
+                new Registration<>(registration.host, replacement, null) : registration);
+        changes.publish();
+
+        return true;
+    }
+
+    /**
+     * Mounts the child under the prefix for requests of the method to the host, as {@link ExpressRouter#mount} does.
+     * A request which the host's own routes for the method do not match is looked up in the child.
+     *
+     * @param method the HTTP method, or null or {@code *} for any method
+     * @param host   a host, a wildcard host, or null or {@code *} for any host
+     * @return the prefix route, with which the child can be {@link #unmount unmounted}
+     */
+    public synchronized ExpressRoute mount(String method, String host, String prefixDefinition, ExpressRouter<T> child) {
+        if (child == null) {
+            throw new IllegalArgumentException("child must not be null");
+        }
+
+        final String methodKey = methodKey(method);
+        final String hostKey = hostKey(host);
+        final ExpressRoute prefix = new ExpressRoute(prefixDefinition, ExpressRouteOptions.PREFIX);
+        final Changes changes = new Changes(methodKey);
+
+        changes.router(hostKey).mount(prefix, child, changes.methods.bits(methodKey));
+        registrations.add(new Registration<>(hostKey, prefix, child));
+        changes.publish();
+
+        return prefix;
+    }
+
+    /**
+     * Removes the router mounted under the prefix {@link #mount} returned.
+     *
+     * @return true if a router was mounted under it
+     */
+    public synchronized boolean unmount(ExpressRoute prefix) {
+        final Set<String> hosts = hostsOf(registration -> registration.child != null && registration.route == prefix);
+
+        if (hosts.isEmpty()) {
+            return false;
+        }
+
+        final Changes changes = new Changes(null);
+
+        for (String host : hosts) {
+            changes.router(host).unmount(prefix);
+        }
+
+        registrations.removeIf(registration -> registration.child != null && registration.route == prefix);
+        changes.publish();
+
+        return true;
+    }
+
+    /**
+     * Puts a cache in front of the lookups of each host's router, as {@link ExpressRouter#setLookupCache} does. Each
+     * router has its own cache of up to maximumSize paths, which holds the most specific route for a path whatever the
+     * method.
+     */
+    public synchronized void setLookupCache(int maximumSize, ExpressRouteAdmissionPolicy admissionPolicy) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative");
+        }
+
+        if (maximumSize > 0 && admissionPolicy == null) {
+            throw new IllegalArgumentException("admissionPolicy must not be null");
+        }
+
+        this.lookupCacheSize = maximumSize;
+        this.admissionPolicy = admissionPolicy;
+        configureAll();
+    }
+
+    /**
+     * Starts counting lookups, and the compile times of the routes this router compiles, into the metrics, or stops if
+     * they are null. Each host's router counts the lookups made in it, walk and all, so a request which falls through
+     * from one host's routes to another's counts once in each, as unmatched in the first.
+     */
+    public synchronized void setMetrics(ExpressRouteMetrics metrics) {
+        if (this.metrics != null) {
+            this.metrics.removeCompiler(compiler);
+        }
+
+        if (metrics != null) {
+            metrics.addCompiler(compiler);
+        }
+
+        this.metrics = metrics;
+        configureAll();
+    }
+
+    public synchronized ExpressRouteMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Bounds the characters each lookup in a host's router may read, as {@link ExpressRouter#setStepBudget} does. A
+     * walk for the request's method has a budget of its own.
+     */
+    public synchronized void setStepBudget(int steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("steps must not be negative");
+        }
+
+        this.stepBudget = steps;
+        configureAll();
+    }
+
+    public synchronized int getStepBudget() {
+        return stepBudget;
+    }
+
+    /**
+     * Normalizes each path by the rules once per request, before any host's routes see it, as
+     * {@link ExpressRouter#setPathRules} does. The lookup caches start empty again.
+     */
+    public synchronized void setPathRules(Set<ExpressRoutePathRule> rules) {
+        if (rules == null) {
+            throw new IllegalArgumentException("rules must not be null");
+        }
+
+        final Index<T> current = index;
+
+        index = new Index<>(current.hosts, current.routers, current.methods, rules.isEmpty() ? Collections.emptySet() :
+                Collections.unmodifiableSet(EnumSet.copyOf(rules)));
+        configureAll();
+    }
+
+    public synchronized Set<ExpressRoutePathRule> getPathRules() {
+        return index.pathRules;
+    }
+
+    /**
+     * @return the time spent compiling the definitions added to this router, which excludes routes added already
+     * compiled
+     */
+    public ExpressRouteCompileStats getCompileStats() {
+        return compiler.getStats();
+    }
+
+    private ExpressRouter<T> newRouter() {
+        final ExpressRouter<T> router = new ExpressRouter<>(engineFactory, null, compiler);
+
+        configure(router);
+
+        return router;
+    }
+
+    private void configure(ExpressRouter<T> router) {
+        router.setLookupCache(lookupCacheSize, admissionPolicy);
+        router.setMetrics(metrics);
+        router.setStepBudget(stepBudget);
+    }
+
+    private void configureAll() {
+        for (ExpressRouter<T> router : index.routers) {
+            configure(router);
+        }
+    }
+
+    private boolean removeIf(Predicate<Registration<T>> filter, Consumer<ExpressRouter<T>> removal) {
+        final Predicate<Registration<T>> routes = registration -> registration.child == null && filter.test(registration);
+        final Set<String> hosts = hostsOf(routes);
+
+        if (hosts.isEmpty()) {
+            return false;
+        }
+
+        final Changes changes = new Changes(null);
+
+        for (String host : hosts) {
+            removal.accept(changes.router(host));
+        }
+
+        registrations.removeIf(routes);
+        changes.publish();
+
+        return true;
+    }
+
+    /**
+     * @return the hosts of the registrations, each once
+     */
+    private Set<String> hostsOf(Predicate<Registration<T>> filter) {
+        final Set<String> hosts = new LinkedHashSet<>();
+
+        for (Registration<T> registration : registrations) {
+            if (filter.test(registration)) {
+                hosts.add(registration.host);
+            }
+        }
+
+        return hosts;
+    }
+
+    /**
+     * Finds the route for the request, as {@link #find(String, CharSequence, CharSequence, ExpressRequestMatch)} does.
+     *
+     * @return the match, whose status says whether a route was found
+     */
+    public ExpressRequestMatch<T> find(String method, CharSequence host, CharSequence path) {
+        final ExpressRequestMatch<T> match = new ExpressRequestMatch<>();
+
+        find(method, host, path, match);
+
+        return match;
+    }
+
+    /**
+     * Finds the most specific route for the method, host and path into a match owned by the caller. The path may be a
+     * whole request target, whose query string the match's
+     * {@link ExpressRouteMatch#getQueryParameters() query parameters} view, as {@link ExpressRouter} allows.
+     *
+     * @param host the request's host, with or without a port, or null if it has none
+     * @return the handler of the matched route, or null if the match's status is not {@link ExpressRequestStatus#FOUND}
+     */
+    public T find(String method, CharSequence host, CharSequence path, ExpressRequestMatch<T> match) {
+        final Index<T> current = index;
+        final ExpressRoutePath parsed = path instanceof ExpressRoutePath ? (ExpressRoutePath) path :
+                match.path().reset(path, current.pathRules);
+        final CharSequence target = parsed.getOriginal();
+
+        match.parsed(parsed);
+
+        final T handler = find(current, method, host, parsed.getNormalized(), match);
+
+        if (!parsed.isNormalized() && match.getInput() != target) {
+            match.rebase(target, 0);
+        }
+
+        match.query(target, parsed.queryStart(), parsed.queryEnd());
+
+        return handler;
+    }
+
+    private static <T> T find(Index<T> current, String method, CharSequence host, CharSequence path,
+                              ExpressRequestMatch<T> match) {
+        final CharSequence hostName = normalizeHost(host);
+        final int hostEnd = hostName == null ? 0 : hostEnd(hostName);
+        final long methodBit = current.methods.bit(method);
+
+        match.setOtherMethods(0);
+
+        for (int position = -1; position <= hostEnd; position++) {
+            final ExpressRouter<T> router = current.group(hostName, hostEnd, position);
+
+            if (router == null) {
+                continue;
+            }
+
+            final T handler = router.findParsed(path, match, true, methodBit);
+
+            if (match.getRoute() != null) {
+                match.setStatus(ExpressRequestStatus.FOUND, Collections.emptySet());
+
+                return handler;
+            }
+        }
+
+        // Every group the request may use has been looked up, so the Allow header lists each method a route matched for.
+        final long otherMethods = match.getOtherMethods();
+
+        match.reset(path, 0);
+
+        if (otherMethods != 0) {
+            match.setStatus(ExpressRequestStatus.METHOD_NOT_ALLOWED, current.methods.names(otherMethods));
+        }
+        else {
+            match.setStatus(ExpressRequestStatus.NOT_FOUND, Collections.emptySet());
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the routes, in the order they were added
+     */
+    public synchronized List<ExpressRoute> getRoutes() {
+        final List<ExpressRoute> routes = new ArrayList<>();
+
+        for (Registration<T> registration : registrations) {
+            if (registration.child == null) {
+                routes.add(registration.route);
+            }
+        }
+
+        return Collections.unmodifiableList(routes);
+    }
+
+    public synchronized int size() {
+        return (int) registrations.stream().filter(registration -> registration.child == null).count();
+    }
+
+    private static String methodKey(String method) {
+        return method == null || method.equals(ANY) ? null : method;
+    }
+
+    /**
+     * @return the host or wildcard host in lower case, or null for any host
+     */
+    private static String hostKey(String host) {
+        if (host == null || host.equals(ANY)) {
+            return null;
+        }
+
+        final String key = host.toLowerCase(Locale.ROOT);
+
+        if (key.isEmpty() || key.indexOf('*', key.startsWith("*.") ? 1 : 0) >= 0 || key.equals("*.")) {
+            throw new IllegalArgumentException("Invalid host " + host + ", expected a host, *.suffix or *");
+        }
+
+        return key;
+    }
+
+    /**
+     * @return the host in lower case, which allocates only if it has upper case letters
+     */
+    private static CharSequence normalizeHost(CharSequence host) {
+        if (host == null || host.length() == 0) {
+            return null;
+        }
+
+        for (int i = 0; i < host.length(); i++) {
+            final char c = host.charAt(i);
+
+            if (c >= 'A' && c <= 'Z') {
+                return host.toString().toLowerCase(Locale.ROOT);
+            }
+        }
+
+        return host;
+    }
+
+    /**
+     * @return the end of the host name, before any port and the dot which may end a fully qualified name
+     */
+    private static int hostEnd(CharSequence host) {
+        int end = host.length();
+
+        for (int i = end - 1; i >= 0; i--) {
+            final char c = host.charAt(i);
+
+            if (c == ':') {
+                end = i;
+                break;
+            }
+            else if (c < '0' || c > '9') {
+                break;
+            }
+        }
+
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--;
+        }
+
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRequestRouter{" +
+                "engineFactory=" + engineFactory +
+                ", routes=" + getRoutes() +
+                '}';
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ExpressRouter<T>[] newRouters(int length) {
+        return new ExpressRouter[length];
+    }
+
+    /**
+     * A route, or a mounted router, as it was added, so that a change can find the hosts it touches.
+     */
+    private static class Registration<T> {
+        private final String host;
+        private final ExpressRoute route;
+        private final ExpressRouter<T> child;
+
+        /**
+         * @param route the route, or the mount prefix if child is not null
+         * @param child the router mounted under the prefix, or null for a route
+         */
+        private Registration(String host, ExpressRoute route, ExpressRouter<T> child) {
+            this.host = host;
+            this.route = route;
+            this.child = child;
+        }
+    }
+
+    /**
+     * The routers one change makes, as copies of those of the current index it changes, or new for a host which had
+     * none, until it publishes them.
+     */
+    private class Changes {
+        private final Index<T> base = index;
+        private final Map<String, ExpressRouter<T>> routers = new LinkedHashMap<>();
+        private final Methods methods;
+
+        /**
+         * @param method a method the change adds a route or mount for, or null
+         */
+        private Changes(String method) {
+            this.methods = base.methods.with(method);
+        }
+
+        private ExpressRouter<T> router(String host) {
+            ExpressRouter<T> router = routers.get(host);
+
+            if (router == null) {
+                final ExpressRouter<T> current = base.router(host);
+
+                router = current != null ? current.copy() : newRouter();
+                routers.put(host, router);
+            }
+
+            return router;
+        }
+
+        private void publish() {
+            index = base.with(routers, methods);
+        }
+    }
+
+    /**
+     * The methods routes have been added for, each with a bit of its own, after the bit of the methods none has.
+     */
+    private static class Methods {
+        private static final long OTHER = 1L;
+
+        private final List<String> names;
+        private final ExpressRouteLiteralTable<Long> bits = new ExpressRouteLiteralTable<>();
+
+        /**
+         * @param names the method of each bit, from the second
+         */
+        private Methods(List<String> names) {
+            this.names = names;
+
+            for (int i = 1; i < names.size(); i++) {
+                bits.put(names.get(i), 1L << i);
+            }
+        }
+
+        /**
+         * @return these methods, or if the method is not among them, a copy with it, and with {@code HEAD} for
+         * {@code GET}
+         */
+        private Methods with(String method) {
+            if (method == null || bits.get(method) != null && (!method.equals("GET") || bits.get("HEAD") != null)) {
+                return this;
+            }
+
+            final List<String> added = new ArrayList<>(names);
+
+            for (String name : method.equals("GET") ? Arrays.asList(method, "HEAD") : Collections.singletonList(method)) {
+                if (bits.get(name) == null) {
+                    added.add(name);
+                }
+            }
+
+            if (added.size() > Long.SIZE) {
+                throw new IllegalArgumentException("Too many methods to add " + method + ", at most " +
+                        (Long.SIZE - 1) + " are allowed");
+            }
+
+            return new Methods(added);
+        }
+
+        /**
+         * @param method a method of these, or null for any method
+         * @return the bits of the methods a route added for the method applies to
+         */
+        private long bits(String method) {
+            if (method == null) {
+                return ExpressRouter.ALL_METHODS;
+            }
+
+            return bits.get(method) | (method.equals("GET") ? bits.get("HEAD") : 0);
+        }
+
+        /**
+         * @return the bit of a request's method, which for a method no route was added for is that of the routes for
+         * any method alone
+         */
+        private long bit(String method) {
+            final Long bit = method == null ? null : bits.get(method, 0, method.length());
+
+            return bit != null ? bit : OTHER;
+        }
+
+        private Set<String> names(long methods) {
+            final Set<String> allowed = new TreeSet<>();
+
+            for (int i = 1; i < names.size(); i++) {
+                if ((methods & 1L << i) != 0) {
+                    allowed.add(names.get(i));
+                }
+            }
+
+            return Collections.unmodifiableSet(allowed);
+        }
+    }
+
+    /**
+     * The hosts which have routes, each with the slot of its router in an index, and the tables a request's host is
+     * looked up in. Hosts are only ever added, so the slots of those already here stay put.
+     */
+    private static class Hosts {
+        private final List<String> keys;
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final ExpressRouteLiteralTable<Integer> exactHosts = new ExpressRouteLiteralTable<>();
+        private final ExpressRouteLiteralTable<Integer> wildcardHosts = new ExpressRouteLiteralTable<>();
+        private final int anyHost;
+
+        /**
+         * @param keys the host of each slot, or null for any host
+         */
+        private Hosts(List<String> keys) {
+            this.keys = keys;
+
+            for (int i = 0; i < keys.size(); i++) {
+                final String key = keys.get(i);
+
+                slots.put(key, i);
+
+                if (key == null) {
+                    continue;
+                }
+
+                if (key.startsWith("*.")) {
+                    wildcardHosts.put(key.substring(2), i);
+                }
+                else {
+                    exactHosts.put(key, i);
+                }
+            }
+
+            this.anyHost = slots.getOrDefault(null, -1);
+        }
+
+        private Hosts with(String host) {
+            final List<String> added = new ArrayList<>(keys);
+
+            added.add(host);
+
+            return new Hosts(added);
+        }
+    }
+
+    /**
+     * The router of each host, the methods and how paths are normalized, as of one change.
+     */
+    private static class Index<T> {
+        private final Hosts hosts;
+        private final ExpressRouter<T>[] routers;
+        private final Methods methods;
+        private final Set<ExpressRoutePathRule> pathRules;
+
+        /**
+         * @param routers the router of the host in each of the hosts' slots
+         */
+        private Index(Hosts hosts, ExpressRouter<T>[] routers, Methods methods, Set<ExpressRoutePathRule> pathRules) {
+            this.hosts = hosts;
+            this.routers = routers;
+            this.methods = methods;
+            this.pathRules = pathRules;
+        }
+
+        /**
+         * @return the router of the host, or null if it has none
+         */
+        private ExpressRouter<T> router(String host) {
+            final Integer slot = hosts.slots.get(host);
+
+            return slot == null ? null : routers[slot];
+        }
+
+        /**
+         * @param changed the new router of each host a change touched
+         * @return a copy of the index with the routers and methods, which shares the tables of the hosts unless the
+         * change gave a host its first route
+         */
+        private Index<T> with(Map<String, ExpressRouter<T>> changed, Methods methods) {
+            Hosts added = hosts;
+
+            for (String host : changed.keySet()) {
+                if (!added.slots.containsKey(host)) {
+                    added = added.with(host);
+                }
+            }
+
+            final ExpressRouter<T>[] replaced = Arrays.copyOf(routers, added.keys.size());
+
+            for (Map.Entry<String, ExpressRouter<T>> host : changed.entrySet()) {
+                replaced[added.slots.get(host.getKey())] = host.getValue();
+            }
+
+            return new Index<>(added, replaced, methods, pathRules);
+        }
+
+        /**
+         * Steps through the groups a host may use in the order they are tried: its exact host at position -1, the
+         * wildcard for the suffix after each dot at the dot's position, and any host at hostEnd.
+         *
+         * @return the router of the group at the position, or null if there is none
+         */
+        private ExpressRouter<T> group(CharSequence hostName, int hostEnd, int position) {
+            final Integer slot;
+
+            if (position == hostEnd) {
+                return hosts.anyHost < 0 ? null : routers[hosts.anyHost];
+            }
+
+            if (position < 0) {
+                slot = hostName == null ? null : hosts.exactHosts.get(hostName, 0, hostEnd);
+            }
+            else {
+                slot = hostName.charAt(position) == '.' ? hosts.wildcardHosts.get(hostName, position + 1, hostEnd) : null;
+            }
+
+            return slot == null ? null : routers[slot];
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.markmcguill.express.routing;
+
+/**
+ * The outcome of an {@link ExpressRequestRouter} lookup, in the terms of the HTTP response it calls for.
+ */
+public enum ExpressRequestStatus {
+    /**
+     * A route matched the host, path and method.
+     */
+    FOUND,
+    /**
+     * A route for the host matched the path but not the method: 405 Method Not Allowed.
+     */
+    METHOD_NOT_ALLOWED,
+    /**
+     * No route for the host matched the path: 404 Not Found.
+     */
+    NOT_FOUND
+}
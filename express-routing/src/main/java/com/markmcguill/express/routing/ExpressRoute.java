@@ -0,0 +1,552 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by mark on 13/06/2017.
+ */
+public class ExpressRoute {
+    private static final Pattern PATH_REGEXP = Pattern.compile(String.join("|", (CharSequence[]) new String[]{
+        "(\\\\.)",
+        "([\\/.])?(?:(?:\\:(\\w+)(?:<(\\w+)>)?(?:\\(((?:\\\\.|[^\\\\()])+)\\))?|\\(((?:\\\\.|[^\\\\()])+)\\))([+*?])?|(\\*))"
+    }));
+
+    private static final String ESCAPE_STRING_CHARACTERS = ".+*?=^!:${}()[]|/\\";
+    private static final String ESCAPE_GROUP_CHARACTERS = "=!:$/()";
+
+    /**
+     * The flags which start the pattern of a route which is not {@link ExpressRouteOptions#isSensitive() sensitive},
+     * so the pattern's source alone says how it matches, wherever it is compiled or stored.
+     */
+    static final String CASE_INSENSITIVE = "(?iu)";
+
+    private static final ThreadLocal<ExpressRouteMatch> threadMatch = ThreadLocal.withInitial(ExpressRouteMatch::new);
+
+    private final ExpressRouteTokenList tokens;
+    private final ExpressRouteTokenList keys;
+    private final String regex;
+    private final String pathDefinition;
+    private final ExpressRouteOptions options;
+    private final ExpressRouteCompiler compiler;
+    private final ExpressRouteShape shape;
+    private volatile Pattern pattern;
+    private volatile ExpressRoutePatternInfo patternInfo;
+    private volatile ExpressRouteTemplate template;
+    private volatile ExpressRouteFingerprint fingerprint;
+
+    public ExpressRoute(String pathDefinition) {
+        this(pathDefinition, ExpressRouteOptions.DEFAULT, null, false);
+    }
+
+    public ExpressRoute(String pathDefinition, ExpressRouteOptions options) {
+        this(pathDefinition, options, null, false);
+    }
+
+    ExpressRoute(String pathDefinition, ExpressRouteCompiler compiler, boolean lazy) {
+        this(pathDefinition, ExpressRouteOptions.DEFAULT, compiler, lazy);
+    }
+
+    /**
+     * @param compiler receives the time spent parsing the definition and compiling its pattern, if not null, and shares
+     *                 the route's parts and shape through its {@link ExpressRouteInterner} if it has one
+     * @param lazy     if true the pattern, or the shape's, is only compiled when the route is first matched
+     */
+    ExpressRoute(String pathDefinition, ExpressRouteOptions options, ExpressRouteCompiler compiler, boolean lazy) {
+        if (options == null) {
+            throw new IllegalArgumentException("options must not be null");
+        }
+
+        final long start = compiler == null ? 0 : System.nanoTime();
+
+        final ExpressRouteInterner interner = compiler == null ? null : compiler.getInterner();
+        final List<ExpressRouteToken> tokens = parsePathDefinition(pathDefinition);
+
+        this.pathDefinition = pathDefinition;
+        this.options = options;
+        this.compiler = compiler;
+
+        // An interned route keeps no pattern source of its own, which is rebuilt from the tokens when it is needed.
+        if (interner != null) {
+            this.tokens = interner.tokens(tokens);
+            this.keys = interner.keys(this.tokens);
+            this.regex = null;
+            this.shape = interner.shape(ExpressRouteShape.of(this.tokens, options));
+        }
+        else {
+            this.tokens = ExpressRouteTokenList.of(tokens);
+            this.keys = this.tokens.keys();
+            this.regex = tokensToRegex(tokens, options);
+            this.shape = null;
+        }
+
+        if (compiler != null) {
+            compiler.recordParse(System.nanoTime() - start);
+        }
+
+        if (!lazy && shape != null) {
+            shape.getPattern(compiler);
+        }
+        else if (!lazy) {
+            getPattern();
+        }
+    }
+
+    /**
+     * Rebuilds a route from the parts {@link ExpressRouteSnapshot} stored, without parsing the definition again. The
+     * pattern is compiled when the route is first matched.
+     */
+    ExpressRoute(String pathDefinition, ExpressRouteOptions options, List<ExpressRouteToken> tokens, String regex,
+                 ExpressRoutePatternInfo patternInfo) {
+        this.pathDefinition = pathDefinition;
+        this.options = options;
+        this.compiler = null;
+        this.shape = null;
+        this.tokens = ExpressRouteTokenList.of(tokens);
+        this.keys = this.tokens.keys();
+        this.regex = regex;
+        this.patternInfo = patternInfo;
+    }
+
+    public ExpressRouteOptions getOptions() {
+        return options;
+    }
+
+    public List<ExpressRouteToken> getTokens() {
+        return tokens;
+    }
+
+    public List<ExpressRouteToken> getKeys() {
+        return keys;
+    }
+
+    public Pattern getPattern() {
+        Pattern result = pattern;
+
+        if (result == null) {
+            result = compilePattern();
+        }
+
+        return result;
+    }
+
+    private synchronized Pattern compilePattern() {
+        if (pattern == null) {
+            final long start = compiler == null ? 0 : System.nanoTime();
+
+            pattern = Pattern.compile(getRegex());
+
+            if (compiler != null) {
+                compiler.recordCompile(System.nanoTime() - start);
+            }
+        }
+
+        return pattern;
+    }
+
+    /**
+     * @return the source of the route's pattern, which unlike {@link #getPattern()} never compiles it
+     */
+    String getRegex() {
+        return regex != null ? regex : tokensToRegex(tokens, options);
+    }
+
+    /**
+     * @return the shape the route shares with routes which differ from it only in their literals, or null if it was
+     *         not compiled through an {@link ExpressRouteInterner} or its parameters' patterns rule one out
+     */
+    ExpressRouteShape getShape() {
+        return shape;
+    }
+
+    /**
+     * Checks the route's pattern for what could make matching it slow on a hostile path: anything the linear time
+     * {@link ExpressRouteEngineType#AUTOMATON} engine cannot run, which is left to backtracking, and any ambiguous
+     * nested quantifier, on which backtracking can take exponential time. Patterns come from the definition's custom
+     * groups, so a definition without them never has a hazard.
+     *
+     * @return a description of the hazard, or null if there is none
+     */
+    public String findPatternHazard() {
+        final String regex = getRegex();
+        final ExpressRouteRegex parsed;
+
+        try {
+            // Case makes no pattern more or less ambiguous.
+            parsed = ExpressRouteRegex.parse(regex.startsWith(CASE_INSENSITIVE) ? regex.substring(CASE_INSENSITIVE.length()) :
+                    regex);
+        }
+        catch (ExpressRouteRegex.UnsupportedPatternException e) {
+            return "The pattern of " + pathDefinition + " needs a backtracking matcher: " + e.getMessage();
+        }
+
+        final String ambiguity = parsed.findAmbiguity();
+
+        return ambiguity == null ? null : "The pattern of " + pathDefinition + " has " + ambiguity;
+    }
+
+    /**
+     * @return true if the pattern it matches with, its own or its shape's, has been compiled, which a route compiled
+     *         lazily defers until it is first matched
+     */
+    boolean isPatternCompiled() {
+        return pattern != null || shape != null && shape.isPatternCompiled();
+    }
+
+    public ExpressRoutePatternInfo getPatternInfo() {
+        ExpressRoutePatternInfo info = patternInfo;
+
+        if (info == null) {
+            info = new ExpressRoutePatternInfo(this);
+            patternInfo = info;
+        }
+
+        return info;
+    }
+
+    /**
+     * @return the template which builds paths this route matches from parameter values, built on first use
+     */
+    public ExpressRouteTemplate getTemplate() {
+        ExpressRouteTemplate result = template;
+
+        if (result == null) {
+            result = new ExpressRouteTemplate(this);
+            template = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the lengths and literals every path this route matches must have, worked out on first use
+     */
+    ExpressRouteFingerprint getFingerprint() {
+        ExpressRouteFingerprint result = fingerprint;
+
+        if (result == null) {
+            result = ExpressRouteFingerprint.of(tokens, options);
+            fingerprint = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the path built from the parameter values, which this route matches
+     * @throws IllegalArgumentException if a required parameter has no value or a value does not match its pattern
+     */
+    public String toPath(Map<String, ?> parameters) {
+        return getTemplate().toPath(parameters);
+    }
+
+    private static String tokensToRegex(List<ExpressRouteToken> tokens, ExpressRouteOptions options) {
+        final StringBuilder route = new StringBuilder(options.isSensitive() ? "^" : CASE_INSENSITIVE + "^");
+
+        for (ExpressRouteToken token : tokens) {
+            if (token.getType() == ExpressRouteTokenType.PATH_FRAGMENT) {
+                escapeString(token.getName(), route);
+            }
+            else {
+                appendParameter(token, route);
+            }
+        }
+
+        return finishRegex(route, options);
+    }
+
+    /**
+     * Appends the pattern of a parameter token, with its prefix, its capture and, if it repeats, a second capture.
+     */
+    static void appendParameter(ExpressRouteToken token, StringBuilder route) {
+        final String prefix = escapeString(token.getPrefix() == null ? "" : token.getPrefix());
+        final String capture = "(" + token.getPattern() + ")";
+        final String repeat = token.isRepeat() ? "(?:" + prefix + capture + ")*" : "";
+
+        if (token.isOptional()) {
+            if (!token.isPartial()) {
+                route.append("(?:").append(prefix).append(capture).append(repeat).append(")?");
+            }
+            else {
+                route.append(prefix).append('(').append(capture).append(repeat).append(")?");
+            }
+        }
+        else {
+            route.append(prefix).append("(?:").append(capture).append(repeat).append(')');
+        }
+    }
+
+    /**
+     * Ends the pattern of the tokens in the route as the options say, with the trailing slash and the end or lookahead.
+     *
+     * @return the pattern
+     */
+    static String finishRegex(StringBuilder route, ExpressRouteOptions options) {
+        final boolean strict = options.isStrict();
+        final boolean end = options.isEnd();
+        final String delimiter = escapeString("/");
+        final boolean endsWithDelimiter = endsWith(route, delimiter);
+
+        // In non-strict mode we allow a slash at the end of match. If the path to
+        // match already ends with a slash, we remove it for consistency. The slash
+        // is valid at the end of a path match, not in the middle. This is important
+        // in non-ending mode, where "/test/" shouldn't match "/test//route".
+
+        if (!strict) {
+            if (endsWithDelimiter) {
+                route.setLength(route.length() - delimiter.length());
+            }
+
+            route.append("(?:").append(delimiter).append("(?=$))?");
+        }
+
+        if (end) {
+            route.append('$');
+        }
+        else {
+            // In non-ending mode, we need the capturing groups to match as much as
+            // possible by using a positive lookahead to the end or next path segment.
+            route.append(strict && endsWithDelimiter ? "" : "(?=" + delimiter + "|$)");
+        }
+
+        return route.toString();
+    }
+
+    private static boolean endsWith(StringBuilder builder, String suffix) {
+        final int offset = builder.length() - suffix.length();
+
+        return offset >= 0 && builder.indexOf(suffix, offset) == offset;
+    }
+
+    private static List<ExpressRouteToken> parsePathDefinition(String pathDefinition) {
+        List<ExpressRouteToken> tokens = new ArrayList<>();
+        int key = 0;
+        int index = 0;
+        final StringBuilder path = new StringBuilder();
+        final String defaultDelimiter = "/";
+
+        final Matcher matcher = PATH_REGEXP.matcher(pathDefinition);
+
+        while (matcher.find()) {
+            String m = matcher.group(0);
+            String escaped = matcher.group(1);
+            int offset = matcher.start();
+
+            path.append(pathDefinition, index, offset);
+            index = offset + m.length();
+
+            // Ignore already escaped sequences.
+
+            if (!isEmpty(escaped)) {
+                path.append(escaped.charAt(1));
+                continue;
+            }
+
+            String next = (index >= pathDefinition.length()) ? null : pathDefinition.substring(index, index + 1);
+            String prefix = matcher.group(2);
+            String name = matcher.group(3);
+            String typeName = matcher.group(4);
+            String capture = matcher.group(5);
+            String group = matcher.group(6);
+            String modifier = matcher.group(7);
+            String asterisk = matcher.group(8);
+
+            // Push the current path onto the tokens.
+
+            if (path.length() > 0) {
+                tokens.add(new ExpressRouteToken(path.toString()));
+                path.setLength(0);
+            }
+
+            // TODO: Can Prefix be null? or empty?
+            boolean partial = !isEmpty(prefix) && !isEmpty(next) && !Objects.equals(next, prefix);
+            boolean repeat = (Objects.equals(modifier, "+")) || (Objects.equals(modifier, "*"));
+            boolean optional = Objects.equals(modifier, "?") || Objects.equals(modifier, "*");
+            String delimiter = isEmpty(prefix) ? defaultDelimiter : prefix;
+            String pattern = isEmpty(capture) ? group : capture;
+
+            String keyName = isEmpty(name) ? ((Integer) (key++)).toString() : name;
+
+            // A type, as in ":bidId<long>", stands in for a pattern, so the parameter may not have both.
+            ExpressRouteValueType valueType = null;
+
+            if (!isEmpty(typeName)) {
+                valueType = ExpressRouteValueType.forName(typeName);
+
+                if (valueType == null) {
+                    throw new IllegalArgumentException("Unknown parameter type <" + typeName + "> in " + pathDefinition);
+                }
+
+                if (!isEmpty(capture)) {
+                    throw new IllegalArgumentException("Parameter " + name + " has both a type and a pattern in " + pathDefinition);
+                }
+            }
+
+            String tokenPattern = valueType != null ? valueType.getPattern() :
+                    isEmpty(pattern) ?
+                    (!isEmpty(asterisk) ? ".*" : defaultTokenPattern(delimiter)) :
+                    escapeGroup(pattern);
+
+            tokens.add(new ExpressRouteToken(keyName, prefix, delimiter, optional, repeat, partial, asterisk, tokenPattern, valueType));
+        }
+
+        // Match any characters still remaining.
+
+        if (index < pathDefinition.length()) {
+            path.append(pathDefinition, index, pathDefinition.length());
+        }
+
+        // If the path exists, push it onto the end.
+
+        if (path.length() > 0) {
+            tokens.add(new ExpressRouteToken(path.toString()));
+        }
+
+        return tokens;
+    }
+
+    static String defaultTokenPattern(String delimiter) {
+        return "[^" + escapeString(delimiter) + "]+?";
+    }
+
+    private static boolean isEmpty(String test) {
+        return test == null || test.length() == 0;
+    }
+
+    private static String escapeString(String str) {
+        return escape(str, ESCAPE_STRING_CHARACTERS, new StringBuilder(str.length() + 4)).toString();
+    }
+
+    private static void escapeString(String str, StringBuilder out) {
+        escape(str, ESCAPE_STRING_CHARACTERS, out);
+    }
+
+    private static String escapeGroup(String group) {
+        return escape(group, ESCAPE_GROUP_CHARACTERS, new StringBuilder(group.length() + 4)).toString();
+    }
+
+    /**
+     * Appends the string to out with a backslash before every one of the special characters.
+     */
+    private static StringBuilder escape(String str, String specials, StringBuilder out) {
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+
+            if (specials.indexOf(c) >= 0) {
+                out.append('\\');
+            }
+
+            out.append(c);
+        }
+
+        return out;
+    }
+
+    public Matcher getMatcher(String path) {
+        return getPattern().matcher(path);
+    }
+
+    public boolean matches(String path) {
+        return !getFingerprint().rejects(path) && getPattern().matcher(path).find();
+    }
+
+    /**
+     * Matches the path in a single pass, recording the parameters as offsets in the given match rather than copying
+     * them out, and reusing the match's matcher if it last matched this route.
+     *
+     * @return true if the path matched, in which case the match holds this route and its parameters
+     */
+    public boolean match(CharSequence path, ExpressRouteMatch match) {
+        match.reset(path, keys.size());
+
+        if (getFingerprint().rejects(path, match.parsed(path)) || !find(path, match)) {
+            match.clear();
+            return false;
+        }
+
+        match.complete(this);
+
+        return true;
+    }
+
+    /**
+     * Runs the route's pattern over the path and copies the parameters' offsets into the match, as engines which try
+     * routes one at a time do, without checking the fingerprint or completing the match. A route with a shape runs the
+     * shared pattern of the shape, and its own only if the shape matched other literals.
+     *
+     * @return true if the path matched, in which case the match's offsets hold the parameters
+     */
+    boolean find(CharSequence path, ExpressRouteMatch match) {
+        if (shape != null) {
+            final Matcher matcher = match.matcher(shape.getPattern(compiler), path);
+
+            if (!matcher.find()) {
+                return false;
+            }
+
+            if (shape.matchesLiterals(matcher, path, tokens, options.isSensitive())) {
+                shape.copyGroups(matcher, keys.size(), match.offsets());
+                return true;
+            }
+        }
+
+        final Matcher matcher = match.matcher(getPattern(), path);
+
+        if (!matcher.find()) {
+            return false;
+        }
+
+        ExpressRouteRegexEngine.copyGroups(matcher, keys.size(), match.offsets());
+
+        return true;
+    }
+
+    /**
+     * Matches the path into a match object owned by the calling thread, which is overwritten by the next call to this
+     * method on the same thread, for any route.
+     *
+     * @return the match, or null if the path did not match
+     */
+    public ExpressRouteMatch match(CharSequence path) {
+        final ExpressRouteMatch match = threadMatch.get();
+
+        return match(path, match) ? match : null;
+    }
+
+    public Map<String, String> getParametersFromPath(String path) {
+        Map<String, String> ret = new HashMap<>();
+
+        if (getFingerprint().rejects(path)) {
+            return ret;
+        }
+
+        final Matcher matcher = getPattern().matcher(path);
+
+        if (matcher.find()) {
+            for (int i = 1; i < matcher.groupCount() + 1; i++) {
+                ret.put(keys.get(i - 1).getName(), matcher.group(i));
+            }
+        }
+
+        return ret;
+    }
+
+    public String getPathDefinition() {
+        return pathDefinition;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRoute{" +
+                "keys=" + keys +
+                ", pattern=" + getRegex() +
+                ", pathDefinition='" + pathDefinition + '\'' +
+                ", options=" + options +
+                '}';
+    }
+}
@@ -0,0 +1,37 @@
+package com.markmcguill.express.routing;
+
+/**
+ * Decides whether the result of a lookup is worth a place in an {@link ExpressRouter}'s lookup cache.
+ * <p>
+ * A cache which admits everything is flushed by paths that are each seen once, such as one per offer slug. A policy
+ * lets those through uncached while the few paths which make up most of the traffic stay resident. It is consulted
+ * only on a cache miss which matched, and may be called from many threads at once.
+ */
+public interface ExpressRouteAdmissionPolicy {
+    ExpressRouteAdmissionPolicy ALWAYS = (path, match) -> true;
+
+    /**
+     * Admits only matches of routes without parameters, whose paths are few by construction.
+     */
+    ExpressRouteAdmissionPolicy STATIC_ROUTES = (path, match) -> match.getParameterCount() == 0;
+
+    /**
+     * @param match the route and parameters the path matched
+     * @return true if the path and its match should be cached
+     */
+    boolean admit(CharSequence path, ExpressRouteMatch match);
+
+    /**
+     * Admits a path once it has missed the cache minimumCount times. Counts are kept approximately, in a fixed size
+     * sketch which periodically halves them, so paths which were popular once do not stay popular forever.
+     */
+    static ExpressRouteAdmissionPolicy frequency(int minimumCount) {
+        if (minimumCount <= 0) {
+            throw new IllegalArgumentException("minimumCount must be positive");
+        }
+
+        final ExpressRouteFrequencySketch sketch = new ExpressRouteFrequencySketch(4096);
+
+        return (path, match) -> sketch.increment(path) >= minimumCount;
+    }
+}
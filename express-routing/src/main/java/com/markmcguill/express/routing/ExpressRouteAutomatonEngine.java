@@ -0,0 +1,410 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiles the pattern of every route in a table into one {@link ExpressRouteProgram}, with the routes as alternatives
+ * in rank order, so a single left to right scan of the path decides which route matches.
+ * <p>
+ * The scan runs on a DFA built lazily from the program: each state is the ordered set of instructions still alive,
+ * and once a state has seen a character its transition is cached, so after warm up the cost of deciding the route is
+ * one table lookup per character whatever the size of the table. Only the winning route is then run on the Pike VM to
+ * recover its groups. Paths containing line terminators, where '$' has more than one meaning, skip the DFA and run the
+ * whole program on the Pike VM.
+ * <p>
+ * Routes whose pattern falls outside what {@link ExpressRouteRegex} understands are matched with their own pattern,
+ * and only when they outrank the automaton's match.
+ */
+class ExpressRouteAutomatonEngine implements ExpressRouteEngine {
+    private static final int MAX_STATES = 10000;
+    private static final int MAX_CACHED_NON_ASCII_TRANSITIONS = 256;
+    private static final int RUN_VM = -2;
+
+    private final ExpressRouteProgram program = new ExpressRouteProgram();
+    private final ExpressRoute[] routes;
+    private final int[] entries;
+    private final int[][] routeEntries;
+    private final ExpressRoute[] fallbacks;
+    private final int[] fallbackIndexes;
+    private final Map<StateKey, State> states = new ConcurrentHashMap<>();
+    private final State initial;
+
+    ExpressRouteAutomatonEngine(List<ExpressRoute> routes) {
+        this.routes = routes.toArray(new ExpressRoute[routes.size()]);
+        this.routeEntries = new int[routes.size()][];
+
+        final List<Integer> entryList = new ArrayList<>();
+        final List<Integer> fallbackList = new ArrayList<>();
+
+        for (int i = 0; i < routes.size(); i++) {
+            final ExpressRoute route = routes.get(i);
+
+            try {
+                final ExpressRouteRegex regex = ExpressRouteRegex.parse(route.getRegex());
+
+                program.reserveGroups(regex.getGroupCount());
+
+                final int entry = regex.compile(program, i);
+
+                entryList.add(entry);
+                routeEntries[i] = new int[]{entry};
+            }
+            catch (ExpressRouteRegex.UnsupportedPatternException e) {
+                fallbackList.add(i);
+            }
+        }
+
+        this.entries = toArray(entryList);
+        this.fallbackIndexes = toArray(fallbackList);
+        this.fallbacks = new ExpressRoute[fallbackIndexes.length];
+
+        for (int i = 0; i < fallbackIndexes.length; i++) {
+            fallbacks[i] = this.routes[fallbackIndexes[i]];
+        }
+
+        final IntList pcs = new IntList();
+        final BitSet seen = new BitSet();
+
+        for (int entry : entries) {
+            closure(entry, true, pcs, seen);
+        }
+
+        this.initial = new State(pcs.toArray(), true);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        final int[] array = new int[list.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+
+        return array;
+    }
+
+    int getFallbackCount() {
+        return fallbacks.length;
+    }
+
+    @Override
+    public int find(CharSequence path, ExpressRouteMatch match) {
+        final int[] captures = match.scratch(program.getSlotCount());
+        final int[] offsets = match.offsets();
+        int best = entries.length == 0 ? NO_MATCH : scan(path);
+
+        if (best == RUN_VM) {
+            best = program.run(path, entries, captures);
+        }
+        else if (best != NO_MATCH) {
+            program.run(path, routeEntries[best], captures);
+        }
+
+        for (int i = 0; i < fallbacks.length && (best == NO_MATCH || fallbackIndexes[i] < best); i++) {
+            if (fallbacks[i].find(path, match)) {
+                return fallbackIndexes[i];
+            }
+        }
+
+        if (best != NO_MATCH) {
+            final int keyCount = routes[best].getKeys().size();
+            final int groups = Math.min(keyCount, program.getSlotCount() / 2 - 1);
+
+            for (int i = 0; i < groups; i++) {
+                offsets[i * 2] = captures[(i + 1) * 2];
+                offsets[i * 2 + 1] = captures[(i + 1) * 2 + 1];
+            }
+
+            for (int i = groups; i < keyCount; i++) {
+                offsets[i * 2] = -1;
+                offsets[i * 2 + 1] = -1;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return the route the DFA accepts, {@link #NO_MATCH}, or {@link #RUN_VM} if the path needs the Pike VM
+     */
+    private int scan(CharSequence path) {
+        final int length = path.length();
+        State state = initial;
+        int best = NO_MATCH;
+
+        for (int position = 0; position < length; ) {
+            final int codePoint = Character.codePointAt(path, position);
+
+            if (ExpressRouteRegex.LINE_TERMINATORS.contains(codePoint)) {
+                return RUN_VM;
+            }
+
+            final Transition transition = state.next(codePoint);
+
+            if (transition.match != NO_MATCH) {
+                best = transition.match;
+            }
+
+            state = transition.state;
+
+            if (state.pcs.length == 0) {
+                return best;
+            }
+
+            position += Character.charCount(codePoint);
+        }
+
+        final int accepted = state.acceptAtEnd();
+
+        return accepted != NO_MATCH ? accepted : best;
+    }
+
+    /**
+     * Adds the instructions reachable from pc without consuming a character, in priority order. Assertions other than
+     * '^' depend on what follows, so they are kept in the set and resolved when the next character, or the end, is
+     * known.
+     */
+    private void closure(int start, boolean begin, IntList out, BitSet seen) {
+        final IntList stack = new IntList();
+        stack.add(start);
+
+        while (stack.size > 0) {
+            final int pc = stack.values[--stack.size];
+
+            if (seen.get(pc)) {
+                continue;
+            }
+
+            seen.set(pc);
+
+            switch (program.op(pc)) {
+                case ExpressRouteProgram.JMP:
+                    stack.add(program.a(pc));
+                    break;
+                case ExpressRouteProgram.SPLIT:
+                    stack.add(program.b(pc));
+                    stack.add(program.a(pc));
+                    break;
+                case ExpressRouteProgram.SAVE:
+                    stack.add(pc + 1);
+                    break;
+                case ExpressRouteProgram.BEGIN:
+                    if (begin) {
+                        stack.add(pc + 1);
+                    }
+                    break;
+                default:
+                    out.add(pc);
+            }
+        }
+    }
+
+    private Transition computeTransition(State from, int codePoint) {
+        final IntList pcs = new IntList();
+        final BitSet seen = new BitSet();
+        int match = NO_MATCH;
+
+        for (int pc : from.pcs) {
+            match = step(pc, codePoint, from.initial, pcs, seen, new BitSet());
+
+            // Everything after a match has lower priority, so it is cut.
+            if (match != NO_MATCH) {
+                break;
+            }
+        }
+
+        return new Transition(state(pcs.toArray()), match);
+    }
+
+    /**
+     * Advances one instruction over the code point. Lookaheads which hold are expanded in place, as the instructions
+     * after them run at the same position; visited guards against lookaheads reachable from themselves.
+     */
+    private int step(int pc, int codePoint, boolean begin, IntList out, BitSet seen, BitSet visited) {
+        switch (program.op(pc)) {
+            case ExpressRouteProgram.MATCH:
+                return program.a(pc);
+            case ExpressRouteProgram.CHAR:
+            case ExpressRouteProgram.SET:
+                if (program.consumes(pc, codePoint)) {
+                    closure(pc + 1, false, out, seen);
+                }
+                return NO_MATCH;
+            case ExpressRouteProgram.LOOK:
+                if (!visited.get(pc) && program.lookaheadConsumes(pc, codePoint)) {
+                    visited.set(pc);
+
+                    final IntList now = new IntList();
+                    closure(pc + 1, begin, now, new BitSet());
+
+                    for (int i = 0; i < now.size; i++) {
+                        final int match = step(now.values[i], codePoint, begin, out, seen, visited);
+
+                        if (match != NO_MATCH) {
+                            return match;
+                        }
+                    }
+                }
+                return NO_MATCH;
+            default:
+                // '$' cannot hold with a character still to come, as paths with line terminators never get here.
+                return NO_MATCH;
+        }
+    }
+
+    private int accept(int pc, boolean begin, BitSet visited) {
+        switch (program.op(pc)) {
+            case ExpressRouteProgram.MATCH:
+                return program.a(pc);
+            case ExpressRouteProgram.END:
+            case ExpressRouteProgram.LOOK:
+                if (!visited.get(pc) && (program.op(pc) == ExpressRouteProgram.END || program.b(pc) != 0)) {
+                    visited.set(pc);
+
+                    final IntList now = new IntList();
+                    closure(pc + 1, begin, now, new BitSet());
+
+                    for (int i = 0; i < now.size; i++) {
+                        final int match = accept(now.values[i], begin, visited);
+
+                        if (match != NO_MATCH) {
+                            return match;
+                        }
+                    }
+                }
+                return NO_MATCH;
+            default:
+                return NO_MATCH;
+        }
+    }
+
+    private State state(int[] pcs) {
+        final StateKey key = new StateKey(pcs);
+        State state = states.get(key);
+
+        if (state == null) {
+            state = new State(pcs, false);
+
+            if (states.size() < MAX_STATES) {
+                final State existing = states.putIfAbsent(key, state);
+
+                if (existing != null) {
+                    state = existing;
+                }
+            }
+        }
+
+        return state;
+    }
+
+    private class State {
+        private static final int UNKNOWN = -3;
+
+        private final int[] pcs;
+        private final boolean initial;
+        private final Transition[] ascii = new Transition[128];
+        private final Map<Integer, Transition> others = new ConcurrentHashMap<>();
+        private int accept = UNKNOWN;
+
+        private State(int[] pcs, boolean initial) {
+            this.pcs = pcs;
+            this.initial = initial;
+        }
+
+        private Transition next(int codePoint) {
+            if (codePoint < ascii.length) {
+                Transition transition = ascii[codePoint];
+
+                if (transition == null) {
+                    transition = computeTransition(this, codePoint);
+                    ascii[codePoint] = transition;
+                }
+
+                return transition;
+            }
+
+            Transition transition = others.get(codePoint);
+
+            if (transition == null) {
+                transition = computeTransition(this, codePoint);
+
+                if (others.size() < MAX_CACHED_NON_ASCII_TRANSITIONS) {
+                    others.put(codePoint, transition);
+                }
+            }
+
+            return transition;
+        }
+
+        private int acceptAtEnd() {
+            int result = accept;
+
+            if (result == UNKNOWN) {
+                result = NO_MATCH;
+
+                for (int pc : pcs) {
+                    result = accept(pc, initial, new BitSet());
+
+                    if (result != NO_MATCH) {
+                        break;
+                    }
+                }
+
+                accept = result;
+            }
+
+            return result;
+        }
+    }
+
+    private static class Transition {
+        private final State state;
+        private final int match;
+
+        private Transition(State state, int match) {
+            this.state = state;
+            this.match = match;
+        }
+    }
+
+    private static class StateKey {
+        private final int[] pcs;
+        private final int hash;
+
+        private StateKey(int[] pcs) {
+            this.pcs = pcs;
+            this.hash = Arrays.hashCode(pcs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(pcs, ((StateKey) o).pcs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+
+            values[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.markmcguill.express.routing;
+
+/**
+ * Thrown by a lookup which read more characters of the path than the router's step budget allows, so a server can
+ * answer the request with an error instead of spending unbounded time on it.
+ */
+public class ExpressRouteBudgetExceededException extends RuntimeException {
+    private final int budget;
+
+    ExpressRouteBudgetExceededException(int budget) {
+        super("Route lookup exceeded its budget of " + budget + " steps");
+        this.budget = budget;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+}
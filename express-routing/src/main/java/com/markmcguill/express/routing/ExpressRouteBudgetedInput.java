@@ -0,0 +1,57 @@
+package com.markmcguill.express.routing;
+
+/**
+ * A reusable view of a path which counts the characters read through it and throws once there have been more than
+ * the budget allows.
+ * <p>
+ * Every engine, and {@link java.util.regex.Pattern} when an engine runs a route's pattern, reads the path only through
+ * {@link #charAt}, so the count is a step count which bounds the time a lookup takes whatever the engine does. A
+ * linear engine reads each character about once per lookup; a backtracking one reads it again for every route it
+ * tries and every way it tries to split the path.
+ */
+final class ExpressRouteBudgetedInput implements CharSequence {
+    private CharSequence path = "";
+    private int budget;
+    private int remaining;
+
+    /**
+     * @return this view, of the path, with the whole budget to spend
+     */
+    ExpressRouteBudgetedInput reset(CharSequence path, int budget) {
+        this.path = path;
+        this.budget = budget;
+        this.remaining = budget;
+
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return path.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--remaining < 0) {
+            throw new ExpressRouteBudgetExceededException(budget);
+        }
+
+        return path.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        remaining -= end - start;
+
+        if (remaining < 0) {
+            throw new ExpressRouteBudgetExceededException(budget);
+        }
+
+        return path.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
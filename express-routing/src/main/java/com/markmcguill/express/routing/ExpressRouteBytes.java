@@ -0,0 +1,118 @@
+package com.markmcguill.express.routing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable {@link CharSequence} view of bytes, one char per byte, so a request target received as bytes can be
+ * matched without decoding it into a String.
+ * <p>
+ * A request target is ASCII, with anything else percent encoded, so for every target a server should accept the
+ * view reads exactly the characters the decoded String would hold. Any other byte reads as the ISO-8859-1 character
+ * of the same value, and so never matches a route whose literals are outside ASCII. Neither the bytes nor a
+ * buffer's position or limit are copied or changed; the view reads whatever the bytes hold at the time, so they
+ * must not change while it, or a match of it, is in use.
+ */
+public class ExpressRouteBytes implements CharSequence {
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+    private int offset;
+
+    public ExpressRouteBytes() {
+        this.array = new byte[0];
+    }
+
+    /**
+     * Views length bytes of the array from offset.
+     *
+     * @return this view
+     */
+    public ExpressRouteBytes wrap(byte[] array, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new IndexOutOfBoundsException("[" + offset + ", " + (offset + length) + ") of " + array.length);
+        }
+
+        this.array = array;
+        this.buffer = null;
+        this.start = offset;
+        this.length = length;
+        this.offset = offset;
+
+        return this;
+    }
+
+    /**
+     * Views the buffer's remaining bytes, from its position to its limit. A buffer backed by an array is read
+     * through the array.
+     *
+     * @return this view
+     */
+    public ExpressRouteBytes wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            this.array = buffer.array();
+            this.buffer = null;
+            this.start = buffer.arrayOffset() + buffer.position();
+        }
+        else {
+            this.array = null;
+            this.buffer = buffer;
+            this.start = buffer.position();
+        }
+
+        this.length = buffer.remaining();
+        this.offset = buffer.position();
+
+        return this;
+    }
+
+    /**
+     * @return where the view starts in what it wraps: the offset into the array, or the position of the buffer.
+     * Adding it to an offset into the view gives the same byte's index in the array or buffer.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + length);
+        }
+
+        return (char) ((array != null ? array[start + index] : buffer.get(start + index)) & 0xFF);
+    }
+
+    /**
+     * @return a copy of the range, as a String
+     */
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to < from || to > length) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + ") of " + length);
+        }
+
+        if (array != null) {
+            return new String(array, start + from, to - from, StandardCharsets.ISO_8859_1);
+        }
+
+        final char[] chars = new char[to - from];
+
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buffer.get(start + from + i) & 0xFF);
+        }
+
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
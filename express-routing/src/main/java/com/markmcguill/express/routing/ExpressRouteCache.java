@@ -0,0 +1,91 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A bounded, thread safe cache of compiled routes keyed by their definition, so that a definition registered many
+ * times is parsed and compiled once, and every registration shares the same {@link ExpressRoute} and
+ * {@link java.util.regex.Pattern}.
+ * <p>
+ * Routes are immutable once constructed, so sharing them between routers and threads is safe. Once the cache holds
+ * maximumSize routes the least recently used is evicted; routers which registered it keep their own reference.
+ */
+public class ExpressRouteCache {
+    private final ExpressRouteLruCache<ExpressRoute> routes;
+    private final ExpressRouteCompiler compiler;
+
+    public ExpressRouteCache(int maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * @param interner if not null, every route the cache compiles shares its parts through it, and the time spent is
+     *                 counted by the cache's own compiler rather than the router's
+     */
+    public ExpressRouteCache(int maximumSize, ExpressRouteInterner interner) {
+        this.routes = new ExpressRouteLruCache<>(maximumSize);
+        this.compiler = interner == null ? null : new ExpressRouteCompiler(interner);
+    }
+
+    /**
+     * @return the cached route for the definition, compiling and caching it on a miss
+     */
+    public ExpressRoute get(String pathDefinition) {
+        if (pathDefinition == null) {
+            throw new IllegalArgumentException("pathDefinition must not be null");
+        }
+
+        return routes.computeIfAbsent(pathDefinition, compiler == null ? ExpressRoute::new : compiler::compile);
+    }
+
+    /**
+     * @return the cached route for each definition, in the same order, with the misses compiled as the mode says
+     */
+    List<ExpressRoute> getAll(List<String> pathDefinitions, ExpressRouteCompiler compiler, ExpressRouteCompileMode mode) {
+        final List<ExpressRoute> result = new ArrayList<>(pathDefinitions.size());
+        final List<String> missing = new ArrayList<>();
+
+        for (String pathDefinition : pathDefinitions) {
+            final ExpressRoute route = routes.get(pathDefinition);
+
+            result.add(route);
+
+            if (route == null) {
+                missing.add(pathDefinition);
+            }
+        }
+
+        final Iterator<ExpressRoute> compiled = (this.compiler != null ? this.compiler : compiler).compileAll(missing, mode).iterator();
+
+        for (int i = 0; i < result.size(); i++) {
+            if (result.get(i) == null) {
+                final ExpressRoute route = compiled.next();
+                result.set(i, routes.putIfAbsent(route.getPathDefinition(), route));
+            }
+        }
+
+        return result;
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    public void clear() {
+        routes.clear();
+    }
+
+    public ExpressRouteCacheStats getStats() {
+        return routes.getStats();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteCache{" +
+                "stats=" + getStats() +
+                (compiler == null ? "" : ", interner=" + compiler.getInterner()) +
+                '}';
+    }
+}
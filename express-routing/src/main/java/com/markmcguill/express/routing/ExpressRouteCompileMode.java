@@ -0,0 +1,21 @@
+package com.markmcguill.express.routing;
+
+/**
+ * How {@link ExpressRouteCompiler#compileAll} turns a list of definitions into routes.
+ */
+public enum ExpressRouteCompileMode {
+    /**
+     * Parses and compiles every route on the calling thread.
+     */
+    EAGER,
+    /**
+     * Parses and compiles the routes in parallel on the compiler's fork join pool.
+     */
+    PARALLEL,
+    /**
+     * Parses every route but compiles each pattern only when the route is first matched, so routes which are never
+     * requested never pay for {@link java.util.regex.Pattern#compile}. Engines which do not need the pattern itself,
+     * such as {@link ExpressRouteEngineType#TRIE}, may never compile it at all.
+     */
+    LAZY
+}
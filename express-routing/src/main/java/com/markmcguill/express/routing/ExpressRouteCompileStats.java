@@ -0,0 +1,70 @@
+package com.markmcguill.express.routing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time snapshot of an {@link ExpressRouteCompiler}'s counters. Times are summed across threads, so after a
+ * parallel compile they may exceed the time that passed.
+ */
+public class ExpressRouteCompileStats {
+    private final long routeCount;
+    private final long parseNanos;
+    private final long patternCount;
+    private final long compileNanos;
+    private final long bulkNanos;
+
+    public ExpressRouteCompileStats(long routeCount, long parseNanos, long patternCount, long compileNanos, long bulkNanos) {
+        this.routeCount = routeCount;
+        this.parseNanos = parseNanos;
+        this.patternCount = patternCount;
+        this.compileNanos = compileNanos;
+        this.bulkNanos = bulkNanos;
+    }
+
+    /**
+     * @return the number of definitions parsed
+     */
+    public long getRouteCount() {
+        return routeCount;
+    }
+
+    public long getParseTime(TimeUnit unit) {
+        return unit.convert(parseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of patterns compiled, which trails the route count while lazily compiled routes go unmatched
+     */
+    public long getPatternCount() {
+        return patternCount;
+    }
+
+    public long getCompileTime(TimeUnit unit) {
+        return unit.convert(compileNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of routes whose pattern has yet to be compiled
+     */
+    public long getDeferredCount() {
+        return routeCount - patternCount;
+    }
+
+    /**
+     * @return the time which passed during calls to {@link ExpressRouteCompiler#compileAll}
+     */
+    public long getBulkTime(TimeUnit unit) {
+        return unit.convert(bulkNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteCompileStats{" +
+                "routeCount=" + routeCount +
+                ", parseNanos=" + parseNanos +
+                ", patternCount=" + patternCount +
+                ", compileNanos=" + compileNanos +
+                ", bulkNanos=" + bulkNanos +
+                '}';
+    }
+}
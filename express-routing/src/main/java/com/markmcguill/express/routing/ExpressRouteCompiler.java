@@ -0,0 +1,132 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Turns definitions into routes, one at a time or in bulk, and keeps count of the time spent doing so.
+ * <p>
+ * Routes compiled {@link ExpressRouteCompileMode#LAZY lazily} report the time spent compiling their pattern to the
+ * compiler that made them when they are first matched, so the stats show both what startup cost and what was put off.
+ */
+public class ExpressRouteCompiler {
+    private final ForkJoinPool pool;
+    private final ExpressRouteInterner interner;
+    private final LongAdder routeCount = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder patternCount = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+    private final LongAdder bulkNanos = new LongAdder();
+
+    public ExpressRouteCompiler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool runs {@link ExpressRouteCompileMode#PARALLEL} compiles
+     */
+    public ExpressRouteCompiler(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * @param interner shares the parts of every route compiled, for compact tables
+     */
+    public ExpressRouteCompiler(ExpressRouteInterner interner) {
+        this(ForkJoinPool.commonPool(), interner);
+    }
+
+    /**
+     * @param pool     runs {@link ExpressRouteCompileMode#PARALLEL} compiles
+     * @param interner if not null, shares the parts of every route compiled, for compact tables
+     */
+    public ExpressRouteCompiler(ForkJoinPool pool, ExpressRouteInterner interner) {
+        if (pool == null) {
+            throw new IllegalArgumentException("pool must not be null");
+        }
+
+        this.pool = pool;
+        this.interner = interner;
+    }
+
+    /**
+     * @return the interner the compiler shares route parts through, or null if it has none
+     */
+    public ExpressRouteInterner getInterner() {
+        return interner;
+    }
+
+    public ExpressRoute compile(String pathDefinition) {
+        return compile(pathDefinition, false);
+    }
+
+    public ExpressRoute compile(String pathDefinition, boolean lazy) {
+        if (pathDefinition == null) {
+            throw new IllegalArgumentException("pathDefinition must not be null");
+        }
+
+        return new ExpressRoute(pathDefinition, this, lazy);
+    }
+
+    public ExpressRoute compile(String pathDefinition, ExpressRouteOptions options) {
+        if (pathDefinition == null) {
+            throw new IllegalArgumentException("pathDefinition must not be null");
+        }
+
+        return new ExpressRoute(pathDefinition, options, this, false);
+    }
+
+    /**
+     * @return a route for each definition, in the same order
+     */
+    public List<ExpressRoute> compileAll(List<String> pathDefinitions, ExpressRouteCompileMode mode) {
+        final long start = System.nanoTime();
+
+        try {
+            switch (mode) {
+                case PARALLEL:
+                    return pool.submit(() -> pathDefinitions.parallelStream()
+                                                            .map(this::compile)
+                                                            .collect(Collectors.toList())).join();
+                case LAZY:
+                default:
+                    final List<ExpressRoute> routes = new ArrayList<>(pathDefinitions.size());
+
+                    for (String pathDefinition : pathDefinitions) {
+                        routes.add(compile(pathDefinition, mode == ExpressRouteCompileMode.LAZY));
+                    }
+
+                    return routes;
+            }
+        }
+        finally {
+            bulkNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public ExpressRouteCompileStats getStats() {
+        return new ExpressRouteCompileStats(routeCount.sum(), parseNanos.sum(), patternCount.sum(), compileNanos.sum(),
+                bulkNanos.sum());
+    }
+
+    void recordParse(long nanos) {
+        routeCount.increment();
+        parseNanos.add(nanos);
+    }
+
+    void recordCompile(long nanos) {
+        patternCount.increment();
+        compileNanos.add(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteCompiler{" +
+                "stats=" + getStats() +
+                ", interner=" + interner +
+                '}';
+    }
+}
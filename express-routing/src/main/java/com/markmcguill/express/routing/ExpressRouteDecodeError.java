@@ -0,0 +1,58 @@
+package com.markmcguill.express.routing;
+
+/**
+ * Why a parameter could not be percent decoded, reported by {@link ExpressRouteMatch#getDecodeError(int)} rather
+ * than thrown, so a server can answer a malformed path with a client error before any handler reads it.
+ */
+public class ExpressRouteDecodeError {
+    public enum Reason {
+        /**
+         * A '%' without two characters after it.
+         */
+        TRUNCATED_ESCAPE,
+
+        /**
+         * A '%' followed by something other than two hexadecimal digits.
+         */
+        INVALID_ESCAPE,
+
+        /**
+         * Escaped bytes which are not well formed UTF-8.
+         */
+        INVALID_UTF8
+    }
+
+    private final String parameterName;
+    private final int offset;
+    private final Reason reason;
+
+    ExpressRouteDecodeError(String parameterName, int offset, Reason reason) {
+        this.parameterName = parameterName;
+        this.offset = offset;
+        this.reason = reason;
+    }
+
+    public String getParameterName() {
+        return parameterName;
+    }
+
+    /**
+     * @return the offset into the matched input at which the malformed escape or byte sequence starts
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteDecodeError{" +
+                "parameterName='" + parameterName + '\'' +
+                ", offset=" + offset +
+                ", reason=" + reason +
+                '}';
+    }
+}
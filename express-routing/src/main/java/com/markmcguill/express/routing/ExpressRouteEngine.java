@@ -0,0 +1,22 @@
+package com.markmcguill.express.routing;
+
+/**
+ * Finds the most specific of a fixed, ranked list of routes that matches a path.
+ * <p>
+ * Engines are compiled from a list of routes that is already in rank order (see {@link ExpressRouteEngineType}), and
+ * report a match as the index of the route in that list. Implementations must be safe for concurrent use.
+ */
+public interface ExpressRouteEngine {
+    int NO_MATCH = -1;
+
+    /**
+     * Finds the lowest indexed route which matches the path.
+     *
+     * @param path  the path to match
+     * @param match has been {@link ExpressRouteMatch#reset reset} with room for the keys of every route, and receives
+     *              a start and end offset into the path for every key of the matched route, in key order, or -1 for
+     *              both when an optional key is absent. Its matcher and scratch space are free for the engine to use.
+     * @return the index of the matched route, or {@link #NO_MATCH}
+     */
+    int find(CharSequence path, ExpressRouteMatch match);
+}
@@ -0,0 +1,14 @@
+package com.markmcguill.express.routing;
+
+import java.util.List;
+
+/**
+ * Compiles a ranked list of routes into an {@link ExpressRouteEngine}. The built in engines are the constants of
+ * {@link ExpressRouteEngineType}; matchers generated at build time from {@link ExpressRoutes} provide their own.
+ */
+public interface ExpressRouteEngineFactory {
+    /**
+     * @param routes the routes to match, most specific first
+     */
+    ExpressRouteEngine compile(List<ExpressRoute> routes);
+}
@@ -0,0 +1,42 @@
+package com.markmcguill.express.routing;
+
+import java.util.List;
+
+/**
+ * The matching engines an {@link ExpressRouter} can be built with. All engines return the same route and parameters
+ * for a path; they differ only in how the work scales with the size of the table.
+ */
+public enum ExpressRouteEngineType implements ExpressRouteEngineFactory {
+    /**
+     * Runs each route's own pattern in rank order until one matches.
+     */
+    REGEX {
+        @Override
+        public ExpressRouteEngine compile(List<ExpressRoute> routes) {
+            return new ExpressRouteRegexEngine(routes);
+        }
+    },
+
+    /**
+     * Merges the routes into a tree of path segments so the cost of a lookup follows the depth of the path rather
+     * than the number of routes. Routes the tree cannot express are matched with their own pattern.
+     */
+    TRIE {
+        @Override
+        public ExpressRouteEngine compile(List<ExpressRoute> routes) {
+            return new ExpressRouteTrieEngine(routes);
+        }
+    },
+
+    /**
+     * Compiles every route into one automaton and decides the route in a single scan of the path, with the cost of
+     * each character independent of the number of routes once warm. Routes the automaton cannot express are matched
+     * with their own pattern.
+     */
+    AUTOMATON {
+        @Override
+        public ExpressRouteEngine compile(List<ExpressRoute> routes) {
+            return new ExpressRouteAutomatonEngine(routes);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What every path a route matches must look like, worked out from the route's tokens: its length, the literal it
+ * starts with, the literals it contains in order, and how many slashes it has. Checking these rules out most paths
+ * which cannot match in a few comparisons, before the route's pattern runs.
+ * <p>
+ * Every fact errs on the side of matching. A trailing slash and a final line terminator, which the pattern's
+ * {@code $} accepts, are allowed for, and a custom pattern the analysis cannot follow is taken to match anything. A
+ * route which need not match the whole path has no upper bounds. A route which matches without regard to case compares
+ * its literals folded, if they are ASCII, and otherwise does not check them.
+ */
+final class ExpressRouteFingerprint {
+    private static final int UNBOUNDED = ExpressRouteRegex.UNBOUNDED;
+
+    /**
+     * The most a path may have after what the route's tokens match, besides the optional trailing slash: a final
+     * "\r\n".
+     */
+    private static final int TERMINATOR_LENGTH = 2;
+
+    private final String prefix;
+    private final String[] literals;
+    private final boolean folded;
+    private final int minLength;
+    private final int maxLength;
+    private final int maxSlashes;
+
+    private ExpressRouteFingerprint(String prefix, String[] literals, boolean folded, int minLength, int maxLength,
+                                    int maxSlashes) {
+        this.prefix = prefix;
+        this.literals = literals;
+        this.folded = folded;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.maxSlashes = maxSlashes;
+    }
+
+    static ExpressRouteFingerprint of(List<ExpressRouteToken> tokens, ExpressRouteOptions options) {
+        final List<String> literals = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        String prefix = null;
+        int minLength = 0;
+        int maxLength = 0;
+        int maxSlashes = 0;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            final ExpressRouteToken token = tokens.get(i);
+
+            if (token.getType() == ExpressRouteTokenType.PATH_FRAGMENT) {
+                String fragment = token.getName();
+
+                // Unless strict, the pattern makes a definition's trailing slash optional.
+                if (!options.isStrict() && i == tokens.size() - 1 && fragment.endsWith("/")) {
+                    fragment = fragment.substring(0, fragment.length() - 1);
+                }
+
+                literal.append(fragment);
+                minLength += fragment.length();
+                maxLength = addLengths(maxLength, fragment.length());
+                maxSlashes = addLengths(maxSlashes, count(fragment, '/'));
+                continue;
+            }
+
+            final String tokenPrefix = token.getPrefix() == null ? "" : token.getPrefix();
+            final ExpressRouteRegex pattern = parse(token.getPattern());
+
+            // A partial parameter's prefix is outside its optional group, so it is as required as a fragment.
+            if (!token.isOptional() || token.isPartial()) {
+                literal.append(tokenPrefix);
+                minLength += tokenPrefix.length();
+            }
+
+            if (prefix == null) {
+                prefix = literal.toString();
+            }
+
+            addLiteral(literal, literals);
+
+            if (!token.isOptional() && pattern != null) {
+                minLength += pattern.minLength();
+            }
+
+            final int tokenLength = pattern == null ? UNBOUNDED : addLengths(tokenPrefix.length(), pattern.maxLength());
+            final int tokenSlashes = pattern == null || pattern.canConsume('/') ? UNBOUNDED : count(tokenPrefix, '/');
+
+            if (token.isRepeat()) {
+                maxLength = tokenLength == 0 ? maxLength : UNBOUNDED;
+                maxSlashes = tokenSlashes == 0 ? maxSlashes : UNBOUNDED;
+            }
+            else {
+                maxLength = addLengths(maxLength, tokenLength);
+                maxSlashes = addLengths(maxSlashes, tokenSlashes);
+            }
+        }
+
+        if (prefix == null) {
+            prefix = literal.toString();
+        }
+
+        addLiteral(literal, literals);
+
+        if (!options.isEnd()) {
+            maxLength = UNBOUNDED;
+            maxSlashes = UNBOUNDED;
+        }
+        else if (!options.isStrict()) {
+            maxLength = addLengths(maxLength, 1);
+            maxSlashes = addLengths(maxSlashes, 1);
+        }
+
+        if (!options.isSensitive()) {
+            if (isAscii(prefix) && literals.stream().allMatch(ExpressRouteFingerprint::isAscii)) {
+                prefix = ExpressRouteLiteralTable.fold(prefix);
+                literals.replaceAll(ExpressRouteLiteralTable::fold);
+            }
+            else {
+                prefix = "";
+                literals.clear();
+            }
+        }
+
+        return new ExpressRouteFingerprint(prefix, literals.toArray(new String[literals.size()]),
+                !options.isSensitive(), minLength, addLengths(maxLength, TERMINATOR_LENGTH), maxSlashes);
+    }
+
+    /**
+     * @return true if the route cannot match the path, false if it may
+     */
+    boolean rejects(CharSequence path) {
+        return rejects(path, null);
+    }
+
+    /**
+     * @param parsed the parsed form of the path, whose slashes are already counted, or null
+     * @return true if the route cannot match the path, false if it may
+     */
+    boolean rejects(CharSequence path, ExpressRoutePath parsed) {
+        final int length = path.length();
+
+        if (length < minLength || length > maxLength) {
+            return true;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (charAt(path, i) != prefix.charAt(i)) {
+                return true;
+            }
+        }
+
+        // The leading literal is already checked, and the others must follow it in order.
+        int from = prefix.length();
+
+        for (int i = prefix.isEmpty() ? 0 : 1; i < literals.length; i++) {
+            final int at = indexOf(path, literals[i], from);
+
+            if (at < 0) {
+                return true;
+            }
+
+            from = at + literals[i].length();
+        }
+
+        if (maxSlashes == UNBOUNDED) {
+            return false;
+        }
+
+        return (parsed != null ? parsed.slashCount() : count(path, '/')) > maxSlashes;
+    }
+
+    int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * @return the longest path the route can match, or {@link ExpressRouteRegex#UNBOUNDED}
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the literals every match contains, in order
+     */
+    String[] getLiterals() {
+        return literals.clone();
+    }
+
+    /**
+     * @return the most slashes a path the route matches can have, one more than the most segments, or
+     * {@link ExpressRouteRegex#UNBOUNDED}
+     */
+    int getMaxSlashes() {
+        return maxSlashes;
+    }
+
+    /**
+     * @return the custom pattern, or null if it is beyond the analysis
+     */
+    private static ExpressRouteRegex parse(String pattern) {
+        try {
+            return ExpressRouteRegex.parse(pattern);
+        }
+        catch (ExpressRouteRegex.UnsupportedPatternException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds the run of literal text since the last parameter to the required literals, and starts a new run.
+     */
+    private static void addLiteral(StringBuilder literal, List<String> literals) {
+        if (literal.length() > 0) {
+            literals.add(literal.toString());
+            literal.setLength(0);
+        }
+    }
+
+    private static int addLengths(int a, int b) {
+        return a == UNBOUNDED || b == UNBOUNDED ? UNBOUNDED : (int) Math.min(UNBOUNDED, (long) a + b);
+    }
+
+    private static int count(CharSequence text, char c) {
+        int count = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the character, folded if the literals are
+     */
+    private char charAt(CharSequence text, int index) {
+        return folded ? ExpressRouteLiteralTable.fold(text.charAt(index)) : text.charAt(index);
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int indexOf(CharSequence text, String literal, int from) {
+        final char first = literal.charAt(0);
+        final int last = text.length() - literal.length();
+
+        for (int i = from; i <= last; i++) {
+            if (charAt(text, i) != first) {
+                continue;
+            }
+
+            int j = 1;
+
+            while (j < literal.length() && charAt(text, i + j) == literal.charAt(j)) {
+                j++;
+            }
+
+            if (j == literal.length()) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteFingerprint{" +
+                "prefix='" + prefix + '\'' +
+                ", literals=" + Arrays.toString(literals) +
+                ", minLength=" + minLength +
+                ", maxLength=" + (maxLength == UNBOUNDED ? "unbounded" : maxLength) +
+                ", maxSlashes=" + (maxSlashes == UNBOUNDED ? "unbounded" : maxSlashes) +
+                '}';
+    }
+}
@@ -0,0 +1,65 @@
+package com.markmcguill.express.routing;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count-min sketch estimating how often each path has been seen, in constant space whatever the number of paths.
+ * <p>
+ * Each path increments one counter in each of four rows, and its estimate is the smallest of them, so collisions can
+ * only ever overstate a count. Once the sketch has seen ten times its width in increments every counter is halved,
+ * which ages out paths whose popularity has passed.
+ */
+class ExpressRouteFrequencySketch {
+    private static final int ROWS = 4;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+    private final long resetInterval;
+    private final AtomicLong additions = new AtomicLong();
+
+    ExpressRouteFrequencySketch(int width) {
+        final int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+
+        this.counters = new AtomicIntegerArray(size * ROWS);
+        this.mask = size - 1;
+        this.resetInterval = size * 10L;
+    }
+
+    /**
+     * @return the estimated count of the path, including this occurrence
+     */
+    int increment(CharSequence path) {
+        final int hash = ExpressRouteLiteralTable.hash(path, 0, path.length());
+        int estimate = Integer.MAX_VALUE;
+
+        for (int row = 0; row < ROWS; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(index(hash, row)));
+        }
+
+        if (additions.incrementAndGet() % resetInterval == 0) {
+            halve();
+        }
+
+        return estimate;
+    }
+
+    private int index(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+
+        return row * (mask + 1) + (h & mask);
+    }
+
+    private void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            int value;
+
+            do {
+                value = counters.get(i);
+            }
+            while (!counters.compareAndSet(i, value, value >>> 1));
+        }
+    }
+}
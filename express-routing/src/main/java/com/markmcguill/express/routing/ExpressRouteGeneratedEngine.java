@@ -0,0 +1,249 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * The base of the matchers {@link ExpressRouteProcessor} generates from {@link ExpressRoutes}.
+ * <p>
+ * A generated matcher holds its routes in rank order and checks each with straight line code over the path's
+ * characters, built from the helpers here. The helpers read the path one segment at a time, exactly as
+ * {@link ExpressRouteTrieEngine} does, so a generated matcher returns the same route and parameters as the runtime
+ * engines. Routes the generator cannot express, and paths containing line terminators, are matched with the routes'
+ * own patterns.
+ */
+public abstract class ExpressRouteGeneratedEngine implements ExpressRouteEngine {
+    private final List<ExpressRoute> routes;
+    private final ExpressRouteRegexEngine regexEngine;
+
+    /**
+     * @param definitions the route definitions, most specific first
+     */
+    protected ExpressRouteGeneratedEngine(List<String> definitions) {
+        final List<ExpressRoute> routes = new ArrayList<>(definitions.size());
+
+        for (String definition : definitions) {
+            routes.add(new ExpressRoute(definition, null, true));
+        }
+
+        this.routes = Collections.unmodifiableList(routes);
+        this.regexEngine = new ExpressRouteRegexEngine(routes);
+    }
+
+    /**
+     * @return the routes in rank order, which is the order of the indexes {@link #find} returns, so they can also be
+     * handed to a runtime engine
+     */
+    public List<ExpressRoute> getRoutes() {
+        return routes;
+    }
+
+    @Override
+    public final int find(CharSequence path, ExpressRouteMatch match) {
+        final int length = path.length();
+        int slashes = 0;
+
+        final ExpressRoutePath parsed = match.parsed(path);
+
+        // A parsed path has already counted its slashes and looked for line terminators.
+        if (parsed != null) {
+            if (parsed.hasLineTerminator()) {
+                return regexEngine.find(path, match);
+            }
+
+            slashes = parsed.slashCount();
+        }
+        else {
+            for (int i = 0; i < length; i++) {
+                final char c = path.charAt(i);
+
+                if (c == '/') {
+                    slashes++;
+                }
+                else if (c < ' ' || c == '\u0085' || (c | 1) == 0x2029) {
+                    if (ExpressRouteRegex.LINE_TERMINATORS.contains(c)) {
+                        return regexEngine.find(path, match);
+                    }
+                }
+            }
+        }
+
+        // The route patterns allow a single trailing slash, so segments are read from the path without it.
+        if (length > 0 && path.charAt(length - 1) == '/') {
+            return find(path, length - 1, slashes - 1, match);
+        }
+
+        return find(path, length, slashes, match);
+    }
+
+    /**
+     * @param end the length of the path without its trailing slash, if it has one
+     * @param segments the number of '/' before end, which is the number of segments a route must consume to match
+     * the path up to end
+     */
+    protected abstract int find(CharSequence path, int end, int segments, ExpressRouteMatch match);
+
+    /**
+     * @param definitions the definitions the supplier's engine matches, most specific first
+     * @return a factory which returns a new engine from the supplier when the routes it is given are the definitions,
+     * in the same order, and otherwise falls back to the fallback, so a router whose table has drifted from the
+     * generated one still matches correctly. The engine, which parses every route, is only built when it is used.
+     */
+    protected static ExpressRouteEngineFactory factory(List<String> definitions,
+                                                       Supplier<? extends ExpressRouteGeneratedEngine> supplier,
+                                                       ExpressRouteEngineFactory fallback) {
+        return routes -> {
+            if (definitions.size() != routes.size()) {
+                return fallback.compile(routes);
+            }
+
+            for (int i = 0; i < routes.size(); i++) {
+                if (!definitions.get(i).equals(routes.get(i).getPathDefinition()) ||
+                        !routes.get(i).getOptions().isDefault()) {
+                    return fallback.compile(routes);
+                }
+            }
+
+            return supplier.get();
+        };
+    }
+
+    /**
+     * @return the end of the first segment, or -1 if the path has no first segment before end
+     */
+    protected static int firstSegmentEnd(CharSequence path, int end) {
+        if (end == 0 || path.charAt(0) != '/') {
+            return -1;
+        }
+
+        int position = 1;
+
+        while (position < end && path.charAt(position) != '/') {
+            position++;
+        }
+
+        return position;
+    }
+
+    /**
+     * @return true if the path holds the text at the offset
+     */
+    protected static boolean regionEquals(CharSequence path, int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (path.charAt(offset + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the end of the segment starting at position if it is exactly the literal, otherwise -1
+     */
+    protected static int literal(CharSequence path, int position, int end, String literal) {
+        final int start = position + 1;
+        final int segmentEnd = start + literal.length();
+
+        if (position < 0 || segmentEnd > end || path.charAt(position) != '/' ||
+                (segmentEnd < end && path.charAt(segmentEnd) != '/') || !regionEquals(path, start, literal)) {
+            return -1;
+        }
+
+        return segmentEnd;
+    }
+
+    /**
+     * Captures the non empty segment starting at position as the parameter with the given key.
+     *
+     * @return the end of the segment, or -1 if there is no such segment
+     */
+    protected static int parameter(CharSequence path, int position, int end, ExpressRouteMatch match, int key) {
+        if (position < 0 || position >= end || path.charAt(position) != '/') {
+            return -1;
+        }
+
+        final int start = position + 1;
+        int segmentEnd = start;
+
+        while (segmentEnd < end && path.charAt(segmentEnd) != '/') {
+            segmentEnd++;
+        }
+
+        if (segmentEnd == start) {
+            return -1;
+        }
+
+        final int[] offsets = match.offsets();
+        offsets[key * 2] = start;
+        offsets[key * 2 + 1] = segmentEnd;
+
+        return segmentEnd;
+    }
+
+    /**
+     * Captures the segment starting at position as the parameter with the given key, if the whole segment matches
+     * the parameter's pattern.
+     *
+     * @return the end of the segment, or -1 if there is no such segment
+     */
+    protected static int parameter(CharSequence path, int position, int end, ExpressRouteMatch match, int key, Pattern pattern) {
+        final int segmentEnd = parameter(path, position, end, match, key);
+
+        if (segmentEnd < 0 || !match.matcher(pattern, path).region(position + 1, segmentEnd).matches()) {
+            return -1;
+        }
+
+        return segmentEnd;
+    }
+
+    /**
+     * Captures the segment starting at position as the parameter with the given key, if the segment is a value of
+     * the parameter's type.
+     *
+     * @return the end of the segment, or -1 if there is no such segment
+     */
+    protected static int parameter(CharSequence path, int position, int end, ExpressRouteMatch match, int key,
+                                   ExpressRouteValueType valueType) {
+        final int segmentEnd = parameter(path, position, end, match, key);
+
+        if (segmentEnd < 0 || !valueType.accepts(path, position + 1, segmentEnd)) {
+            return -1;
+        }
+
+        return segmentEnd;
+    }
+
+    /**
+     * Captures everything after the '/' at position, trailing slash included, as the parameter with the given key.
+     *
+     * @return true if there is a '/' at position
+     */
+    protected static boolean rest(CharSequence path, int position, ExpressRouteMatch match, int key) {
+        if (position < 0 || position >= path.length() || path.charAt(position) != '/') {
+            return false;
+        }
+
+        final int[] offsets = match.offsets();
+        offsets[key * 2] = position + 1;
+        offsets[key * 2 + 1] = path.length();
+
+        return true;
+    }
+
+    protected static void absent(ExpressRouteMatch match, int key) {
+        final int[] offsets = match.offsets();
+        offsets[key * 2] = -1;
+        offsets[key * 2 + 1] = -1;
+    }
+
+    /**
+     * Matches the route at the index with its pattern, or its shape's, for routes the generator could not express.
+     */
+    protected final boolean fallback(int index, CharSequence path, ExpressRouteMatch match) {
+        return routes.get(index).find(path, match);
+    }
+}
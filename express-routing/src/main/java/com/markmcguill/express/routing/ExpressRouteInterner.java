@@ -0,0 +1,134 @@
+package com.markmcguill.express.routing;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * Shares the parts of routes between the routes compiled through it, for tables of very many routes which mostly
+ * repeat one another, such as the same route set for every tenant.
+ * <p>
+ * The strings of tokens are stored once, tokens with the same fields are one shared token, and routes with the same
+ * tokens share one list of them and of their keys. Routes which differ only in their literals share one
+ * {@link ExpressRouteShape}, a pattern with a group in place of each literal, which is compiled once for all of them;
+ * each route checks its own literals against the groups. Definitions and pattern sources, which seldom repeat, are not
+ * shared. Engines such as {@link ExpressRouteEngineType#TRIE} index literals without patterns, so routes compiled
+ * {@link ExpressRouteCompileMode#LAZY lazily} may never need theirs.
+ * <p>
+ * An interner is thread safe and holds its parts weakly, so a part is dropped once no route uses it and a table which
+ * churns does not leave its old routes' parts behind. Use it through
+ * {@link ExpressRouteCompiler#ExpressRouteCompiler(ExpressRouteInterner)} or
+ * {@link ExpressRouteCache#ExpressRouteCache(int, ExpressRouteInterner)}.
+ */
+public class ExpressRouteInterner {
+    private final Pool<String> strings = new Pool<>();
+    private final Pool<ExpressRouteToken> tokens = new Pool<>();
+    private final Pool<ExpressRouteTokenList> tokenLists = new Pool<>();
+    private final Pool<ExpressRouteTokenList> keyLists = new Pool<>();
+    private final Pool<ExpressRouteShape> shapes = new Pool<>();
+
+    /**
+     * @return the number of distinct strings held
+     */
+    public int getStringCount() {
+        return strings.size();
+    }
+
+    /**
+     * @return the number of distinct tokens held
+     */
+    public int getTokenCount() {
+        return tokens.size();
+    }
+
+    /**
+     * @return the number of distinct token lists held, one for each set of routes with the same tokens
+     */
+    public int getTokenListCount() {
+        return tokenLists.size();
+    }
+
+    /**
+     * @return the number of shapes held, one for each set of routes which differ only in their literals
+     */
+    public int getShapeCount() {
+        return shapes.size();
+    }
+
+    String string(String string) {
+        return string == null ? null : strings.intern(string);
+    }
+
+    /**
+     * @return the shared list of the tokens, each of which is shared
+     */
+    ExpressRouteTokenList tokens(List<ExpressRouteToken> parsed) {
+        final ExpressRouteToken[] shared = new ExpressRouteToken[parsed.size()];
+
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = token(parsed.get(i));
+        }
+
+        return tokenLists.intern(new ExpressRouteTokenList(shared));
+    }
+
+    /**
+     * @return the shared list of the keys among tokens which {@link #tokens} returned
+     */
+    ExpressRouteTokenList keys(ExpressRouteTokenList tokens) {
+        return keyLists.intern(tokens.keys());
+    }
+
+    /**
+     * @return the shared shape equal to the one given, which is null if the route has none
+     */
+    ExpressRouteShape shape(ExpressRouteShape shape) {
+        return shape == null ? null : shapes.intern(shape);
+    }
+
+    private ExpressRouteToken token(ExpressRouteToken token) {
+        final ExpressRouteToken shared = token.getType() == ExpressRouteTokenType.PATH_FRAGMENT ?
+                new ExpressRouteToken(string(token.getName())) :
+                new ExpressRouteToken(string(token.getName()), string(token.getPrefix()), string(token.getDelimiter()),
+                        token.isOptional(), token.isRepeat(), token.isPartial(), string(token.getAsterisk()),
+                        string(token.getPattern()), token.getValueType());
+        return tokens.intern(shared);
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteInterner{" +
+                "strings=" + getStringCount() +
+                ", tokens=" + getTokenCount() +
+                ", tokenLists=" + getTokenListCount() +
+                ", shapes=" + getShapeCount() +
+                '}';
+    }
+
+    /**
+     * The distinct values in use, each held only as long as something else refers to it.
+     */
+    private static final class Pool<V> {
+        private final WeakHashMap<V, WeakReference<V>> values = new WeakHashMap<>();
+
+        /**
+         * @return the value held which equals the one given, or the one given, which is held from now on
+         */
+        synchronized V intern(V value) {
+            final WeakReference<V> existing = values.get(value);
+            final V held = existing == null ? null : existing.get();
+
+            if (held != null) {
+                return held;
+            }
+
+            values.put(value, new WeakReference<>(value));
+
+            return value;
+        }
+
+        synchronized int size() {
+            return values.size();
+        }
+    }
+}
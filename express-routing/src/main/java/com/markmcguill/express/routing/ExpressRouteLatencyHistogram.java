@@ -0,0 +1,111 @@
+package com.markmcguill.express.routing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets which double in width, so recording one is a leading zero count and an add, with no
+ * locking and no allocation. Bucket b holds the durations of b significant bits, from 2^(b-1) to 2^b - 1
+ * nanoseconds, so a percentile is known to within a factor of two, which is plenty to tell a fast route from a slow one.
+ */
+public class ExpressRouteLatencyHistogram {
+    private static final int BUCKET_COUNT = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public ExpressRouteLatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        final long duration = Math.max(nanos, 0);
+
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(duration)].increment();
+        totalNanos.add(duration);
+    }
+
+    public long getCount() {
+        long count = 0;
+
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+
+        return count;
+    }
+
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return the upper bound of the bucket holding the quantile, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double quantile, TimeUnit unit) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+
+        final long[] counts = getBucketCounts();
+        long count = 0;
+
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+
+            if (seen >= rank) {
+                return unit.convert(upperBound(i), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        return unit.convert(upperBound(counts.length - 1), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the count of each bucket, where bucket b holds durations up to 2^b - 1 nanoseconds
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+
+        return counts;
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+
+        totalNanos.reset();
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteLatencyHistogram{" +
+                "count=" + getCount() +
+                ", p50=" + getPercentile(0.5, TimeUnit.NANOSECONDS) +
+                ", p99=" + getPercentile(0.99, TimeUnit.NANOSECONDS) +
+                '}';
+    }
+}
@@ -0,0 +1,171 @@
+package com.markmcguill.express.routing;
+
+/**
+ * An open addressing map from literal strings to values which can be queried with a range of any
+ * {@link CharSequence}, so looking up a path segment never needs a substring. A table whose keys are all
+ * {@link #fold folded} can also be queried without regard to case, with {@link #getFolded}.
+ */
+class ExpressRouteLiteralTable<V> {
+    private String[] keys = new String[8];
+    private Object[] values = new Object[8];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    V get(String key) {
+        return get(key, 0, key.length());
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(CharSequence text, int start, int end) {
+        final int mask = keys.length - 1;
+
+        for (int slot = spread(hash(text, start, end)) & mask; ; slot = (slot + 1) & mask) {
+            final String key = keys[slot];
+
+            if (key == null) {
+                return null;
+            }
+            else if (equals(key, text, start, end)) {
+                return (V) values[slot];
+            }
+        }
+    }
+
+    /**
+     * Looks up the range as if each of its characters were folded, in a table whose keys are folded.
+     */
+    @SuppressWarnings("unchecked")
+    V getFolded(CharSequence text, int start, int end) {
+        final int mask = keys.length - 1;
+        int hash = 0;
+
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + fold(text.charAt(i));
+        }
+
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            final String key = keys[slot];
+
+            if (key == null) {
+                return null;
+            }
+            else if (foldedEquals(key, text, start, end)) {
+                return (V) values[slot];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(String key, V value) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+
+        final int mask = keys.length - 1;
+
+        for (int slot = spread(key.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == null) {
+                keys[slot] = key;
+                values[slot] = value;
+                size++;
+                return null;
+            }
+            else if (keys[slot].equals(key)) {
+                final V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        final String[] oldKeys = keys;
+        final Object[] oldValues = values;
+
+        keys = new String[capacity];
+        values = new Object[capacity];
+
+        final int mask = capacity - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = spread(oldKeys[i].hashCode()) & mask;
+
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * The same hash as {@link String#hashCode()} over the range.
+     */
+    static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Folds case as {@link java.util.regex.Pattern}'s {@code CASE_INSENSITIVE} and {@code UNICODE_CASE} flags compare
+     * a literal character, so two characters fold alike exactly when such a pattern of one matches the other, for
+     * ASCII literals.
+     */
+    static char fold(char c) {
+        return c < 0x80 ? (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c) :
+                Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    static String fold(String text) {
+        final StringBuilder folded = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            folded.append(fold(text.charAt(i)));
+        }
+
+        return folded.toString();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String key, CharSequence text, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean foldedEquals(String key, CharSequence text, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != fold(text.charAt(start + i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
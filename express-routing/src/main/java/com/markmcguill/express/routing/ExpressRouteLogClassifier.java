@@ -0,0 +1,429 @@
+package com.markmcguill.express.routing;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Classifies the requests of access logs by the route of a router they match, for sizing a table offline against
+ * real traffic.
+ * <p>
+ * A log is memory mapped in chunks of whole lines, which a {@link ForkJoinPool} classifies in parallel. Each request
+ * target is matched where it lies in the mapped file through {@link ExpressRouter#find(ByteBuffer, ExpressRouteMatch)},
+ * so no line is decoded or copied, and each chunk counts into its own tallies, which are merged as the chunks finish.
+ * The router's engine decides the cost of each match; {@link ExpressRouteEngineType#AUTOMATON} or
+ * {@link ExpressRouteEngineType#TRIE} keep it from growing with the number of routes.
+ * <p>
+ * The target of a line is the second word of its first quoted string, as in the Common and Combined Log Formats, or
+ * the whole line if it has no quotes, without any query string. Parameters are counted as they appear in the log,
+ * percent encoded.
+ * <p>
+ * From the command line:
+ * <pre>
+ * java -cp express-routing.jar com.markmcguill.express.routing.ExpressRouteLogClassifier [--engine TRIE] routes.txt access.log...
+ * </pre>
+ * where {@code routes.txt} holds one definition per line, and the report is written to standard output as
+ * {@link ExpressRouteLogReport#write} writes it.
+ */
+public class ExpressRouteLogClassifier {
+    private static final int DEFAULT_CHUNK_SIZE = 32 << 20;
+    private static final int SCAN_WINDOW = 64 << 10;
+
+    private final ExpressRouter<?> router;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ExpressRouteLogClassifier(ExpressRouter<?> router) {
+        this(router, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize the bytes of log each task maps and classifies, rounded up to whole lines
+     */
+    public ExpressRouteLogClassifier(ExpressRouter<?> router, ForkJoinPool pool, int chunkSize) {
+        if (router == null || pool == null) {
+            throw new IllegalArgumentException("router and pool must not be null");
+        }
+
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+
+        this.router = router;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public ExpressRouteLogReport classify(Path log) throws IOException {
+        return classify(Collections.singletonList(log));
+    }
+
+    /**
+     * Classifies the logs, one after another, into a single report.
+     */
+    public ExpressRouteLogReport classify(List<Path> logs) throws IOException {
+        final Tally total = new Tally();
+
+        for (Path log : logs) {
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+                final long[] bounds = chunkBounds(channel);
+
+                if (bounds.length > 1) {
+                    total.merge(pool.invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1)));
+                }
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        return total.toReport();
+    }
+
+    /**
+     * @return the offsets at which chunks start, each at the start of a line, followed by the size of the file
+     */
+    private long[] chunkBounds(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final List<Long> bounds = new ArrayList<>();
+        long start = 0;
+
+        while (start < size) {
+            bounds.add(start);
+            start = start + chunkSize >= size ? size : nextLine(channel, start + chunkSize, size);
+        }
+
+        bounds.add(size);
+
+        final long[] result = new long[bounds.size()];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the offset of the first line starting after the offset, or the size if there is none
+     */
+    private static long nextLine(FileChannel channel, long offset, long size) throws IOException {
+        for (long window = offset; window < size; window += SCAN_WINDOW) {
+            final MappedByteBuffer bytes =
+                    channel.map(FileChannel.MapMode.READ_ONLY, window, Math.min(SCAN_WINDOW, size - window));
+
+            for (int i = 0; i < bytes.limit(); i++) {
+                if (bytes.get(i) == '\n') {
+                    return window + i + 1;
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Classifies the chunks from lo to hi, splitting them in half until one is left.
+     */
+    private class ChunkTask extends RecursiveTask<Tally> {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int lo;
+        private final int hi;
+
+        private ChunkTask(FileChannel channel, long[] bounds, int lo, int hi) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (hi - lo > 1) {
+                final int mid = (lo + hi) >>> 1;
+                final ChunkTask left = new ChunkTask(channel, bounds, lo, mid);
+
+                left.fork();
+
+                final Tally tally = new ChunkTask(channel, bounds, mid, hi).compute();
+                tally.merge(left.join());
+
+                return tally;
+            }
+
+            final MappedByteBuffer bytes;
+
+            try {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, bounds[lo], bounds[hi] - bounds[lo]);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return classifyLines(bytes);
+        }
+    }
+
+    private Tally classifyLines(ByteBuffer bytes) {
+        final Tally tally = new Tally();
+        final ByteBuffer target = bytes.duplicate();
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+        final int limit = bytes.limit();
+        int lineStart = 0;
+
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+
+            while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            final int end = lineEnd > lineStart && bytes.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+
+            if (end > lineStart) {
+                tally.lineCount++;
+                classifyLine(bytes, lineStart, end, target, match, tally);
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        return tally;
+    }
+
+    private void classifyLine(ByteBuffer bytes, int start, int end, ByteBuffer target, ExpressRouteMatch match,
+                              Tally tally) {
+        final int quote = indexOf(bytes, '"', start, end);
+        int targetStart;
+        int targetEnd;
+
+        if (quote >= 0) {
+            // "GET /offers/e1264?page=2 HTTP/1.1": the target follows the method.
+            final int closingQuote = indexOf(bytes, '"', quote + 1, end);
+            final int requestEnd = closingQuote >= 0 ? closingQuote : end;
+            final int space = indexOf(bytes, ' ', quote + 1, requestEnd);
+
+            targetStart = space < 0 ? requestEnd : space + 1;
+            targetEnd = targetStart;
+
+            while (targetEnd < requestEnd && bytes.get(targetEnd) != ' ') {
+                targetEnd++;
+            }
+        }
+        else {
+            targetStart = start;
+            targetEnd = end;
+
+            while (targetStart < targetEnd && bytes.get(targetStart) == ' ') {
+                targetStart++;
+            }
+
+            while (targetEnd > targetStart && bytes.get(targetEnd - 1) == ' ') {
+                targetEnd--;
+            }
+        }
+
+        if (targetStart >= targetEnd) {
+            tally.skippedCount++;
+            return;
+        }
+
+        final int query = indexOf(bytes, '?', targetStart, targetEnd);
+
+        // Called through Buffer, whose methods Java 8 has, rather than ByteBuffer's Java 9 overrides.
+        ((Buffer) target).limit(query >= 0 ? query : targetEnd);
+        ((Buffer) target).position(targetStart);
+
+        router.find(target, match);
+
+        if (match.getRoute() == null) {
+            tally.unmatchedCount++;
+        }
+        else {
+            tally.route(match.getRoute()).add(match);
+        }
+    }
+
+    private static int indexOf(ByteBuffer bytes, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes.get(i) == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * The counts of one chunk, or of several once merged.
+     */
+    private static class Tally {
+        private final Map<ExpressRoute, RouteTally> routes = new IdentityHashMap<>();
+        private long lineCount;
+        private long unmatchedCount;
+        private long skippedCount;
+
+        private RouteTally route(ExpressRoute route) {
+            return routes.computeIfAbsent(route, RouteTally::new);
+        }
+
+        private void merge(Tally other) {
+            lineCount += other.lineCount;
+            unmatchedCount += other.unmatchedCount;
+            skippedCount += other.skippedCount;
+
+            for (RouteTally routeTally : other.routes.values()) {
+                route(routeTally.route).merge(routeTally);
+            }
+        }
+
+        /**
+         * @return the report, with routes which share a definition counted together
+         */
+        private ExpressRouteLogReport toReport() {
+            final Map<String, RouteTally> byDefinition = new LinkedHashMap<>();
+
+            for (RouteTally routeTally : routes.values()) {
+                final RouteTally definition = byDefinition.get(routeTally.route.getPathDefinition());
+
+                if (definition == null) {
+                    byDefinition.put(routeTally.route.getPathDefinition(), routeTally);
+                }
+                else {
+                    definition.merge(routeTally);
+                }
+            }
+
+            final List<RouteTally> ranked = new ArrayList<>(byDefinition.values());
+            ranked.sort((a, b) -> a.count != b.count ?
+                    Long.compare(b.count, a.count) :
+                    a.route.getPathDefinition().compareTo(b.route.getPathDefinition()));
+
+            final Map<String, Long> routeCounts = new LinkedHashMap<>();
+            final Map<String, Map<String, Long>> cardinalities = new LinkedHashMap<>();
+
+            for (RouteTally routeTally : ranked) {
+                final Map<String, Long> parameters = new LinkedHashMap<>();
+
+                for (Map.Entry<String, ExpressRouteCardinalitySketch> parameter : routeTally.parameters.entrySet()) {
+                    parameters.put(parameter.getKey(), parameter.getValue().estimate());
+                }
+
+                routeCounts.put(routeTally.route.getPathDefinition(), routeTally.count);
+                cardinalities.put(routeTally.route.getPathDefinition(), Collections.unmodifiableMap(parameters));
+            }
+
+            return new ExpressRouteLogReport(lineCount, unmatchedCount, skippedCount, routeCounts, cardinalities);
+        }
+    }
+
+    /**
+     * The counts of one route. A match through a mounted router has the prefix's parameters before the route's, so
+     * parameters are counted by the names of the match's own keys, not by the route's.
+     */
+    private static class RouteTally {
+        private final ExpressRoute route;
+        private final Map<String, ExpressRouteCardinalitySketch> parameters = new LinkedHashMap<>();
+        private List<ExpressRouteToken> keys;
+        private ExpressRouteCardinalitySketch[] sketches;
+        private long count;
+
+        private RouteTally(ExpressRoute route) {
+            this.route = route;
+        }
+
+        private void add(ExpressRouteMatch match) {
+            count++;
+
+            // A match's keys are the same list for every match of the route through the same mount.
+            if (match.keys() != keys) {
+                bind(match.keys());
+            }
+
+            for (int i = 0; i < sketches.length; i++) {
+                if (match.isPresent(i)) {
+                    sketches[i].add(match.getInput(), match.start(i), match.end(i));
+                }
+            }
+        }
+
+        /**
+         * Lines up the sketch of each parameter with the keys.
+         */
+        private void bind(List<ExpressRouteToken> keys) {
+            this.keys = keys;
+            this.sketches = new ExpressRouteCardinalitySketch[keys.size()];
+
+            for (int i = 0; i < sketches.length; i++) {
+                sketches[i] = parameters.computeIfAbsent(keys.get(i).getName(), name -> new ExpressRouteCardinalitySketch());
+            }
+        }
+
+        private void merge(RouteTally other) {
+            count += other.count;
+
+            for (Map.Entry<String, ExpressRouteCardinalitySketch> parameter : other.parameters.entrySet()) {
+                parameters.computeIfAbsent(parameter.getKey(), name -> new ExpressRouteCardinalitySketch())
+                        .merge(parameter.getValue());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        ExpressRouteEngineType engine = ExpressRouteEngineType.TRIE;
+        int next = 0;
+
+        if (args.length > 1 && args[0].equals("--engine")) {
+            engine = ExpressRouteEngineType.valueOf(args[1]);
+            next = 2;
+        }
+
+        if (args.length - next < 2) {
+            System.err.println("Usage: ExpressRouteLogClassifier [--engine REGEX|TRIE|AUTOMATON] routes.txt access.log...");
+            System.exit(2);
+        }
+
+        final ExpressRouter<String> router = new ExpressRouter<>(engine);
+        final Map<String, String> definitions = new LinkedHashMap<>();
+
+        for (String line : Files.readAllLines(Paths.get(args[next]), StandardCharsets.UTF_8)) {
+            final String definition = line.trim();
+
+            if (!definition.isEmpty() && !definition.startsWith("#")) {
+                definitions.put(definition, definition);
+            }
+        }
+
+        router.addAll(definitions, ExpressRouteCompileMode.PARALLEL);
+
+        final List<Path> logs = new ArrayList<>();
+
+        for (int i = next + 1; i < args.length; i++) {
+            logs.add(Paths.get(args[i]));
+        }
+
+        final Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+
+        new ExpressRouteLogClassifier(router).classify(logs).write(out);
+        out.flush();
+    }
+}
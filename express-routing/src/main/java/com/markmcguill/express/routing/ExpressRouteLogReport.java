@@ -0,0 +1,108 @@
+package com.markmcguill.express.routing;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * What an {@link ExpressRouteLogClassifier} found in a log: how many requests each route definition matched, and
+ * roughly how many distinct values each of its parameters took.
+ */
+public class ExpressRouteLogReport {
+    private final long lineCount;
+    private final long unmatchedCount;
+    private final long skippedCount;
+    private final Map<String, Long> routeCounts;
+    private final Map<String, Map<String, Long>> parameterCardinalities;
+
+    /**
+     * @param routeCounts            the requests of each definition, most requested first
+     * @param parameterCardinalities the estimated distinct values of each parameter, by definition and then name
+     */
+    ExpressRouteLogReport(long lineCount, long unmatchedCount, long skippedCount, Map<String, Long> routeCounts,
+                          Map<String, Map<String, Long>> parameterCardinalities) {
+        this.lineCount = lineCount;
+        this.unmatchedCount = unmatchedCount;
+        this.skippedCount = skippedCount;
+        this.routeCounts = Collections.unmodifiableMap(routeCounts);
+        this.parameterCardinalities = Collections.unmodifiableMap(parameterCardinalities);
+    }
+
+    /**
+     * @return the lines read, not counting empty ones
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the requests no route matched
+     */
+    public long getUnmatchedCount() {
+        return unmatchedCount;
+    }
+
+    /**
+     * @return the lines in which no request target could be found
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return the requests each definition matched, most requested first, for every definition which matched any
+     */
+    public Map<String, Long> getRouteCounts() {
+        return routeCounts;
+    }
+
+    public long getCount(String pathDefinition) {
+        return routeCounts.getOrDefault(pathDefinition, 0L);
+    }
+
+    /**
+     * @return the estimated number of distinct values, as they appear in the log, of the definition's parameter, to
+     * within about 3%, or 0 if the definition matched nothing or has no such parameter
+     */
+    public long getParameterCardinality(String pathDefinition, String parameterName) {
+        return parameterCardinalities.getOrDefault(pathDefinition, Collections.emptyMap())
+                                     .getOrDefault(parameterName, 0L);
+    }
+
+    /**
+     * @return the estimated distinct values of each parameter of the definition, in key order
+     */
+    public Map<String, Long> getParameterCardinalities(String pathDefinition) {
+        return parameterCardinalities.getOrDefault(pathDefinition, Collections.emptyMap());
+    }
+
+    /**
+     * Writes the report as tab separated lines: the totals, then the count, definition and parameter cardinalities
+     * of each definition, most requested first.
+     */
+    public void write(Appendable out) throws IOException {
+        out.append("lines\t").append(Long.toString(lineCount)).append('\n');
+        out.append("unmatched\t").append(Long.toString(unmatchedCount)).append('\n');
+        out.append("skipped\t").append(Long.toString(skippedCount)).append('\n');
+
+        for (Map.Entry<String, Long> route : routeCounts.entrySet()) {
+            out.append(route.getValue().toString()).append('\t').append(route.getKey());
+
+            for (Map.Entry<String, Long> parameter : getParameterCardinalities(route.getKey()).entrySet()) {
+                out.append('\t').append(parameter.getKey()).append('=').append(parameter.getValue().toString());
+            }
+
+            out.append('\n');
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteLogReport{" +
+                "lineCount=" + lineCount +
+                ", unmatchedCount=" + unmatchedCount +
+                ", skippedCount=" + skippedCount +
+                ", routeCounts=" + routeCounts +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+package com.markmcguill.express.routing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for one lookup by a router whose {@link ExpressRouteMetrics} record them. It is only
+ * loaded once events are enabled, so the library still runs on JVMs without the Flight Recorder API.
+ */
+@Name("com.markmcguill.express.routing.Lookup")
+@Label("Route Lookup")
+@Category("Express Routing")
+@Description("A path looked up in a router's table")
+@StackTrace(false)
+class ExpressRouteLookupEvent extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Route")
+    @Description("The definition of the matched route, or null if no route matched")
+    String route;
+
+    @Label("Regex Evaluations")
+    int regexEvaluations;
+
+    /**
+     * @return a started event, or null if no recording has the event enabled
+     */
+    static ExpressRouteLookupEvent start() {
+        final ExpressRouteLookupEvent event = new ExpressRouteLookupEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * Commits the event if it passes the recording's threshold, only then copying the path.
+     */
+    void finish(CharSequence path, ExpressRoute route, int regexEvaluations) {
+        end();
+
+        if (shouldCommit()) {
+            this.path = path.toString();
+            this.route = route == null ? null : route.getPathDefinition();
+            this.regexEvaluations = regexEvaluations;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.markmcguill.express.routing;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded map from strings which evicts a least recently used entry once full, and is read by the contents of any
+ * {@link CharSequence} without copying it into a key.
+ * <p>
+ * Entries are spread over segments, each an open addressed table which reads probe without a lock. A read marks the
+ * entry it finds as referenced, and a writer, which locks its segment, evicts with a clock: it sweeps the table,
+ * clearing the mark of each referenced entry, and evicts the first entry which is not, so that entries read since the
+ * last sweep stay. Recency is approximate and per segment. A read which races a writer moving entries may miss an entry
+ * that is present, but never returns another key's value. Values are computed outside any lock, so two threads missing
+ * on the same key may both compute it, but only the first value stored is ever returned.
+ */
+class ExpressRouteLruCache<V> {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<V>[] segments;
+    private final int shift;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    ExpressRouteLruCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+
+        // Small caches get fewer segments, so that no segment is left with a capacity of zero.
+        int segmentCount = 1;
+
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * 8 <= maximumSize) {
+            segmentCount *= 2;
+        }
+
+        this.segments = new Segment[segmentCount];
+        this.shift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+
+        for (int i = 0; i < segmentCount; i++) {
+            // The remainder goes to the first segments so the capacities add up to maximumSize.
+            segments[i] = new Segment<>(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * @return the value cached for a key with the same contents, or null, counting a hit or a miss
+     */
+    V get(CharSequence key) {
+        final int hash = hash(key);
+        final V value = segmentFor(hash).get(key, hash);
+
+        (value != null ? hits : misses).increment();
+
+        return value;
+    }
+
+    /**
+     * @return the cached value, or the value computed for the key and stored, or whatever another thread stored first
+     */
+    V computeIfAbsent(String key, Function<? super String, ? extends V> function) {
+        final V cached = get(key);
+
+        return cached != null ? cached : putIfAbsent(key, function.apply(key));
+    }
+
+    /**
+     * @return the value already cached for the key, or the given value once stored
+     */
+    V putIfAbsent(String key, V value) {
+        final int hash = hash(key);
+        final Segment<V> segment = segmentFor(hash);
+        final V existing;
+        final int evicted;
+
+        synchronized (segment) {
+            existing = segment.putIfAbsent(key, hash, value);
+            evicted = segment.evicted;
+            segment.evicted = 0;
+        }
+
+        if (evicted > 0) {
+            evictions.add(evicted);
+        }
+
+        return existing != null ? existing : value;
+    }
+
+    void clear() {
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+
+        return size;
+    }
+
+    ExpressRouteCacheStats getStats() {
+        return new ExpressRouteCacheStats(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+
+    /**
+     * @return the hash of the contents, the same for a string and any other sequence of the same characters
+     */
+    private static int hash(CharSequence key) {
+        int hash;
+
+        if (key instanceof String) {
+            hash = key.hashCode();
+        }
+        else {
+            hash = 0;
+
+            for (int i = 0; i < key.length(); i++) {
+                hash = 31 * hash + key.charAt(i);
+            }
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Picks the segment from the high bits of a multiple of the hash, so the low bits which place the entry within the
+     * segment's table still vary among its keys.
+     */
+    private Segment<V> segmentFor(int hash) {
+        return segments.length == 1 ? segments[0] : segments[(hash * 0x9E3779B9) >>> shift];
+    }
+
+    private static final class Node<V> {
+        private final String key;
+        private final int hash;
+        private final V value;
+        private volatile boolean referenced;
+
+        private Node(String key, int hash, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A table with linear probing at most half full, read without a lock and written under the segment's monitor.
+     */
+    private static final class Segment<V> {
+        private final int capacity;
+        private final AtomicReferenceArray<Node<V>> table;
+        private final int mask;
+        private int size;
+        private int hand;
+        private int evicted;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+            this.table = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(capacity, 1)) * 4);
+            this.mask = table.length() - 1;
+        }
+
+        private V get(CharSequence key, int hash) {
+            for (int i = hash & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                final Node<V> node = table.get(i);
+
+                if (node == null) {
+                    return null;
+                }
+
+                if (node.hash == hash && node.key.contentEquals(key)) {
+                    // Only the first read since the last sweep writes, so hot entries are not written on every hit.
+                    if (!node.referenced) {
+                        node.referenced = true;
+                    }
+
+                    return node.value;
+                }
+            }
+
+            return null;
+        }
+
+        private V putIfAbsent(String key, int hash, V value) {
+            int slot = hash & mask;
+
+            for (Node<V> node; (node = table.get(slot)) != null; slot = (slot + 1) & mask) {
+                if (node.hash == hash && node.key.equals(key)) {
+                    return node.value;
+                }
+            }
+
+            if (size == capacity) {
+                evict();
+
+                // Eviction may have moved entries up into the probe sequence.
+                slot = hash & mask;
+
+                while (table.get(slot) != null) {
+                    slot = (slot + 1) & mask;
+                }
+            }
+
+            table.set(slot, new Node<>(key, hash, value));
+            size++;
+
+            return null;
+        }
+
+        /**
+         * Sweeps from the clock's hand, sparing entries read since the last sweep, and removes the first which was
+         * not. Every entry is either spared once or removed, so this ends within two turns of the table.
+         */
+        private void evict() {
+            while (true) {
+                final Node<V> node = table.get(hand);
+
+                if (node != null && !node.referenced) {
+                    remove(hand);
+                    evicted++;
+                    hand = (hand + 1) & mask;
+                    return;
+                }
+
+                if (node != null) {
+                    node.referenced = false;
+                }
+
+                hand = (hand + 1) & mask;
+            }
+        }
+
+        /**
+         * Empties the slot and moves back the entries after it which would no longer be found past the gap. Each moved
+         * entry is in its new slot before it leaves its old one, so a read at worst misses it.
+         */
+        private void remove(int slot) {
+            int hole = slot;
+
+            for (int i = (slot + 1) & mask; ; i = (i + 1) & mask) {
+                final Node<V> node = table.get(i);
+
+                if (node == null) {
+                    break;
+                }
+
+                // The entry may fill the hole if the hole lies between the entry's home slot and where it is.
+                if (((i - (node.hash & mask)) & mask) >= ((i - hole) & mask)) {
+                    table.set(hole, node);
+                    hole = i;
+                }
+            }
+
+            table.set(hole, null);
+            size--;
+        }
+
+        private void clear() {
+            for (int i = 0; i < table.length(); i++) {
+                table.set(i, null);
+            }
+
+            size = 0;
+            hand = 0;
+        }
+    }
+}
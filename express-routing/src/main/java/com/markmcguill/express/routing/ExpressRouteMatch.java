@@ -0,0 +1,582 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The result of matching a path against a route, held as offsets into the path rather than as strings.
+ * <p>
+ * An instance is meant to be owned by one thread and reused for every match it makes: {@link ExpressRoute#match} and
+ * {@link ExpressRouter#find(CharSequence, ExpressRouteMatch)} overwrite it in place, and keep the {@link Matcher} and
+ * arrays they need inside it, so a match in steady state allocates nothing. Parameters are only copied out of the
+ * path when {@link #getParameterString} or {@link #toMap()} asks for them, and only percent decoded when
+ * {@link #getDecodedParameter} does. The query string of a request target, and matrix parameters, are split into
+ * pairs only when {@link #getQueryParameters} or {@link #getMatrixParameters} asks for them.
+ */
+public class ExpressRouteMatch {
+    private static final int[] NO_OFFSETS = new int[0];
+    private static final CharSequence[] NO_VALUES = new CharSequence[0];
+    private static final ExpressRouteDecodeError[] NO_ERRORS = new ExpressRouteDecodeError[0];
+
+    private ExpressRoute route;
+    private List<ExpressRouteToken> keys = Collections.emptyList();
+    private CharSequence input;
+    private int[] offsets = NO_OFFSETS;
+    private int[] scratch = NO_OFFSETS;
+    private Matcher matcher;
+    private int regexEvaluations;
+    private ExpressRouteBytes bytes;
+    private ExpressRouteBudgetedInput budgeted;
+    private ExpressRouteSlice rest;
+    private ExpressRoutePath path;
+    private ExpressRoutePath parsed;
+    private CharSequence queryInput = "";
+    private int queryStart = -1;
+    private int queryEnd = -1;
+    private ExpressRouteParameters query;
+    private int[] prefixOffsets = NO_OFFSETS;
+    private CharSequence[] decoded = NO_VALUES;
+    private ExpressRouteDecodeError[] decodeErrors = NO_ERRORS;
+    private boolean decodedAny;
+    private StringBuilder decodeBuffer;
+
+    public ExpressRoute getRoute() {
+        return route;
+    }
+
+    public CharSequence getInput() {
+        return input;
+    }
+
+    /**
+     * @return the offset of the input within the bytes it views, when it was matched from bytes, and otherwise 0.
+     * Adding it to {@link #start} or {@link #end} gives the parameter's position in the original array or buffer.
+     */
+    public int getInputOffset() {
+        return input instanceof ExpressRouteBytes ? ((ExpressRouteBytes) input).getOffset() : 0;
+    }
+
+    public int getParameterCount() {
+        return keys.size();
+    }
+
+    public String getParameterName(int index) {
+        return keys.get(index).getName();
+    }
+
+    /**
+     * @return the index of the named parameter, or -1 if the route has no such key
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return true if the parameter captured some part of the path, which an optional parameter may not have
+     */
+    public boolean isPresent(int index) {
+        return start(index) >= 0;
+    }
+
+    public boolean isPresent(String name) {
+        final int index = indexOf(name);
+
+        return index >= 0 && isPresent(index);
+    }
+
+    /**
+     * @return the offset into the input at which the parameter starts, or -1 if it is absent
+     */
+    public int start(int index) {
+        checkIndex(index);
+        return offsets[index * 2];
+    }
+
+    /**
+     * @return the offset into the input at which the parameter ends, or -1 if it is absent
+     */
+    public int end(int index) {
+        checkIndex(index);
+        return offsets[index * 2 + 1];
+    }
+
+    public int start(String name) {
+        return start(requireIndex(name));
+    }
+
+    public int end(String name) {
+        return end(requireIndex(name));
+    }
+
+    /**
+     * @return a view of the parameter over the input, or null if it is absent. The view is only valid while the input
+     * is unchanged.
+     */
+    public CharSequence getParameter(int index) {
+        final int start = start(index);
+
+        return start < 0 ? null : new ExpressRouteSlice(input, start, end(index));
+    }
+
+    public CharSequence getParameter(String name) {
+        final int index = indexOf(name);
+
+        return index < 0 ? null : getParameter(index);
+    }
+
+    /**
+     * @return a copy of the parameter, or null if it is absent
+     */
+    public String getParameterString(int index) {
+        final int start = start(index);
+
+        return start < 0 ? null : input.subSequence(start, end(index)).toString();
+    }
+
+    public String getParameterString(String name) {
+        final int index = indexOf(name);
+
+        return index < 0 ? null : getParameterString(index);
+    }
+
+    /**
+     * Percent decodes the parameter the first time it is asked for, and returns the same value after that. A
+     * parameter with nothing to decode is returned as a view of the input, as {@link #getParameter(int)} is. A '+'
+     * is not decoded, since it stands for a space only in query strings. When the input is a view of bytes, bytes
+     * above ASCII are decoded as UTF-8 just as escaped bytes are.
+     *
+     * @return the decoded parameter, or null if it is absent or malformed, which {@link #getDecodeError(int)} tells
+     * apart
+     */
+    public CharSequence getDecodedParameter(int index) {
+        return decode(index) ? decoded[index] : null;
+    }
+
+    public CharSequence getDecodedParameter(String name) {
+        final int index = indexOf(name);
+
+        return index < 0 ? null : getDecodedParameter(index);
+    }
+
+    /**
+     * @return why the parameter could not be decoded, or null if it is absent or decodes cleanly
+     */
+    public ExpressRouteDecodeError getDecodeError(int index) {
+        decode(index);
+
+        return decodeErrors[index];
+    }
+
+    /**
+     * Decodes every parameter, so a server can refuse a malformed path before any handler reads it.
+     *
+     * @return the parameters which could not be decoded, in key order, empty if there are none
+     */
+    public List<ExpressRouteDecodeError> getDecodeErrors() {
+        List<ExpressRouteDecodeError> errors = Collections.emptyList();
+
+        for (int i = 0; i < keys.size(); i++) {
+            final ExpressRouteDecodeError error = getDecodeError(i);
+
+            if (error != null) {
+                if (errors.isEmpty()) {
+                    errors = new ArrayList<>();
+                }
+
+                errors.add(error);
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * @return true if the parameter is present and decodes cleanly, once its decoding is cached
+     */
+    private boolean decode(int index) {
+        final int start = start(index);
+
+        if (start < 0) {
+            return false;
+        }
+
+        if (decoded.length < keys.size()) {
+            decoded = new CharSequence[keys.size()];
+            decodeErrors = new ExpressRouteDecodeError[keys.size()];
+        }
+
+        if (decoded[index] == null && decodeErrors[index] == null) {
+            final int end = end(index);
+            final boolean rawBytes = input instanceof ExpressRouteBytes;
+
+            decodedAny = true;
+
+            if (ExpressRoutePercentDecoder.isDecoded(input, start, end, rawBytes, false)) {
+                decoded[index] = new ExpressRouteSlice(input, start, end);
+            }
+            else {
+                if (decodeBuffer == null) {
+                    decodeBuffer = new StringBuilder();
+                }
+
+                decodeBuffer.setLength(0);
+
+                final ExpressRouteDecodeError error = ExpressRoutePercentDecoder.decode(getParameterName(index), input,
+                        start, end, rawBytes, false, decodeBuffer);
+
+                if (error != null) {
+                    decodeErrors[index] = error;
+                }
+                else {
+                    decoded[index] = decodeBuffer.toString();
+                }
+            }
+        }
+
+        return decoded[index] != null;
+    }
+
+    /**
+     * @return a view of the query string of the request target looked up, without its '?', or null if it had none
+     */
+    public CharSequence getQuery() {
+        return queryStart < 0 ? null : new ExpressRouteSlice(queryInput, queryStart, queryEnd);
+    }
+
+    /**
+     * @return the pairs of the query string of the request target looked up, split on first use and empty if it had
+     * none. The view belongs to this match, and moves to the next lookup's query string.
+     */
+    public ExpressRouteParameters getQueryParameters() {
+        if (query == null) {
+            query = new ExpressRouteParameters('&', true);
+            moveQuery();
+        }
+
+        return query;
+    }
+
+    /**
+     * @return the matrix parameters of the parameter: the ';' separated pairs after its first ';', as in
+     * "/porkbelly;region=eu". The parameter itself still holds them, as the route's pattern matched them. Empty if the
+     * parameter is absent or has no ';'.
+     */
+    public ExpressRouteParameters getMatrixParameters(int index) {
+        final int start = start(index);
+        final int end = end(index);
+        int matrixStart = end;
+
+        for (int i = start; i >= 0 && i < end; i++) {
+            if (input.charAt(i) == ';') {
+                matrixStart = i + 1;
+                break;
+            }
+        }
+
+        return new ExpressRouteParameters(';', false).reset(input, Math.max(matrixStart, 0), Math.max(end, 0));
+    }
+
+    public ExpressRouteParameters getMatrixParameters(String name) {
+        return getMatrixParameters(requireIndex(name));
+    }
+
+    /**
+     * Parses the parameter straight from the input, as {@link Integer#parseInt(String)} would parse its string,
+     * without copying it. A parameter declared as {@code <int>} always parses.
+     *
+     * @throws NumberFormatException if the parameter is absent or is not a decimal int
+     */
+    public int getInt(int index) {
+        return (int) ExpressRouteValueType.parseLong(input, requireStart(index), end(index), Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public int getInt(String name) {
+        return getInt(requireIndex(name));
+    }
+
+    /**
+     * Parses the parameter straight from the input, as {@link Long#parseLong(String)} would parse its string,
+     * without copying it. A parameter declared as {@code <long>} always parses.
+     *
+     * @throws NumberFormatException if the parameter is absent or is not a decimal long
+     */
+    public long getLong(int index) {
+        return ExpressRouteValueType.parseLong(input, requireStart(index), end(index), Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public long getLong(String name) {
+        return getLong(requireIndex(name));
+    }
+
+    /**
+     * Parses the parameter straight from the input, which must be a UUID in its canonical 36 character form. A
+     * parameter declared as {@code <uuid>} always parses.
+     *
+     * @throws IllegalArgumentException if the parameter is absent or is not a UUID
+     */
+    public java.util.UUID getUuid(int index) {
+        return ExpressRouteValueType.parseUuid(input, requireStart(index), end(index));
+    }
+
+    public java.util.UUID getUuid(String name) {
+        return getUuid(requireIndex(name));
+    }
+
+    private int requireStart(int index) {
+        final int start = start(index);
+
+        if (start < 0) {
+            throw new NumberFormatException("Parameter " + getParameterName(index) + " is absent");
+        }
+
+        return start;
+    }
+
+    /**
+     * @return the parameters as {@link ExpressRoute#getParametersFromPath(String)} would return them
+     */
+    public Map<String, String> toMap() {
+        final Map<String, String> parameters = new HashMap<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            parameters.put(keys.get(i).getName(), getParameterString(i));
+        }
+
+        return parameters;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= keys.size()) {
+            throw new IndexOutOfBoundsException("Parameter " + index + " of " + keys.size());
+        }
+    }
+
+    private int requireIndex(String name) {
+        final int index = indexOf(name);
+
+        if (index < 0) {
+            throw new IllegalArgumentException("No parameter named " + name);
+        }
+
+        return index;
+    }
+
+    /**
+     * Starts a new match of the input, making room for the offsets of up to keyCapacity keys.
+     */
+    void reset(CharSequence input, int keyCapacity) {
+        this.route = null;
+        this.keys = Collections.emptyList();
+        this.input = input;
+
+        if (queryStart >= 0) {
+            query(null, -1, -1);
+        }
+
+        if (decodedAny) {
+            Arrays.fill(decoded, null);
+            Arrays.fill(decodeErrors, null);
+            decodedAny = false;
+        }
+
+        if (offsets.length < keyCapacity * 2) {
+            offsets = new int[keyCapacity * 2];
+        }
+    }
+
+    /**
+     * Completes a match started by {@link #reset}, naming the route whose keys the offsets belong to.
+     */
+    void complete(ExpressRoute route) {
+        this.route = route;
+        this.keys = route.getKeys();
+    }
+
+    /**
+     * Forgets the route after a failed match, leaving the input for inspection.
+     */
+    void clear() {
+        this.route = null;
+        this.keys = Collections.emptyList();
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    List<ExpressRouteToken> keys() {
+        return keys;
+    }
+
+    /**
+     * @return working space for engines, of at least the given size and with undefined contents
+     */
+    int[] scratch(int size) {
+        if (scratch.length < size) {
+            scratch = new int[size];
+        }
+
+        return scratch;
+    }
+
+    /**
+     * @return a view of bytes owned by this match, for lookups made from bytes
+     */
+    ExpressRouteBytes bytes() {
+        if (bytes == null) {
+            bytes = new ExpressRouteBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @return a view of the path owned by this match, which counts the characters a lookup reads against the budget
+     */
+    CharSequence budgeted(CharSequence path, int budget) {
+        if (budgeted == null) {
+            budgeted = new ExpressRouteBudgetedInput();
+        }
+
+        return budgeted.reset(path, budget);
+    }
+
+    /**
+     * Sets the query string a lookup's request target had, from start to end of the input, or none if start is -1.
+     */
+    void query(CharSequence input, int start, int end) {
+        this.queryInput = start < 0 ? "" : input;
+        this.queryStart = start;
+        this.queryEnd = end;
+
+        if (query != null) {
+            moveQuery();
+        }
+    }
+
+    private void moveQuery() {
+        query.reset(queryInput, Math.max(queryStart, 0), Math.max(queryEnd, 0));
+    }
+
+    /**
+     * @return a path owned by this match, for a lookup to parse its input into
+     */
+    ExpressRoutePath path() {
+        if (path == null) {
+            path = new ExpressRoutePath();
+        }
+
+        return path;
+    }
+
+    /**
+     * Remembers the parsed form of the path a lookup is about to make, for the engines to read its segments from.
+     */
+    void parsed(ExpressRoutePath parsed) {
+        this.parsed = parsed;
+    }
+
+    /**
+     * @return the parsed form of the path, if it is the one the lookup parsed, and otherwise null
+     */
+    ExpressRoutePath parsed(CharSequence path) {
+        return parsed != null && parsed.getNormalized() == path ? parsed : null;
+    }
+
+    /**
+     * @return a view of the input from start to its end, owned by this match, for the lookup of a mounted router
+     */
+    CharSequence rest(CharSequence input, int start) {
+        if (rest == null) {
+            rest = new ExpressRouteSlice();
+        }
+
+        return rest.reset(input, start, input.length());
+    }
+
+    /**
+     * @return space for the offsets of the mount prefixes a lookup has descended through, of at least the given size
+     * and keeping the offsets already held
+     */
+    int[] prefixOffsets(int size) {
+        if (prefixOffsets.length < size) {
+            prefixOffsets = Arrays.copyOf(prefixOffsets, Math.max(size, prefixOffsets.length * 2));
+        }
+
+        return prefixOffsets;
+    }
+
+    /**
+     * Moves a match made over the rest of the input from start, by a mounted router, onto the whole input.
+     */
+    void rebase(CharSequence input, int start) {
+        this.input = input;
+
+        for (int i = 0; i < keys.size() * 2; i++) {
+            if (offsets[i] >= 0) {
+                offsets[i] += start;
+            }
+        }
+    }
+
+    /**
+     * Puts the offsets of a mount prefix's keys before the offsets of the matched route's, with the keys of both.
+     *
+     * @param keys the prefix's keys followed by the keys the match already has
+     */
+    void prepend(int[] prefix, int from, List<ExpressRouteToken> keys) {
+        final int length = (keys.size() - this.keys.size()) * 2;
+        final int kept = this.keys.size() * 2;
+
+        if (offsets.length < keys.size() * 2) {
+            offsets = Arrays.copyOf(offsets, keys.size() * 2);
+        }
+
+        System.arraycopy(offsets, 0, offsets, length, kept);
+        System.arraycopy(prefix, from, offsets, 0, length);
+        this.keys = keys;
+    }
+
+    /**
+     * @return the number of matchers handed out by {@link #matcher}, one per regular expression run, since the match
+     * was created. It is never reset, so a lookup's count is the difference across it, which survives wrapping.
+     */
+    int regexEvaluations() {
+        return regexEvaluations;
+    }
+
+    /**
+     * @return a matcher of the pattern over the input, reusing the last one if it was for the same pattern
+     */
+    Matcher matcher(Pattern pattern, CharSequence input) {
+        regexEvaluations++;
+
+        if (matcher != null && matcher.pattern() == pattern) {
+            return matcher.reset(input);
+        }
+
+        matcher = pattern.matcher(input);
+
+        return matcher;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteMatch{" +
+                "route=" + (route == null ? null : route.getPathDefinition()) +
+                ", parameters=" + (route == null ? null : toMap()) +
+                '}';
+    }
+}
@@ -0,0 +1,259 @@
+package com.markmcguill.express.routing;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the lookups of the routers it is given to cost: the hits of each route, the lookups no route matched,
+ * how long each lookup took and how many regular expressions it ran, along with the time the routers spent compiling
+ * routes.
+ * <p>
+ * Metrics are off until {@link ExpressRouter#setMetrics} is called, and a router without them does nothing more per
+ * lookup than check for them. With them, a lookup reads the clock twice and adds to a few {@link LongAdder}s, which
+ * do not contend between threads; each route's counter is found once, when the table is compiled, not per lookup.
+ * One instance may be shared by several routers, whose counts it adds together.
+ * <p>
+ * The counters can be read here, over JMX once {@link #register registered}, and each lookup can also be recorded as
+ * a JDK Flight Recorder event, {@code com.markmcguill.express.routing.Lookup}, once
+ * {@link #setFlightRecorderEvents enabled}.
+ */
+public class ExpressRouteMetrics implements ExpressRouteMetricsMXBean {
+    /**
+     * The JMX domain {@link #register} names its beans in.
+     */
+    public static final String DOMAIN = "com.markmcguill.express.routing";
+
+    private final Map<String, LongAdder> routeHits = new ConcurrentHashMap<>();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder regexEvaluationCount = new LongAdder();
+    private final ExpressRouteLatencyHistogram latency = new ExpressRouteLatencyHistogram();
+    private final List<ExpressRouteCompiler> compilers = new CopyOnWriteArrayList<>();
+    private volatile boolean flightRecorderEvents;
+
+    /**
+     * Records each lookup as a Flight Recorder event, which costs nothing more than a check while no recording has
+     * the event enabled.
+     *
+     * @throws UnsupportedOperationException if the JVM has no Flight Recorder API
+     */
+    public void setFlightRecorderEvents(boolean enabled) {
+        if (enabled) {
+            try {
+                Class.forName("jdk.jfr.Event");
+            }
+            catch (ClassNotFoundException e) {
+                throw new UnsupportedOperationException("This JVM has no Flight Recorder API", e);
+            }
+        }
+
+        this.flightRecorderEvents = enabled;
+    }
+
+    public boolean isFlightRecorderEvents() {
+        return flightRecorderEvents;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as {@code com.markmcguill.express.routing:type=Router,name=}
+     * the given name.
+     *
+     * @return the name it was registered under
+     */
+    public ObjectName register(String name) throws JMException {
+        final ObjectName objectName = new ObjectName(DOMAIN + ":type=Router,name=" + ObjectName.quote(name));
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+        return objectName;
+    }
+
+    public void unregister(ObjectName objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+
+    /**
+     * @return the hits of the route with the definition, which are shared by every route with the same definition
+     */
+    public long getHitCount(String pathDefinition) {
+        final LongAdder hits = routeHits.get(pathDefinition);
+
+        return hits == null ? 0 : hits.sum();
+    }
+
+    @Override
+    public long getLookupCount() {
+        return getHitCount() + getMissCount();
+    }
+
+    @Override
+    public long getHitCount() {
+        long hits = 0;
+
+        for (LongAdder routeHit : routeHits.values()) {
+            hits += routeHit.sum();
+        }
+
+        return hits;
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public long getRegexEvaluationCount() {
+        return regexEvaluationCount.sum();
+    }
+
+    /**
+     * @return the regular expressions run per lookup, or 0 if there have been none
+     */
+    @Override
+    public double getMeanRegexEvaluations() {
+        final long lookups = getLookupCount();
+
+        return lookups == 0 ? 0 : (double) getRegexEvaluationCount() / lookups;
+    }
+
+    public ExpressRouteLatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return latency.getPercentile(0.5, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return latency.getPercentile(0.99, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+        return latency.getPercentile(0.999, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Map<String, Long> getRouteHitCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+
+        for (Map.Entry<String, LongAdder> routeHit : routeHits.entrySet()) {
+            counts.put(routeHit.getKey(), routeHit.getValue().sum());
+        }
+
+        return counts;
+    }
+
+    /**
+     * @return the compile counters of every router the metrics are given to, added together
+     */
+    public ExpressRouteCompileStats getCompileStats() {
+        long routeCount = 0;
+        long parseNanos = 0;
+        long patternCount = 0;
+        long compileNanos = 0;
+        long bulkNanos = 0;
+
+        for (ExpressRouteCompiler compiler : compilers) {
+            final ExpressRouteCompileStats stats = compiler.getStats();
+
+            routeCount += stats.getRouteCount();
+            parseNanos += stats.getParseTime(TimeUnit.NANOSECONDS);
+            patternCount += stats.getPatternCount();
+            compileNanos += stats.getCompileTime(TimeUnit.NANOSECONDS);
+            bulkNanos += stats.getBulkTime(TimeUnit.NANOSECONDS);
+        }
+
+        return new ExpressRouteCompileStats(routeCount, parseNanos, patternCount, compileNanos, bulkNanos);
+    }
+
+    @Override
+    public long getCompiledRouteCount() {
+        return getCompileStats().getRouteCount();
+    }
+
+    @Override
+    public long getParseNanos() {
+        return getCompileStats().getParseTime(TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getCompiledPatternCount() {
+        return getCompileStats().getPatternCount();
+    }
+
+    @Override
+    public long getCompileNanos() {
+        return getCompileStats().getCompileTime(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Zeroes the lookup counters. Compile counters belong to the routers and are left as they are.
+     */
+    @Override
+    public void reset() {
+        for (LongAdder routeHit : routeHits.values()) {
+            routeHit.reset();
+        }
+
+        missCount.reset();
+        regexEvaluationCount.reset();
+        latency.reset();
+    }
+
+    /**
+     * @return the counter of the route's hits, made the first time a table holding the route is compiled
+     */
+    LongAdder hitCounter(ExpressRoute route) {
+        return routeHits.computeIfAbsent(route.getPathDefinition(), pathDefinition -> new LongAdder());
+    }
+
+    /**
+     * @param hits the matched route's counter, or null if no route matched
+     */
+    void record(LongAdder hits, long nanos, int regexEvaluations) {
+        if (hits != null) {
+            hits.increment();
+        }
+        else {
+            missCount.increment();
+        }
+
+        if (regexEvaluations != 0) {
+            regexEvaluationCount.add(regexEvaluations);
+        }
+
+        latency.record(nanos);
+    }
+
+    void addCompiler(ExpressRouteCompiler compiler) {
+        if (!compilers.contains(compiler)) {
+            compilers.add(compiler);
+        }
+    }
+
+    void removeCompiler(ExpressRouteCompiler compiler) {
+        compilers.remove(compiler);
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteMetrics{" +
+                "hitCount=" + getHitCount() +
+                ", missCount=" + getMissCount() +
+                ", regexEvaluationCount=" + getRegexEvaluationCount() +
+                ", latency=" + latency +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+package com.markmcguill.express.routing;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link ExpressRouteMetrics}, as registered by {@link ExpressRouteMetrics#register}.
+ * Times are in nanoseconds.
+ */
+public interface ExpressRouteMetricsMXBean {
+    long getLookupCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getRegexEvaluationCount();
+
+    double getMeanRegexEvaluations();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getLatencyP999Nanos();
+
+    /**
+     * @return the hits of each route by definition, for every route which has been in a router's table
+     */
+    Map<String, Long> getRouteHitCounts();
+
+    long getCompiledRouteCount();
+
+    long getParseNanos();
+
+    long getCompiledPatternCount();
+
+    long getCompileNanos();
+
+    void reset();
+}
@@ -0,0 +1,107 @@
+package com.markmcguill.express.routing;
+
+/**
+ * How a route's pattern treats the end of the path and the case of letters, as path-to-regexp's {@code strict},
+ * {@code end} and {@code sensitive} options do. Options are immutable; each setter returns a copy.
+ */
+public final class ExpressRouteOptions {
+    /**
+     * The options of a route built from a definition alone: a trailing slash is optional, and the route must match the
+     * whole path.
+     */
+    public static final ExpressRouteOptions DEFAULT = new ExpressRouteOptions(false, true, true);
+
+    /**
+     * The options of a mount prefix: the route matches the start of the path, up to the end of a segment.
+     */
+    public static final ExpressRouteOptions PREFIX = new ExpressRouteOptions(false, false, true);
+
+    private final boolean strict;
+    private final boolean end;
+    private final boolean sensitive;
+
+    private ExpressRouteOptions(boolean strict, boolean end, boolean sensitive) {
+        this.strict = strict;
+        this.end = end;
+        this.sensitive = sensitive;
+    }
+
+    /**
+     * @return true if a trailing slash must be in the path exactly when it is in the definition
+     */
+    public boolean isStrict() {
+        return strict;
+    }
+
+    /**
+     * @return true if the route must match the whole path, false if it matches any path which starts with a match and
+     * then a '/' or nothing
+     */
+    public boolean isEnd() {
+        return end;
+    }
+
+    /**
+     * @return true if letters in the definition match only the same case in the path. Unlike path-to-regexp, routes
+     * are case sensitive unless told otherwise; a route which is not folds case as {@link java.util.regex.Pattern}'s
+     * {@code CASE_INSENSITIVE} and {@code UNICODE_CASE} flags do, without copying the path.
+     */
+    public boolean isSensitive() {
+        return sensitive;
+    }
+
+    public ExpressRouteOptions strict(boolean strict) {
+        return new ExpressRouteOptions(strict, end, sensitive);
+    }
+
+    public ExpressRouteOptions end(boolean end) {
+        return new ExpressRouteOptions(strict, end, sensitive);
+    }
+
+    public ExpressRouteOptions sensitive(boolean sensitive) {
+        return new ExpressRouteOptions(strict, end, sensitive);
+    }
+
+    /**
+     * @return true if these are the {@link #DEFAULT} options, which every engine indexes
+     */
+    boolean isDefault() {
+        return equals(DEFAULT);
+    }
+
+    /**
+     * @return true if these are the {@link #DEFAULT} options but for case sensitivity
+     */
+    boolean isDefaultExceptCase() {
+        return !strict && end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final ExpressRouteOptions that = (ExpressRouteOptions) o;
+
+        return strict == that.strict && end == that.end && sensitive == that.sensitive;
+    }
+
+    @Override
+    public int hashCode() {
+        return (sensitive ? 4 : 0) | (strict ? 2 : 0) | (end ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteOptions{" +
+                "strict=" + strict +
+                ", end=" + end +
+                ", sensitive=" + sensitive +
+                '}';
+    }
+}
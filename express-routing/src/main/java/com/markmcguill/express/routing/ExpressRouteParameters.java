@@ -0,0 +1,229 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The name=value pairs of a query string, or of a segment's matrix parameters, held as offsets into the input they
+ * were matched from. Nothing is parsed until a pair is first asked for, and nothing is copied or decoded unless
+ * {@link #getDecodedValue} asks for it.
+ * <p>
+ * A name may appear more than once, so {@link #get} returns its first value and {@link #getAll} every one. A pair
+ * without '=' has an empty value, and empty pairs are skipped. Names are compared as they appear in the input,
+ * without decoding.
+ */
+public final class ExpressRouteParameters {
+    private static final int[] NO_PAIRS = new int[0];
+
+    private final char separator;
+    private final boolean plusIsSpace;
+    private CharSequence input = "";
+    private int start;
+    private int end;
+    private int[] pairs = NO_PAIRS;
+    private int count = -1;
+
+    /**
+     * @param separator   the character between pairs, '&' for a query string and ';' for matrix parameters
+     * @param plusIsSpace true if a '+' in a value decodes to a space, as it does in a query string
+     */
+    ExpressRouteParameters(char separator, boolean plusIsSpace) {
+        this.separator = separator;
+        this.plusIsSpace = plusIsSpace;
+    }
+
+    /**
+     * Moves the view to the pairs in the range of the input, to be parsed when first asked for.
+     *
+     * @return this view
+     */
+    ExpressRouteParameters reset(CharSequence input, int start, int end) {
+        this.input = input;
+        this.start = start;
+        this.end = end;
+        this.count = -1;
+
+        return this;
+    }
+
+    /**
+     * @return the number of pairs, counting each value of a repeated name
+     */
+    public int size() {
+        return parse();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a view of the name of the pair, as it appears in the input
+     */
+    public CharSequence getName(int index) {
+        checkIndex(index);
+
+        return new ExpressRouteSlice(input, pairs[index * 4], pairs[index * 4 + 1]);
+    }
+
+    /**
+     * @return a view of the value of the pair, as it appears in the input
+     */
+    public CharSequence getValue(int index) {
+        checkIndex(index);
+
+        return new ExpressRouteSlice(input, pairs[index * 4 + 2], pairs[index * 4 + 3]);
+    }
+
+    /**
+     * Percent decodes the value of the pair, as {@link ExpressRouteMatch#getDecodedParameter(int)} decodes a
+     * parameter. A value with nothing to decode is returned as a view of the input.
+     *
+     * @return the decoded value, or null if it is malformed
+     */
+    public CharSequence getDecodedValue(int index) {
+        checkIndex(index);
+
+        final int valueStart = pairs[index * 4 + 2];
+        final int valueEnd = pairs[index * 4 + 3];
+        final boolean rawBytes = input instanceof ExpressRouteBytes;
+
+        if (ExpressRoutePercentDecoder.isDecoded(input, valueStart, valueEnd, rawBytes, plusIsSpace)) {
+            return new ExpressRouteSlice(input, valueStart, valueEnd);
+        }
+
+        final StringBuilder decoded = new StringBuilder(valueEnd - valueStart);
+
+        return ExpressRoutePercentDecoder.decode(getName(index).toString(), input, valueStart, valueEnd, rawBytes,
+                plusIsSpace, decoded) == null ? decoded.toString() : null;
+    }
+
+    /**
+     * @return the index of the first pair with the name, or -1 if there is none
+     */
+    public int indexOf(String name) {
+        final int size = parse();
+
+        for (int i = 0; i < size; i++) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * @return a view of the first value of the name, or null if it is absent
+     */
+    public CharSequence get(String name) {
+        final int index = indexOf(name);
+
+        return index < 0 ? null : getValue(index);
+    }
+
+    /**
+     * @return views of every value of the name, in the order they appear, empty if it is absent
+     */
+    public List<CharSequence> getAll(String name) {
+        final int size = parse();
+        List<CharSequence> values = Collections.emptyList();
+
+        for (int i = 0; i < size; i++) {
+            if (nameEquals(i, name)) {
+                if (values.isEmpty()) {
+                    values = new ArrayList<>();
+                }
+
+                values.add(getValue(i));
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Splits the range into pairs the first time it is needed.
+     *
+     * @return the number of pairs
+     */
+    private int parse() {
+        if (count >= 0) {
+            return count;
+        }
+
+        count = 0;
+
+        for (int pairStart = start; pairStart < end; ) {
+            int pairEnd = pairStart;
+            int equals = -1;
+
+            while (pairEnd < end && input.charAt(pairEnd) != separator) {
+                if (equals < 0 && input.charAt(pairEnd) == '=') {
+                    equals = pairEnd;
+                }
+
+                pairEnd++;
+            }
+
+            if (pairEnd > pairStart) {
+                if (pairs.length < (count + 1) * 4) {
+                    pairs = Arrays.copyOf(pairs, Math.max(16, pairs.length * 2));
+                }
+
+                pairs[count * 4] = pairStart;
+                pairs[count * 4 + 1] = equals < 0 ? pairEnd : equals;
+                pairs[count * 4 + 2] = equals < 0 ? pairEnd : equals + 1;
+                pairs[count * 4 + 3] = pairEnd;
+                count++;
+            }
+
+            pairStart = pairEnd + 1;
+        }
+
+        return count;
+    }
+
+    private boolean nameEquals(int index, String name) {
+        final int nameStart = pairs[index * 4];
+
+        if (pairs[index * 4 + 1] - nameStart != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            if (input.charAt(nameStart + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= parse()) {
+            throw new IndexOutOfBoundsException("Pair " + index + " of " + count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder pairsString = new StringBuilder();
+
+        for (int i = 0; i < size(); i++) {
+            if (i > 0) {
+                pairsString.append(", ");
+            }
+
+            pairsString.append(getName(i)).append('=').append(getValue(i));
+        }
+
+        return "ExpressRouteParameters{" + pairsString + '}';
+    }
+}
@@ -0,0 +1,371 @@
+package com.markmcguill.express.routing;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A request path parsed once for every route and engine of a lookup: normalized by a router's
+ * {@link ExpressRoutePathRule rules}, with the position of each '/' and whether it holds a line terminator worked
+ * out in a single pass. Engines which read the path a segment at a time take the segments from here rather than
+ * scanning for them again, while reading the characters from the path itself.
+ * <p>
+ * The path may be a whole request target: the path ends at the first '?' or '#', and the query string runs from the
+ * '?' to the '#' or the end. Routes only see the path, which is a view of the target rather than a copy.
+ * <p>
+ * An instance is reusable, like an {@link ExpressRouteMatch}: {@link #reset} parses another path into it. A path
+ * which the rules leave as it is is kept rather than copied. A router given an {@link ExpressRoutePath} uses it as it
+ * is, so a caller may parse a path once for several routers.
+ */
+public final class ExpressRoutePath implements CharSequence {
+    private static final int[] NO_SLASHES = new int[0];
+
+    private final ExpressRouteSlice pathView = new ExpressRouteSlice();
+    private StringBuilder normalized;
+    private StringBuilder resolved;
+    private CharSequence original = "";
+    private CharSequence path = "";
+    private CharSequence text = "";
+    private int queryStart = -1;
+    private int queryEnd = -1;
+    private int[] slashes = NO_SLASHES;
+    private int slashCount;
+    private boolean lineTerminator;
+    private boolean nonAscii;
+
+    /**
+     * @return a new path parsed from the given one
+     */
+    public static ExpressRoutePath parse(CharSequence path, Set<ExpressRoutePathRule> rules) {
+        return new ExpressRoutePath().reset(path, rules);
+    }
+
+    /**
+     * Parses the path, or request target, into this instance, replacing the one parsed before.
+     *
+     * @return this path
+     */
+    public ExpressRoutePath reset(CharSequence target, Set<ExpressRoutePathRule> rules) {
+        final int length = target.length();
+        final int pathEnd = index(target);
+
+        this.original = target;
+        this.path = pathEnd == length ? target : pathView.reset(target, 0, pathEnd);
+        this.text = path;
+
+        if (pathEnd < length && target.charAt(pathEnd) == '?') {
+            queryStart = pathEnd + 1;
+            queryEnd = queryStart;
+
+            while (queryEnd < length && target.charAt(queryEnd) != '#') {
+                queryEnd++;
+            }
+        }
+        else {
+            queryStart = -1;
+            queryEnd = -1;
+        }
+
+        if (!rules.isEmpty() && needsNormalizing(path, rules)) {
+            text = normalize(path, rules).toString();
+            index(text);
+        }
+
+        return this;
+    }
+
+    /**
+     * @return the path, or request target, as it was given
+     */
+    public CharSequence getOriginal() {
+        return original;
+    }
+
+    /**
+     * @return the path, without any query string, as the rules left it
+     */
+    public CharSequence getNormalized() {
+        return text;
+    }
+
+    /**
+     * @return true if the rules changed the path
+     */
+    public boolean isNormalized() {
+        return text != path;
+    }
+
+    /**
+     * @return a view of the query string of the original, without its '?', or null if it has none
+     */
+    public CharSequence getQuery() {
+        return queryStart < 0 ? null : new ExpressRouteSlice(original, queryStart, queryEnd);
+    }
+
+    /**
+     * @return the offset of the query string in the original, or -1 if it has none
+     */
+    int queryStart() {
+        return queryStart;
+    }
+
+    int queryEnd() {
+        return queryEnd;
+    }
+
+    /**
+     * @return the number of segments, each of which starts with a '/'
+     */
+    public int getSegmentCount() {
+        return slashCount;
+    }
+
+    /**
+     * @return the offset of the first character of the segment, after its '/'
+     */
+    public int segmentStart(int segment) {
+        checkSegment(segment);
+
+        return slashes[segment] + 1;
+    }
+
+    /**
+     * @return the offset after the last character of the segment, which is the next '/' or the end of the path
+     */
+    public int segmentEnd(int segment) {
+        checkSegment(segment);
+
+        return segment + 1 < slashCount ? slashes[segment + 1] : text.length();
+    }
+
+    /**
+     * @return the offset of the first '/' at or after the position, or the length of the path if there is none
+     */
+    int nextSlash(int position) {
+        int low = 0;
+        int high = slashCount;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (slashes[middle] < position) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+
+        return low < slashCount ? slashes[low] : text.length();
+    }
+
+    /**
+     * @return the number of '/' in the path
+     */
+    int slashCount() {
+        return slashCount;
+    }
+
+    /**
+     * @return true if the path holds a character {@link ExpressRouteRegex#LINE_TERMINATORS} contains, which the
+     * route patterns treat specially at the end of a path
+     */
+    boolean hasLineTerminator() {
+        return lineTerminator;
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    private void checkSegment(int segment) {
+        if (segment < 0 || segment >= slashCount) {
+            throw new IndexOutOfBoundsException("Segment " + segment + " of " + slashCount);
+        }
+    }
+
+    /**
+     * Finds the slashes of the path, and whether it holds a line terminator, up to the end of the path.
+     *
+     * @return the offset at which the path ends, which is the first '?' or '#', or the length
+     */
+    private int index(CharSequence target) {
+        final int length = target.length();
+
+        slashCount = 0;
+        lineTerminator = false;
+        nonAscii = false;
+
+        for (int i = 0; i < length; i++) {
+            final char c = target.charAt(i);
+
+            if (c == '?' || c == '#') {
+                return i;
+            }
+
+            if (c == '/') {
+                if (slashCount == slashes.length) {
+                    slashes = Arrays.copyOf(slashes, Math.max(8, slashes.length * 2));
+                }
+
+                slashes[slashCount++] = i;
+            }
+            else if (c >= 0x80) {
+                nonAscii = true;
+                lineTerminator |= c == '\u0085' || (c | 1) == 0x2029;
+            }
+            else if (c < ' ') {
+                lineTerminator |= ExpressRouteRegex.LINE_TERMINATORS.contains(c);
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * @return true if any of the rules would change the path, checked without copying it
+     */
+    private boolean needsNormalizing(CharSequence path, Set<ExpressRoutePathRule> rules) {
+        final int length = path.length();
+
+        if (nonAscii && rules.contains(ExpressRoutePathRule.NFC) && !(original instanceof ExpressRouteBytes) &&
+                !Normalizer.isNormalized(path, Normalizer.Form.NFC)) {
+            return true;
+        }
+
+        if (rules.contains(ExpressRoutePathRule.TRAILING_SLASH) && length > 1 && path.charAt(length - 1) == '/') {
+            return true;
+        }
+
+        final boolean slashes = rules.contains(ExpressRoutePathRule.DUPLICATE_SLASHES);
+        final boolean dots = rules.contains(ExpressRoutePathRule.DOT_SEGMENTS);
+
+        for (int i = 0; i < length; i++) {
+            if (path.charAt(i) != '/') {
+                continue;
+            }
+
+            if (slashes && i + 1 < length && path.charAt(i + 1) == '/') {
+                return true;
+            }
+
+            if (dots && dotSegmentLength(path, i + 1) > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return 1 or 2 if the segment from start is "." or "..", otherwise 0
+     */
+    private static int dotSegmentLength(CharSequence path, int start) {
+        final int length = path.length();
+        int end = start;
+
+        while (end < length && end - start < 3 && path.charAt(end) == '.') {
+            end++;
+        }
+
+        return end > start && end - start < 3 && (end == length || path.charAt(end) == '/') ? end - start : 0;
+    }
+
+    private CharSequence normalize(CharSequence path, Set<ExpressRoutePathRule> rules) {
+        CharSequence result = path;
+
+        if (normalized == null) {
+            normalized = new StringBuilder();
+            resolved = new StringBuilder();
+        }
+
+        if (rules.contains(ExpressRoutePathRule.NFC) && nonAscii && !(original instanceof ExpressRouteBytes)) {
+            result = Normalizer.normalize(path, Normalizer.Form.NFC);
+        }
+
+        if (rules.contains(ExpressRoutePathRule.DUPLICATE_SLASHES)) {
+            normalized.setLength(0);
+
+            for (int i = 0; i < result.length(); i++) {
+                final char c = result.charAt(i);
+
+                if (c != '/' || normalized.length() == 0 || normalized.charAt(normalized.length() - 1) != '/') {
+                    normalized.append(c);
+                }
+            }
+
+            result = normalized;
+        }
+
+        if (rules.contains(ExpressRoutePathRule.DOT_SEGMENTS)) {
+            resolveDotSegments(result, resolved);
+
+            result = resolved;
+        }
+
+        if (rules.contains(ExpressRoutePathRule.TRAILING_SLASH) && result.length() > 1 &&
+                result.charAt(result.length() - 1) == '/') {
+            if (!(result instanceof StringBuilder)) {
+                normalized.setLength(0);
+                normalized.append(result);
+                result = normalized;
+            }
+
+            ((StringBuilder) result).setLength(result.length() - 1);
+        }
+
+        return result;
+    }
+
+    /**
+     * Resolves "." and ".." segments into out, as RFC 3986's remove_dot_segments does for an absolute path. A path
+     * which ends in a dot segment keeps the slash before it, so "/a/b/.." is "/a/".
+     */
+    private static void resolveDotSegments(CharSequence path, StringBuilder out) {
+        final int length = path.length();
+        int position = 0;
+
+        out.setLength(0);
+
+        while (position < length) {
+            int end = position + 1;
+
+            while (end < length && path.charAt(end) != '/') {
+                end++;
+            }
+
+            final int dots = path.charAt(position) == '/' ? dotSegmentLength(path, position + 1) : 0;
+
+            if (dots == 2) {
+                final int last = out.lastIndexOf("/");
+
+                out.setLength(Math.max(last, 0));
+            }
+
+            if (dots == 0) {
+                out.append(path, position, end);
+            }
+            else if (end == length) {
+                out.append('/');
+            }
+
+            position = end;
+        }
+    }
+}
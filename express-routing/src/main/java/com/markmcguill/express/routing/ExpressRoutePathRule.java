@@ -0,0 +1,29 @@
+package com.markmcguill.express.routing;
+
+/**
+ * A way {@link ExpressRoutePath} normalizes a path before any route sees it, set for a router with
+ * {@link ExpressRouter#setPathRules}. The rules are applied in the order declared here.
+ */
+public enum ExpressRoutePathRule {
+    /**
+     * The path is put in Unicode normalization form C, so a character composed in the path matches the same character
+     * decomposed in a definition, which should itself be in form C. Only a path with characters above ASCII is checked,
+     * and only one which is not already in form C is copied. Percent encoded characters, and paths looked up from
+     * bytes, are left alone.
+     */
+    NFC,
+    /**
+     * Each run of slashes becomes one, so "/porkbelly//options" is looked up as "/porkbelly/options".
+     */
+    DUPLICATE_SLASHES,
+    /**
+     * "." segments are removed and ".." segments remove the segment before them, as RFC 3986 resolves them, never
+     * going above the root. Percent encoded dots are left alone.
+     */
+    DOT_SEGMENTS,
+    /**
+     * A trailing slash is removed, except from "/" itself. Routes which are not strict accept a trailing slash anyway,
+     * so this only matters to strict routes, which no longer match with one.
+     */
+    TRAILING_SLASH
+}
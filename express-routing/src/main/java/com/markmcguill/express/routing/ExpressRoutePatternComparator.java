@@ -0,0 +1,31 @@
+package com.markmcguill.express.routing;
+
+import java.util.Comparator;
+
+/**
+ * Created by mark on 14/06/2017.
+ */
+public class ExpressRoutePatternComparator implements Comparator<ExpressRoute> {
+    private final String path;
+
+    public ExpressRoutePatternComparator(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public int compare(ExpressRoute o1, ExpressRoute o2) {
+        final ExpressRoutePatternInfo info1 = o1.getPatternInfo();
+        final ExpressRoutePatternInfo info2 = o2.getPatternInfo();
+
+        if (!info1.isLeastSpecific() && !info2.isLeastSpecific()) {
+            boolean pattern1EqualsPath = o1.getPathDefinition().equals(this.path);
+            boolean pattern2EqualsPath = o2.getPathDefinition().equals(this.path);
+
+            if (pattern1EqualsPath || pattern2EqualsPath) {
+                return pattern1EqualsPath && pattern2EqualsPath ? 0 : (pattern1EqualsPath ? -1 : 1);
+            }
+        }
+
+        return info1.compareTo(info2);
+    }
+}
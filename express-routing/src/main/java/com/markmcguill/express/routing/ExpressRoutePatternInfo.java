@@ -0,0 +1,110 @@
+package com.markmcguill.express.routing;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by mark on 14/06/2017.
+ */
+public class ExpressRoutePatternInfo implements Comparable<ExpressRoutePatternInfo> {
+    private static final Pattern NON_KEY_WILDCARDS = Pattern.compile("/[^:(/]*?[\\*]+[^:]*?");
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile(":[^/]+");
+
+    private final String pattern;
+    private final int uriVars;
+    private final int wildcards;
+    private final boolean catchAllPattern;
+    private final int length;
+
+    public ExpressRoutePatternInfo(ExpressRoute route) {
+        this.uriVars = route.getKeys().size();
+        this.pattern = route.getPathDefinition();
+
+        this.catchAllPattern = this.pattern.equals("/*");
+        this.wildcards = countWildcards(this.pattern);
+        this.length = this.uriVars == 0 ? this.pattern.length() : VARIABLE_PATTERN.matcher(this.pattern).replaceAll("#").length();
+    }
+
+    /**
+     * Restores the counts {@link ExpressRouteSnapshot} stored for a route, rather than recounting them.
+     */
+    ExpressRoutePatternInfo(String pattern, int uriVars, int wildcards, int length) {
+        this.pattern = pattern;
+        this.uriVars = uriVars;
+        this.wildcards = wildcards;
+        this.catchAllPattern = pattern.equals("/*");
+        this.length = length;
+    }
+
+    private static int countWildcards(String pattern) {
+        final Matcher matcher = NON_KEY_WILDCARDS.matcher(pattern);
+
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+
+        return count;
+    }
+
+    public int getUriVars() {
+        return this.uriVars;
+    }
+
+    public boolean isLeastSpecific() {
+        return this.catchAllPattern;
+    }
+
+    public int getTotalCount() {
+        return this.getUriVars() + this.getWildcards();
+    }
+
+    public int getWildcards() {
+        return this.wildcards;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Orders patterns from most to least specific, independent of the path being matched. The catch all
+     * pattern sorts last, then fewer variables and wildcards, longer literal length, fewer wildcards and
+     * finally fewer variables win.
+     */
+    @Override
+    public int compareTo(ExpressRoutePatternInfo other) {
+        if (this.isLeastSpecific() && other.isLeastSpecific()) {
+            return 0;
+        }
+        else if (this.isLeastSpecific()) {
+            return 1;
+        }
+        else if (other.isLeastSpecific()) {
+            return -1;
+        }
+        else if (this.getTotalCount() != other.getTotalCount()) {
+            return Integer.compare(this.getTotalCount(), other.getTotalCount());
+        }
+        else if (this.getLength() != other.getLength()) {
+            return Integer.compare(other.getLength(), this.getLength());
+        }
+        else if (this.getWildcards() != other.getWildcards()) {
+            return Integer.compare(this.getWildcards(), other.getWildcards());
+        }
+        else {
+            return Integer.compare(this.getUriVars(), other.getUriVars());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRoutePatternInfo{" +
+                "pattern='" + pattern + '\'' +
+                ", uriVars=" + getUriVars() +
+                ", wildcards=" + getWildcards() +
+                ", catchAllPattern=" + catchAllPattern +
+                ", length=" + getLength() +
+                '}';
+    }
+}
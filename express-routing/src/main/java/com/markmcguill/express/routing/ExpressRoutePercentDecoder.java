@@ -0,0 +1,149 @@
+package com.markmcguill.express.routing;
+
+/**
+ * Decodes percent encoded UTF-8, as {@code decodeURIComponent} does, checking every escape and byte sequence and
+ * reporting the first malformed one rather than throwing.
+ * <p>
+ * A '+' is left as it is unless asked otherwise: it stands for a space only in query strings and forms, never in a
+ * path.
+ */
+final class ExpressRoutePercentDecoder {
+    private ExpressRoutePercentDecoder() {
+    }
+
+    /**
+     * @param rawBytes    true if the input is a view of bytes, whose characters above ASCII are raw UTF-8 bytes which
+     *                    need decoding just as escaped ones do
+     * @param plusIsSpace true if a '+' decodes to a space, as it does in a query string
+     * @return true if the range holds nothing to decode, so it decodes to itself
+     */
+    static boolean isDecoded(CharSequence input, int start, int end, boolean rawBytes, boolean plusIsSpace) {
+        for (int i = start; i < end; i++) {
+            final char c = input.charAt(i);
+
+            if (c == '%' || (rawBytes && c >= 0x80) || (plusIsSpace && c == '+')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Appends the decoded range to out.
+     *
+     * @param rawBytes    as for {@link #isDecoded}
+     * @param plusIsSpace as for {@link #isDecoded}
+     * @return null, or the first malformed escape or byte sequence, in which case out holds part of the range
+     */
+    static ExpressRouteDecodeError decode(String name, CharSequence input, int start, int end, boolean rawBytes,
+                                         boolean plusIsSpace, StringBuilder out) {
+        int codePoint = 0;
+        int needed = 0;
+        int minimum = 0;
+        int sequenceStart = -1;
+
+        for (int i = start; i < end; ) {
+            final char c = input.charAt(i);
+            final int b;
+
+            if (c == '%') {
+                if (i + 3 > end) {
+                    return new ExpressRouteDecodeError(name, i, ExpressRouteDecodeError.Reason.TRUNCATED_ESCAPE);
+                }
+
+                final int high = hexValue(input.charAt(i + 1));
+                final int low = hexValue(input.charAt(i + 2));
+
+                if (high < 0 || low < 0) {
+                    return new ExpressRouteDecodeError(name, i, ExpressRouteDecodeError.Reason.INVALID_ESCAPE);
+                }
+
+                b = high << 4 | low;
+                i += 3;
+            }
+            else if (rawBytes && c >= 0x80) {
+                b = c;
+                i++;
+            }
+            else {
+                if (needed > 0) {
+                    return new ExpressRouteDecodeError(name, sequenceStart, ExpressRouteDecodeError.Reason.INVALID_UTF8);
+                }
+
+                out.append(plusIsSpace && c == '+' ? ' ' : c);
+                i++;
+                continue;
+            }
+
+            if (needed == 0) {
+                sequenceStart = i - (c == '%' ? 3 : 1);
+
+                if (b < 0x80) {
+                    out.append((char) b);
+                }
+                else if (b >= 0xC2 && b <= 0xDF) {
+                    needed = 1;
+                    codePoint = b & 0x1F;
+                    minimum = 0x80;
+                }
+                else if (b >= 0xE0 && b <= 0xEF) {
+                    needed = 2;
+                    codePoint = b & 0x0F;
+                    minimum = 0x800;
+                }
+                else if (b >= 0xF0 && b <= 0xF4) {
+                    needed = 3;
+                    codePoint = b & 0x07;
+                    minimum = 0x10000;
+                }
+                else {
+                    return new ExpressRouteDecodeError(name, sequenceStart, ExpressRouteDecodeError.Reason.INVALID_UTF8);
+                }
+            }
+            else {
+                if ((b & 0xC0) != 0x80) {
+                    return new ExpressRouteDecodeError(name, sequenceStart, ExpressRouteDecodeError.Reason.INVALID_UTF8);
+                }
+
+                codePoint = codePoint << 6 | (b & 0x3F);
+
+                if (--needed == 0) {
+                    // Overlong forms, surrogates and anything beyond Unicode are not well formed UTF-8.
+                    if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT ||
+                            (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                        return new ExpressRouteDecodeError(name, sequenceStart, ExpressRouteDecodeError.Reason.INVALID_UTF8);
+                    }
+
+                    out.appendCodePoint(codePoint);
+                }
+            }
+        }
+
+        if (needed > 0) {
+            return new ExpressRouteDecodeError(name, sequenceStart, ExpressRouteDecodeError.Reason.INVALID_UTF8);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the value of an ASCII hexadecimal digit, or -1, unlike {@link Character#digit} which accepts digits
+     * from every script
+     */
+    static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,447 @@
+package com.markmcguill.express.routing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a matcher for every type annotated with {@link ExpressRoutes}.
+ * <p>
+ * The definitions are parsed and ranked at build time. Each route becomes a method which walks the path's segments
+ * with {@code charAt} comparisons, trying the route's optional parameters present and absent in the order its
+ * pattern would, and records parameters as offsets. Lookups first switch on the length of the path's first segment,
+ * so only the routes which start with that literal, and those which start with a parameter, are tried, and then only
+ * those which consume as many segments as the path has.
+ */
+@SupportedAnnotationTypes("com.markmcguill.express.routing.ExpressRoutes")
+public class ExpressRouteProcessor extends AbstractProcessor {
+    /**
+     * Route checks per generated method, which keeps every method well inside the JVM's limit on method size.
+     */
+    private static final int CHECKS_PER_METHOD = 256;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(ExpressRoutes.class)) {
+            final ExpressRoutes routes = element.getAnnotation(ExpressRoutes.class);
+            final String packageName = packageOf(element).getQualifiedName().toString();
+            final String simpleName = routes.name().isEmpty() ? element.getSimpleName() + "Matcher" : routes.name();
+
+            try {
+                final String source = generate(packageName, simpleName, element.toString(), routes.value());
+                final String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+                try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, element).openWriter()) {
+                    writer.write(source);
+                }
+            }
+            catch (IllegalArgumentException | IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), element);
+            }
+        }
+
+        return true;
+    }
+
+    private static PackageElement packageOf(Element element) {
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+
+        return (PackageElement) element;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a definition does not compile
+     */
+    static String generate(String packageName, String simpleName, String source, String[] definitions) {
+        final List<ExpressRoute> routes = rank(definitions);
+        final Map<String, String> patternFields = new LinkedHashMap<>();
+        final List<List<ExpressRouteTrieEngine.Element>> elements = new ArrayList<>();
+
+        for (ExpressRoute route : routes) {
+            try {
+                Pattern.compile(route.getRegex());
+            }
+            catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Route " + route.getPathDefinition() + " does not compile: " + e.getDescription());
+            }
+
+            elements.add(toElements(route));
+        }
+
+        final StringBuilder out = new StringBuilder();
+
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+
+        out.append("import java.util.Arrays;\n")
+           .append("import java.util.Collections;\n")
+           .append("import java.util.List;\n")
+           .append("import java.util.regex.Pattern;\n\n")
+           .append("import com.markmcguill.express.routing.ExpressRouteEngineFactory;\n")
+           .append("import com.markmcguill.express.routing.ExpressRouteEngineType;\n")
+           .append("import com.markmcguill.express.routing.ExpressRouteGeneratedEngine;\n")
+           .append("import com.markmcguill.express.routing.ExpressRouteMatch;\n\n")
+           .append("/**\n")
+           .append(" * Generated by ExpressRouteProcessor from the routes declared on ").append(source).append(". Do not edit.\n")
+           .append(" */\n")
+           .append("public final class ").append(simpleName).append(" extends ExpressRouteGeneratedEngine {\n")
+           .append("    /**\n")
+           .append("     * The route definitions, most specific first.\n")
+           .append("     */\n")
+           .append("    public static final List<String> DEFINITIONS = Collections.unmodifiableList(Arrays.asList(");
+
+        for (int i = 0; i < routes.size(); i++) {
+            out.append(i == 0 ? "\n" : ",\n").append("            ").append(javaString(routes.get(i).getPathDefinition()));
+        }
+
+        out.append("));\n\n")
+           .append("    /**\n")
+           .append("     * Compiles this matcher for a router whose routes are exactly {@link #DEFINITIONS}, and a trie otherwise.\n")
+           .append("     */\n")
+           .append("    public static final ExpressRouteEngineFactory FACTORY = factory(DEFINITIONS, ").append(simpleName)
+           .append("::new, ExpressRouteEngineType.TRIE);\n");
+
+        final StringBuilder methods = new StringBuilder();
+
+        for (int i = 0; i < routes.size(); i++) {
+            if (elements.get(i) != null) {
+                appendRouteMethod(methods, i, routes.get(i), elements.get(i), patternFields);
+            }
+        }
+
+        if (!patternFields.isEmpty()) {
+            out.append('\n');
+        }
+
+        for (Map.Entry<String, String> field : patternFields.entrySet()) {
+            out.append("    private static final Pattern ").append(field.getValue()).append(" = Pattern.compile(")
+               .append(javaString(field.getKey())).append(");\n");
+        }
+
+        out.append('\n')
+           .append("    public ").append(simpleName).append("() {\n")
+           .append("        super(DEFINITIONS);\n")
+           .append("    }\n");
+
+        appendFind(out, routes, elements);
+        out.append(methods).append("}\n");
+
+        return out.toString();
+    }
+
+    private static List<ExpressRoute> rank(String[] definitions) {
+        final List<ExpressRoute> routes = new ArrayList<>();
+
+        for (String definition : definitions) {
+            routes.add(new ExpressRoute(definition, null, true));
+        }
+
+        // A stable sort, so routes which rank the same keep the order they were declared in, as in ExpressRouter.
+        routes.sort(Comparator.comparing(ExpressRoute::getPatternInfo));
+
+        return routes;
+    }
+
+    /**
+     * @return the route as whole segment elements, or null if it has to be matched by its pattern
+     */
+    private static List<ExpressRouteTrieEngine.Element> toElements(ExpressRoute route) {
+        if (ExpressRouteTrieEngine.isRootSlash(route)) {
+            return new ArrayList<>();
+        }
+
+        final List<ExpressRouteTrieEngine.Element> elements = ExpressRouteTrieEngine.toElements(route.getTokens());
+
+        if (elements == null) {
+            return null;
+        }
+
+        int optionalCount = 0;
+
+        for (ExpressRouteTrieEngine.Element element : elements) {
+            if (element.optional) {
+                optionalCount++;
+            }
+        }
+
+        return optionalCount > ExpressRouteTrieEngine.MAX_OPTIONAL_TOKENS ? null : elements;
+    }
+
+    /**
+     * @return the literal a route's first segment must be, or null if its first segment may be anything
+     */
+    private static String firstLiteral(List<ExpressRouteTrieEngine.Element> elements) {
+        return elements != null && !elements.isEmpty() && elements.get(0).kind == ExpressRouteTrieEngine.Element.LITERAL ?
+                elements.get(0).literal : null;
+    }
+
+    private static void appendFind(StringBuilder out, List<ExpressRoute> routes, List<List<ExpressRouteTrieEngine.Element>> elements) {
+        // Every route whose first segment is a literal is tried only for paths starting with that literal, alongside
+        // the routes which could match any first segment, in rank order.
+        final Map<String, List<Integer>> buckets = new LinkedHashMap<>();
+        final List<Integer> any = new ArrayList<>();
+
+        for (int i = 0; i < routes.size(); i++) {
+            final String literal = firstLiteral(elements.get(i));
+
+            if (literal == null) {
+                any.add(i);
+
+                for (List<Integer> bucket : buckets.values()) {
+                    bucket.add(i);
+                }
+            }
+            else {
+                buckets.computeIfAbsent(literal, key -> new ArrayList<>(any)).add(i);
+            }
+        }
+
+        final Map<Integer, List<String>> literalsByLength = new LinkedHashMap<>();
+
+        for (String literal : buckets.keySet()) {
+            literalsByLength.computeIfAbsent(literal.length(), length -> new ArrayList<>()).add(literal);
+        }
+
+        out.append('\n')
+           .append("    @Override\n")
+           .append("    protected int find(CharSequence path, int end, int segments, ExpressRouteMatch match) {\n");
+
+        if (!literalsByLength.isEmpty()) {
+            out.append("        switch (firstSegmentEnd(path, end) - 1) {\n");
+
+            for (Map.Entry<Integer, List<String>> length : literalsByLength.entrySet()) {
+                out.append("            case ").append(length.getKey()).append(":\n");
+
+                for (String literal : length.getValue()) {
+                    out.append("                if (regionEquals(path, 1, ").append(javaString(literal)).append(")) {\n")
+                       .append("                    return find").append(bucketIndex(buckets, literal)).append("(path, end, segments, match);\n")
+                       .append("                }\n");
+                }
+
+                out.append("                break;\n");
+            }
+
+            out.append("            default:\n")
+               .append("                break;\n")
+               .append("        }\n\n");
+        }
+
+        out.append("        return findAny(path, end, segments, match);\n")
+           .append("    }\n");
+
+        int index = 0;
+
+        for (Map.Entry<String, List<Integer>> bucket : buckets.entrySet()) {
+            appendBucket(out, "find" + index++, "Routes which can match a path starting with " + javaString(bucket.getKey()) + ".",
+                    bucket.getValue(), elements);
+        }
+
+        appendBucket(out, "findAny", "Routes which can match a path starting with any segment.", any, elements);
+    }
+
+    private static int bucketIndex(Map<String, List<Integer>> buckets, String literal) {
+        int index = 0;
+
+        for (String key : buckets.keySet()) {
+            if (key.equals(literal)) {
+                return index;
+            }
+
+            index++;
+        }
+
+        throw new IllegalStateException(literal);
+    }
+
+    private static void appendBucket(StringBuilder out, String name, String comment, List<Integer> routes,
+                                     List<List<ExpressRouteTrieEngine.Element>> elements) {
+        for (int chunk = 0; chunk * CHECKS_PER_METHOD < routes.size() || chunk == 0; chunk++) {
+            final String methodName = chunk == 0 ? name : name + "_" + chunk;
+            final int from = chunk * CHECKS_PER_METHOD;
+            final int to = Math.min(routes.size(), from + CHECKS_PER_METHOD);
+
+            out.append('\n');
+
+            if (chunk == 0) {
+                out.append("    // ").append(comment).append('\n');
+            }
+
+            out.append("    private int ").append(methodName).append("(CharSequence path, int end, int segments, ExpressRouteMatch match) {\n");
+
+            for (int i = from; i < to; i++) {
+                final int route = routes.get(i);
+
+                out.append("        if (").append(segmentGuard(elements.get(route))).append(elements.get(route) != null ?
+                        "route" + route + "(path, end, match)" : "fallback(" + route + ", path, match)")
+                   .append(") {\n")
+                   .append("            return ").append(route).append(";\n")
+                   .append("        }\n\n");
+            }
+
+            out.append(to < routes.size() ? "        return " + name + "_" + (chunk + 1) + "(path, end, segments, match);\n" : "        return NO_MATCH;\n")
+               .append("    }\n");
+        }
+    }
+
+    /**
+     * Every element other than a rest consumes exactly one segment, so a route can only match paths whose segment
+     * count lies between its required elements and all of its elements. Checking the count first skips most routes
+     * in a bucket with a comparison or two.
+     *
+     * @return the conditions on the path's segment count which must hold before the route is tried, each followed
+     * by {@code &&}
+     */
+    private static String segmentGuard(List<ExpressRouteTrieEngine.Element> elements) {
+        if (elements == null) {
+            return "";
+        }
+
+        int required = 0;
+        int optional = 0;
+        boolean rest = false;
+
+        for (ExpressRouteTrieEngine.Element element : elements) {
+            if (element.kind == ExpressRouteTrieEngine.Element.REST) {
+                rest = true;
+            }
+            else if (element.optional) {
+                optional++;
+            }
+            else {
+                required++;
+            }
+        }
+
+        if (rest) {
+            // The rest consumes its '/' and everything after it, so it may add any number of segments, or none if
+            // its '/' is the trailing slash.
+            return required == 0 ? "" : "segments >= " + required + " && ";
+        }
+
+        if (optional == 0) {
+            return "segments == " + required + " && ";
+        }
+
+        return (required == 0 ? "" : "segments >= " + required + " && ") + "segments <= " + (required + optional) + " && ";
+    }
+
+    /**
+     * Writes a method which tries each combination of the route's optional parameters, present before absent from
+     * the first optional parameter to the last, as the route's pattern would.
+     */
+    private static void appendRouteMethod(StringBuilder out, int index, ExpressRoute route,
+                                          List<ExpressRouteTrieEngine.Element> elements, Map<String, String> patternFields) {
+        int optionalCount = 0;
+
+        for (ExpressRouteTrieEngine.Element element : elements) {
+            if (element.optional) {
+                optionalCount++;
+            }
+        }
+
+        out.append('\n')
+           .append("    // ").append(javaString(route.getPathDefinition())).append('\n')
+           .append("    private static boolean route").append(index).append("(CharSequence path, int end, ExpressRouteMatch match) {\n");
+
+        if (!elements.isEmpty()) {
+            out.append("        int p;\n\n");
+        }
+
+        for (int variant = 0; variant < (1 << optionalCount); variant++) {
+            final List<String> conditions = new ArrayList<>();
+            final List<Integer> absent = new ArrayList<>();
+            String position = "0";
+            boolean rest = false;
+            int optional = optionalCount;
+
+            for (ExpressRouteTrieEngine.Element element : elements) {
+                if (element.optional && ((variant >> --optional) & 1) == 1) {
+                    absent.add(element.key);
+                    continue;
+                }
+
+                if (element.kind == ExpressRouteTrieEngine.Element.LITERAL) {
+                    conditions.add("(p = literal(path, " + position + ", end, " + javaString(element.literal) + ")) >= 0");
+                }
+                else if (element.kind == ExpressRouteTrieEngine.Element.PARAMETER) {
+                    final String pattern = element.valueType != null ?
+                            ", " + ExpressRouteValueType.class.getName() + "." + element.valueType.name() :
+                            element.pattern == null ? "" : ", " +
+                            patternFields.computeIfAbsent(element.pattern.pattern(), source -> "SEGMENT_" + patternFields.size());
+
+                    conditions.add("(p = parameter(path, " + position + ", end, match, " + element.key + pattern + ")) >= 0");
+                }
+                else {
+                    conditions.add("rest(path, " + position + ", match, " + element.key + ")");
+                    rest = true;
+                }
+
+                position = "p";
+            }
+
+            if (!rest) {
+                conditions.add(position.equals("0") ? "end == 0" : "p == end");
+            }
+
+            out.append("        if (").append(String.join("\n                && ", conditions)).append(") {\n");
+
+            for (int key : absent) {
+                out.append("            absent(match, ").append(key).append(");\n");
+            }
+
+            out.append("            return true;\n")
+               .append("        }\n\n");
+        }
+
+        out.append("        return false;\n")
+           .append("    }\n");
+    }
+
+    static String javaString(String value) {
+        final StringBuilder out = new StringBuilder("\"");
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            }
+            else if (c < ' ' || c == 0x7f) {
+                // Unicode escapes are decoded before the source is read, so a line break must not be written as one.
+                out.append(String.format("\\%03o", (int) c));
+            }
+            else if (c > '~') {
+                out.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                out.append(c);
+            }
+        }
+
+        return out.append('"').toString();
+    }
+}
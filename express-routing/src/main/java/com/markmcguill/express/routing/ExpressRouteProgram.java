@@ -0,0 +1,324 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instructions for a Thompson style automaton built from one or more {@link ExpressRouteRegex}es, and a Pike VM which
+ * runs them.
+ * <p>
+ * The VM advances every live thread one character at a time, in priority order, so it visits each character once and
+ * reports the same match and groups as {@link java.util.regex.Pattern}'s backtracking would, without ever
+ * backtracking. Instances are immutable once built and may be run from many threads.
+ */
+class ExpressRouteProgram {
+    static final int CHAR = 0;
+    static final int SET = 1;
+    static final int SPLIT = 2;
+    static final int JMP = 3;
+    static final int SAVE = 4;
+    static final int BEGIN = 5;
+    static final int END = 6;
+    static final int LOOK = 7;
+    static final int MATCH = 8;
+
+    private int[] ops = new int[64];
+    private int[] as = new int[64];
+    private int[] bs = new int[64];
+    private int size;
+
+    private final List<ExpressRouteRegex.CharSet> sets = new ArrayList<>();
+    private final Map<ExpressRouteRegex.CharSet, Integer> setIndexes = new HashMap<>();
+    private int slotCount = 2;
+
+    private final ThreadLocal<Vm> vms = ThreadLocal.withInitial(() -> new Vm(this));
+
+    int size() {
+        return size;
+    }
+
+    int op(int pc) {
+        return ops[pc];
+    }
+
+    int a(int pc) {
+        return as[pc];
+    }
+
+    int b(int pc) {
+        return bs[pc];
+    }
+
+    int getSlotCount() {
+        return slotCount;
+    }
+
+    void reserveGroups(int groupCount) {
+        slotCount = Math.max(slotCount, (groupCount + 1) * 2);
+    }
+
+    int emit(int op, int a, int b) {
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, size * 2);
+            as = Arrays.copyOf(as, size * 2);
+            bs = Arrays.copyOf(bs, size * 2);
+        }
+
+        ops[size] = op;
+        as[size] = a;
+        bs[size] = b;
+
+        return size++;
+    }
+
+    void patchA(int pc, int a) {
+        as[pc] = a;
+    }
+
+    void patchB(int pc, int b) {
+        bs[pc] = b;
+    }
+
+    int addSet(ExpressRouteRegex.CharSet set) {
+        Integer index = setIndexes.get(set);
+
+        if (index == null) {
+            index = sets.size();
+            sets.add(set);
+            setIndexes.put(set, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return true if the CHAR or SET instruction at pc accepts the code point
+     */
+    boolean consumes(int pc, int codePoint) {
+        return ops[pc] == CHAR ? as[pc] == codePoint : sets.get(as[pc]).contains(codePoint);
+    }
+
+    /**
+     * @return true if the LOOK instruction at pc holds at the position
+     */
+    boolean lookahead(int pc, CharSequence input, int position) {
+        return (position < input.length() && sets.get(as[pc]).contains(Character.codePointAt(input, position))) ||
+                (bs[pc] != 0 && isEnd(input, position));
+    }
+
+    /**
+     * @return true if the LOOK instruction at pc accepts the next code point
+     */
+    boolean lookaheadConsumes(int pc, int codePoint) {
+        return sets.get(as[pc]).contains(codePoint);
+    }
+
+    /**
+     * '$' as {@link java.util.regex.Pattern} evaluates it without MULTILINE: at the end of input, or before a line
+     * terminator which ends the input.
+     */
+    static boolean isEnd(CharSequence input, int position) {
+        final int end = input.length();
+
+        if (position == end) {
+            return true;
+        }
+        else if (position == end - 2) {
+            return input.charAt(position) == '\r' && input.charAt(position + 1) == '\n';
+        }
+        else if (position == end - 1) {
+            final char c = input.charAt(position);
+
+            if (c == '\n') {
+                return position == 0 || input.charAt(position - 1) != '\r';
+            }
+
+            return c == '\r' || c == '\u0085' || (c | 1) == 0x2029;
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs the program from the given entry points, highest priority first.
+     *
+     * @param captures receives the group offsets of the match, two ints per group starting with group 0, which is
+     *                 left unset. Must hold {@link #getSlotCount()} ints.
+     * @return the route of the MATCH instruction reached, or -1
+     */
+    int run(CharSequence input, int[] entries, int[] captures) {
+        return vms.get().run(input, entries, captures);
+    }
+
+    /**
+     * The per thread working state of a run, sized for the program.
+     */
+    private static class Vm {
+        private final ExpressRouteProgram program;
+        private final int slots;
+        private final int[] marks;
+        private int generation;
+
+        private int[] currentPcs;
+        private int[] currentCaptures;
+        private int currentSize;
+        private int[] nextPcs;
+        private int[] nextCaptures;
+        private int nextSize;
+
+        private final int[] working;
+        private int[] stack = new int[64];
+
+        private Vm(ExpressRouteProgram program) {
+            this.program = program;
+            this.slots = program.slotCount;
+            this.marks = new int[program.size];
+            this.currentPcs = new int[program.size];
+            this.nextPcs = new int[program.size];
+            this.currentCaptures = new int[program.size * slots];
+            this.nextCaptures = new int[program.size * slots];
+            this.working = new int[slots];
+        }
+
+        private int run(CharSequence input, int[] entries, int[] captures) {
+            final int length = input.length();
+
+            if (generation > Integer.MAX_VALUE - length - 2) {
+                Arrays.fill(marks, 0);
+                generation = 0;
+            }
+
+            generation++;
+            nextSize = 0;
+            Arrays.fill(working, -1);
+
+            for (int entry : entries) {
+                add(entry, input, 0);
+            }
+
+            swap();
+
+            int matched = -1;
+            int position = 0;
+
+            while (currentSize > 0) {
+                final int codePoint = position < length ? Character.codePointAt(input, position) : -1;
+                final int nextPosition = codePoint < 0 ? position : position + Character.charCount(codePoint);
+
+                generation++;
+                nextSize = 0;
+
+                for (int i = 0; i < currentSize; i++) {
+                    final int pc = currentPcs[i];
+                    final int op = program.ops[pc];
+
+                    if (op == MATCH) {
+                        matched = program.as[pc];
+                        System.arraycopy(currentCaptures, i * slots, captures, 0, slots);
+                        break;
+                    }
+                    else if (codePoint >= 0 && program.consumes(pc, codePoint)) {
+                        System.arraycopy(currentCaptures, i * slots, working, 0, slots);
+                        add(pc + 1, input, nextPosition);
+                    }
+                }
+
+                if (codePoint < 0) {
+                    break;
+                }
+
+                swap();
+                position = nextPosition;
+            }
+
+            return matched;
+        }
+
+        private void swap() {
+            final int[] pcs = currentPcs;
+            currentPcs = nextPcs;
+            nextPcs = pcs;
+
+            final int[] captures = currentCaptures;
+            currentCaptures = nextCaptures;
+            nextCaptures = captures;
+
+            currentSize = nextSize;
+            nextSize = 0;
+        }
+
+        /**
+         * Follows the empty transitions from pc, in priority order, adding every thread which reaches a consuming or
+         * MATCH instruction to the next list with a copy of the working captures.
+         */
+        private void add(int start, CharSequence input, int position) {
+            int top = push(0, start, 0);
+
+            while (top > 0) {
+                final int value = stack[--top];
+                final int x = stack[--top];
+
+                if (x < 0) {
+                    working[-x - 1] = value;
+                    continue;
+                }
+
+                final int pc = x;
+
+                if (marks[pc] == generation) {
+                    continue;
+                }
+
+                marks[pc] = generation;
+
+                switch (program.ops[pc]) {
+                    case JMP:
+                        top = push(top, program.as[pc], 0);
+                        break;
+                    case SPLIT:
+                        top = push(top, program.bs[pc], 0);
+                        top = push(top, program.as[pc], 0);
+                        break;
+                    case SAVE:
+                        top = push(top, -program.as[pc] - 1, working[program.as[pc]]);
+                        working[program.as[pc]] = position;
+                        top = push(top, pc + 1, 0);
+                        break;
+                    case BEGIN:
+                        if (position == 0) {
+                            top = push(top, pc + 1, 0);
+                        }
+                        break;
+                    case END:
+                        if (isEnd(input, position)) {
+                            top = push(top, pc + 1, 0);
+                        }
+                        break;
+                    case LOOK:
+                        if (program.lookahead(pc, input, position)) {
+                            top = push(top, pc + 1, 0);
+                        }
+                        break;
+                    default:
+                        nextPcs[nextSize] = pc;
+                        System.arraycopy(working, 0, nextCaptures, nextSize * slots, slots);
+                        nextSize++;
+                }
+            }
+        }
+
+        private int push(int top, int x, int value) {
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+
+            stack[top] = x;
+            stack[top + 1] = value;
+
+            return top + 2;
+        }
+    }
+}
@@ -0,0 +1,1179 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parsed form of the subset of {@link java.util.regex.Pattern} syntax that route patterns are built from, which can
+ * be analysed and compiled into an {@link ExpressRouteProgram}.
+ * <p>
+ * Supported are literals and escapes, '.', bracket classes, the \d \w \s classes and their negations, capturing and
+ * non-capturing groups, alternation, greedy and reluctant quantifiers, '^', '$' and lookaheads of single characters
+ * or the end of input, such as the {@code (?=$)} which {@code tokensToRegex} emits. Anything else (backreferences,
+ * lookbehind, possessive quantifiers, flags, Unicode properties...) is rejected with an
+ * {@link UnsupportedPatternException}.
+ */
+class ExpressRouteRegex {
+    private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    /**
+     * The length of what a pattern without an upper bound, like {@code a+}, can match.
+     */
+    static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    static final CharSet LINE_TERMINATORS = CharSet.of('\n', '\r', 0x85, 0x2028, 0x2029);
+
+    private final String source;
+    private final Node root;
+    private final int groupCount;
+
+    private ExpressRouteRegex(String source, Node root, int groupCount) {
+        this.source = source;
+        this.root = root;
+        this.groupCount = groupCount;
+    }
+
+    static ExpressRouteRegex parse(String source) {
+        final Parser parser = new Parser(source);
+        final Node root = parser.parseAlternation();
+
+        if (parser.position < source.length()) {
+            throw parser.unsupported("unbalanced ')'");
+        }
+
+        return new ExpressRouteRegex(source, root, parser.groupCount);
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * @return true if the pattern can match the empty string
+     */
+    boolean isNullable() {
+        return root.isNullable();
+    }
+
+    /**
+     * @return the fewest chars a match of the pattern can have
+     */
+    int minLength() {
+        return root.minLength();
+    }
+
+    /**
+     * @return the most chars a match of the pattern can have, counting two for a supplementary code point, or
+     * {@link #UNBOUNDED}
+     */
+    int maxLength() {
+        return root.maxLength();
+    }
+
+    /**
+     * @return true if any character the pattern consumes could be the given code point
+     */
+    boolean canConsume(int codePoint) {
+        return root.canConsume(codePoint);
+    }
+
+    /**
+     * @return true if the pattern contains '^', '$' or a lookahead
+     */
+    boolean hasAssertions() {
+        return root.hasAssertions();
+    }
+
+    /**
+     * Looks for the shapes which make a backtracking matcher take exponential time: a quantifier inside a repeated
+     * group which can also consume what follows it there, as in {@code (a+)+} or {@code (\w+\d)+}, and a repeated
+     * alternation whose alternatives can start with the same character and run on into the next repetition, as in
+     * {@code (a|aa)*}. In a route they come from repeating parameters, whose custom pattern is repeated between
+     * delimiters, as in {@code :path(.+)+}. On
+     * such a pattern a path which almost matches can be split between the repetitions in exponentially many ways,
+     * each of which {@link java.util.regex.Pattern} tries. A quantifier whose characters cannot run into the next
+     * repetition, like the {@code [^\/]+?} between the delimiters of a repeating parameter, is not ambiguous.
+     *
+     * @return what makes the pattern ambiguous, or null if nothing does
+     */
+    String findAmbiguity() {
+        return root.findAmbiguity(CharSet.EMPTY, false);
+    }
+
+    /**
+     * Appends the pattern to the program, ending in a match of the given route.
+     *
+     * @return the program counter the pattern starts at
+     */
+    int compile(ExpressRouteProgram program, int route) {
+        final int start = program.size();
+
+        root.compile(program);
+        program.emit(ExpressRouteProgram.MATCH, route, 0);
+
+        return start;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    static class UnsupportedPatternException extends RuntimeException {
+        UnsupportedPatternException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A set of code points held as sorted, inclusive, non-overlapping ranges.
+     */
+    static class CharSet {
+        static final CharSet EMPTY = new CharSet(new int[0]);
+
+        private final int[] ranges;
+
+        private CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(int... codePoints) {
+            final Builder builder = new Builder();
+
+            for (int codePoint : codePoints) {
+                builder.add(codePoint, codePoint);
+            }
+
+            return builder.build();
+        }
+
+        static CharSet range(int from, int to) {
+            return new CharSet(new int[]{from, to});
+        }
+
+        boolean contains(int codePoint) {
+            int low = 0;
+            int high = ranges.length / 2 - 1;
+
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+
+                if (codePoint < ranges[mid * 2]) {
+                    high = mid - 1;
+                }
+                else if (codePoint > ranges[mid * 2 + 1]) {
+                    low = mid + 1;
+                }
+                else {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        boolean isSingle() {
+            return ranges.length == 2 && ranges[0] == ranges[1];
+        }
+
+        int first() {
+            return ranges[0];
+        }
+
+        int[] ranges() {
+            return ranges;
+        }
+
+        CharSet union(CharSet other) {
+            return ranges.length == 0 ? other : other.ranges.length == 0 ? this : new Builder().addAll(this).addAll(other).build();
+        }
+
+        boolean intersects(CharSet other) {
+            for (int i = 0, j = 0; i < ranges.length && j < other.ranges.length; ) {
+                if (ranges[i + 1] < other.ranges[j]) {
+                    i += 2;
+                }
+                else if (other.ranges[j + 1] < ranges[i]) {
+                    j += 2;
+                }
+                else {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        CharSet complement() {
+            final Builder builder = new Builder();
+            int next = 0;
+
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > next) {
+                    builder.add(next, ranges[i] - 1);
+                }
+
+                next = ranges[i + 1] + 1;
+            }
+
+            if (next <= MAX_CODE_POINT) {
+                builder.add(next, MAX_CODE_POINT);
+            }
+
+            return builder.build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CharSet && Arrays.equals(ranges, ((CharSet) o).ranges);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ranges);
+        }
+
+        static class Builder {
+            private final List<int[]> ranges = new ArrayList<>();
+
+            Builder add(int from, int to) {
+                ranges.add(new int[]{from, to});
+                return this;
+            }
+
+            Builder addAll(CharSet set) {
+                for (int i = 0; i < set.ranges.length; i += 2) {
+                    add(set.ranges[i], set.ranges[i + 1]);
+                }
+
+                return this;
+            }
+
+            CharSet build() {
+                ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+                final List<int[]> merged = new ArrayList<>();
+
+                for (int[] range : ranges) {
+                    final int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+
+                    if (last != null && range[0] <= last[1] + 1) {
+                        last[1] = Math.max(last[1], range[1]);
+                    }
+                    else {
+                        merged.add(new int[]{range[0], range[1]});
+                    }
+                }
+
+                final int[] flat = new int[merged.size() * 2];
+
+                for (int i = 0; i < merged.size(); i++) {
+                    flat[i * 2] = merged.get(i)[0];
+                    flat[i * 2 + 1] = merged.get(i)[1];
+                }
+
+                return new CharSet(flat);
+            }
+        }
+    }
+
+    private static int addLengths(int a, int b) {
+        return a == UNBOUNDED || b == UNBOUNDED ? UNBOUNDED : (int) Math.min(UNBOUNDED, (long) a + b);
+    }
+
+    private static int multiplyLength(int length, int times) {
+        return length == UNBOUNDED && times > 0 ? UNBOUNDED : (int) Math.min(UNBOUNDED, (long) length * times);
+    }
+
+    private abstract static class Node {
+        abstract boolean isNullable();
+
+        abstract boolean canConsume(int codePoint);
+
+        abstract boolean hasAssertions();
+
+        abstract int minLength();
+
+        abstract int maxLength();
+
+        /**
+         * @return the characters the node can start with
+         */
+        abstract CharSet firstSet();
+
+        /**
+         * @return every character the node can consume
+         */
+        abstract CharSet consumedSet();
+
+        /**
+         * @param follow   the characters which can come after the node before the enclosing repetition repeats,
+         *                 including those which start its next repetition
+         * @param repeated true if the node is inside a repeated group
+         */
+        abstract String findAmbiguity(CharSet follow, boolean repeated);
+
+        abstract void compile(ExpressRouteProgram program);
+    }
+
+    private static class CharNode extends Node {
+        private final CharSet set;
+
+        private CharNode(CharSet set) {
+            this.set = set;
+        }
+
+        @Override
+        int minLength() {
+            return 1;
+        }
+
+        @Override
+        int maxLength() {
+            final int[] ranges = set.ranges();
+
+            return ranges.length > 0 && ranges[ranges.length - 1] > Character.MAX_VALUE ? 2 : 1;
+        }
+
+        @Override
+        boolean isNullable() {
+            return false;
+        }
+
+        @Override
+        boolean canConsume(int codePoint) {
+            return set.contains(codePoint);
+        }
+
+        @Override
+        boolean hasAssertions() {
+            return false;
+        }
+
+        @Override
+        CharSet firstSet() {
+            return set;
+        }
+
+        @Override
+        CharSet consumedSet() {
+            return set;
+        }
+
+        @Override
+        String findAmbiguity(CharSet follow, boolean repeated) {
+            return null;
+        }
+
+        @Override
+        void compile(ExpressRouteProgram program) {
+            if (set.isSingle()) {
+                program.emit(ExpressRouteProgram.CHAR, set.first(), 0);
+            }
+            else {
+                program.emit(ExpressRouteProgram.SET, program.addSet(set), 0);
+            }
+        }
+    }
+
+    private static class SequenceNode extends Node {
+        private final List<Node> nodes;
+
+        private SequenceNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int minLength() {
+            int length = 0;
+
+            for (Node node : nodes) {
+                length = addLengths(length, node.minLength());
+            }
+
+            return length;
+        }
+
+        @Override
+        int maxLength() {
+            int length = 0;
+
+            for (Node node : nodes) {
+                length = addLengths(length, node.maxLength());
+            }
+
+            return length;
+        }
+
+        @Override
+        boolean isNullable() {
+            for (Node node : nodes) {
+                if (!node.isNullable()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        boolean canConsume(int codePoint) {
+            for (Node node : nodes) {
+                if (node.canConsume(codePoint)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        boolean hasAssertions() {
+            for (Node node : nodes) {
+                if (node.hasAssertions()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        CharSet firstSet() {
+            CharSet first = CharSet.EMPTY;
+
+            for (Node node : nodes) {
+                first = first.union(node.firstSet());
+
+                if (!node.isNullable()) {
+                    break;
+                }
+            }
+
+            return first;
+        }
+
+        @Override
+        CharSet consumedSet() {
+            CharSet consumed = CharSet.EMPTY;
+
+            for (Node node : nodes) {
+                consumed = consumed.union(node.consumedSet());
+            }
+
+            return consumed;
+        }
+
+        @Override
+        String findAmbiguity(CharSet follow, boolean repeated) {
+            // Walks backwards, so each node's follow set is what the nodes after it can start with, and the
+            // sequence's own follow set while they can all match nothing.
+            CharSet after = follow;
+
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                final Node node = nodes.get(i);
+                final String ambiguity = node.findAmbiguity(after, repeated);
+
+                if (ambiguity != null) {
+                    return ambiguity;
+                }
+
+                after = node.isNullable() ? node.firstSet().union(after) : node.firstSet();
+            }
+
+            return null;
+        }
+
+        @Override
+        void compile(ExpressRouteProgram program) {
+            for (Node node : nodes) {
+                node.compile(program);
+            }
+        }
+    }
+
+    private static class AlternationNode extends Node {
+        private final List<Node> alternatives;
+
+        private AlternationNode(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        int minLength() {
+            int length = UNBOUNDED;
+
+            for (Node node : alternatives) {
+                length = Math.min(length, node.minLength());
+            }
+
+            return length;
+        }
+
+        @Override
+        int maxLength() {
+            int length = 0;
+
+            for (Node node : alternatives) {
+                length = Math.max(length, node.maxLength());
+            }
+
+            return length;
+        }
+
+        @Override
+        boolean isNullable() {
+            for (Node node : alternatives) {
+                if (node.isNullable()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        boolean canConsume(int codePoint) {
+            for (Node node : alternatives) {
+                if (node.canConsume(codePoint)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        boolean hasAssertions() {
+            for (Node node : alternatives) {
+                if (node.hasAssertions()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        CharSet firstSet() {
+            CharSet first = CharSet.EMPTY;
+
+            for (Node node : alternatives) {
+                first = first.union(node.firstSet());
+            }
+
+            return first;
+        }
+
+        @Override
+        CharSet consumedSet() {
+            CharSet consumed = CharSet.EMPTY;
+
+            for (Node node : alternatives) {
+                consumed = consumed.union(node.consumedSet());
+            }
+
+            return consumed;
+        }
+
+        @Override
+        String findAmbiguity(CharSet follow, boolean repeated) {
+            // Alternatives which start alike are only ambiguous if one can run on into what follows, as in (a|aa)*,
+            // rather than being cut off by it, as the alternatives between the delimiters of (?:\/(?:a|aa))* are.
+            final boolean runsOn = repeated && consumedSet().intersects(follow);
+            CharSet seen = CharSet.EMPTY;
+
+            for (Node node : alternatives) {
+                final CharSet first = node.firstSet();
+
+                if (runsOn && seen.intersects(first)) {
+                    return "alternatives which can start with the same character inside a repeated group";
+                }
+
+                seen = seen.union(first);
+
+                final String ambiguity = node.findAmbiguity(follow, repeated);
+
+                if (ambiguity != null) {
+                    return ambiguity;
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        void compile(ExpressRouteProgram program) {
+            final int[] jumps = new int[alternatives.size() - 1];
+
+            for (int i = 0; i < alternatives.size() - 1; i++) {
+                final int split = program.emit(ExpressRouteProgram.SPLIT, 0, 0);
+
+                program.patchA(split, program.size());
+                alternatives.get(i).compile(program);
+                jumps[i] = program.emit(ExpressRouteProgram.JMP, 0, 0);
+                program.patchB(split, program.size());
+            }
+
+            alternatives.get(alternatives.size() - 1).compile(program);
+
+            for (int jump : jumps) {
+                program.patchA(jump, program.size());
+            }
+        }
+    }
+
+    private static class RepeatNode extends Node {
+        private final Node node;
+        private final int min;
+        private final int max;
+        private final boolean greedy;
+
+        private RepeatNode(Node node, int min, int max, boolean greedy) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        @Override
+        int minLength() {
+            return multiplyLength(node.minLength(), min);
+        }
+
+        @Override
+        int maxLength() {
+            final int length = node.maxLength();
+
+            return length == 0 ? 0 : max < 0 ? UNBOUNDED : multiplyLength(length, max);
+        }
+
+        @Override
+        boolean isNullable() {
+            return min == 0 || node.isNullable();
+        }
+
+        @Override
+        boolean canConsume(int codePoint) {
+            return max != 0 && node.canConsume(codePoint);
+        }
+
+        @Override
+        boolean hasAssertions() {
+            return node.hasAssertions();
+        }
+
+        @Override
+        CharSet firstSet() {
+            return max == 0 ? CharSet.EMPTY : node.firstSet();
+        }
+
+        @Override
+        CharSet consumedSet() {
+            return max == 0 ? CharSet.EMPTY : node.consumedSet();
+        }
+
+        @Override
+        String findAmbiguity(CharSet follow, boolean repeated) {
+            final boolean repeats = max < 0 || max > 1;
+
+            if (!repeats) {
+                return node.findAmbiguity(follow, repeated);
+            }
+
+            if (repeated && node.consumedSet().intersects(follow)) {
+                return "a quantifier inside a repeated group which can also match the group's next repetition";
+            }
+
+            // The end of the body is followed by its own next repetition, and inside another repeat by whatever can
+            // follow there. What follows the outermost repeat only makes backtracking polynomial, so is left out.
+            return node.findAmbiguity(repeated ? node.firstSet().union(follow) : node.firstSet(), true);
+        }
+
+        @Override
+        void compile(ExpressRouteProgram program) {
+            for (int i = 0; i < min; i++) {
+                node.compile(program);
+            }
+
+            if (max < 0) {
+                final int loop = split(program);
+                node.compile(program);
+                program.emit(ExpressRouteProgram.JMP, loop, 0);
+                exit(program, loop);
+            }
+            else {
+                final int[] splits = new int[max - min];
+
+                for (int i = 0; i < splits.length; i++) {
+                    splits[i] = split(program);
+                    node.compile(program);
+                }
+
+                for (int split : splits) {
+                    exit(program, split);
+                }
+            }
+        }
+
+        private int split(ExpressRouteProgram program) {
+            final int split = program.emit(ExpressRouteProgram.SPLIT, 0, 0);
+
+            if (greedy) {
+                program.patchA(split, split + 1);
+            }
+            else {
+                program.patchB(split, split + 1);
+            }
+
+            return split;
+        }
+
+        private void exit(ExpressRouteProgram program, int split) {
+            if (greedy) {
+                program.patchB(split, program.size());
+            }
+            else {
+                program.patchA(split, program.size());
+            }
+        }
+    }
+
+    private static class GroupNode extends Node {
+        private final Node node;
+        private final int group;
+
+        private GroupNode(Node node, int group) {
+            this.node = node;
+            this.group = group;
+        }
+
+        @Override
+        int minLength() {
+            return node.minLength();
+        }
+
+        @Override
+        int maxLength() {
+            return node.maxLength();
+        }
+
+        @Override
+        boolean isNullable() {
+            return node.isNullable();
+        }
+
+        @Override
+        boolean canConsume(int codePoint) {
+            return node.canConsume(codePoint);
+        }
+
+        @Override
+        boolean hasAssertions() {
+            return node.hasAssertions();
+        }
+
+        @Override
+        CharSet firstSet() {
+            return node.firstSet();
+        }
+
+        @Override
+        CharSet consumedSet() {
+            return node.consumedSet();
+        }
+
+        @Override
+        String findAmbiguity(CharSet follow, boolean repeated) {
+            return node.findAmbiguity(follow, repeated);
+        }
+
+        @Override
+        void compile(ExpressRouteProgram program) {
+            program.emit(ExpressRouteProgram.SAVE, group * 2, 0);
+            node.compile(program);
+            program.emit(ExpressRouteProgram.SAVE, group * 2 + 1, 0);
+        }
+    }
+
+    private static class AssertionNode extends Node {
+        private final int op;
+        private final CharSet set;
+        private final boolean allowEnd;
+
+        private AssertionNode(int op, CharSet set, boolean allowEnd) {
+            this.op = op;
+            this.set = set;
+            this.allowEnd = allowEnd;
+        }
+
+        @Override
+        int minLength() {
+            return 0;
+        }
+
+        @Override
+        int maxLength() {
+            return 0;
+        }
+
+        @Override
+        boolean isNullable() {
+            return true;
+        }
+
+        @Override
+        boolean canConsume(int codePoint) {
+            return false;
+        }
+
+        @Override
+        boolean hasAssertions() {
+            return true;
+        }
+
+        @Override
+        CharSet firstSet() {
+            return CharSet.EMPTY;
+        }
+
+        @Override
+        CharSet consumedSet() {
+            return CharSet.EMPTY;
+        }
+
+        @Override
+        String findAmbiguity(CharSet follow, boolean repeated) {
+            return null;
+        }
+
+        @Override
+        void compile(ExpressRouteProgram program) {
+            if (op == ExpressRouteProgram.LOOK) {
+                program.emit(op, program.addSet(set), allowEnd ? 1 : 0);
+            }
+            else {
+                program.emit(op, 0, 0);
+            }
+        }
+    }
+
+    private static class Parser {
+        private static final CharSet DIGITS = CharSet.range('0', '9');
+        private static final CharSet WORD = new CharSet.Builder().add('0', '9').add('A', 'Z').add('_', '_').add('a', 'z').build();
+        private static final CharSet SPACE = new CharSet.Builder().add('\t', '\r').add(' ', ' ').build();
+        private static final CharSet ANY = LINE_TERMINATORS.complement();
+
+        private final String source;
+        private int position;
+        private int groupCount;
+
+        private Parser(String source) {
+            this.source = source;
+        }
+
+        private UnsupportedPatternException unsupported(String reason) {
+            return new UnsupportedPatternException(reason + " at index " + position + " in " + source);
+        }
+
+        private boolean more() {
+            return position < source.length();
+        }
+
+        private int peek() {
+            return source.codePointAt(position);
+        }
+
+        private int next() {
+            final int codePoint = source.codePointAt(position);
+            position += Character.charCount(codePoint);
+            return codePoint;
+        }
+
+        private boolean accept(String text) {
+            if (source.startsWith(text, position)) {
+                position += text.length();
+                return true;
+            }
+
+            return false;
+        }
+
+        private Node parseAlternation() {
+            final List<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseSequence());
+
+            while (accept("|")) {
+                alternatives.add(parseSequence());
+            }
+
+            return alternatives.size() == 1 ? alternatives.get(0) : new AlternationNode(alternatives);
+        }
+
+        private Node parseSequence() {
+            final List<Node> nodes = new ArrayList<>();
+
+            while (more() && peek() != '|' && peek() != ')') {
+                nodes.add(parseRepeat(parseAtom()));
+            }
+
+            return nodes.size() == 1 ? nodes.get(0) : new SequenceNode(nodes);
+        }
+
+        private Node parseRepeat(Node atom) {
+            if (!more()) {
+                return atom;
+            }
+
+            final int min;
+            final int max;
+
+            if (accept("*")) {
+                min = 0;
+                max = -1;
+            }
+            else if (accept("+")) {
+                min = 1;
+                max = -1;
+            }
+            else if (accept("?")) {
+                min = 0;
+                max = 1;
+            }
+            else if (peek() == '{') {
+                next();
+                min = parseNumber();
+
+                if (accept(",")) {
+                    max = more() && peek() == '}' ? -1 : parseNumber();
+                }
+                else {
+                    max = min;
+                }
+
+                if (!accept("}") || (max >= 0 && max < min)) {
+                    throw unsupported("malformed repetition");
+                }
+            }
+            else {
+                return atom;
+            }
+
+            final boolean greedy = !accept("?");
+
+            if (more() && (peek() == '+' || peek() == '*' || peek() == '?' || peek() == '{')) {
+                throw unsupported("possessive or stacked quantifier");
+            }
+
+            if (atom instanceof AssertionNode) {
+                throw unsupported("quantified assertion");
+            }
+
+            return new RepeatNode(atom, min, max, greedy);
+        }
+
+        private int parseNumber() {
+            final int start = position;
+
+            while (more() && peek() >= '0' && peek() <= '9') {
+                next();
+            }
+
+            if (start == position || position - start > 4) {
+                throw unsupported("repetition count");
+            }
+
+            return Integer.parseInt(source.substring(start, position));
+        }
+
+        private Node parseAtom() {
+            final int c = next();
+
+            switch (c) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    return new CharNode(parseClass());
+                case '.':
+                    return new CharNode(ANY);
+                case '^':
+                    return new AssertionNode(ExpressRouteProgram.BEGIN, null, false);
+                case '$':
+                    return new AssertionNode(ExpressRouteProgram.END, null, false);
+                case '\\':
+                    return new CharNode(parseEscape(false));
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                case ')':
+                    throw unsupported("dangling '" + (char) c + "'");
+                default:
+                    return new CharNode(CharSet.of(c));
+            }
+        }
+
+        private Node parseGroup() {
+            final Node node;
+
+            if (accept("?:")) {
+                node = parseAlternation();
+            }
+            else if (accept("?=")) {
+                node = parseLookahead();
+            }
+            else if (more() && peek() == '?') {
+                throw unsupported("group construct");
+            }
+            else {
+                final int group = ++groupCount;
+                node = new GroupNode(parseAlternation(), group);
+            }
+
+            if (!accept(")")) {
+                throw unsupported("unclosed group");
+            }
+
+            return node;
+        }
+
+        /**
+         * Lookaheads are limited to alternatives of single characters and '$', which is all that route patterns use.
+         */
+        private Node parseLookahead() {
+            final CharSet.Builder builder = new CharSet.Builder();
+            boolean allowEnd = false;
+
+            do {
+                if (accept("$")) {
+                    allowEnd = true;
+                }
+                else if (accept("\\")) {
+                    builder.addAll(parseEscape(false));
+                }
+                else if (accept("[")) {
+                    builder.addAll(parseClass());
+                }
+                else if (more() && "()|.^*+?{".indexOf(peek()) < 0) {
+                    builder.add(peek(), next());
+                }
+                else {
+                    throw unsupported("lookahead");
+                }
+            }
+            while (accept("|"));
+
+            return new AssertionNode(ExpressRouteProgram.LOOK, builder.build(), allowEnd);
+        }
+
+        private CharSet parseClass() {
+            final boolean negated = accept("^");
+            final CharSet.Builder builder = new CharSet.Builder();
+            boolean first = true;
+
+            while (true) {
+                if (!more()) {
+                    throw unsupported("unclosed class");
+                }
+
+                final int c = next();
+
+                if (c == ']' && !first) {
+                    break;
+                }
+                else if (c == '[' || (c == '&' && more() && peek() == '&') || (c == ']')) {
+                    throw unsupported("nested class");
+                }
+
+                first = false;
+
+                final CharSet item = c == '\\' ? parseEscape(true) : CharSet.of(c);
+
+                if (item.isSingle() && more() && peek() == '-' && position + 1 < source.length() && source.charAt(position + 1) != ']') {
+                    next();
+
+                    final int d = next();
+                    final CharSet to = d == '\\' ? parseEscape(true) : CharSet.of(d);
+
+                    if (d == '[' || !to.isSingle() || to.first() < item.first()) {
+                        throw unsupported("class range");
+                    }
+
+                    builder.add(item.first(), to.first());
+                }
+                else {
+                    builder.addAll(item);
+                }
+            }
+
+            final CharSet set = builder.build();
+
+            return negated ? set.complement() : set;
+        }
+
+        private CharSet parseEscape(boolean inClass) {
+            if (!more()) {
+                throw unsupported("trailing '\\'");
+            }
+
+            final int c = next();
+
+            switch (c) {
+                case 'd':
+                    return DIGITS;
+                case 'D':
+                    return DIGITS.complement();
+                case 'w':
+                    return WORD;
+                case 'W':
+                    return WORD.complement();
+                case 's':
+                    return SPACE;
+                case 'S':
+                    return SPACE.complement();
+                case 't':
+                    return CharSet.of('\t');
+                case 'n':
+                    return CharSet.of('\n');
+                case 'r':
+                    return CharSet.of('\r');
+                case 'f':
+                    return CharSet.of('\f');
+                case 'a':
+                    return CharSet.of('\u0007');
+                case 'e':
+                    return CharSet.of('\u001B');
+                case 'x':
+                    return CharSet.of(parseHex(2));
+                case 'u':
+                    return CharSet.of(parseHex(4));
+                default:
+                    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                        throw unsupported("escape '\\" + (char) c + "'");
+                    }
+
+                    return CharSet.of(c);
+            }
+        }
+
+        private int parseHex(int digits) {
+            if (position + digits > source.length()) {
+                throw unsupported("hex escape");
+            }
+
+            try {
+                final int value = Integer.parseInt(source.substring(position, position + digits), 16);
+                position += digits;
+                return value;
+            }
+            catch (NumberFormatException e) {
+                throw unsupported("hex escape");
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.markmcguill.express.routing;
+
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * Matches each route's own {@link java.util.regex.Pattern} in turn, stopping at the first hit. A route whose
+ * {@link ExpressRouteFingerprint} rules the path out is passed over without running its pattern.
+ */
+class ExpressRouteRegexEngine implements ExpressRouteEngine {
+    private final ExpressRoute[] routes;
+    private final ExpressRouteFingerprint[] fingerprints;
+
+    ExpressRouteRegexEngine(List<ExpressRoute> routes) {
+        this.routes = routes.toArray(new ExpressRoute[routes.size()]);
+        this.fingerprints = new ExpressRouteFingerprint[this.routes.length];
+
+        for (int i = 0; i < this.routes.length; i++) {
+            fingerprints[i] = this.routes[i].getFingerprint();
+        }
+    }
+
+    @Override
+    public int find(CharSequence path, ExpressRouteMatch match) {
+        final ExpressRoutePath parsed = match.parsed(path);
+
+        for (int i = 0; i < routes.length; i++) {
+            if (fingerprints[i].rejects(path, parsed)) {
+                continue;
+            }
+
+            if (routes[i].find(path, match)) {
+                return i;
+            }
+        }
+
+        return NO_MATCH;
+    }
+
+    /**
+     * Copies the offsets of the first keyCount groups, which line up with the route's keys in the same way as
+     * {@link ExpressRoute#getParametersFromPath(String)}.
+     */
+    static void copyGroups(Matcher matcher, int keyCount, int[] offsets) {
+        final int groups = Math.min(keyCount, matcher.groupCount());
+
+        for (int i = 0; i < groups; i++) {
+            offsets[i * 2] = matcher.start(i + 1);
+            offsets[i * 2 + 1] = matcher.end(i + 1);
+        }
+
+        for (int i = groups; i < keyCount; i++) {
+            offsets[i * 2] = -1;
+            offsets[i * 2 + 1] = -1;
+        }
+    }
+}
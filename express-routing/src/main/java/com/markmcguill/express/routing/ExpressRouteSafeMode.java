@@ -0,0 +1,25 @@
+package com.markmcguill.express.routing;
+
+/**
+ * What {@link ExpressRouter} does with a route whose pattern has a {@link ExpressRoute#findPatternHazard() hazard},
+ * checked as the route is added.
+ * <p>
+ * With {@link ExpressRouteEngineType#AUTOMATON} and {@link #REJECT}, every lookup runs in time linear in the length of
+ * the path. The other engines run custom patterns with {@link java.util.regex.Pattern}, for which {@link #REJECT} keeps
+ * out the ambiguous nested quantifiers behind catastrophic backtracking; a step budget, set with
+ * {@link ExpressRouter#setStepBudget}, bounds whatever remains.
+ */
+public enum ExpressRouteSafeMode {
+    /**
+     * Patterns are not checked.
+     */
+    OFF,
+    /**
+     * Routes with a hazard are added, and listed by {@link ExpressRouter#getFlaggedRoutes()}.
+     */
+    FLAG,
+    /**
+     * Routes with a hazard are refused with an {@link IllegalArgumentException}.
+     */
+    REJECT
+}
@@ -0,0 +1,278 @@
+package com.markmcguill.express.routing;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The pattern of a route with each run of literal characters between slashes replaced by a group which matches any
+ * run of the same number of characters, so that routes which differ only in their literals, such as each tenant's copy
+ * of a route, share one compiled pattern through an {@link ExpressRouteInterner}.
+ * <p>
+ * A literal and the group standing for it both consume exactly its number of characters, so the shape tries the same
+ * alternatives in the same order as the route's own pattern and only accepts more. If the first match of the shape
+ * has the route's literals in its groups, it is the first match of the route's pattern, with the same parameters;
+ * otherwise the route's own pattern decides. A parameter pattern with a group or back reference of its own would
+ * number the groups differently, so a route with one has no shape.
+ */
+final class ExpressRouteShape {
+    private final String source;
+    private final int[] keyGroups;
+    private final int[] literalGroups;
+    private volatile Pattern pattern;
+
+    /**
+     * @param keyGroups     the shape's group for each group of the route's own pattern, in order
+     * @param literalGroups the shape's group for each run of literal characters, in order
+     */
+    private ExpressRouteShape(String source, int[] keyGroups, int[] literalGroups) {
+        this.source = source;
+        this.keyGroups = keyGroups;
+        this.literalGroups = literalGroups;
+    }
+
+    /**
+     * @return the shape of the route with the tokens and options, or null if its parameters' patterns rule one out
+     */
+    static ExpressRouteShape of(List<ExpressRouteToken> tokens, ExpressRouteOptions options) {
+        final StringBuilder route = new StringBuilder(options.isSensitive() ? "^" : ExpressRoute.CASE_INSENSITIVE + "^");
+        final int[] keyGroups = new int[tokens.size() * 3];
+        int[] literalGroups = new int[tokens.size() * 2];
+        int keyCount = 0;
+        int literalCount = 0;
+        int group = 0;
+
+        for (ExpressRouteToken token : tokens) {
+            if (token.getType() == ExpressRouteTokenType.PARAMETRIC) {
+                if (!hasPlainGroups(token.getPattern())) {
+                    return null;
+                }
+
+                ExpressRoute.appendParameter(token, route);
+
+                // A partial optional parameter has a group around its capture, and a repeat one a second capture.
+                final int groups = 1 + (token.isOptional() && token.isPartial() ? 1 : 0) + (token.isRepeat() ? 1 : 0);
+
+                for (int i = 0; i < groups; i++) {
+                    keyGroups[keyCount++] = ++group;
+                }
+
+                continue;
+            }
+
+            final String literal = token.getName();
+            int start = 0;
+
+            for (int i = 0; i <= literal.length(); i++) {
+                if (i < literal.length() && literal.charAt(i) != '/') {
+                    continue;
+                }
+
+                if (i > start) {
+                    if (literalCount == literalGroups.length) {
+                        literalGroups = Arrays.copyOf(literalGroups, literalCount * 2);
+                    }
+
+                    route.append("((?s:.{").append(literal.codePointCount(start, i)).append("}))");
+                    literalGroups[literalCount++] = ++group;
+                }
+
+                if (i < literal.length()) {
+                    route.append("\\/");
+                }
+
+                start = i + 1;
+            }
+        }
+
+        return new ExpressRouteShape(ExpressRoute.finishRegex(route, options), Arrays.copyOf(keyGroups, keyCount),
+                Arrays.copyOf(literalGroups, literalCount));
+    }
+
+    /**
+     * @return false if the pattern has a group which captures, or a back reference, either of which would throw out
+     *         the numbering of the shape's groups
+     */
+    private static boolean hasPlainGroups(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+
+            if (c == '\\') {
+                final char next = i + 1 < pattern.length() ? pattern.charAt(i + 1) : 0;
+
+                if ((next >= '1' && next <= '9') || next == 'k') {
+                    return false;
+                }
+
+                i++;
+            }
+            else if (c == '(' && !pattern.startsWith("(?", i) ||
+                    pattern.startsWith("(?<", i) && !pattern.startsWith("(?<=", i) && !pattern.startsWith("(?<!", i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * @param compiler receives the time spent compiling the pattern, if it is compiled here and not null
+     * @return the shape's pattern, compiled on first use
+     */
+    Pattern getPattern(ExpressRouteCompiler compiler) {
+        Pattern result = pattern;
+
+        if (result == null) {
+            result = compilePattern(compiler);
+        }
+
+        return result;
+    }
+
+    private synchronized Pattern compilePattern(ExpressRouteCompiler compiler) {
+        if (pattern == null) {
+            final long start = compiler == null ? 0 : System.nanoTime();
+
+            pattern = Pattern.compile(source);
+
+            if (compiler != null) {
+                compiler.recordCompile(System.nanoTime() - start);
+            }
+        }
+
+        return pattern;
+    }
+
+    boolean isPatternCompiled() {
+        return pattern != null;
+    }
+
+    /**
+     * @return true if the groups standing for literals matched exactly the literals among the tokens, compared as the
+     *         route's own pattern compares them
+     */
+    boolean matchesLiterals(Matcher matcher, CharSequence path, List<ExpressRouteToken> tokens, boolean sensitive) {
+        int group = 0;
+
+        for (ExpressRouteToken token : tokens) {
+            if (token.getType() != ExpressRouteTokenType.PATH_FRAGMENT) {
+                continue;
+            }
+
+            final String literal = token.getName();
+            int start = 0;
+
+            for (int i = 0; i <= literal.length(); i++) {
+                if (i < literal.length() && literal.charAt(i) != '/') {
+                    continue;
+                }
+
+                if (i > start) {
+                    final int literalGroup = literalGroups[group++];
+
+                    if (!regionMatches(path, matcher.start(literalGroup), matcher.end(literalGroup), literal, start, i,
+                            sensitive)) {
+                        return false;
+                    }
+                }
+
+                start = i + 1;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the offsets of the groups which stand for the first keyCount groups of the route's own pattern, as
+     * {@link ExpressRouteRegexEngine#copyGroups} copies them from that pattern.
+     */
+    void copyGroups(Matcher matcher, int keyCount, int[] offsets) {
+        final int groups = Math.min(keyCount, keyGroups.length);
+
+        for (int i = 0; i < groups; i++) {
+            offsets[i * 2] = matcher.start(keyGroups[i]);
+            offsets[i * 2 + 1] = matcher.end(keyGroups[i]);
+        }
+
+        for (int i = groups; i < keyCount; i++) {
+            offsets[i * 2] = -1;
+            offsets[i * 2 + 1] = -1;
+        }
+    }
+
+    /**
+     * Compares code point by code point, and without regard to case as a {@link Pattern#UNICODE_CASE} pattern does,
+     * unless sensitive.
+     */
+    private static boolean regionMatches(CharSequence path, int start, int end, String literal, int from, int to,
+                                         boolean sensitive) {
+        if (sensitive) {
+            if (end - start != to - from) {
+                return false;
+            }
+
+            for (int i = 0; i < to - from; i++) {
+                if (path.charAt(start + i) != literal.charAt(from + i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        int i = start;
+        int j = from;
+
+        while (i < end && j < to) {
+            final int actual = Character.codePointAt(path, i);
+            final int expected = literal.codePointAt(j);
+
+            if (actual != expected && fold(actual) != fold(expected)) {
+                return false;
+            }
+
+            i += Character.charCount(actual);
+            j += Character.charCount(expected);
+        }
+
+        return i == end && j == to;
+    }
+
+    private static int fold(int codePoint) {
+        return Character.toLowerCase(Character.toUpperCase(codePoint));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final ExpressRouteShape that = (ExpressRouteShape) o;
+
+        return source.equals(that.source) && Arrays.equals(keyGroups, that.keyGroups) &&
+                Arrays.equals(literalGroups, that.literalGroups);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteShape{" +
+                "source=" + source +
+                '}';
+    }
+}
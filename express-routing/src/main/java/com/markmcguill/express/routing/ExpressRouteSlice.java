@@ -0,0 +1,74 @@
+package com.markmcguill.express.routing;
+
+/**
+ * A read only view of part of another {@link CharSequence}, so handing out a range never copies characters.
+ * <p>
+ * Slices handed out are never changed; only the one an {@link ExpressRouteMatch} keeps for lookups in mounted routers
+ * is moved with {@link #reset}.
+ */
+class ExpressRouteSlice implements CharSequence {
+    private CharSequence source;
+    private int start;
+    private int end;
+
+    ExpressRouteSlice() {
+        this.source = "";
+    }
+
+    ExpressRouteSlice(CharSequence source, int start, int end) {
+        reset(source, start, end);
+    }
+
+    /**
+     * Moves the view to another range.
+     *
+     * @return this view
+     */
+    ExpressRouteSlice reset(CharSequence source, int start, int end) {
+        if (start < 0 || end < start || end > source.length()) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + source.length());
+        }
+
+        this.source = source;
+        this.start = start;
+        this.end = end;
+
+        return this;
+    }
+
+    CharSequence getSource() {
+        return source;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + (end - start));
+        }
+
+        return source.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to < from || to > end - start) {
+            throw new IndexOutOfBoundsException("[" + from + ", " + to + ") of " + (end - start));
+        }
+
+        return new ExpressRouteSlice(source, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        return source.subSequence(start, end).toString();
+    }
+}
@@ -0,0 +1,307 @@
+package com.markmcguill.express.routing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A routing table saved in a compact binary form, so that a process can restart without parsing every definition.
+ * <p>
+ * The file holds each route's tokens, the source of its pattern and the counts it is ranked by, in rank order, with
+ * every string stored once. Loading maps the file and rebuilds the routes from those parts directly; patterns are
+ * compiled when a route is first matched, as with {@link ExpressRouteCompileMode#LAZY}, and the engine's index is
+ * built from the ranked routes on the first lookup.
+ * <p>
+ * The file starts with a header of:
+ * <pre>
+ *   int   magic, "ERTS"
+ *   short format version
+ *   short reserved, 0
+ *   int   route count
+ *   int   string count
+ *   int   body length in bytes
+ *   int   CRC32 of the body
+ * </pre>
+ * followed by the body, big endian throughout: the strings, each an int length and that many UTF-16 chars, then the
+ * routes, whose strings are int indexes into them, or -1 for null. A file whose version is not
+ * {@link #FORMAT_VERSION}, or whose checksum does not match, is refused, so a snapshot written by a library which
+ * parsed definitions differently is never loaded.
+ */
+public class ExpressRouteSnapshot {
+    /**
+     * The version of the format, and of the parsing and pattern generation behind the stored routes. It changes
+     * whenever either does.
+     */
+    public static final int FORMAT_VERSION = 4;
+
+    private static final int MAGIC = 0x45525453;
+    private static final int HEADER_LENGTH = 24;
+
+    private static final byte PATH_FRAGMENT = 0;
+    private static final byte PARAMETRIC = 1;
+
+    private static final int OPTIONAL = 1;
+    private static final int REPEAT = 2;
+    private static final int PARTIAL = 4;
+
+    private static final int STRICT = 1;
+    private static final int END = 2;
+    private static final int INSENSITIVE = 4;
+
+    private final List<ExpressRoute> routes;
+
+    private ExpressRouteSnapshot(List<ExpressRoute> routes) {
+        this.routes = Collections.unmodifiableList(routes);
+    }
+
+    /**
+     * @return the routes, in the order they were written, which for a router's table is rank order
+     */
+    public List<ExpressRoute> getRoutes() {
+        return routes;
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    /**
+     * Writes the routes to the file, through a temporary file beside it which then replaces it, so a process loading
+     * the file never sees it half written.
+     */
+    public static void write(List<ExpressRoute> routes, Path file) throws IOException {
+        final Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                write(routes, out);
+            }
+
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public static void write(List<ExpressRoute> routes, OutputStream out) throws IOException {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final ByteArrayOutputStream routeBytes = new ByteArrayOutputStream();
+        final DataOutputStream routeData = new DataOutputStream(routeBytes);
+
+        for (ExpressRoute route : routes) {
+            final ExpressRoutePatternInfo info = route.getPatternInfo();
+
+            routeData.writeInt(intern(strings, route.getPathDefinition()));
+            routeData.writeInt(intern(strings, route.getRegex()));
+            routeData.writeByte((route.getOptions().isStrict() ? STRICT : 0) | (route.getOptions().isEnd() ? END : 0) |
+                    (route.getOptions().isSensitive() ? 0 : INSENSITIVE));
+            routeData.writeInt(info.getUriVars());
+            routeData.writeInt(info.getWildcards());
+            routeData.writeInt(info.getLength());
+            routeData.writeInt(route.getTokens().size());
+
+            for (ExpressRouteToken token : route.getTokens()) {
+                if (token.getType() == ExpressRouteTokenType.PATH_FRAGMENT) {
+                    routeData.writeByte(PATH_FRAGMENT);
+                    routeData.writeInt(intern(strings, token.getName()));
+                }
+                else {
+                    routeData.writeByte(PARAMETRIC);
+                    routeData.writeInt(intern(strings, token.getName()));
+                    routeData.writeInt(intern(strings, token.getPrefix()));
+                    routeData.writeInt(intern(strings, token.getDelimiter()));
+                    routeData.writeByte((token.isOptional() ? OPTIONAL : 0) | (token.isRepeat() ? REPEAT : 0) |
+                            (token.isPartial() ? PARTIAL : 0));
+                    routeData.writeInt(intern(strings, token.getAsterisk()));
+                    routeData.writeInt(intern(strings, token.getPattern()));
+                    routeData.writeInt(intern(strings, token.getValueType() == null ? null : token.getValueType().getName()));
+                }
+            }
+        }
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(routeBytes.size() + strings.size() * 16);
+        final DataOutputStream bodyData = new DataOutputStream(body);
+
+        for (String string : strings.keySet()) {
+            bodyData.writeInt(string.length());
+            bodyData.writeChars(string);
+        }
+
+        routeBytes.writeTo(bodyData);
+        bodyData.flush();
+
+        final CRC32 crc = new CRC32();
+        final byte[] bodyBytes = body.toByteArray();
+        crc.update(bodyBytes, 0, bodyBytes.length);
+
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeShort(FORMAT_VERSION);
+        header.writeShort(0);
+        header.writeInt(routes.size());
+        header.writeInt(strings.size());
+        header.writeInt(bodyBytes.length);
+        header.writeInt((int) crc.getValue());
+        header.write(bodyBytes);
+        header.flush();
+    }
+
+    private static int intern(Map<String, Integer> strings, String string) {
+        if (string == null) {
+            return -1;
+        }
+
+        return strings.computeIfAbsent(string, key -> strings.size());
+    }
+
+    /**
+     * Loads a snapshot by mapping the file into memory rather than reading it through a stream.
+     *
+     * @throws IOException if the file cannot be read, is not a snapshot of this format version or is corrupt
+     */
+    public static ExpressRouteSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Loads a snapshot from the buffer's remaining bytes. The routes copy what they need, so the buffer may be
+     * discarded afterwards.
+     *
+     * @throws IOException if the bytes are not a snapshot of this format version or are corrupt
+     */
+    public static ExpressRouteSnapshot read(ByteBuffer buffer) throws IOException {
+        final ByteBuffer in = buffer.slice();
+
+        if (in.remaining() < HEADER_LENGTH || in.getInt() != MAGIC) {
+            throw new IOException("Not a route snapshot");
+        }
+
+        final int version = in.getShort();
+
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Route snapshot has format version " + version + ", expected " + FORMAT_VERSION);
+        }
+
+        in.getShort();
+
+        final int routeCount = in.getInt();
+        final int stringCount = in.getInt();
+        final int bodyLength = in.getInt();
+        final int checksum = in.getInt();
+
+        if (bodyLength != in.remaining()) {
+            throw new IOException("Route snapshot body is " + in.remaining() + " bytes, expected " + bodyLength);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Route snapshot checksum does not match");
+        }
+
+        try {
+            final String[] strings = new String[stringCount];
+
+            for (int i = 0; i < stringCount; i++) {
+                final char[] chars = new char[in.getInt()];
+
+                for (int j = 0; j < chars.length; j++) {
+                    chars[j] = in.getChar();
+                }
+
+                strings[i] = new String(chars);
+            }
+
+            final List<ExpressRoute> routes = new ArrayList<>(routeCount);
+
+            for (int i = 0; i < routeCount; i++) {
+                routes.add(readRoute(in, strings));
+            }
+
+            return new ExpressRouteSnapshot(routes);
+        }
+        catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Route snapshot is corrupt", e);
+        }
+    }
+
+    private static ExpressRoute readRoute(ByteBuffer in, String[] strings) throws IOException {
+        final String pathDefinition = string(in, strings);
+        final String regex = string(in, strings);
+        final int optionFlags = in.get();
+        final int uriVars = in.getInt();
+        final int wildcards = in.getInt();
+        final int length = in.getInt();
+        final int tokenCount = in.getInt();
+
+        if (pathDefinition == null || regex == null || tokenCount < 0) {
+            throw new IOException("Route snapshot is corrupt");
+        }
+
+        final List<ExpressRouteToken> tokens = new ArrayList<>(tokenCount);
+
+        for (int i = 0; i < tokenCount; i++) {
+            final byte type = in.get();
+
+            if (type == PATH_FRAGMENT) {
+                tokens.add(new ExpressRouteToken(string(in, strings)));
+            }
+            else if (type == PARAMETRIC) {
+                final String name = string(in, strings);
+                final String prefix = string(in, strings);
+                final String delimiter = string(in, strings);
+                final int flags = in.get();
+                final String asterisk = string(in, strings);
+                final String pattern = string(in, strings);
+                final String valueTypeName = string(in, strings);
+                final ExpressRouteValueType valueType = valueTypeName == null ? null : ExpressRouteValueType.forName(valueTypeName);
+
+                if (valueTypeName != null && valueType == null) {
+                    throw new IOException("Route snapshot has unknown parameter type " + valueTypeName);
+                }
+
+                tokens.add(new ExpressRouteToken(name, prefix, delimiter, (flags & OPTIONAL) != 0, (flags & REPEAT) != 0,
+                        (flags & PARTIAL) != 0, asterisk, pattern, valueType));
+            }
+            else {
+                throw new IOException("Route snapshot has unknown token type " + type);
+            }
+        }
+
+        final ExpressRouteOptions options = ExpressRouteOptions.DEFAULT.strict((optionFlags & STRICT) != 0)
+                .end((optionFlags & END) != 0).sensitive((optionFlags & INSENSITIVE) == 0);
+
+        return new ExpressRoute(pathDefinition, options, tokens, regex,
+                new ExpressRoutePatternInfo(pathDefinition, uriVars, wildcards, length));
+    }
+
+    private static String string(ByteBuffer in, String[] strings) {
+        final int index = in.getInt();
+
+        return index < 0 ? null : strings[index];
+    }
+}
@@ -0,0 +1,339 @@
+package com.markmcguill.express.routing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds paths from a route and parameter values, the reverse of matching, as path-to-regexp's {@code compile} does.
+ * <p>
+ * The route's tokens are turned into a list of parts once, when the template is built. Generating a path appends
+ * each literal as it is and each parameter percent encoded, as {@code encodeURIComponent} would, or as
+ * {@code encodeURI} would for an asterisk, into the caller's {@link Appendable}. Values are checked against their
+ * token's pattern; the default and catch all patterns are checked while encoding, typed parameters by their
+ * {@link ExpressRouteValueType}, and only custom patterns are checked with a regular expression, compiled once,
+ * through a matcher reused by each thread.
+ * <p>
+ * A value may be any object, which is converted with {@link String#valueOf(Object)} unless it is already a
+ * {@link CharSequence} or a whole number. A repeating parameter takes an {@link Iterable} or an array of values,
+ * which are joined by the token's delimiter.
+ */
+public class ExpressRouteTemplate {
+    private static final ThreadLocal<StringBuilder> threadSegment = ThreadLocal.withInitial(StringBuilder::new);
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final boolean[] COMPONENT_CHARACTERS = characters("-_.!~*'()");
+    private static final boolean[] ASTERISK_CHARACTERS = characters("-_.!~*'();,/:@&=+$");
+
+    private static final int ANY = 0;
+    private static final int SEGMENT = 1;
+    private static final int PATTERN = 2;
+    private static final int TYPED = 3;
+
+    private final String pathDefinition;
+    private final Part[] parts;
+
+    public ExpressRouteTemplate(ExpressRoute route) {
+        this.pathDefinition = route.getPathDefinition();
+        this.parts = new Part[route.getTokens().size()];
+
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new Part(route.getTokens().get(i), route.getOptions().isSensitive());
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a required parameter has no value or a value does not match its pattern
+     */
+    public String toPath(Map<String, ?> parameters) {
+        return appendTo(new StringBuilder(pathDefinition.length() + 16), parameters).toString();
+    }
+
+    /**
+     * Appends the path to the builder, which is left as it was if a parameter is missing or does not match.
+     *
+     * @return the builder
+     * @throws IllegalArgumentException if a required parameter has no value or a value does not match its pattern
+     */
+    public StringBuilder appendTo(StringBuilder out, Map<String, ?> parameters) {
+        final int length = out.length();
+
+        try {
+            appendTo((Appendable) out, parameters);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        catch (IllegalArgumentException e) {
+            out.setLength(length);
+            throw e;
+        }
+
+        return out;
+    }
+
+    /**
+     * Appends the path to out. Each parameter is checked before any of it is appended, but if one fails out may hold
+     * the parts of the path before it.
+     *
+     * @throws IllegalArgumentException if a required parameter has no value or a value does not match its pattern
+     */
+    public void appendTo(Appendable out, Map<String, ?> parameters) throws IOException {
+        final StringBuilder segment = threadSegment.get();
+
+        for (Part part : parts) {
+            if (part.name == null) {
+                out.append(part.literal);
+                continue;
+            }
+
+            final Object value = parameters.get(part.name);
+
+            if (value == null) {
+                if (!part.optional) {
+                    throw new IllegalArgumentException("Expected \"" + part.name + "\" to be defined");
+                }
+
+                // A partial parameter's prefix stays in the path when the parameter is absent.
+                if (part.partial) {
+                    out.append(part.prefix);
+                }
+            }
+            else if (value instanceof Iterable || value.getClass().isArray()) {
+                if (!part.repeat) {
+                    throw new IllegalArgumentException("Expected \"" + part.name + "\" to not repeat");
+                }
+
+                if (value instanceof Iterable) {
+                    int count = 0;
+
+                    for (Object element : (Iterable<?>) value) {
+                        appendSegment(out, part, segment, element, count++ == 0 ? part.prefix : part.delimiter);
+                    }
+
+                    checkRepeatCount(part, count);
+                }
+                else {
+                    final int count = Array.getLength(value);
+
+                    for (int i = 0; i < count; i++) {
+                        appendSegment(out, part, segment, Array.get(value, i), i == 0 ? part.prefix : part.delimiter);
+                    }
+
+                    checkRepeatCount(part, count);
+                }
+            }
+            else {
+                appendSegment(out, part, segment, value, part.prefix);
+            }
+        }
+    }
+
+    private static void checkRepeatCount(Part part, int count) {
+        if (count == 0 && !part.optional) {
+            throw new IllegalArgumentException("Expected \"" + part.name + "\" to not be empty");
+        }
+    }
+
+    private static void appendSegment(Appendable out, Part part, StringBuilder segment, Object value, String separator)
+            throws IOException {
+        segment.setLength(0);
+
+        if (value == null) {
+            throw new IllegalArgumentException("Expected all \"" + part.name + "\" to be defined");
+        }
+
+        if (value instanceof Integer || value instanceof Long) {
+            // Digits and '-' are never encoded, so whole numbers are appended without converting them to strings.
+            segment.append(((Number) value).longValue());
+        }
+        else {
+            encode(value instanceof CharSequence ? (CharSequence) value : String.valueOf(value),
+                    part.asterisk ? ASTERISK_CHARACTERS : COMPONENT_CHARACTERS, segment);
+        }
+
+        if (!part.accepts(segment)) {
+            throw new IllegalArgumentException("Expected \"" + part.name + "\" to match \"" + part.pattern +
+                    "\", but received \"" + segment + "\"");
+        }
+
+        out.append(separator).append(segment);
+    }
+
+    /**
+     * Appends the value to out with every character outside the letters, digits and the given characters percent
+     * encoded as UTF-8.
+     *
+     * @throws IllegalArgumentException if the value holds half of a surrogate pair, which has no UTF-8 encoding
+     */
+    static void encode(CharSequence value, boolean[] allowed, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c < 0x80) {
+                if (allowed[c]) {
+                    out.append(c);
+                }
+                else {
+                    appendEscaped(c, out);
+                }
+            }
+            else if (c < 0x800) {
+                appendEscaped(0xC0 | (c >> 6), out);
+                appendEscaped(0x80 | (c & 0x3F), out);
+            }
+            else if (!Character.isSurrogate(c)) {
+                appendEscaped(0xE0 | (c >> 12), out);
+                appendEscaped(0x80 | ((c >> 6) & 0x3F), out);
+                appendEscaped(0x80 | (c & 0x3F), out);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+
+                appendEscaped(0xF0 | (codePoint >> 18), out);
+                appendEscaped(0x80 | ((codePoint >> 12) & 0x3F), out);
+                appendEscaped(0x80 | ((codePoint >> 6) & 0x3F), out);
+                appendEscaped(0x80 | (codePoint & 0x3F), out);
+            }
+            else {
+                throw new IllegalArgumentException("Unpaired surrogate at index " + i + " of \"" + value + "\"");
+            }
+        }
+    }
+
+    private static void appendEscaped(int b, StringBuilder out) {
+        out.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xF]);
+    }
+
+    private static boolean[] characters(String others) {
+        final boolean[] allowed = new boolean[0x80];
+
+        for (char c = '0'; c <= '9'; c++) {
+            allowed[c] = true;
+        }
+
+        for (char c = 'A'; c <= 'Z'; c++) {
+            allowed[c] = true;
+            allowed[c + 'a' - 'A'] = true;
+        }
+
+        for (int i = 0; i < others.length(); i++) {
+            allowed[others.charAt(i)] = true;
+        }
+
+        return allowed;
+    }
+
+    public String getPathDefinition() {
+        return pathDefinition;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouteTemplate{" +
+                "pathDefinition='" + pathDefinition + '\'' +
+                '}';
+    }
+
+    private static class Part {
+        private final String literal;
+        private final String name;
+        private final String prefix;
+        private final String delimiter;
+        private final boolean optional;
+        private final boolean repeat;
+        private final boolean partial;
+        private final boolean asterisk;
+        private final String pattern;
+        private final int check;
+        private final char excluded;
+        private final ExpressRouteValueType valueType;
+        private final ThreadLocal<Matcher> matcher;
+
+        /**
+         * @param sensitive false if the route matches without regard to case, as its custom patterns then do
+         */
+        private Part(ExpressRouteToken token, boolean sensitive) {
+            if (token.getType() == ExpressRouteTokenType.PATH_FRAGMENT) {
+                this.literal = token.getName();
+                this.name = null;
+                this.prefix = null;
+                this.delimiter = null;
+                this.optional = false;
+                this.repeat = false;
+                this.partial = false;
+                this.asterisk = false;
+                this.pattern = null;
+                this.check = ANY;
+                this.excluded = 0;
+                this.valueType = null;
+                this.matcher = null;
+                return;
+            }
+
+            this.literal = null;
+            this.name = token.getName();
+            this.prefix = token.getPrefix() == null ? "" : token.getPrefix();
+            this.delimiter = token.getDelimiter();
+            this.optional = token.isOptional();
+            this.repeat = token.isRepeat();
+            this.partial = token.isPartial();
+            this.asterisk = token.getAsterisk() != null;
+            this.pattern = token.getPattern();
+            this.valueType = token.getValueType();
+
+            // An encoded value never holds a line terminator, so ".*" accepts all of them, and the default pattern
+            // accepts any which is not empty and does not hold the delimiter.
+            if (valueType != null) {
+                this.check = TYPED;
+                this.excluded = 0;
+                this.matcher = null;
+            }
+            else if (pattern.equals(".*")) {
+                this.check = ANY;
+                this.excluded = 0;
+                this.matcher = null;
+            }
+            else if (delimiter.length() == 1 && pattern.equals(ExpressRoute.defaultTokenPattern(delimiter))) {
+                this.check = SEGMENT;
+                this.excluded = delimiter.charAt(0);
+                this.matcher = null;
+            }
+            else {
+                final Pattern compiled = Pattern.compile("(?:" + pattern + ")",
+                        sensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+                this.check = PATTERN;
+                this.excluded = 0;
+                this.matcher = ThreadLocal.withInitial(() -> compiled.matcher(""));
+            }
+        }
+
+        private boolean accepts(CharSequence segment) {
+            switch (check) {
+                case SEGMENT:
+                    if (segment.length() == 0) {
+                        return false;
+                    }
+
+                    for (int i = 0; i < segment.length(); i++) {
+                        if (segment.charAt(i) == excluded) {
+                            return false;
+                        }
+                    }
+
+                    return true;
+                case PATTERN:
+                    return matcher.get().reset(segment).matches();
+                case TYPED:
+                    return valueType.accepts(segment, 0, segment.length());
+                default:
+                    return true;
+            }
+        }
+    }
+}
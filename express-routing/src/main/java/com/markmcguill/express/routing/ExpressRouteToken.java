@@ -1,5 +1,7 @@
 package com.markmcguill.express.routing;
 
+import java.util.Objects;
+
 /**
  * Created by mark on 13/06/2017.
  */
@@ -13,6 +15,7 @@ public class ExpressRouteToken {
     private final String asterisk;
     private final String pattern;
     private final ExpressRouteTokenType type;
+    private final ExpressRouteValueType valueType;
 
     public ExpressRouteToken(String name) {
         this.name = name;
@@ -24,9 +27,18 @@ public class ExpressRouteToken {
         asterisk = null;
         pattern = null;
         this.type = ExpressRouteTokenType.PATH_FRAGMENT;
+        this.valueType = null;
     }
 
     public ExpressRouteToken(String name, String prefix, String delimiter, boolean optional, boolean repeat, boolean partial, String asterisk, String pattern) {
+        this(name, prefix, delimiter, optional, repeat, partial, asterisk, pattern, null);
+    }
+
+    /**
+     * @param valueType the type the parameter declared, whose pattern is the pattern given, or null if it has none
+     */
+    public ExpressRouteToken(String name, String prefix, String delimiter, boolean optional, boolean repeat, boolean partial, String asterisk, String pattern,
+                             ExpressRouteValueType valueType) {
         this.name = name;
         this.prefix = prefix;
         this.delimiter = delimiter;
@@ -36,6 +48,7 @@ public class ExpressRouteToken {
         this.asterisk = asterisk;
         this.pattern = pattern;
         this.type = ExpressRouteTokenType.PARAMETRIC;
+        this.valueType = valueType;
     }
 
     public ExpressRouteTokenType getType() {
@@ -74,6 +87,36 @@ public class ExpressRouteToken {
         return pattern;
     }
 
+    /**
+     * @return the type the parameter declared, as in {@code :bidId<long>}, or null if it declared none
+     */
+    public ExpressRouteValueType getValueType() {
+        return valueType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final ExpressRouteToken that = (ExpressRouteToken) o;
+
+        return optional == that.optional && repeat == that.repeat && partial == that.partial && type == that.type &&
+                valueType == that.valueType && Objects.equals(name, that.name) && Objects.equals(prefix, that.prefix) &&
+                Objects.equals(delimiter, that.delimiter) && Objects.equals(asterisk, that.asterisk) &&
+                Objects.equals(pattern, that.pattern);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, prefix, delimiter, optional, repeat, partial, asterisk, pattern, type, valueType);
+    }
+
     @Override
     public String toString() {
         return "ExpressRouteToken{" +
@@ -85,6 +128,7 @@ public class ExpressRouteToken {
                 ", partial=" + partial +
                 ", asterisk='" + asterisk + '\'' +
                 ", pattern='" + pattern + '\'' +
+                (valueType == null ? "" : ", valueType=" + valueType) +
                 '}';
     }
 }
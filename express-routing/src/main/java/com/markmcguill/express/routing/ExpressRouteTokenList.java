@@ -0,0 +1,63 @@
+package com.markmcguill.express.routing;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable list of tokens backed by an array of exactly their number, with no spare capacity and no wrapper
+ * around a mutable list.
+ */
+final class ExpressRouteTokenList extends AbstractList<ExpressRouteToken> implements RandomAccess {
+    private final ExpressRouteToken[] tokens;
+
+    /**
+     * @param tokens the array, which the list takes over and which must not be changed after
+     */
+    ExpressRouteTokenList(ExpressRouteToken[] tokens) {
+        this.tokens = tokens;
+    }
+
+    static ExpressRouteTokenList of(List<ExpressRouteToken> tokens) {
+        return tokens instanceof ExpressRouteTokenList ? (ExpressRouteTokenList) tokens :
+                new ExpressRouteTokenList(tokens.toArray(new ExpressRouteToken[tokens.size()]));
+    }
+
+    /**
+     * @return the parameters among the tokens, in order
+     */
+    ExpressRouteTokenList keys() {
+        int count = 0;
+
+        for (ExpressRouteToken token : tokens) {
+            if (token.getType() == ExpressRouteTokenType.PARAMETRIC) {
+                count++;
+            }
+        }
+
+        if (count == tokens.length) {
+            return this;
+        }
+
+        final ExpressRouteToken[] keys = new ExpressRouteToken[count];
+        int i = 0;
+
+        for (ExpressRouteToken token : tokens) {
+            if (token.getType() == ExpressRouteTokenType.PARAMETRIC) {
+                keys[i++] = token;
+            }
+        }
+
+        return new ExpressRouteTokenList(keys);
+    }
+
+    @Override
+    public ExpressRouteToken get(int index) {
+        return tokens[index];
+    }
+
+    @Override
+    public int size() {
+        return tokens.length;
+    }
+}
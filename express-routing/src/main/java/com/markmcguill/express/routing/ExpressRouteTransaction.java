@@ -0,0 +1,39 @@
+package com.markmcguill.express.routing;
+
+/**
+ * A batch of changes to the table of an {@link ExpressRouter}, made inside {@link ExpressRouter#update}. Lookups keep
+ * seeing the table as it was until the update returns, and then see every change at once; if the update throws, they
+ * see none of them. A transaction may only be used inside its update.
+ */
+public interface ExpressRouteTransaction<T> {
+    /**
+     * Compiles the definition as {@link ExpressRouter#add(String, Object)} does and adds the route.
+     *
+     * @return the route
+     */
+    ExpressRoute add(String pathDefinition, T handler);
+
+    void add(ExpressRoute route, T handler);
+
+    /**
+     * Removes the route, with every handler it was added with.
+     *
+     * @return true if the route was in the table
+     */
+    boolean remove(ExpressRoute route);
+
+    /**
+     * Removes every route with the definition.
+     *
+     * @return true if any route had it
+     */
+    boolean remove(String pathDefinition);
+
+    /**
+     * Swaps the route for the replacement, with the handler. Among routes which rank the same, the replacement keeps
+     * the place the route had rather than going last.
+     *
+     * @return true if the route was in the table, otherwise nothing is changed
+     */
+    boolean replace(ExpressRoute route, ExpressRoute replacement, T handler);
+}
@@ -0,0 +1,531 @@
+package com.markmcguill.express.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the token lists of a route table into a tree keyed by path segment.
+ * <p>
+ * Literal segments become edges looked up by hash, simple parameters become wildcard edges and only parameters with a
+ * custom pattern run a regex, against the single segment they cover. Optional parameters are expanded into one branch
+ * with and one without the segment, ordered the way the route's own pattern would backtrack, so the parameters found
+ * are the same as {@link ExpressRoute#getParametersFromPath(String)}.
+ * <p>
+ * Routes that do not divide cleanly into segments (partial and repeated parameters, prefixes other than '/', literals
+ * the route's pattern does not match literally, custom patterns which could span or skip a segment) are kept aside
+ * and matched with their own pattern, but only when they outrank the best match from the tree.
+ */
+class ExpressRouteTrieEngine implements ExpressRouteEngine {
+    static final int MAX_OPTIONAL_TOKENS = 6;
+    private static final int REST = -2;
+    private static final int ABSENT = -1;
+
+    private final Node root = new Node();
+    private final ExpressRouteRegexEngine regexEngine;
+    private final ExpressRoute[] fallbacks;
+    private final int[] fallbackIndexes;
+    private final int rootSlashRoute;
+    private int maxDepth;
+
+    ExpressRouteTrieEngine(List<ExpressRoute> routes) {
+        final List<Integer> fallbackList = new ArrayList<>();
+        int rootSlash = NO_MATCH;
+
+        this.regexEngine = new ExpressRouteRegexEngine(routes);
+
+        for (int i = 0; i < routes.size(); i++) {
+            final ExpressRoute route = routes.get(i);
+
+            if (isRootSlash(route)) {
+                if (rootSlash == NO_MATCH) {
+                    rootSlash = i;
+                }
+            }
+            else if (!insert(route, i)) {
+                fallbackList.add(i);
+            }
+        }
+
+        this.rootSlashRoute = rootSlash;
+        this.fallbacks = new ExpressRoute[fallbackList.size()];
+        this.fallbackIndexes = new int[fallbackList.size()];
+
+        for (int i = 0; i < fallbackList.size(); i++) {
+            fallbackIndexes[i] = fallbackList.get(i);
+            fallbacks[i] = routes.get(fallbackList.get(i));
+        }
+    }
+
+    int getFallbackCount() {
+        return fallbacks.length;
+    }
+
+    @Override
+    public int find(CharSequence path, ExpressRouteMatch match) {
+        final int length = path.length();
+        final ExpressRoutePath parsed = match.parsed(path);
+
+        // '$' also matches before a line terminator which ends the input and '.' never matches one, which segments
+        // cannot express, so such paths take the slow road. A parsed path has already been scanned for them.
+        if (parsed != null ? parsed.hasLineTerminator() : hasLineTerminator(path)) {
+            return regexEngine.find(path, match);
+        }
+
+        // The route patterns allow a single trailing slash, so segments are read from the path without it.
+        final int end = length > 0 && path.charAt(length - 1) == '/' ? length - 1 : length;
+
+        final Search search = new Search(path, parsed, end, match, match.scratch(maxDepth * 2), maxDepth);
+
+        // "/" compiles to an optional trailing slash alone, so it matches the empty path as well as "/".
+        if (rootSlashRoute != NO_MATCH && (length == 0 || (length == 1 && path.charAt(0) == '/'))) {
+            search.bestRoute = rootSlashRoute;
+            search.bestVariant = 0;
+        }
+
+        search.visit(root, 0, 0);
+
+        for (int i = 0; i < fallbacks.length && fallbackIndexes[i] < search.bestRoute; i++) {
+            if (fallbacks[i].find(path, match)) {
+                return fallbackIndexes[i];
+            }
+        }
+
+        return search.bestRoute == Integer.MAX_VALUE ? NO_MATCH : search.bestRoute;
+    }
+
+    private static boolean hasLineTerminator(CharSequence path) {
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+
+            if (c < ' ' || c == '\u0085' || (c | 1) == 0x2029) {
+                if (ExpressRouteRegex.LINE_TERMINATORS.contains(c)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * "/" compiles to a pattern which also accepts the empty path, which the trie would otherwise read as "/".
+     */
+    static boolean isRootSlash(ExpressRoute route) {
+        final List<ExpressRouteToken> tokens = route.getTokens();
+
+        return route.getOptions().isDefault() && tokens.size() == 1 && tokens.get(0).getType() == ExpressRouteTokenType.PATH_FRAGMENT &&
+                tokens.get(0).getName().equals("/");
+    }
+
+    private boolean insert(ExpressRoute route, int index) {
+        // Segments are read as the default options match them, so strict and prefix routes take the slow road.
+        final ExpressRouteOptions options = route.getOptions();
+        final List<Element> elements = options.isDefaultExceptCase() ?
+                toElements(route.getTokens(), options.isSensitive()) : null;
+
+        if (elements == null) {
+            return false;
+        }
+
+        int optionalCount = 0;
+        for (Element element : elements) {
+            if (element.optional) {
+                optionalCount++;
+            }
+        }
+
+        if (optionalCount > MAX_OPTIONAL_TOKENS) {
+            return false;
+        }
+
+        // Variant bits run from the first optional token (most significant) to the last, with a set bit meaning the
+        // token is absent, so ascending variants follow the order the route's pattern would try them in.
+        final int keyCount = route.getKeys().size();
+
+        for (int variant = 0; variant < (1 << optionalCount); variant++) {
+            final int[] keySlots = new int[keyCount];
+            Arrays.fill(keySlots, ABSENT);
+
+            Node node = root;
+            node.offer(index);
+
+            int depth = 0;
+            int optional = optionalCount;
+            boolean rest = false;
+
+            for (Element element : elements) {
+                if (element.optional && ((variant >> --optional) & 1) == 1) {
+                    continue;
+                }
+
+                if (element.kind == Element.LITERAL) {
+                    node = element.folded ? node.foldedChild(element.literal) : node.literalChild(element.literal);
+                    depth++;
+                }
+                else if (element.kind == Element.PARAMETER) {
+                    node = node.parameterChild(element.pattern, element.valueType);
+                    keySlots[element.key] = depth++;
+                }
+                else {
+                    keySlots[element.key] = REST;
+                    rest = true;
+                }
+
+                node.offer(index);
+            }
+
+            maxDepth = Math.max(maxDepth, depth);
+
+            final Terminal terminal = new Terminal(index, variant, keySlots);
+
+            if (rest) {
+                if (node.rest == null) {
+                    node.rest = terminal;
+                }
+            }
+            else if (node.terminal == null) {
+                node.terminal = terminal;
+            }
+        }
+
+        return true;
+    }
+
+    static List<Element> toElements(List<ExpressRouteToken> tokens) {
+        return toElements(tokens, true);
+    }
+
+    /**
+     * Splits a token list into whole segment elements, or returns null if the route cannot be expressed that way.
+     *
+     * @param sensitive false if the route matches without regard to case, whose literals are then folded, and must be
+     *                  ASCII for folding to agree with its pattern
+     */
+    static List<Element> toElements(List<ExpressRouteToken> tokens, boolean sensitive) {
+        final List<Element> elements = new ArrayList<>();
+        int key = 0;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            final ExpressRouteToken token = tokens.get(i);
+
+            if (token.getType() == ExpressRouteTokenType.PATH_FRAGMENT) {
+                final String literal = token.getName();
+
+                // Every character of a literal is escaped in the pattern, so it matches exactly itself.
+                if (!literal.startsWith("/") || literal.endsWith("/")) {
+                    return null;
+                }
+
+                for (String segment : literal.substring(1).split("/", -1)) {
+                    if (segment.isEmpty() || (!sensitive && !isAscii(segment))) {
+                        return null;
+                    }
+
+                    elements.add(sensitive ? Element.literal(segment) : Element.foldedLiteral(segment));
+                }
+            }
+            else {
+                if (!"/".equals(token.getPrefix()) || token.isPartial() || token.isRepeat()) {
+                    return null;
+                }
+
+                if (token.getAsterisk() != null) {
+                    if (i != tokens.size() - 1) {
+                        return null;
+                    }
+
+                    elements.add(Element.rest(key++));
+                }
+                else if (token.getValueType() != null) {
+                    // A typed pattern never holds '/' or matches nothing, and the type checks it without a regex.
+                    elements.add(Element.parameter(key++, null, token.getValueType(), token.isOptional()));
+                }
+                else if (token.getPattern().equals(ExpressRoute.defaultTokenPattern(token.getDelimiter()))) {
+                    elements.add(Element.parameter(key++, null, null, token.isOptional()));
+                }
+                else {
+                    final Pattern pattern = compileSegmentPattern(token.getPattern(), sensitive);
+
+                    if (pattern == null) {
+                        return null;
+                    }
+
+                    elements.add(Element.parameter(key++, pattern, null, token.isOptional()));
+                }
+            }
+        }
+
+        return elements;
+    }
+
+    /**
+     * A custom pattern can be checked against a single segment only if it can never consume '/', never match nothing
+     * and makes no assertions about what surrounds it.
+     */
+    private static Pattern compileSegmentPattern(String source, boolean sensitive) {
+        final ExpressRouteRegex regex;
+
+        try {
+            regex = ExpressRouteRegex.parse(source);
+        }
+        catch (ExpressRouteRegex.UnsupportedPatternException e) {
+            return null;
+        }
+
+        if (regex.canConsume('/') || regex.isNullable() || regex.hasAssertions()) {
+            return null;
+        }
+
+        return Pattern.compile(source, sensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static class Element {
+        static final int LITERAL = 0;
+        static final int PARAMETER = 1;
+        static final int REST = 2;
+
+        final int kind;
+        final String literal;
+        final boolean folded;
+        final Pattern pattern;
+        final ExpressRouteValueType valueType;
+        final int key;
+        final boolean optional;
+
+        private Element(int kind, String literal, boolean folded, Pattern pattern, ExpressRouteValueType valueType, int key,
+                        boolean optional) {
+            this.kind = kind;
+            this.literal = literal;
+            this.folded = folded;
+            this.pattern = pattern;
+            this.valueType = valueType;
+            this.key = key;
+            this.optional = optional;
+        }
+
+        private static Element literal(String segment) {
+            return new Element(LITERAL, segment, false, null, null, -1, false);
+        }
+
+        /**
+         * @return a literal which matches without regard to case, holding the segment folded
+         */
+        private static Element foldedLiteral(String segment) {
+            return new Element(LITERAL, ExpressRouteLiteralTable.fold(segment), true, null, null, -1, false);
+        }
+
+        private static Element parameter(int key, Pattern pattern, ExpressRouteValueType valueType, boolean optional) {
+            return new Element(PARAMETER, null, false, pattern, valueType, key, optional);
+        }
+
+        private static Element rest(int key) {
+            return new Element(REST, null, false, null, null, key, false);
+        }
+    }
+
+    private static class Terminal {
+        private final int route;
+        private final int variant;
+        private final int[] keySlots;
+
+        private Terminal(int route, int variant, int[] keySlots) {
+            this.route = route;
+            this.variant = variant;
+            this.keySlots = keySlots;
+        }
+    }
+
+    private static class ParameterEdge {
+        private final Pattern pattern;
+        private final ExpressRouteValueType valueType;
+        private final Node node = new Node();
+
+        private ParameterEdge(Pattern pattern, ExpressRouteValueType valueType) {
+            this.pattern = pattern;
+            this.valueType = valueType;
+        }
+
+        private boolean matches(CharSequence path, int start, int end, ExpressRouteMatch match) {
+            if (valueType != null) {
+                return valueType.accepts(path, start, end);
+            }
+
+            return pattern == null || match.matcher(pattern, path).region(start, end).matches();
+        }
+    }
+
+    private static class Node {
+        private static final ParameterEdge[] NO_EDGES = new ParameterEdge[0];
+
+        private ExpressRouteLiteralTable<Node> literals;
+        private ExpressRouteLiteralTable<Node> foldedLiterals;
+        private ParameterEdge[] parameters = NO_EDGES;
+        private Terminal terminal;
+        private Terminal rest;
+        private int minRoute = Integer.MAX_VALUE;
+
+        private void offer(int route) {
+            minRoute = Math.min(minRoute, route);
+        }
+
+        private Node literalChild(String segment) {
+            if (literals == null) {
+                literals = new ExpressRouteLiteralTable<>();
+            }
+
+            Node child = literals.get(segment);
+
+            if (child == null) {
+                child = new Node();
+                literals.put(segment, child);
+            }
+
+            return child;
+        }
+
+        /**
+         * @param segment the folded literal of a route which matches without regard to case
+         */
+        private Node foldedChild(String segment) {
+            if (foldedLiterals == null) {
+                foldedLiterals = new ExpressRouteLiteralTable<>();
+            }
+
+            Node child = foldedLiterals.get(segment);
+
+            if (child == null) {
+                child = new Node();
+                foldedLiterals.put(segment, child);
+            }
+
+            return child;
+        }
+
+        private Node parameterChild(Pattern pattern, ExpressRouteValueType valueType) {
+            for (ParameterEdge edge : parameters) {
+                if (edge.valueType == valueType && (pattern == null ? edge.pattern == null : edge.pattern != null &&
+                        edge.pattern.pattern().equals(pattern.pattern()) && edge.pattern.flags() == pattern.flags())) {
+                    return edge.node;
+                }
+            }
+
+            final ParameterEdge edge = new ParameterEdge(pattern, valueType);
+
+            parameters = Arrays.copyOf(parameters, parameters.length + 1);
+            parameters[parameters.length - 1] = edge;
+
+            return edge.node;
+        }
+    }
+
+    private static class Search {
+        private final CharSequence path;
+        private final ExpressRoutePath parsed;
+        private final int end;
+        private final ExpressRouteMatch match;
+        private final int[] offsets;
+        private final int[] bounds;
+        private final int maxDepth;
+        private int bestRoute = Integer.MAX_VALUE;
+        private int bestVariant;
+
+        /**
+         * @param parsed the path, if it is parsed, whose slashes are already found
+         * @param bounds holds the start of the segment at each depth, followed by the ends
+         */
+        private Search(CharSequence path, ExpressRoutePath parsed, int end, ExpressRouteMatch match, int[] bounds,
+                       int maxDepth) {
+            this.path = path;
+            this.parsed = parsed;
+            this.end = end;
+            this.match = match;
+            this.offsets = match.offsets();
+            this.bounds = bounds;
+            this.maxDepth = maxDepth;
+        }
+
+        private void visit(Node node, int position, int depth) {
+            if (node.minRoute > bestRoute) {
+                return;
+            }
+
+            if (position == end && node.terminal != null) {
+                offer(node.terminal, -1, -1);
+            }
+
+            if (node.rest != null && position < path.length() && path.charAt(position) == '/') {
+                offer(node.rest, position + 1, path.length());
+            }
+
+            if (position >= end || path.charAt(position) != '/') {
+                return;
+            }
+
+            final int segmentStart = position + 1;
+            int segmentEnd = segmentStart;
+
+            if (parsed != null) {
+                segmentEnd = Math.min(parsed.nextSlash(segmentStart), end);
+            }
+            else {
+                while (segmentEnd < end && path.charAt(segmentEnd) != '/') {
+                    segmentEnd++;
+                }
+            }
+
+            if (node.literals != null) {
+                final Node child = node.literals.get(path, segmentStart, segmentEnd);
+
+                if (child != null) {
+                    visit(child, segmentEnd, depth + 1);
+                }
+            }
+
+            if (node.foldedLiterals != null) {
+                final Node child = node.foldedLiterals.getFolded(path, segmentStart, segmentEnd);
+
+                if (child != null) {
+                    visit(child, segmentEnd, depth + 1);
+                }
+            }
+
+            if (segmentEnd > segmentStart) {
+                for (ParameterEdge edge : node.parameters) {
+                    if (edge.matches(path, segmentStart, segmentEnd, match)) {
+                        bounds[depth] = segmentStart;
+                        bounds[maxDepth + depth] = segmentEnd;
+                        visit(edge.node, segmentEnd, depth + 1);
+                    }
+                }
+            }
+        }
+
+        private void offer(Terminal terminal, int restStart, int restEnd) {
+            if (terminal.route > bestRoute || (terminal.route == bestRoute && terminal.variant >= bestVariant)) {
+                return;
+            }
+
+            bestRoute = terminal.route;
+            bestVariant = terminal.variant;
+
+            for (int i = 0; i < terminal.keySlots.length; i++) {
+                final int slot = terminal.keySlots[i];
+
+                offsets[i * 2] = slot == REST ? restStart : (slot == ABSENT ? -1 : bounds[slot]);
+                offsets[i * 2 + 1] = slot == REST ? restEnd : (slot == ABSENT ? -1 : bounds[maxDepth + slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.markmcguill.express.routing;
+
+import java.math.BigInteger;
+
+/**
+ * The types a parameter may declare in a definition, as in {@code /:commoditySlug/bid/:bidId<long>}.
+ * <p>
+ * A typed parameter matches exactly the values of its type: its pattern accepts a number only if it is in range, so
+ * every engine, the regular expressions included, agrees on what matches. The engines which check segments
+ * themselves, and {@link ExpressRouteTemplate}, use {@link #accepts} in place of the pattern, which decides the same
+ * thing with a single pass over the characters.
+ */
+public enum ExpressRouteValueType {
+    INT("int", signedRange(Integer.toString(Integer.MAX_VALUE))),
+    LONG("long", signedRange(Long.toString(Long.MAX_VALUE))),
+    UUID("uuid", "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private final String name;
+    private final String pattern;
+
+    ExpressRouteValueType(String name, String pattern) {
+        this.name = name;
+        this.pattern = pattern;
+    }
+
+    /**
+     * @return the name used in definitions, e.g. "long" in {@code :bidId<long>}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the source of the pattern a parameter of this type matches
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return the type with the name, or null if there is none
+     */
+    public static ExpressRouteValueType forName(String name) {
+        for (ExpressRouteValueType type : values()) {
+            if (type.name.equals(name)) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return true if the range of the input is a value of this type, exactly as {@link #getPattern()} would decide
+     */
+    public boolean accepts(CharSequence input, int start, int end) {
+        switch (this) {
+            case INT:
+                return start < end && input.charAt(start) != '+' && isInRange(input, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            case LONG:
+                return start < end && input.charAt(start) != '+' && isInRange(input, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+            default:
+                return isUuid(input, start, end);
+        }
+    }
+
+    /**
+     * Parses a decimal as {@link Long#parseLong(String)} does, without copying the range into a String.
+     *
+     * @throws NumberFormatException if the range is not a decimal between min and max
+     */
+    static long parseLong(CharSequence input, int start, int end, long min, long max) {
+        if (!isInRange(input, start, end, min, max)) {
+            throw new NumberFormatException("For input string: \"" + input.subSequence(start, end) + "\"");
+        }
+
+        final boolean negative = input.charAt(start) == '-';
+        long result = 0;
+
+        for (int i = negative || input.charAt(start) == '+' ? start + 1 : start; i < end; i++) {
+            result = result * 10 - (input.charAt(i) - '0');
+        }
+
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses the canonical form of a UUID, 36 characters with hyphens after the 8th, 12th, 16th and 20th digits.
+     *
+     * @throws IllegalArgumentException if the range is not a UUID in canonical form
+     */
+    static java.util.UUID parseUuid(CharSequence input, int start, int end) {
+        if (!isUuid(input, start, end)) {
+            throw new IllegalArgumentException("Invalid UUID string: " + input.subSequence(start, end));
+        }
+
+        long mostSignificant = 0;
+        long leastSignificant = 0;
+
+        for (int i = 0; i < 36; i++) {
+            final int digit = ExpressRoutePercentDecoder.hexValue(input.charAt(start + i));
+
+            if (digit < 0) {
+                continue;
+            }
+
+            if (i < 19) {
+                mostSignificant = mostSignificant << 4 | digit;
+            }
+            else {
+                leastSignificant = leastSignificant << 4 | digit;
+            }
+        }
+
+        return new java.util.UUID(mostSignificant, leastSignificant);
+    }
+
+    /**
+     * Accumulates negatively, as {@link Long#parseLong(String)} does, so that the most negative value is in reach.
+     */
+    private static boolean isInRange(CharSequence input, int start, int end, long min, long max) {
+        if (start >= end) {
+            return false;
+        }
+
+        final char sign = input.charAt(start);
+        final boolean negative = sign == '-';
+        final int first = negative || sign == '+' ? start + 1 : start;
+        final long limit = negative ? min : -max;
+
+        if (first == end) {
+            return false;
+        }
+
+        final long multiplyLimit = limit / 10;
+        long result = 0;
+
+        for (int i = first; i < end; i++) {
+            final int digit = input.charAt(i) - '0';
+
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                return false;
+            }
+
+            result *= 10;
+
+            if (result < limit + digit) {
+                return false;
+            }
+
+            result -= digit;
+        }
+
+        return true;
+    }
+
+    private static boolean isUuid(CharSequence input, int start, int end) {
+        if (end - start != 36) {
+            return false;
+        }
+
+        for (int i = 0; i < 36; i++) {
+            final char c = input.charAt(start + i);
+
+            if (i == 8 || i == 13 || i == 18 || i == 23 ? c != '-' : ExpressRoutePercentDecoder.hexValue(c) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return a pattern matching the decimals from -(max + 1) to max, with any leading zeros
+     */
+    private static String signedRange(String max) {
+        final String min = new BigInteger(max).add(BigInteger.ONE).toString();
+
+        return "(?:-0*(?:" + upTo(min) + ")|0*(?:" + upTo(max) + "))";
+    }
+
+    /**
+     * @return a pattern matching the decimals without leading zeros from 0 to max
+     */
+    private static String upTo(String max) {
+        final int length = max.length();
+        final StringBuilder pattern = new StringBuilder("0|[1-9]\\d{0,").append(length - 2).append('}');
+
+        for (int i = 0; i < length; i++) {
+            final int digit = max.charAt(i) - '0';
+            final int lowest = i == 0 ? 1 : 0;
+
+            if (digit > lowest) {
+                pattern.append('|').append(max, 0, i).append('[').append(lowest).append('-').append(digit - 1).append(']');
+
+                if (i < length - 1) {
+                    pattern.append("\\d{").append(length - 1 - i).append('}');
+                }
+            }
+        }
+
+        return pattern.append('|').append(max).toString();
+    }
+}
@@ -0,0 +1,1292 @@
+package com.markmcguill.express.routing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+
+/**
+ * A table of routes, each with an attached handler, which returns the most specific match for a path in one call.
+ * <p>
+ * Routes are ranked as they are added, using the same ordering as {@link ExpressRoutePatternComparator}, so a lookup
+ * is a walk down the ranked table that stops at the first match rather than a sort of every match.
+ * <p>
+ * The table is copy on write: each change, or each {@link #update batch of changes}, publishes a new immutable table
+ * which lookups pick up with a single volatile read, so lookups never lock and never see half a change. Changes are
+ * made one at a time; each merges its routes into the ranked table, reusing every route already compiled. The table
+ * is compiled into the {@link ExpressRouteEngine} chosen at construction on the first lookup after it changes, and
+ * lookups which arrive while that compile runs walk the ranked table rather than wait for it.
+ * <p>
+ * Other routers may be {@link #mount mounted} under a prefix, as Express's {@code router.use(prefix, child)} does, so
+ * a large table can be split into a tree: a lookup matches each prefix once and looks up only the routers under the
+ * prefixes which match, rather than every route.
+ */
+public class ExpressRouter<T> {
+    /**
+     * The methods of a route or mount which every lookup may use, as do all those added through the public methods.
+     */
+    static final long ALL_METHODS = -1L;
+
+    private static final Comparator<Entry<?>> RANK_ORDER = (a, b) -> {
+        final int rank = a.route.getPatternInfo().compareTo(b.route.getPatternInfo());
+        return rank != 0 ? rank : Long.compare(a.sequence, b.sequence);
+    };
+
+    private static final Comparator<Mount<?>> MOUNT_ORDER = (a, b) -> {
+        final int rank = a.prefix.getPatternInfo().compareTo(b.prefix.getPatternInfo());
+        return rank != 0 ? rank : Long.compare(a.sequence, b.sequence);
+    };
+
+    private final ExpressRouteEngineFactory engineFactory;
+    private final ExpressRouteCache routeCache;
+    private final ExpressRouteCompiler compiler;
+    private long sequence;
+    private int lookupCacheSize;
+    private ExpressRouteAdmissionPolicy admissionPolicy;
+    private ExpressRouteMetrics metrics;
+    private ExpressRouteSafeMode safeMode = ExpressRouteSafeMode.OFF;
+    private final List<ExpressRoute> flaggedRoutes = new ArrayList<>();
+    private int stepBudget;
+    private Set<ExpressRoutePathRule> pathRules = Collections.emptySet();
+    private Mount<T>[] mounts = newMounts(0);
+    private volatile Snapshot<T> snapshot;
+
+    public ExpressRouter() {
+        this(ExpressRouteEngineType.REGEX);
+    }
+
+    public ExpressRouter(ExpressRouteEngineFactory engineFactory) {
+        this(engineFactory, null);
+    }
+
+    /**
+     * @param engineFactory compiles the table, e.g. one of {@link ExpressRouteEngineType} or the factory of a matcher
+     *                      generated from {@link ExpressRoutes}
+     * @param routeCache    if not null, definitions added by {@link #add(String, Object)} are compiled through it, so
+     *                      routers sharing the cache share the compiled routes
+     */
+    public ExpressRouter(ExpressRouteEngineFactory engineFactory, ExpressRouteCache routeCache) {
+        this(engineFactory, routeCache, new ExpressRouteCompiler());
+    }
+
+    /**
+     * @param compiler compiles the definitions added which are not found in the cache, e.g. one with an
+     *                 {@link ExpressRouteInterner} to keep a very large table compact
+     */
+    public ExpressRouter(ExpressRouteEngineFactory engineFactory, ExpressRouteCache routeCache, ExpressRouteCompiler compiler) {
+        if (engineFactory == null) {
+            throw new IllegalArgumentException("engineFactory must not be null");
+        }
+
+        if (compiler == null) {
+            throw new IllegalArgumentException("compiler must not be null");
+        }
+
+        this.engineFactory = engineFactory;
+        this.routeCache = routeCache;
+        this.compiler = compiler;
+        publish(newEntries(0), new Compilation(engineFactory), null);
+    }
+
+    /**
+     * @return the engine type the router was built with, or null if it was built with some other factory
+     */
+    public ExpressRouteEngineType getEngineType() {
+        return engineFactory instanceof ExpressRouteEngineType ? (ExpressRouteEngineType) engineFactory : null;
+    }
+
+    public ExpressRouteEngineFactory getEngineFactory() {
+        return engineFactory;
+    }
+
+    /**
+     * Puts a cache in front of lookups which maps a path straight to its match, for tables where a few paths make up
+     * most of the traffic. The cache belongs to the compiled table, so it starts empty again whenever routes change.
+     *
+     * @param maximumSize     the most paths to keep, or 0 to remove the cache
+     * @param admissionPolicy decides which matched paths are cached
+     */
+    public synchronized void setLookupCache(int maximumSize, ExpressRouteAdmissionPolicy admissionPolicy) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must not be negative");
+        }
+
+        if (maximumSize > 0 && admissionPolicy == null) {
+            throw new IllegalArgumentException("admissionPolicy must not be null");
+        }
+
+        this.lookupCacheSize = maximumSize;
+        this.admissionPolicy = admissionPolicy;
+        publish(snapshot.ranked, snapshot.compilation, newLookupCache());
+    }
+
+    /**
+     * @return the counters of the lookup cache since routes last changed, or null if there is no cache
+     */
+    public ExpressRouteCacheStats getLookupCacheStats() {
+        final ExpressRouteLruCache<CachedMatch> cache = snapshot.lookupCache;
+
+        return cache == null ? null : cache.getStats();
+    }
+
+    /**
+     * Starts counting lookups, and this router's compile times, into the metrics, or stops if they are null. The
+     * compiled table is kept; only the per route counters are looked up again.
+     */
+    public synchronized void setMetrics(ExpressRouteMetrics metrics) {
+        if (this.metrics != null) {
+            this.metrics.removeCompiler(compiler);
+        }
+
+        if (metrics != null) {
+            metrics.addCompiler(compiler);
+        }
+
+        this.metrics = metrics;
+        publish(snapshot.ranked, snapshot.compilation, snapshot.lookupCache);
+    }
+
+    public synchronized ExpressRouteMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Checks the pattern of every route added from now on, and of the routes already added, for a
+     * {@link ExpressRoute#findPatternHazard() hazard}, and flags or refuses those which have one.
+     *
+     * @throws IllegalArgumentException if the mode is {@link ExpressRouteSafeMode#REJECT} and a route already added
+     *                                  has a hazard, in which case the mode is left as it was
+     */
+    public synchronized void setSafeMode(ExpressRouteSafeMode safeMode) {
+        if (safeMode == null) {
+            throw new IllegalArgumentException("safeMode must not be null");
+        }
+
+        final List<ExpressRoute> routes = new ArrayList<>();
+
+        for (Entry<T> entry : snapshot.ranked) {
+            routes.add(entry.route);
+        }
+
+        final List<ExpressRoute> flagged = findHazards(routes, safeMode);
+
+        this.safeMode = safeMode;
+        flaggedRoutes.clear();
+        flaggedRoutes.addAll(flagged);
+    }
+
+    public synchronized ExpressRouteSafeMode getSafeMode() {
+        return safeMode;
+    }
+
+    /**
+     * @return the routes added with a hazard while the safe mode was {@link ExpressRouteSafeMode#FLAG}
+     */
+    public synchronized List<ExpressRoute> getFlaggedRoutes() {
+        return Collections.unmodifiableList(new ArrayList<>(flaggedRoutes));
+    }
+
+    /**
+     * Bounds the work of each lookup by the number of characters of the path it may read, counting each time an
+     * engine, or a route's pattern, reads one. A lookup which goes over throws an
+     * {@link ExpressRouteBudgetExceededException}. A linear engine reads each character about once per lookup, and a
+     * backtracking one once for every route it tries, so the budget should allow for the longest path accepted times
+     * the routes tried. The compiled table is kept.
+     *
+     * @param steps the most characters a lookup may read, or 0 for no limit
+     */
+    public synchronized void setStepBudget(int steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("steps must not be negative");
+        }
+
+        this.stepBudget = steps;
+        publish(snapshot.ranked, snapshot.compilation, snapshot.lookupCache);
+    }
+
+    public synchronized int getStepBudget() {
+        return stepBudget;
+    }
+
+    /**
+     * Normalizes each path by the rules before any route sees it, once per lookup. A lookup which matches leaves the
+     * normalized path as the match's input, so parameter offsets index into it. A mounted router's rules are not
+     * applied to the paths its parents look up; the rules of the router looked up in are. The lookup cache starts
+     * empty again, since it is keyed by normalized path.
+     */
+    public synchronized void setPathRules(Set<ExpressRoutePathRule> rules) {
+        if (rules == null) {
+            throw new IllegalArgumentException("rules must not be null");
+        }
+
+        this.pathRules = rules.isEmpty() ? Collections.emptySet() :
+                Collections.unmodifiableSet(EnumSet.copyOf(rules));
+        publish(snapshot.ranked, snapshot.compilation, newLookupCache());
+    }
+
+    public synchronized Set<ExpressRoutePathRule> getPathRules() {
+        return pathRules;
+    }
+
+    /**
+     * @return the routes with a hazard, unless the mode is off
+     * @throws IllegalArgumentException if the mode rejects routes with a hazard and one has one
+     */
+    private static List<ExpressRoute> findHazards(List<ExpressRoute> routes, ExpressRouteSafeMode safeMode) {
+        final List<ExpressRoute> flagged = new ArrayList<>();
+
+        if (safeMode == ExpressRouteSafeMode.OFF) {
+            return flagged;
+        }
+
+        for (ExpressRoute route : routes) {
+            final String hazard = route.findPatternHazard();
+
+            if (hazard != null) {
+                if (safeMode == ExpressRouteSafeMode.REJECT) {
+                    throw new IllegalArgumentException(hazard);
+                }
+
+                flagged.add(route);
+            }
+        }
+
+        return flagged;
+    }
+
+    public ExpressRoute add(String pathDefinition, T handler) {
+        final ExpressRoute route = routeCache != null ? routeCache.get(pathDefinition) : compiler.compile(pathDefinition);
+
+        add(route, handler);
+
+        return route;
+    }
+
+    /**
+     * Compiles the definition with the options, for instance to match it without regard to case, and registers it.
+     * Routes with options are compiled by this router's compiler rather than taken from the route cache, which holds
+     * routes with the default options only.
+     */
+    public ExpressRoute add(String pathDefinition, ExpressRouteOptions options, T handler) {
+        final ExpressRoute route = compiler.compile(pathDefinition, options);
+
+        add(route, handler);
+
+        return route;
+    }
+
+    /**
+     * Registers many routes at once, in the map's iteration order, compiling them as the mode says. The table is
+     * recompiled once for the whole batch rather than once per route.
+     *
+     * @return the routes, in the same order as the map
+     */
+    public List<ExpressRoute> addAll(Map<String, ? extends T> handlers, ExpressRouteCompileMode mode) {
+        final List<String> pathDefinitions = new ArrayList<>(handlers.keySet());
+        final List<ExpressRoute> routes = routeCache != null ?
+                routeCache.getAll(pathDefinitions, compiler, mode) :
+                compiler.compileAll(pathDefinitions, mode);
+
+        update(transaction -> {
+            int i = 0;
+
+            for (T handler : handlers.values()) {
+                transaction.add(routes.get(i++), handler);
+            }
+        });
+
+        return routes;
+    }
+
+    /**
+     * Registers the routes of a snapshot, in the snapshot's order, without parsing their definitions. A snapshot
+     * written by {@link #writeSnapshot(Path)} is already in rank order, so its routes rank exactly as they did in the
+     * router which wrote it.
+     *
+     * @param handlers the handler for each route's definition
+     * @return the routes, in the same order as the snapshot
+     */
+    public List<ExpressRoute> addAll(ExpressRouteSnapshot routeSnapshot, Function<String, ? extends T> handlers) {
+        final List<ExpressRoute> routes = routeSnapshot.getRoutes();
+
+        update(transaction -> {
+            for (ExpressRoute route : routes) {
+                transaction.add(route, handlers.apply(route.getPathDefinition()));
+            }
+        });
+
+        return routes;
+    }
+
+    /**
+     * Saves the routes, in rank order, for a later {@link #addAll(ExpressRouteSnapshot, Function)}. Handlers are not
+     * saved.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        ExpressRouteSnapshot.write(getRoutes(), file);
+    }
+
+    /**
+     * @return the time spent compiling the routes this router compiled itself, which excludes routes found in its
+     * {@link ExpressRouteCache} and routes added already compiled
+     */
+    public ExpressRouteCompileStats getCompileStats() {
+        return compiler.getStats();
+    }
+
+    public void add(ExpressRoute route, T handler) {
+        update(transaction -> transaction.add(route, handler));
+    }
+
+    /**
+     * Adds the route for the methods only, whose bits are those an {@link ExpressRequestRouter} gave them, so that a
+     * lookup for another method passes it over.
+     */
+    void add(ExpressRoute route, T handler, long methods) {
+        update(transaction -> ((Batch) transaction).add(route, handler, methods));
+    }
+
+    /**
+     * Removes the route, with every handler it was added with.
+     *
+     * @return true if the route was in the table
+     */
+    public boolean remove(ExpressRoute route) {
+        final boolean[] removed = new boolean[1];
+
+        update(transaction -> removed[0] = transaction.remove(route));
+
+        return removed[0];
+    }
+
+    /**
+     * Removes every route with the definition.
+     *
+     * @return true if any route had it
+     */
+    public boolean remove(String pathDefinition) {
+        final boolean[] removed = new boolean[1];
+
+        update(transaction -> removed[0] = transaction.remove(pathDefinition));
+
+        return removed[0];
+    }
+
+    /**
+     * Swaps the route for the replacement, with the handler, as {@link ExpressRouteTransaction#replace} does.
+     *
+     * @return true if the route was in the table, otherwise nothing is changed
+     */
+    public boolean replace(ExpressRoute route, ExpressRoute replacement, T handler) {
+        final boolean[] replaced = new boolean[1];
+
+        update(transaction -> replaced[0] = transaction.replace(route, replacement, handler));
+
+        return replaced[0];
+    }
+
+    /**
+     * Makes a batch of changes which lookups see all at once when the changes return, or not at all if they throw.
+     * Routes kept from the current table are neither compiled nor ranked again. The changes must go through the
+     * transaction, not the router.
+     */
+    public synchronized void update(Consumer<? super ExpressRouteTransaction<T>> changes) {
+        final Batch batch = new Batch(snapshot);
+
+        try {
+            changes.accept(batch);
+        }
+        finally {
+            batch.closed = true;
+        }
+
+        batch.commit();
+    }
+
+    /**
+     * Mounts the child under the prefix, as Express's {@code router.use(prefix, child)} does. A path which the
+     * router's own routes do not match is looked up in the routers mounted under prefixes it starts with, with the
+     * rest of the path after the prefix, in the rank order of the prefixes, until one matches. The match holds the
+     * prefix's parameters followed by those of the child's route, with offsets into the whole path.
+     * <p>
+     * The prefix is compiled with {@link ExpressRouteOptions#PREFIX}, so it matches up to the end of a segment: "/:slug"
+     * hands "/options" on from "/porkbelly/options", and "" from "/porkbelly" or "/porkbelly/", which the child's "/"
+     * matches. The child may itself have routers mounted, but may not be this router or have it mounted below. Each
+     * router's lookup cache and metrics cover its own routes.
+     *
+     * @return the prefix route, with which the child can be {@link #unmount unmounted}
+     * @throws IllegalArgumentException if mounting the child would make a cycle
+     */
+    public ExpressRoute mount(String prefixDefinition, ExpressRouter<T> child) {
+        final ExpressRoute prefix = new ExpressRoute(prefixDefinition, ExpressRouteOptions.PREFIX);
+
+        mount(prefix, child, ALL_METHODS);
+
+        return prefix;
+    }
+
+    /**
+     * Mounts the child under a prefix compiled with {@link ExpressRouteOptions#PREFIX}, which routers may share, so
+     * that one {@link #unmount} call per router removes it from each.
+     *
+     * @param methods the bits of the methods whose lookups may use the child, as for {@link #add(ExpressRoute, Object, long)}
+     */
+    synchronized void mount(ExpressRoute prefix, ExpressRouter<T> child, long methods) {
+        if (child == null) {
+            throw new IllegalArgumentException("child must not be null");
+        }
+
+        if (child.reaches(this)) {
+            throw new IllegalArgumentException("Mounting the router under " + prefix.getPathDefinition() +
+                    " would make a cycle");
+        }
+
+        final Mount<T>[] mounted = Arrays.copyOf(mounts, mounts.length + 1);
+
+        mounted[mounts.length] = new Mount<>(prefix, child, methods, ++sequence);
+        Arrays.sort(mounted, MOUNT_ORDER);
+
+        mounts = mounted;
+        publish(snapshot.ranked, snapshot.compilation, snapshot.lookupCache);
+    }
+
+    /**
+     * Removes the router mounted under the prefix {@link #mount} returned.
+     *
+     * @return true if a router was mounted under it
+     */
+    public synchronized boolean unmount(ExpressRoute prefix) {
+        final List<Mount<T>> kept = new ArrayList<>();
+
+        for (Mount<T> mount : mounts) {
+            if (mount.prefix != prefix) {
+                kept.add(mount);
+            }
+        }
+
+        if (kept.size() == mounts.length) {
+            return false;
+        }
+
+        mounts = kept.toArray(newMounts(kept.size()));
+        publish(snapshot.ranked, snapshot.compilation, snapshot.lookupCache);
+
+        return true;
+    }
+
+    /**
+     * @return true if the router is this one or is mounted somewhere below it
+     */
+    private boolean reaches(ExpressRouter<?> router) {
+        if (router == this) {
+            return true;
+        }
+
+        for (Mount<T> mount : snapshot.mounts) {
+            if (mount.child.reaches(router)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the most specific match for the path, or null if no route matches
+     */
+    public ExpressRouterMatch<T> find(CharSequence path) {
+        final ExpressRouterMatch<T> match = new ExpressRouterMatch<>();
+
+        return find(path, match) != null ? match : null;
+    }
+
+    /**
+     * Finds the most specific match for the path into a match owned by the caller, so a caller which reuses one match
+     * per thread looks up routes without allocating. The path is parsed into an {@link ExpressRoutePath} once, whose
+     * segments every route and engine of the lookup then reads, unless it already is one, in which case it is used as
+     * it is. When the {@link #setPathRules rules} change the path, the match's input is the normalized path.
+     * <p>
+     * The path may be a whole request target. Routes match the path up to its first '?' or '#', and the match's
+     * {@link ExpressRouteMatch#getQueryParameters() query parameters} are a view of the rest.
+     *
+     * @return the handler of the matched route, or null if no route matches, in which case the match holds no route
+     */
+    public T find(CharSequence path, ExpressRouteMatch match) {
+        final ExpressRoutePath parsed = path instanceof ExpressRoutePath ? (ExpressRoutePath) path :
+                match.path().reset(path, snapshot.pathRules);
+        final CharSequence target = parsed.getOriginal();
+
+        match.parsed(parsed);
+
+        final T handler = find(parsed.getNormalized(), 0, 0, match, true, ALL_METHODS);
+
+        // A view of the path up to the query is swapped for the whole target, which the offsets index just as well.
+        if (!parsed.isNormalized() && match.getInput() != target) {
+            match.rebase(target, 0);
+        }
+
+        match.query(target, parsed.queryStart(), parsed.queryEnd());
+
+        return handler;
+    }
+
+    /**
+     * Looks up a path the caller has already parsed, and handed the parse of to the match, as
+     * {@link #find(CharSequence, ExpressRouteMatch)} does but without the path rules, the rebase onto the whole target
+     * or the query.
+     *
+     * @param path     the normalized path
+     * @param measured false to leave the lookup out of the metrics, for a lookup which only asks whether a route
+     *                 matches
+     */
+    T findParsed(CharSequence path, ExpressRouteMatch match, boolean measured) {
+        return find(path, 0, 0, match, measured, ALL_METHODS);
+    }
+
+    /**
+     * Looks up a path the caller has parsed among the routes and mounts added for the method, as
+     * {@link #findParsed(CharSequence, ExpressRouteMatch, boolean)} does. The methods of the routes and mounts for other
+     * methods which the path matched on the way are added to the match's {@link ExpressRequestMatch#getOtherMethods()
+     * other methods}; once none is found for the method, they are those of every one which matches.
+     *
+     * @param method the bit of the request's method
+     */
+    T findParsed(CharSequence path, ExpressRequestMatch<T> match, boolean measured, long method) {
+        return find(path, 0, 0, match, measured, method);
+    }
+
+    /**
+     * Looks up the rest of the input from start, where the prefix of the mount this router was reached through ended.
+     *
+     * @param depth    the number of prefix offsets held by the match for the mounts above
+     * @param measured false to leave the lookup out of every router's metrics
+     * @param method   the bit of the request's method, or {@link #ALL_METHODS}, in which case the match need not be an
+     *                 {@link ExpressRequestMatch}
+     */
+    private T find(CharSequence input, int start, int depth, ExpressRouteMatch match, boolean measured, long method) {
+        final Snapshot<T> current = snapshot;
+        final ExpressRouteMetrics measuring = measured ? current.metrics : null;
+        final CharSequence path = start == 0 ? input : match.rest(input, start);
+        final T handler;
+
+        if (measuring != null) {
+            handler = findMeasured(current, measuring, path, match, method);
+        }
+        else {
+            final int index = lookup(current, path, match, method);
+
+            handler = index == ExpressRouteEngine.NO_MATCH ? null : complete(match, current.ranked[index]);
+        }
+
+        if (match.getRoute() != null) {
+            if (start != 0) {
+                match.rebase(input, start);
+            }
+
+            return handler;
+        }
+
+        return current.mounts.length == 0 ? null :
+                findMounted(current.mounts, input, start, depth, match, measured, method);
+    }
+
+    /**
+     * Looks up the rest of the input from start in the router of each mount for the method whose prefix it starts
+     * with, in the rank order of the prefixes, until one matches. Only if none does are the mounts for other methods
+     * asked, and only those which could add a method to the match's other methods.
+     */
+    private static <T> T findMounted(Mount<T>[] mounts, CharSequence input, int start, int depth, ExpressRouteMatch match,
+                                     boolean measured, long method) {
+        for (Mount<T> mount : mounts) {
+            if ((mount.methods & method) != 0) {
+                final T handler = findMounted(mount, input, start, depth, match, measured);
+
+                if (match.getRoute() != null) {
+                    return handler;
+                }
+            }
+        }
+
+        if (method != ALL_METHODS) {
+            final ExpressRequestMatch<?> request = (ExpressRequestMatch<?>) match;
+
+            for (Mount<T> mount : mounts) {
+                if ((mount.methods & method) == 0 && (mount.methods & ~request.getOtherMethods()) != 0) {
+                    findMounted(mount, input, start, depth, match, false);
+
+                    if (match.getRoute() != null) {
+                        request.setOtherMethods(request.getOtherMethods() | mount.methods);
+                        match.clear();
+                    }
+                }
+            }
+        }
+
+        match.reset(input, 0);
+
+        return null;
+    }
+
+    /**
+     * Matches the mount's prefix against the rest of the input from start, and if it matches looks up the rest after
+     * it in the mount's router.
+     *
+     * @return the handler of the route matched, or null if there is none, in which case the match holds no route
+     */
+    private static <T> T findMounted(Mount<T> mount, CharSequence input, int start, int depth, ExpressRouteMatch match,
+                                     boolean measured) {
+        final CharSequence path = start == 0 ? input : match.rest(input, start);
+        final ExpressRoute prefix = mount.prefix;
+
+        if (prefix.getFingerprint().rejects(path, match.parsed(path))) {
+            return null;
+        }
+
+        final Matcher matcher = match.matcher(prefix.getPattern(), path);
+
+        if (!matcher.find()) {
+            return null;
+        }
+
+        // The prefix's offsets are kept aside while the child's lookup overwrites the match.
+        final int keyCount = prefix.getKeys().size();
+        final int[] offsets = match.prefixOffsets(depth + keyCount * 2);
+
+        for (int i = 0; i < keyCount; i++) {
+            final boolean present = matcher.start(i + 1) >= 0;
+
+            offsets[depth + i * 2] = present ? start + matcher.start(i + 1) : -1;
+            offsets[depth + i * 2 + 1] = present ? start + matcher.end(i + 1) : -1;
+        }
+
+        final T handler = mount.child.find(input, start + matcher.end(), depth + keyCount * 2, match, measured,
+                ALL_METHODS);
+
+        if (match.getRoute() != null && keyCount > 0) {
+            match.prepend(match.prefixOffsets(0), depth, mount.join(match.keys()));
+        }
+
+        return handler;
+    }
+
+    private T findMeasured(Snapshot<T> current, ExpressRouteMetrics measuring, CharSequence path, ExpressRouteMatch match,
+                           long method) {
+        final ExpressRouteLookupEvent event = measuring.isFlightRecorderEvents() ? ExpressRouteLookupEvent.start() : null;
+        final int regexEvaluations = match.regexEvaluations();
+        final long start = System.nanoTime();
+
+        final int index = lookup(current, path, match, method);
+
+        final long nanos = System.nanoTime() - start;
+        final Entry<T> entry = index == ExpressRouteEngine.NO_MATCH ? null : current.ranked[index];
+
+        measuring.record(entry == null ? null : current.hits[index], nanos, match.regexEvaluations() - regexEvaluations);
+
+        if (event != null) {
+            event.finish(path, entry == null ? null : entry.route, match.regexEvaluations() - regexEvaluations);
+        }
+
+        return entry == null ? null : complete(match, entry);
+    }
+
+    /**
+     * Finds the most specific route as {@link #lookup(Snapshot, CharSequence, ExpressRouteMatch)} does, and if it is
+     * for other methods, walks on down the ranked table from it for the first route for the method.
+     *
+     * @return the rank of the route for the method the path matched, which the match is completed with, or
+     * {@link ExpressRouteEngine#NO_MATCH}, in which case the match is cleared
+     */
+    private static <T> int lookup(Snapshot<T> current, CharSequence path, ExpressRouteMatch match, long method) {
+        final int index = lookup(current, path, match);
+
+        if (index == ExpressRouteEngine.NO_MATCH || (current.ranked[index].methods & method) != 0) {
+            return index;
+        }
+
+        return walk(current, index, path, match, method);
+    }
+
+    /**
+     * Matches the pattern of each route ranked below one the path matched which is for other methods, as
+     * {@link ExpressRouteEngineType#REGEX} does, until one for the method matches, and adds the methods of those for
+     * other methods which match to the match's. A route which is neither for the method nor for any method not yet
+     * added is passed over without running its pattern, so the walk soon tries only the routes for the method. Its
+     * match is not cached, since the lookup cache is keyed by path alone.
+     *
+     * @param from the rank of the route for other methods which the path matched
+     */
+    private static <T> int walk(Snapshot<T> current, int from, CharSequence path, ExpressRouteMatch match, long method) {
+        final ExpressRequestMatch<?> request = (ExpressRequestMatch<?>) match;
+        final Entry<T>[] ranked = current.ranked;
+        long otherMethods = request.getOtherMethods() | ranked[from].methods;
+
+        match.reset(path, current.maxKeyCount);
+
+        final CharSequence input = current.stepBudget > 0 ? match.budgeted(path, current.stepBudget) : path;
+        final ExpressRoutePath parsed = match.parsed(input);
+        int index = ExpressRouteEngine.NO_MATCH;
+
+        try {
+            for (int i = from + 1; i < ranked.length && index == ExpressRouteEngine.NO_MATCH; i++) {
+                final Entry<T> entry = ranked[i];
+                final boolean forMethod = (entry.methods & method) != 0;
+
+                if (!forMethod && (entry.methods & ~otherMethods) == 0 ||
+                        entry.route.getFingerprint().rejects(input, parsed)) {
+                    continue;
+                }
+
+                if (!entry.route.find(input, match)) {
+                    continue;
+                }
+
+                if (forMethod) {
+                    index = i;
+                }
+                else {
+                    otherMethods |= entry.methods;
+                }
+            }
+        }
+        catch (ExpressRouteBudgetExceededException e) {
+            match.clear();
+            throw e;
+        }
+
+        request.setOtherMethods(otherMethods);
+
+        if (index == ExpressRouteEngine.NO_MATCH) {
+            match.clear();
+        }
+        else {
+            match.complete(ranked[index].route);
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the rank of the route the path matched, which the match is completed with, or
+     * {@link ExpressRouteEngine#NO_MATCH}, in which case the match is cleared
+     */
+    private static <T> int lookup(Snapshot<T> current, CharSequence path, ExpressRouteMatch match) {
+        final ExpressRouteEngine engine = current.compilation.engine(current.ranked);
+        final int exact = engine != null ? current.compilation.exactMatch(path) : findExactMatch(current.ranked, path);
+
+        if (exact != ExpressRouteEngine.NO_MATCH && current.ranked[exact].route.match(path, match)) {
+            return exact;
+        }
+
+        match.reset(path, current.maxKeyCount);
+
+        // The cache is read by the path's contents, and a key is only copied out of it to store a new entry.
+        final ExpressRouteLruCache<CachedMatch> cache = current.lookupCache;
+
+        if (cache != null) {
+            final CachedMatch cached = cache.get(path);
+
+            if (cached != null) {
+                System.arraycopy(cached.offsets, 0, match.offsets(), 0, cached.offsets.length);
+                match.complete(current.ranked[cached.index].route);
+
+                return cached.index;
+            }
+        }
+
+        final CharSequence input = current.stepBudget > 0 ? match.budgeted(path, current.stepBudget) : path;
+        final int index;
+
+        try {
+            index = engine != null ? engine.find(input, match) : walk(current.ranked, input, match);
+        }
+        catch (ExpressRouteBudgetExceededException e) {
+            match.clear();
+            throw e;
+        }
+
+        if (index == ExpressRouteEngine.NO_MATCH) {
+            match.clear();
+            return index;
+        }
+
+        final ExpressRoute route = current.ranked[index].route;
+
+        match.complete(route);
+
+        if (cache != null && current.admissionPolicy.admit(path, match)) {
+            final int[] offsets = new int[route.getKeys().size() * 2];
+            System.arraycopy(match.offsets(), 0, offsets, 0, offsets.length);
+
+            cache.putIfAbsent(path.toString(), new CachedMatch(index, offsets));
+        }
+
+        return index;
+    }
+
+    /**
+     * @return the rank of the first route whose definition is the path, as the compiled table would find it
+     */
+    private static <T> int findExactMatch(Entry<T>[] ranked, CharSequence path) {
+        for (int i = 0; i < ranked.length; i++) {
+            final ExpressRoute route = ranked[i].route;
+
+            if (!route.getPatternInfo().isLeastSpecific() && route.getPathDefinition().contentEquals(path)) {
+                return i;
+            }
+        }
+
+        return ExpressRouteEngine.NO_MATCH;
+    }
+
+    /**
+     * Matches each route's own pattern in rank order, as {@link ExpressRouteEngineType#REGEX} does, for lookups which
+     * arrive while the table compiles.
+     */
+    private static <T> int walk(Entry<T>[] ranked, CharSequence path, ExpressRouteMatch match) {
+        for (int i = 0; i < ranked.length; i++) {
+            if (ranked[i].route.find(path, match)) {
+                return i;
+            }
+        }
+
+        return ExpressRouteEngine.NO_MATCH;
+    }
+
+    /**
+     * Finds the most specific match for the request target in the buffer's remaining bytes, read through a view of
+     * {@link ExpressRouteBytes} rather than decoded. Parameter offsets in the match are relative to the buffer's
+     * position, which {@link ExpressRouteMatch#getInputOffset()} returns.
+     *
+     * @return the handler of the matched route, or null if no route matches
+     */
+    public T find(ByteBuffer path, ExpressRouteMatch match) {
+        return find(match.bytes().wrap(path), match);
+    }
+
+    /**
+     * Finds the most specific match for the request target in length bytes of the array from offset, as
+     * {@link #find(ByteBuffer, ExpressRouteMatch)} does.
+     *
+     * @return the handler of the matched route, or null if no route matches
+     */
+    public T find(byte[] path, int offset, int length, ExpressRouteMatch match) {
+        return find(match.bytes().wrap(path, offset, length), match);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T complete(ExpressRouteMatch match, Entry<T> entry) {
+        if (match instanceof ExpressRouterMatch) {
+            ((ExpressRouterMatch<T>) match).setHandler(entry.handler);
+        }
+
+        return entry.handler;
+    }
+
+    public List<ExpressRoute> getRoutes() {
+        final List<ExpressRoute> routes = new ArrayList<>();
+
+        for (Entry<T> entry : snapshot.ranked) {
+            routes.add(entry.route);
+        }
+
+        return Collections.unmodifiableList(routes);
+    }
+
+    public int size() {
+        return snapshot.ranked.length;
+    }
+
+    /**
+     * @return a router with the same routes, mounts and settings, sharing this one's compiled table until either
+     * changes, which a caller may change fully before publishing it in place of this one
+     */
+    synchronized ExpressRouter<T> copy() {
+        final ExpressRouter<T> copy = new ExpressRouter<>(engineFactory, routeCache, compiler);
+
+        copy.sequence = sequence;
+        copy.lookupCacheSize = lookupCacheSize;
+        copy.admissionPolicy = admissionPolicy;
+        copy.metrics = metrics;
+        copy.safeMode = safeMode;
+        copy.flaggedRoutes.addAll(flaggedRoutes);
+        copy.stepBudget = stepBudget;
+        copy.pathRules = pathRules;
+        copy.mounts = mounts;
+        copy.publish(snapshot.ranked, snapshot.compilation, copy.newLookupCache());
+
+        return copy;
+    }
+
+    private ExpressRouteLruCache<CachedMatch> newLookupCache() {
+        return lookupCacheSize > 0 ? new ExpressRouteLruCache<>(lookupCacheSize) : null;
+    }
+
+    /**
+     * Publishes the ranked table with the router's current settings, for lookups to pick up with their next read of
+     * the snapshot. Callers hold the lock.
+     *
+     * @param compilation the table's compiled engine, shared with earlier snapshots of the same routes
+     */
+    private void publish(Entry<T>[] ranked, Compilation compilation, ExpressRouteLruCache<CachedMatch> lookupCache) {
+        int maxKeyCount = 0;
+
+        for (Entry<T> entry : ranked) {
+            maxKeyCount = Math.max(maxKeyCount, entry.route.getKeys().size());
+        }
+
+        snapshot = new Snapshot<>(ranked, compilation, lookupCache, admissionPolicy, metrics, stepBudget, maxKeyCount,
+                mounts, pathRules);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newEntries(int length) {
+        return new Entry[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Mount<T>[] newMounts(int length) {
+        return new Mount[length];
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouter{" +
+                "engineFactory=" + engineFactory +
+                ", routes=" + getRoutes() +
+                '}';
+    }
+
+    private static class Entry<T> {
+        private final ExpressRoute route;
+        private final T handler;
+        private final long methods;
+        private final long sequence;
+
+        private Entry(ExpressRoute route, T handler, long methods, long sequence) {
+            this.route = route;
+            this.handler = handler;
+            this.methods = methods;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * A router mounted under a prefix.
+     */
+    private static class Mount<T> {
+        private static final int MAX_JOINED_KEYS = 4096;
+
+        private final ExpressRoute prefix;
+        private final ExpressRouter<T> child;
+        private final long methods;
+        private final long sequence;
+
+        /**
+         * The prefix's keys followed by the keys of each route matched through the mount, by identity, copied on write
+         * so that lookups read it without locking.
+         */
+        private volatile Map<List<ExpressRouteToken>, List<ExpressRouteToken>> joinedKeys = new IdentityHashMap<>();
+
+        private Mount(ExpressRoute prefix, ExpressRouter<T> child, long methods, long sequence) {
+            this.prefix = prefix;
+            this.child = child;
+            this.methods = methods;
+            this.sequence = sequence;
+        }
+
+        private List<ExpressRouteToken> join(List<ExpressRouteToken> keys) {
+            final List<ExpressRouteToken> joined = joinedKeys.get(keys);
+
+            return joined != null ? joined : addJoinedKeys(keys);
+        }
+
+        private synchronized List<ExpressRouteToken> addJoinedKeys(List<ExpressRouteToken> keys) {
+            List<ExpressRouteToken> joined = joinedKeys.get(keys);
+
+            if (joined == null) {
+                // Routes the child no longer has are forgotten by starting over, rather than tracked.
+                final Map<List<ExpressRouteToken>, List<ExpressRouteToken>> copy = joinedKeys.size() < MAX_JOINED_KEYS ?
+                        new IdentityHashMap<>(joinedKeys) : new IdentityHashMap<>();
+
+                joined = new ArrayList<>(prefix.getKeys());
+                joined.addAll(keys);
+                joined = Collections.unmodifiableList(joined);
+
+                copy.put(keys, joined);
+                joinedKeys = copy;
+            }
+
+            return joined;
+        }
+    }
+
+    /**
+     * A match held by the lookup cache. It is never handed out, only copied into the caller's match.
+     */
+    private static class CachedMatch {
+        private final int index;
+        private final int[] offsets;
+
+        private CachedMatch(int index, int[] offsets) {
+            this.index = index;
+            this.offsets = offsets;
+        }
+    }
+
+    /**
+     * The changes of one {@link #update}, made to a copy of the ranked table. New routes are appended and merged into
+     * rank order when the table is next needed in order, which for a table sorted but for a short run at the end is a
+     * single merge, not a sort.
+     */
+    private class Batch implements ExpressRouteTransaction<T> {
+        private final Snapshot<T> base;
+        private final List<Entry<T>> ranked;
+        private final List<ExpressRoute> flagged = new ArrayList<>();
+        private boolean sorted = true;
+        private boolean changed;
+        private boolean removed;
+        private boolean closed;
+
+        private Batch(Snapshot<T> base) {
+            this.base = base;
+            this.ranked = new ArrayList<>(Arrays.asList(base.ranked));
+        }
+
+        @Override
+        public ExpressRoute add(String pathDefinition, T handler) {
+            checkOpen();
+
+            final ExpressRoute route = routeCache != null ? routeCache.get(pathDefinition) : compiler.compile(pathDefinition);
+
+            add(route, handler);
+
+            return route;
+        }
+
+        @Override
+        public void add(ExpressRoute route, T handler) {
+            add(route, handler, ALL_METHODS);
+        }
+
+        private void add(ExpressRoute route, T handler, long methods) {
+            checkOpen();
+            checkRoute(route);
+
+            ranked.add(new Entry<>(route, handler, methods, sequence++));
+            sorted = false;
+            changed = true;
+        }
+
+        @Override
+        public boolean remove(ExpressRoute route) {
+            return removeIf(entry -> entry.route == route);
+        }
+
+        @Override
+        public boolean remove(String pathDefinition) {
+            return removeIf(entry -> entry.route.getPathDefinition().equals(pathDefinition));
+        }
+
+        @Override
+        public boolean replace(ExpressRoute route, ExpressRoute replacement, T handler) {
+            checkOpen();
+
+            final List<Entry<T>> replaced = new ArrayList<>();
+
+            for (Entry<T> entry : ranked) {
+                if (entry.route == route) {
+                    replaced.add(entry);
+                }
+            }
+
+            if (replaced.isEmpty()) {
+                return false;
+            }
+
+            checkRoute(replacement);
+            removeIf(entry -> entry.route == route);
+
+            for (Entry<T> entry : replaced) {
+                ranked.add(new Entry<>(replacement, handler, entry.methods, entry.sequence));
+            }
+
+            sorted = false;
+
+            return true;
+        }
+
+        private boolean removeIf(Predicate<Entry<T>> filter) {
+            checkOpen();
+
+            if (!ranked.removeIf(filter)) {
+                return false;
+            }
+
+            changed = true;
+            removed = true;
+
+            return true;
+        }
+
+        private void checkRoute(ExpressRoute route) {
+            if (route == null) {
+                throw new IllegalArgumentException("route must not be null");
+            }
+
+            flagged.addAll(findHazards(Collections.singletonList(route), safeMode));
+
+            // Computing the pattern info here means a lookup never has to.
+            route.getPatternInfo();
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("The transaction has ended");
+            }
+        }
+
+        private void commit() {
+            if (!changed) {
+                return;
+            }
+
+            if (snapshot.ranked != base.ranked) {
+                throw new IllegalStateException("The router was changed outside the transaction");
+            }
+
+            if (!sorted) {
+                ranked.sort(RANK_ORDER);
+            }
+
+            flaggedRoutes.addAll(flagged);
+
+            if (removed && !flaggedRoutes.isEmpty()) {
+                final Set<ExpressRoute> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+
+                for (Entry<T> entry : ranked) {
+                    kept.add(entry.route);
+                }
+
+                flaggedRoutes.retainAll(kept);
+            }
+
+            publish(ranked.toArray(newEntries(ranked.size())), new Compilation(engineFactory), newLookupCache());
+        }
+    }
+
+    /**
+     * The engine of one ranked table, compiled by the first lookup to need it and shared by every snapshot of the same
+     * routes. Lookups which find another compiling it get no engine rather than wait.
+     */
+    private static class Compilation {
+        private final ExpressRouteEngineFactory engineFactory;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private ExpressRouteLiteralTable<Integer> exactMatches;
+        private volatile ExpressRouteEngine engine;
+
+        private Compilation(ExpressRouteEngineFactory engineFactory) {
+            this.engineFactory = engineFactory;
+        }
+
+        /**
+         * @return the compiled engine, or null if another lookup is compiling it
+         */
+        private ExpressRouteEngine engine(Entry<?>[] ranked) {
+            final ExpressRouteEngine compiled = engine;
+
+            if (compiled != null || !claimed.compareAndSet(false, true)) {
+                return compiled;
+            }
+
+            try {
+                // ExpressRoutePatternComparator puts a route whose definition is the path itself ahead of everything
+                // but the catch all. Whether a definition actually matches itself is only checked when it is looked
+                // up, so routes compiled lazily stay uncompiled, and escapes and other oddities fall through to the
+                // ranked walk. Routes sharing a definition share a pattern, so the first in rank order stands for them
+                // all.
+                final ExpressRouteLiteralTable<Integer> exact = new ExpressRouteLiteralTable<>();
+                final List<ExpressRoute> routes = new ArrayList<>();
+
+                for (int i = 0; i < ranked.length; i++) {
+                    final ExpressRoute route = ranked[i].route;
+
+                    routes.add(route);
+
+                    if (!route.getPatternInfo().isLeastSpecific() && exact.get(route.getPathDefinition()) == null) {
+                        exact.put(route.getPathDefinition(), i);
+                    }
+                }
+
+                exactMatches = exact;
+                engine = engineFactory.compile(routes);
+
+                return engine;
+            }
+            catch (RuntimeException | Error e) {
+                claimed.set(false);
+                throw e;
+            }
+        }
+
+        /**
+         * @return the rank of the first route whose definition is the path, once the engine is compiled
+         */
+        private int exactMatch(CharSequence path) {
+            final Integer exact = exactMatches.get(path, 0, path.length());
+
+            return exact != null ? exact : ExpressRouteEngine.NO_MATCH;
+        }
+    }
+
+    private static class Snapshot<T> {
+        private final Entry<T>[] ranked;
+        private final Compilation compilation;
+        private final ExpressRouteLruCache<CachedMatch> lookupCache;
+        private final ExpressRouteAdmissionPolicy admissionPolicy;
+        private final ExpressRouteMetrics metrics;
+        private final LongAdder[] hits;
+        private final int stepBudget;
+        private final int maxKeyCount;
+        private final Mount<T>[] mounts;
+        private final Set<ExpressRoutePathRule> pathRules;
+
+        /**
+         * @param metrics    if not null, counts lookups, and gives each route in rank order its hit counter
+         * @param stepBudget the most characters the engine may read per lookup, or 0 for no limit
+         * @param mounts     the mounted routers, in the rank order of their prefixes
+         * @param pathRules  how the paths of lookups are normalized
+         */
+        private Snapshot(Entry<T>[] ranked, Compilation compilation, ExpressRouteLruCache<CachedMatch> lookupCache,
+                         ExpressRouteAdmissionPolicy admissionPolicy, ExpressRouteMetrics metrics, int stepBudget,
+                         int maxKeyCount, Mount<T>[] mounts, Set<ExpressRoutePathRule> pathRules) {
+            this.ranked = ranked;
+            this.compilation = compilation;
+            this.lookupCache = lookupCache;
+            this.admissionPolicy = admissionPolicy;
+            this.metrics = metrics;
+            this.stepBudget = stepBudget;
+            this.maxKeyCount = maxKeyCount;
+            this.mounts = mounts;
+            this.pathRules = pathRules;
+            this.hits = metrics == null ? null : new LongAdder[ranked.length];
+
+            for (int i = 0; metrics != null && i < ranked.length; i++) {
+                hits[i] = metrics.hitCounter(ranked[i].route);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.markmcguill.express.routing;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of an {@link ExpressRouter} lookup: the most specific matching route, the handler it was
+ * registered with and the parameters extracted from the path.
+ */
+public class ExpressRouterMatch<T> extends ExpressRouteMatch {
+    private T handler;
+    private Map<String, String> parameters;
+
+    public T getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return a copy of the parameters, made on first use
+     */
+    public Map<String, String> getParameters() {
+        Map<String, String> result = parameters;
+
+        if (result == null) {
+            result = Collections.unmodifiableMap(toMap());
+            parameters = result;
+        }
+
+        return result;
+    }
+
+    void setHandler(T handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    void reset(CharSequence input, int keyCapacity) {
+        super.reset(input, keyCapacity);
+        this.handler = null;
+        this.parameters = null;
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressRouterMatch{" +
+                "route=" + (getRoute() == null ? null : getRoute().getPathDefinition()) +
+                ", handler=" + handler +
+                ", parameters=" + (getRoute() == null ? null : getParameters()) +
+                '}';
+    }
+}
@@ -0,0 +1,31 @@
+package com.markmcguill.express.routing;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a route table which is fixed at build time, so {@link ExpressRouteProcessor} can generate a matcher for it
+ * as plain Java source.
+ * <p>
+ * The matcher is generated next to the annotated type, named after it with a "Matcher" suffix unless {@link #name()}
+ * says otherwise. It extends {@link ExpressRouteGeneratedEngine}, so it is an {@link ExpressRouteEngine} like any
+ * other, and its {@code FACTORY} can be handed to an {@link ExpressRouter} in place of an
+ * {@link ExpressRouteEngineType}.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface ExpressRoutes {
+    /**
+     * @return the route definitions, in the order they would be registered with a router
+     */
+    String[] value();
+
+    /**
+     * @return the simple name of the generated class, or empty for the annotated type's name followed by "Matcher"
+     */
+    String name() default "";
+}
@@ -0,0 +1,524 @@
+package com.markmcguill.express.routing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The annotation generates GeneratedTestRoutes from every definition the engines are tested with, in the order
+ * {@link #definitions()} registers them.
+ */
+@ExpressRoutes(name = "GeneratedTestRoutes", value = {
+        "*",
+        "/",
+        "/*",
+        "/:commoditySlug",
+        "/:commoditySlug/active",
+        "/:commoditySlug/active/bid/:bidId",
+        "/:commoditySlug/alpha",
+        "/:commoditySlug/exchanges",
+        "/:commoditySlug/future",
+        "/:commoditySlug/futures/:date?",
+        "/:commoditySlug/futures/bid/:bidId",
+        "/:commoditySlug/options",
+        "/:commoditySlug/options/:optionId",
+        "/:commoditySlug/options/bid/:bidId",
+        "/:commoditySlug/shorts",
+        "/:commoditySlug/shorts/:shortId",
+        "/:commoditySlug/straddles/:straddleSlug/bid/:bidId",
+        "/:commoditySlug/straddles/:straddleSlug?",
+        "/:commoditySlug/trades",
+        "/active",
+        "/offers",
+        "/offers/:offerslug",
+        "/trades",
+        "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?",
+        "/trades/:commoditySlug/:optionId/:date?",
+        "/trades/:commoditySlug/:optionId/bid/:bidId",
+        "/",
+        "",
+        "/a.b",
+        "/foo/",
+        "/files/*",
+        "/:a?/:b?",
+        "/x/:id(\\d+)",
+        "/a/(\\d+)",
+        "/:a-:b",
+        "/:name.:ext",
+        "/trades/:commoditySlug/:optionId/bid/:bidId/*",
+        "/any/:anything(.*)",
+        "/x/:code([a-z]{2}|\\d{3,4})",
+        "/y/:code([^-]+?)",
+        "/z/:id(\\w+?)/:rest(.*?)?",
+        "/t/:id<int>",
+        "/t/:id<long>/u",
+        "/u/:key<uuid>/:n<int>?"
+})
+public class ExpressRouteEngineTest {
+    private static final List<String> extraPathDefinitions = Arrays.asList(
+            "/",
+            "",
+            "/a.b",
+            "/foo/",
+            "/files/*",
+            "/:a?/:b?",
+            "/x/:id(\\d+)",
+            "/a/(\\d+)",
+            "/:a-:b",
+            "/:name.:ext",
+            "/trades/:commoditySlug/:optionId/bid/:bidId/*",
+            "/any/:anything(.*)",
+            "/x/:code([a-z]{2}|\\d{3,4})",
+            "/y/:code([^-]+?)",
+            "/z/:id(\\w+?)/:rest(.*?)?",
+            "/t/:id<int>",
+            "/t/:id<long>/u",
+            "/u/:key<uuid>/:n<int>?"
+    );
+
+    private static final List<String> extraPaths = Arrays.asList(
+            "", "/", "//", "///", "garbage", "/a.b", "/a/b", "/foo", "/foo/", "/fo",
+            "/files", "/files/", "/files/a/b/", "/x/12", "/x/ab", "/a/12", "/a/12/",
+            "/one", "/one/two", "/one/two/", "/one/two/three", "/one-two", "/one.json",
+            "/porkbelly//options", "/porkbelly/options//2000", "/trades/porkbelly/2000/bid/1/x/y",
+            "/any/thing/at/all", "/trades/porkbelly/7-06-2017", "/trades/porkbelly/07-06-2017/extra",
+            "/x/ab", "/x/abc", "/x/1234", "/x/12345", "/y/a-b", "/y/ab/", "/z/a", "/z/a/b/c", "/z/a/",
+            "/porkbelly\n", "/porkbelly/options\r\n", "/\n", "/trades\u2028", "/caf\u00e9/options/\ud83d\ude00",
+            "/t/0", "/t/007", "/t/+1", "/t/-", "/t/1x", "/t/2147483647", "/t/2147483648", "/t/-2147483648",
+            "/t/-2147483649", "/t/2147483648/u", "/t/9223372036854775807/u", "/t/9223372036854775808/u",
+            "/t/-9223372036854775808/u", "/t/-9223372036854775809/u", "/u/123e4567-e89b-12d3-a456-426614174000",
+            "/u/123E4567-E89B-12D3-A456-426614174000/-5", "/u/123e4567-e89b-12d3-a456-42661417400",
+            "/u/123e4567e89b-12d3-a456-426614174000x", "/u/123e4567-e89b-12d3-a456-426614174000/x"
+    );
+
+    private static List<String> definitions() {
+        final List<String> definitions = new ArrayList<>(ExpressRouterTest.allPathDefinitions.keySet());
+        Collections.sort(definitions);
+        definitions.addAll(extraPathDefinitions);
+        return definitions;
+    }
+
+    private static Set<String> paths() {
+        final Set<String> paths = new LinkedHashSet<>();
+
+        for (String[] tests : ExpressRouterTest.allPathDefinitions.values()) {
+            paths.addAll(Arrays.asList(tests));
+
+            for (String test : tests) {
+                paths.add(test + "/");
+                paths.add(test + "/extra");
+            }
+        }
+
+        paths.addAll(extraPaths);
+
+        return paths;
+    }
+
+    /**
+     * @return the paths, each also in upper case and with the Kelvin sign and long s which fold to 'k' and 's'
+     */
+    private static Set<String> casedPaths() {
+        final Set<String> paths = paths();
+
+        for (String path : new ArrayList<>(paths)) {
+            paths.add(path.toUpperCase(Locale.ROOT));
+            paths.add(path.replace('k', '\u212A').replace('s', '\u017F'));
+        }
+
+        return paths;
+    }
+
+    private static Map<String, String> find(ExpressRouteEngine engine, ExpressRoute route, String path) {
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+        match.reset(path, route.getKeys().size());
+
+        if (engine.find(path, match) == ExpressRouteEngine.NO_MATCH) {
+            return null;
+        }
+
+        match.complete(route);
+
+        return match.toMap();
+    }
+
+    private static void assertSingleRoutesAgree(ExpressRouteEngineFactory type) {
+        for (String definition : definitions()) {
+            final ExpressRoute route = new ExpressRoute(definition);
+            final ExpressRouteEngine engine = type.compile(Collections.singletonList(route));
+
+            for (String path : paths()) {
+                final Map<String, String> expected = route.matches(path) ? route.getParametersFromPath(path) : null;
+
+                Assert.assertEquals(type + " " + definition + " " + path, expected, find(engine, route, path));
+            }
+        }
+    }
+
+    private static void assertRoutersAgree(ExpressRouteEngineFactory type) {
+        final ExpressRouter<String> regex = new ExpressRouter<>(ExpressRouteEngineType.REGEX);
+        final ExpressRouter<String> other = new ExpressRouter<>(type);
+
+        for (String definition : definitions()) {
+            regex.add(definition, definition);
+            other.add(definition, definition);
+        }
+
+        for (String path : paths()) {
+            final ExpressRouterMatch<String> expected = regex.find(path);
+            final ExpressRouterMatch<String> actual = other.find(path);
+
+            if (expected == null) {
+                Assert.assertNull(type + " " + path, actual);
+            }
+            else {
+                Assert.assertNotNull(type + " " + path, actual);
+                Assert.assertEquals(type + " " + path, expected.getHandler(), actual.getHandler());
+                Assert.assertEquals(type + " " + path, expected.getParameters(), actual.getParameters());
+            }
+        }
+    }
+
+    @Test
+    public void testTrieMatchesSingleRoutes() {
+        assertSingleRoutesAgree(ExpressRouteEngineType.TRIE);
+    }
+
+    @Test
+    public void testTrieMatchesRouter() {
+        assertRoutersAgree(ExpressRouteEngineType.TRIE);
+    }
+
+    @Test
+    public void testAutomatonMatchesSingleRoutes() {
+        assertSingleRoutesAgree(ExpressRouteEngineType.AUTOMATON);
+    }
+
+    @Test
+    public void testAutomatonMatchesRouter() {
+        assertRoutersAgree(ExpressRouteEngineType.AUTOMATON);
+    }
+
+    @Test
+    public void testGeneratedMatchesRouter() {
+        final List<ExpressRoute> routes = new ArrayList<>();
+
+        for (String definition : definitions()) {
+            routes.add(new ExpressRoute(definition));
+        }
+
+        routes.sort(Comparator.comparing(ExpressRoute::getPatternInfo));
+
+        // The generated matcher only stands in for a table ranked exactly as it was at build time.
+        Assert.assertTrue(GeneratedTestRoutes.FACTORY.compile(routes) instanceof GeneratedTestRoutes);
+        Assert.assertFalse(GeneratedTestRoutes.FACTORY.compile(routes.subList(1, routes.size())) instanceof GeneratedTestRoutes);
+
+        // A table which has drifted never builds the generated matcher.
+        final ExpressRouteEngineFactory drifted = ExpressRouteGeneratedEngine.factory(GeneratedTestRoutes.DEFINITIONS,
+                () -> {
+                    throw new AssertionError("Built the generated matcher");
+                }, ExpressRouteEngineType.TRIE);
+        Assert.assertTrue(drifted.compile(routes.subList(1, routes.size())) instanceof ExpressRouteTrieEngine);
+
+        assertRoutersAgree(GeneratedTestRoutes.FACTORY);
+    }
+
+    @Test
+    public void testLogClassifierMatchesRouter() throws IOException {
+        // A logged request target is printable ASCII without spaces, and its query starts at the first '?'.
+        final List<String> paths = paths().stream()
+                                          .filter(path -> !path.isEmpty())
+                                          .filter(path -> path.chars().allMatch(c -> c > ' ' && c < 0x7F && c != '"' && c != '?'))
+                                          .collect(Collectors.toList());
+        final StringBuilder log = new StringBuilder();
+        final List<String> targets = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            final String path = i % 2 == 0 ? "/offers/e" + (i / 2 % 600) : paths.get(i % paths.size());
+
+            targets.add(path);
+            log.append("127.0.0.1 - - [10/Oct/2017:13:55:36 +0000] \"GET ").append(path).append("?page=").append(i)
+               .append(" HTTP/1.1\" 200 2326").append(i % 3 == 0 ? "\r\n" : "\n");
+
+            if (i % 500 == 0) {
+                log.append('\n').append(path).append('\n').append("127.0.0.1 - - \"-\" 400 0\n");
+                targets.add(path);
+            }
+        }
+
+        final Path file = Files.createTempFile("access", ".log");
+        final ForkJoinPool pool = new ForkJoinPool(3);
+
+        try {
+            Files.write(file, log.toString().getBytes(StandardCharsets.US_ASCII));
+
+            for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+                final ExpressRouter<String> router = new ExpressRouter<>(type);
+
+                for (String definition : definitions()) {
+                    if (!definition.equals("*") && !definition.equals("/*")) {
+                        router.add(definition, definition);
+                    }
+                }
+
+                final Map<String, Long> expected = new HashMap<>();
+                long unmatched = 0;
+
+                for (String target : targets) {
+                    final ExpressRouterMatch<String> match = router.find(target);
+
+                    if (match == null) {
+                        unmatched++;
+                    }
+                    else {
+                        expected.merge(match.getHandler(), 1L, Long::sum);
+                    }
+                }
+
+                final ExpressRouteLogReport report = new ExpressRouteLogClassifier(router, pool, 100).classify(file);
+
+                Assert.assertEquals(type.name(), targets.size() + 4, report.getLineCount());
+                Assert.assertEquals(type.name(), 4, report.getSkippedCount());
+                Assert.assertEquals(type.name(), unmatched, report.getUnmatchedCount());
+                Assert.assertEquals(type.name(), expected, report.getRouteCounts());
+                Assert.assertEquals(600, report.getParameterCardinality("/offers/:offerslug", "offerslug"), 30);
+            }
+
+            // A match through a mount has the prefix's parameters first, which are counted under their own names.
+            final StringBuilder mountedLog = new StringBuilder();
+
+            for (int i = 0; i < 2000; i++) {
+                mountedLog.append("/t").append(i % 5).append("/offers/e").append(i % 300).append('\n');
+            }
+
+            Files.write(file, mountedLog.toString().getBytes(StandardCharsets.US_ASCII));
+
+            final ExpressRouter<String> root = new ExpressRouter<>();
+            final ExpressRouter<String> tenant = new ExpressRouter<>();
+            tenant.add("/offers/:offerslug", "offer");
+            root.mount("/:tenant", tenant);
+
+            final ExpressRouteLogReport report = new ExpressRouteLogClassifier(root, pool, 100).classify(file);
+
+            Assert.assertEquals(2000, report.getRouteCounts().get("/offers/:offerslug").longValue());
+            Assert.assertEquals(5, report.getParameterCardinality("/offers/:offerslug", "tenant"), 1);
+            Assert.assertEquals(300, report.getParameterCardinality("/offers/:offerslug", "offerslug"), 15);
+        }
+        finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSnapshotMatchesRouter() throws IOException {
+        final ExpressRouter<String> compiled = new ExpressRouter<>(ExpressRouteEngineType.TRIE);
+
+        for (String definition : definitions()) {
+            compiled.add(definition, definition);
+        }
+
+        final Path file = Files.createTempFile("routes", ".snapshot");
+        final ExpressRouter<String> loaded = new ExpressRouter<>(ExpressRouteEngineType.TRIE);
+
+        try {
+            compiled.writeSnapshot(file);
+            loaded.addAll(ExpressRouteSnapshot.read(file), definition -> definition);
+        }
+        finally {
+            Files.delete(file);
+        }
+
+        for (int i = 0; i < compiled.size(); i++) {
+            final ExpressRoute expected = compiled.getRoutes().get(i);
+            final ExpressRoute actual = loaded.getRoutes().get(i);
+
+            Assert.assertEquals(expected.getPathDefinition(), actual.getPathDefinition());
+            Assert.assertEquals(expected.getRegex(), actual.getRegex());
+            Assert.assertEquals(expected.getTokens().toString(), actual.getTokens().toString());
+            Assert.assertEquals(0, expected.getPatternInfo().compareTo(actual.getPatternInfo()));
+            Assert.assertFalse(actual.isPatternCompiled());
+        }
+
+        for (String path : paths()) {
+            final ExpressRouterMatch<String> expected = compiled.find(path);
+            final ExpressRouterMatch<String> actual = loaded.find(path);
+
+            if (expected == null) {
+                Assert.assertNull(path, actual);
+            }
+            else {
+                Assert.assertNotNull(path, actual);
+                Assert.assertEquals(path, expected.getHandler(), actual.getHandler());
+                Assert.assertEquals(path, expected.getParameters(), actual.getParameters());
+            }
+        }
+    }
+
+    @Test
+    public void testEnginesMatchRoutesWithOptions() {
+        final List<ExpressRouteOptions> options = Arrays.asList(ExpressRouteOptions.DEFAULT.strict(true),
+                ExpressRouteOptions.PREFIX, ExpressRouteOptions.PREFIX.strict(true),
+                ExpressRouteOptions.DEFAULT.sensitive(false));
+
+        for (ExpressRouteEngineFactory type : Arrays.asList(ExpressRouteEngineType.TRIE, ExpressRouteEngineType.AUTOMATON)) {
+            for (String definition : definitions()) {
+                for (ExpressRouteOptions option : options) {
+                    final ExpressRoute route = new ExpressRoute(definition, option);
+                    final ExpressRouteEngine engine = type.compile(Collections.singletonList(route));
+
+                    for (String path : casedPaths()) {
+                        final Map<String, String> expected = route.matches(path) ? route.getParametersFromPath(path) : null;
+
+                        Assert.assertEquals(type + " " + definition + " " + option + " " + path, expected,
+                                find(engine, route, path));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testShapesMatchAsRoutesDo() {
+        final List<ExpressRouteOptions> options = Arrays.asList(ExpressRouteOptions.DEFAULT,
+                ExpressRouteOptions.DEFAULT.strict(true), ExpressRouteOptions.PREFIX,
+                ExpressRouteOptions.DEFAULT.sensitive(false));
+        final ExpressRouteCompiler compiler = new ExpressRouteCompiler(new ExpressRouteInterner());
+        int shaped = 0;
+
+        for (String definition : definitions()) {
+            for (ExpressRouteOptions option : options) {
+                final ExpressRoute route = new ExpressRoute(definition, option);
+                final ExpressRoute compact = compiler.compile(definition, option);
+
+                if (compact.getShape() != null) {
+                    shaped++;
+                }
+
+                // Without the fingerprint in front, the shape meets paths with other literals than the route's.
+                for (String path : casedPaths()) {
+                    final Map<String, String> expected = route.getPattern().matcher(path).find() ?
+                            route.getParametersFromPath(path) : null;
+                    final ExpressRouteMatch match = new ExpressRouteMatch();
+                    match.reset(path, compact.getKeys().size());
+
+                    Map<String, String> actual = null;
+
+                    if (compact.find(path, match)) {
+                        match.complete(compact);
+                        actual = match.toMap();
+                    }
+
+                    Assert.assertEquals(definition + " " + option + " " + path, expected, actual);
+                }
+            }
+        }
+
+        Assert.assertTrue(shaped > definitions().size() * options.size() * 9 / 10);
+    }
+
+    @Test
+    public void testFingerprintNeverRejectsAMatch() {
+        int rejected = 0;
+        int missed = 0;
+
+        for (String definition : definitions()) {
+            for (ExpressRouteOptions options : Arrays.asList(ExpressRouteOptions.DEFAULT, ExpressRouteOptions.PREFIX,
+                    ExpressRouteOptions.DEFAULT.strict(true), ExpressRouteOptions.DEFAULT.sensitive(false))) {
+                final ExpressRoute route = new ExpressRoute(definition, options);
+                final ExpressRouteFingerprint fingerprint = route.getFingerprint();
+
+                for (String path : casedPaths()) {
+                    final boolean matched = route.getPattern().matcher(path).find();
+
+                    if (fingerprint.rejects(path)) {
+                        Assert.assertFalse(definition + " " + fingerprint + " " + path, matched);
+                        rejected++;
+                    }
+                    else if (!matched) {
+                        missed++;
+                    }
+                }
+            }
+        }
+
+        // Most paths a route cannot match never reach its pattern.
+        Assert.assertTrue(rejected + " rejected, " + missed + " missed", rejected > missed * 2);
+    }
+
+    @Test
+    public void testFingerprintFacts() {
+        final ExpressRouteFingerprint options = new ExpressRoute("/:commoditySlug/options/bid/:bidId").getFingerprint();
+
+        Assert.assertEquals("/", options.getPrefix());
+        Assert.assertEquals(Arrays.asList("/", "/options/bid/"), Arrays.asList(options.getLiterals()));
+        Assert.assertEquals(16, options.getMinLength());
+        Assert.assertEquals(ExpressRouteRegex.UNBOUNDED, options.getMaxLength());
+        Assert.assertEquals(5, options.getMaxSlashes());
+        Assert.assertTrue(options.rejects("/porkbelly/options/2000"));
+        Assert.assertTrue(options.rejects("/porkbelly/options/bid/1/2/3"));
+        Assert.assertFalse(options.rejects("/porkbelly/options/bid/1"));
+
+        final ExpressRouteFingerprint date = new ExpressRoute("/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?").getFingerprint();
+
+        Assert.assertEquals("/trades/", date.getPrefix());
+        Assert.assertEquals(9, date.getMinLength());
+        Assert.assertEquals(ExpressRouteRegex.UNBOUNDED, date.getMaxLength());
+        Assert.assertEquals(4, date.getMaxSlashes());
+        Assert.assertTrue(date.rejects("/offers/porkbelly"));
+
+        final ExpressRouteFingerprint code = new ExpressRoute("/x/:code([a-z]{2}|\\d{3,4})").getFingerprint();
+
+        // Three for the code's prefix and four for its longest value, then a trailing slash and a line terminator.
+        Assert.assertEquals(5, code.getMinLength());
+        Assert.assertEquals(3 + 4 + 3, code.getMaxLength());
+        Assert.assertTrue(code.rejects("/x/123456789"));
+
+        final ExpressRouteFingerprint catchAll = new ExpressRoute("*").getFingerprint();
+
+        Assert.assertEquals(0, catchAll.getMinLength());
+        Assert.assertEquals(ExpressRouteRegex.UNBOUNDED, catchAll.getMaxSlashes());
+        Assert.assertFalse(catchAll.rejects(""));
+    }
+
+    @Test
+    public void testAutomatonCompilesAllDefinitions() {
+        final List<ExpressRoute> routes = new ArrayList<>();
+
+        for (String definition : definitions()) {
+            routes.add(new ExpressRoute(definition));
+        }
+
+        Assert.assertEquals(0, new ExpressRouteAutomatonEngine(routes).getFallbackCount());
+    }
+
+    @Test
+    public void testTrieCompilesTestDefinitionsWithoutFallback() {
+        final List<ExpressRoute> routes = new ArrayList<>();
+
+        for (String definition : ExpressRouterTest.allPathDefinitions.keySet()) {
+            routes.add(new ExpressRoute(definition));
+        }
+
+        final ExpressRouteTrieEngine engine = new ExpressRouteTrieEngine(routes);
+
+        // Only "*" has no '/' prefix to hang a segment on.
+        Assert.assertEquals(1, engine.getFallbackCount());
+    }
+}
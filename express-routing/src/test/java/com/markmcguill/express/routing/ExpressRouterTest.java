@@ -0,0 +1,1823 @@
+package com.markmcguill.express.routing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Created by mark on 13/06/2017.
+ */
+public class ExpressRouterTest {
+    static final Map<String, String[]> allPathDefinitions;
+
+    static {
+        HashMap<String, String[]> x = new HashMap<>();
+
+        x.put("*", new String[]{"garbage", "absolutely"});
+        x.put("/*", new String[]{"/anything", "/absolutely"});
+        x.put("/", new String[]{"/"});
+        x.put("/active", new String[]{"/active"});
+        x.put("/offers", new String[]{"/offers"});
+        x.put("/offers/:offerslug", new String[]{"/offers/e1264"});
+        x.put("/trades", new String[]{"/trades"});
+        x.put("/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?", new String[]{"/trades/porkbelly", "/trades/porkbelly/07-06-2017"});
+        x.put("/trades/:commoditySlug/:optionId/:date?", new String[]{"/trades/porkbelly/2000", "/trades/porkbelly/2000/07-06-2017"});
+        x.put("/trades/:commoditySlug/:optionId/bid/:bidId", new String[]{"/trades/porkbelly/2000/bid/1"});
+        x.put("/:commoditySlug", new String[]{"/porkbelly"});
+        x.put("/:commoditySlug/alpha", new String[]{"/porkbelly/alpha"});
+        x.put("/:commoditySlug/active", new String[]{"/porkbelly/active"});
+        x.put("/:commoditySlug/active/bid/:bidId", new String[]{"/porkbelly/active/bid/2"});
+        x.put("/:commoditySlug/futures/:date?", new String[]{"/porkbelly/futures", "/porkbelly/futures/10-06-2017"});
+        x.put("/:commoditySlug/futures/bid/:bidId", new String[]{"/porkbelly/futures/bid/1"});
+        x.put("/:commoditySlug/options", new String[]{"/porkbelly/options"});
+        x.put("/:commoditySlug/options/:optionId", new String[]{"/porkbelly/options/2000"});
+        x.put("/:commoditySlug/options/bid/:bidId", new String[]{"/porkbelly/options/bid/1"});
+        x.put("/:commoditySlug/exchanges", new String[]{"/porkbelly/exchanges"});
+        x.put("/:commoditySlug/shorts", new String[]{"/porkbelly/shorts"});
+        x.put("/:commoditySlug/shorts/:shortId", new String[]{"/porkbelly/shorts/481"});
+        x.put("/:commoditySlug/straddles/:straddleSlug?", new String[]{"/porkbelly/straddles", "/porkbelly/straddles/porkbelly-euro"});
+        x.put("/:commoditySlug/straddles/:straddleSlug/bid/:bidId", new String[]{"/porkbelly/straddles/porkbelly-euro/bid/1"});
+        x.put("/:commoditySlug/future", new String[]{"/porkbelly/future"});
+        x.put("/:commoditySlug/trades", new String[]{"/porkbelly/trades"});
+
+        allPathDefinitions = Collections.unmodifiableMap(x);
+    }
+
+    @Test
+    public void testSimple() {
+        String pathDefinition = "/:commoditySlug/options/:optionId";
+        final String PATH = "/porkbelly/options/1234";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        if (route.matches(PATH)) {
+            final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+
+            System.out.println(parametersFromPath);
+        }
+    }
+
+    @Test
+    public void testCatchAllWithGarbage() {
+        String pathDefinition = "/*";
+        final String PATH = "/literal garbage";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+    }
+
+    @Test
+    public void testCatchAllStar() {
+        String pathDefinition = "*";
+        final String PATH = "/";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+    }
+
+    @Test
+    public void testCatchAll() {
+        String pathDefinition = "/*";
+        final String PATH = "/";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+    }
+
+    @Test
+    public void testCatchAllIsSortedLast() {
+        String catchAll = "/*";
+        ExpressRoute ca = new ExpressRoute(catchAll);
+
+        String otherMatch = "/:commoditySlug/options/:optionId?";
+        ExpressRoute other = new ExpressRoute(otherMatch);
+
+        final String PATH = "/porkbelly/options/1234";
+
+        ExpressRoutePatternComparator foo = new ExpressRoutePatternComparator(PATH);
+
+        Assert.assertTrue(ca.matches(PATH));
+        Assert.assertTrue(other.matches(PATH));
+
+        List<ExpressRoute> routes = Arrays.asList(ca, other);
+
+        System.out.println(routes.stream().map(ExpressRoute::getPathDefinition).collect(Collectors.toList()));
+
+        routes.sort(new ExpressRoutePatternComparator(PATH));
+
+        System.out.println(routes.stream().map(ExpressRoute::getPathDefinition).collect(Collectors.toList()));
+
+        Assert.assertTrue(foo.compare(ca, other) > 0);
+    }
+
+    @Test
+    public void testOptionalParamParamPresentWithTrailingForwardSlash() {
+        String pathDefinition = "/:commoditySlug/straddles/:straddleSlug?";
+        final String PATH = "/porkbelly/straddles/sluggy/"; //, "/porkbelly/straddles/porkbelly-euro"});
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("straddleSlug").equals("sluggy"));
+    }
+
+    @Test
+    public void testOptionalParamParamPresent() {
+        String pathDefinition = "/:commoditySlug/straddles/:straddleSlug?";
+        final String PATH = "/porkbelly/straddles/sluggy"; //, "/porkbelly/straddles/porkbelly-euro"});
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("straddleSlug").equals("sluggy"));
+    }
+
+    @Test
+    public void testCustomPatternForDate() {
+        String pathDefinition = "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?";
+        final String PATH = "/trades/porkbelly/07-06-2017";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("date").equals("07-06-2017"));
+    }
+
+    @Test
+    public void testCustomPatternForDateTrailingSlash() {
+        String pathDefinition = "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?";
+        final String PATH = "/trades/porkbelly/07-06-2017/";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("date").equals("07-06-2017"));
+    }
+
+    @Test
+    public void testCustomPatternForDateMissingDateTrailingSlash() {
+        String pathDefinition = "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?";
+        final String PATH = "/trades/porkbelly/";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("date") == null);
+    }
+
+    @Test
+    public void testCustomPatternForDateMissingDate() {
+        String pathDefinition = "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?";
+        final String PATH = "/trades/porkbelly";
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("date") == null);
+    }
+
+    @Test
+    public void testOptionalParamMissingParamWithTrailingForwardSlash() {
+        String pathDefinition = "/:commoditySlug/straddles/:straddleSlug?";
+        final String PATH = "/porkbelly/straddles/"; //, "/porkbelly/straddles/porkbelly-euro"});
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("straddleSlug") == null);
+    }
+
+    @Test
+    public void testOptionalParamMissingParam() {
+        String pathDefinition = "/:commoditySlug/straddles/:straddleSlug?";
+        final String PATH = "/porkbelly/straddles"; //, "/porkbelly/straddles/porkbelly-euro"});
+
+        ExpressRoute route = new ExpressRoute(pathDefinition);
+
+        System.out.println(route);
+
+        Assert.assertTrue(route.matches(PATH));
+
+        final Map<String, String> parametersFromPath = route.getParametersFromPath(PATH);
+        System.out.println(parametersFromPath);
+
+        Assert.assertTrue(parametersFromPath.size() == 2);
+        Assert.assertTrue(parametersFromPath.get("commoditySlug").equals("porkbelly"));
+        Assert.assertTrue(parametersFromPath.get("straddleSlug") == null);
+    }
+
+    @Test
+    public void testCompileAgainstSlash() {
+        for (String pathDefinition : allPathDefinitions.keySet()) {
+            ExpressRoute route = new ExpressRoute(pathDefinition);
+
+            if (route.matches("/")) {
+                System.out.println(route);
+            }
+        }
+    }
+
+    @Test
+    public void testCompileAll() {
+        for (String pathDefinition : allPathDefinitions.keySet()) {
+            ExpressRoute route = new ExpressRoute(pathDefinition);
+
+            System.out.println(route);
+
+            final String[] tests = allPathDefinitions.get(pathDefinition);
+
+            for (String test : tests) {
+                if (route.matches(test)) {
+                    final Map<String, String> parametersFromPath = route.getParametersFromPath(test);
+
+                    System.out.println(parametersFromPath);
+                }
+                else {
+                    System.out.println(route);
+                    System.out.println(test);
+                    Assert.assertTrue(false);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMultipleMatchingPatternsCompareMostSpecific() {
+        final String test = "/trades/porkbelly/12-07-2017";
+
+        final List<String> sorted = allPathDefinitions.keySet().stream()
+                                                      .map(ExpressRoute::new)
+                                                      .filter(route -> route.matches(test))
+                                                      .sorted((a, b) -> {
+                                                          ExpressRoutePatternComparator foo = new ExpressRoutePatternComparator(test);
+                                                          return foo.compare(a, b);
+                                                      })
+                                                      .map(ExpressRoute::getPathDefinition)
+                                                      .collect(Collectors.toList());
+
+        System.out.println(sorted);
+    }
+
+    @Test
+    public void testMatchAgreesWithGetParametersFromPath() {
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+
+        for (Map.Entry<String, String[]> entry : allPathDefinitions.entrySet()) {
+            final ExpressRoute route = new ExpressRoute(entry.getKey());
+
+            for (String test : entry.getValue()) {
+                Assert.assertTrue(test, route.match(test, match));
+                Assert.assertSame(route, match.getRoute());
+                Assert.assertEquals(test, route.getParametersFromPath(test), match.toMap());
+            }
+        }
+    }
+
+    @Test
+    public void testMatchOffsetsAndViews() {
+        final ExpressRoute route = new ExpressRoute("/:commoditySlug/options/:optionId?");
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+
+        Assert.assertTrue(route.match("/porkbelly/options/1234", match));
+        Assert.assertEquals(1, match.start("commoditySlug"));
+        Assert.assertEquals(10, match.end("commoditySlug"));
+        Assert.assertEquals("1234", match.getParameter("optionId").toString());
+        Assert.assertEquals("porkbelly", match.getParameterString(0));
+
+        Assert.assertTrue(route.match("/porkbelly/options", match));
+        Assert.assertFalse(match.isPresent("optionId"));
+        Assert.assertNull(match.getParameter("optionId"));
+
+        Assert.assertFalse(route.match("/porkbelly/futures", match));
+        Assert.assertNull(match.getRoute());
+        Assert.assertNull(route.match("/porkbelly/futures"));
+    }
+
+    @Test
+    public void testRouterFindIntoReusedMatch() {
+        ExpressRouter<Integer> router = new ExpressRouter<>();
+        router.add("/offers/:offerslug", 1);
+        router.add("/offers/new", 2);
+
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+
+        Assert.assertEquals(Integer.valueOf(1), router.find(new StringBuilder("/offers/cheap"), match));
+        Assert.assertEquals("cheap", match.getParameterString("offerslug"));
+        Assert.assertEquals(Integer.valueOf(2), router.find("/offers/new", match));
+        Assert.assertEquals(0, match.getParameterCount());
+        Assert.assertNull(router.find("/trades", match));
+        Assert.assertNull(match.getRoute());
+    }
+
+    @Test
+    public void testRouteCacheSharesRoutes() {
+        final ExpressRouteCache cache = new ExpressRouteCache(100);
+
+        final ExpressRoute route = cache.get("/:commoditySlug/options/:optionId");
+
+        Assert.assertSame(route, cache.get("/:commoditySlug/options/:optionId"));
+        Assert.assertNotSame(route, cache.get("/:commoditySlug/futures/:futureId"));
+
+        final ExpressRouter<Integer> router = new ExpressRouter<>(ExpressRouteEngineType.REGEX, cache);
+        Assert.assertSame(route, router.add("/:commoditySlug/options/:optionId", 1));
+
+        final ExpressRouteCacheStats stats = cache.getStats();
+        Assert.assertEquals(2, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        Assert.assertEquals(0, stats.getEvictionCount());
+        Assert.assertEquals(2, stats.getSize());
+    }
+
+    @Test
+    public void testRouteCacheIsBounded() {
+        final ExpressRouteCache cache = new ExpressRouteCache(64);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get("/tenant" + i + "/:id");
+        }
+
+        Assert.assertTrue(cache.size() <= 64);
+        Assert.assertEquals(1000 - cache.size(), cache.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void testLookupCache() {
+        ExpressRouter<Integer> router = new ExpressRouter<>();
+        router.add("/offers/:offerslug", 1);
+        router.setLookupCache(16, ExpressRouteAdmissionPolicy.ALWAYS);
+
+        Assert.assertEquals("cheap", router.find("/offers/cheap").getParameters().get("offerslug"));
+        Assert.assertEquals("cheap", router.find("/offers/cheap").getParameters().get("offerslug"));
+        Assert.assertNull(router.find("/trades"));
+
+        ExpressRouteCacheStats stats = router.getLookupCacheStats();
+        Assert.assertEquals(1, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+
+        // The cache is read by the path's contents, whatever holds them.
+        Assert.assertEquals("cheap", router.find(new StringBuilder("/offers/cheap")).getParameters().get("offerslug"));
+        Assert.assertEquals(2, router.getLookupCacheStats().getHitCount());
+
+        // Adding a route starts the cache again, so the more specific route is found.
+        router.add("/offers/cheap", 2);
+
+        Assert.assertEquals(Integer.valueOf(2), router.find("/offers/cheap").getHandler());
+        Assert.assertEquals(0, router.getLookupCacheStats().getHitCount());
+    }
+
+    @Test
+    public void testLookupCacheAdmissionPolicy() {
+        ExpressRouter<Integer> router = new ExpressRouter<>();
+        router.add("/offers/:offerslug", 1);
+        router.add("/health", 2);
+        router.setLookupCache(16, ExpressRouteAdmissionPolicy.STATIC_ROUTES);
+
+        // "/health" itself is answered by the exact match index before the cache, so its trailing slash form is used.
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(Integer.valueOf(1), router.find("/offers/" + i).getHandler());
+            Assert.assertEquals(Integer.valueOf(2), router.find("/health/").getHandler());
+        }
+
+        Assert.assertEquals(1, router.getLookupCacheStats().getSize());
+
+        router.setLookupCache(16, ExpressRouteAdmissionPolicy.frequency(3));
+
+        for (int i = 0; i < 100; i++) {
+            router.find("/offers/" + i);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            router.find("/offers/popular");
+        }
+
+        Assert.assertEquals(1, router.getLookupCacheStats().getSize());
+        Assert.assertEquals("popular", router.find("/offers/popular").getParameters().get("offerslug"));
+        Assert.assertEquals(1, router.getLookupCacheStats().getHitCount());
+    }
+
+    @Test
+    public void testLookupCacheKeepsPathsInUse() {
+        ExpressRouter<Integer> router = new ExpressRouter<>();
+        router.add("/offers/:offerslug", 1);
+        router.setLookupCache(64, ExpressRouteAdmissionPolicy.ALWAYS);
+        router.find("/offers/popular");
+
+        // Paths seen once push each other out, while a path read between them stays.
+        for (int i = 0; i < 1000; i++) {
+            router.find("/offers/" + i);
+            Assert.assertEquals("popular", router.find("/offers/popular").getParameters().get("offerslug"));
+        }
+
+        final ExpressRouteCacheStats stats = router.getLookupCacheStats();
+        Assert.assertEquals(1000, stats.getHitCount());
+        Assert.assertEquals(1001, stats.getMissCount());
+        Assert.assertEquals(64, stats.getSize());
+        Assert.assertEquals(1001 - 64, stats.getEvictionCount());
+    }
+
+    @Test
+    public void testLruCacheReadsRaceEviction() throws InterruptedException {
+        final ExpressRouteLruCache<String> cache = new ExpressRouteLruCache<>(32);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+
+        // Reads take no lock while other threads evict and move entries, and may miss but never see another's value.
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+
+            threads.add(new Thread(() -> {
+                final StringBuilder key = new StringBuilder();
+
+                for (int i = 0; i < 50000; i++) {
+                    key.setLength(0);
+                    key.append("/offers/").append((i * 31 + seed * 17) % 200);
+
+                    final String value = cache.get(key);
+
+                    if (value == null) {
+                        cache.putIfAbsent(key.toString(), key.toString());
+                    }
+                    else if (!value.contentEquals(key)) {
+                        failure.compareAndSet(null, key + " read " + value);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(32, cache.size());
+    }
+
+    @Test
+    public void testEscapedCharactersMatchThemselves() {
+        Assert.assertTrue(new ExpressRoute("/a.b").matches("/a.b"));
+        Assert.assertFalse(new ExpressRoute("/a.b").matches("/a/b"));
+        Assert.assertTrue(new ExpressRoute("/a+b/:c").matches("/a+b/d"));
+        Assert.assertTrue(new ExpressRoute("/foo/").matches("/foo"));
+        Assert.assertTrue(new ExpressRoute("/foo/").matches("/foo/"));
+        Assert.assertFalse(new ExpressRoute("/foo/").matches("/fo/"));
+        Assert.assertFalse(new ExpressRoute("/").matches("//"));
+    }
+
+    @Test
+    public void testAddAllCompileModes() {
+        final Map<String, String> handlers = new LinkedHashMap<>();
+
+        for (String pathDefinition : allPathDefinitions.keySet()) {
+            handlers.put(pathDefinition, "handler:" + pathDefinition);
+        }
+
+        final ExpressRouter<String> expected = new ExpressRouter<>();
+        handlers.forEach(expected::add);
+
+        for (ExpressRouteCompileMode mode : ExpressRouteCompileMode.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.TRIE);
+            final List<ExpressRoute> routes = router.addAll(handlers, mode);
+
+            Assert.assertEquals(handlers.size(), routes.size());
+
+            final ExpressRouteCompileStats stats = router.getCompileStats();
+            Assert.assertEquals(handlers.size(), stats.getRouteCount());
+            Assert.assertEquals(mode == ExpressRouteCompileMode.LAZY ? handlers.size() : 0, stats.getDeferredCount());
+
+            for (String[] tests : allPathDefinitions.values()) {
+                for (String test : tests) {
+                    Assert.assertEquals(mode + " " + test, expected.find(test).getHandler(), router.find(test).getHandler());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLazyRouteCompilesOnFirstMatch() {
+        final ExpressRouteCompiler compiler = new ExpressRouteCompiler();
+        final ExpressRoute route = compiler.compile("/:commoditySlug/options/:optionId", true);
+
+        Assert.assertEquals(1, compiler.getStats().getDeferredCount());
+        Assert.assertEquals("porkbelly", route.getParametersFromPath("/porkbelly/options/1234").get("commoditySlug"));
+        Assert.assertEquals(0, compiler.getStats().getDeferredCount());
+        Assert.assertEquals(1, compiler.getStats().getPatternCount());
+    }
+
+    @Test
+    public void testSnapshotRejectsDamagedFiles() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExpressRouteSnapshot.write(Arrays.asList(new ExpressRoute("/offers/:offerslug"), new ExpressRoute("/*")), out);
+
+        final byte[] bytes = out.toByteArray();
+        Assert.assertEquals(2, ExpressRouteSnapshot.read(ByteBuffer.wrap(bytes)).size());
+
+        final byte[] corrupt = bytes.clone();
+        corrupt[corrupt.length - 1] ^= 1;
+
+        final byte[] newer = bytes.clone();
+        newer[5] = (byte) (ExpressRouteSnapshot.FORMAT_VERSION + 1);
+
+        for (byte[] damaged : Arrays.asList(corrupt, newer, Arrays.copyOf(bytes, bytes.length - 1), new byte[0])) {
+            try {
+                ExpressRouteSnapshot.read(ByteBuffer.wrap(damaged));
+                Assert.fail();
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testToPathMatchesItsRoute() {
+        for (Map.Entry<String, String[]> entry : allPathDefinitions.entrySet()) {
+            final ExpressRoute route = new ExpressRoute(entry.getKey());
+
+            for (String test : entry.getValue()) {
+                final Map<String, String> parameters = route.getParametersFromPath(test);
+                final String path = route.toPath(parameters);
+
+                Assert.assertTrue(test + " " + path, route.matches(path));
+                Assert.assertEquals(test + " " + path, parameters, route.getParametersFromPath(path));
+            }
+        }
+    }
+
+    @Test
+    public void testToPathEncodesValues() {
+        Assert.assertEquals("/offers/a%20b%2Fc%3F", new ExpressRoute("/offers/:offerslug").toPath(Collections.singletonMap("offerslug", "a b/c?")));
+        Assert.assertEquals("/caf%C3%A9/options/%F0%9F%98%80", new ExpressRoute("/:commoditySlug/options/:optionId").toPath(
+                new LinkedHashMap<String, Object>() {{
+                    put("commoditySlug", "caf\u00e9");
+                    put("optionId", "\ud83d\ude00");
+                }}));
+        Assert.assertEquals("/files/a/b%3Fc;d=e", new ExpressRoute("/files/*").toPath(Collections.singletonMap("0", "a/b?c;d=e")));
+        Assert.assertEquals("/x/42", new ExpressRoute("/x/:id(\\d+)").toPath(Collections.singletonMap("id", 42)));
+    }
+
+    @Test
+    public void testToPathOptionalRepeatAndPartialTokens() {
+        Assert.assertEquals("/porkbelly/futures", new ExpressRoute("/:commoditySlug/futures/:date?").toPath(
+                Collections.singletonMap("commoditySlug", "porkbelly")));
+        Assert.assertEquals("/a/b/c", new ExpressRoute("/:path+").toPath(Collections.singletonMap("path", Arrays.asList("a", "b", "c"))));
+        Assert.assertEquals("/a.b", new ExpressRoute("/:path+").toPath(Collections.singletonMap("path", "a.b")));
+        Assert.assertEquals("", new ExpressRoute("/:path*").toPath(Collections.singletonMap("path", new String[0])));
+        Assert.assertEquals("/-x", new ExpressRoute("/:a?-:b").toPath(Collections.singletonMap("b", "x")));
+        Assert.assertEquals("/file.txt", new ExpressRoute("/:name.:ext").toPath(
+                new LinkedHashMap<String, Object>() {{
+                    put("name", "file");
+                    put("ext", "txt");
+                }}));
+    }
+
+    @Test
+    public void testToPathRejectsInvalidValues() {
+        final List<Runnable> invalid = Arrays.asList(
+                () -> new ExpressRoute("/offers/:offerslug").toPath(Collections.emptyMap()),
+                () -> new ExpressRoute("/offers/:offerslug").toPath(Collections.singletonMap("offerslug", "")),
+                () -> new ExpressRoute("/offers/:offerslug").toPath(Collections.singletonMap("offerslug", Arrays.asList("a", "b"))),
+                () -> new ExpressRoute("/x/:id(\\d+)").toPath(Collections.singletonMap("id", "abc")),
+                () -> new ExpressRoute("/:path+").toPath(Collections.singletonMap("path", Collections.emptyList())),
+                () -> new ExpressRoute("/:name.:ext").toPath(new LinkedHashMap<String, Object>() {{
+                    put("name", "file");
+                    put("ext", "tar.gz");
+                }}),
+                () -> new ExpressRoute("/:name").toPath(Collections.singletonMap("name", "\ud83d")));
+
+        for (Runnable generate : invalid) {
+            try {
+                generate.run();
+                Assert.fail();
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        final StringBuilder out = new StringBuilder("<a href=\"");
+
+        try {
+            new ExpressRoute("/:commoditySlug/options/:optionId").getTemplate().appendTo(out, Collections.singletonMap("commoditySlug", "porkbelly"));
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertEquals("<a href=\"", out.toString());
+        }
+    }
+
+    @Test
+    public void testRouterFindsMostSpecific() {
+        ExpressRouter<String> router = new ExpressRouter<>();
+
+        for (String pathDefinition : allPathDefinitions.keySet()) {
+            router.add(pathDefinition, "handler:" + pathDefinition);
+        }
+
+        for (String[] tests : allPathDefinitions.values()) {
+            for (String test : tests) {
+                final List<ExpressRoute> sorted = allPathDefinitions.keySet().stream()
+                                                                    .map(ExpressRoute::new)
+                                                                    .filter(route -> route.matches(test))
+                                                                    .sorted(new ExpressRoutePatternComparator(test))
+                                                                    .collect(Collectors.toList());
+
+                final ExpressRouterMatch<String> match = router.find(test);
+
+                Assert.assertNotNull(test, match);
+                Assert.assertEquals(test, sorted.get(0).getPathDefinition(), match.getRoute().getPathDefinition());
+                Assert.assertEquals(test, "handler:" + match.getRoute().getPathDefinition(), match.getHandler());
+                Assert.assertEquals(test, sorted.get(0).getParametersFromPath(test), match.getParameters());
+            }
+        }
+    }
+
+    @Test
+    public void testRouterFindsBytes() {
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(type);
+
+            for (String pathDefinition : allPathDefinitions.keySet()) {
+                router.add(pathDefinition, pathDefinition);
+            }
+
+            final ExpressRouteMatch match = new ExpressRouteMatch();
+
+            for (String[] tests : allPathDefinitions.values()) {
+                for (String test : tests) {
+                    final ExpressRouterMatch<String> expected = router.find(test);
+                    final byte[] request = ("GET " + test + " HTTP/1.1").getBytes(StandardCharsets.US_ASCII);
+                    final ByteBuffer direct = ByteBuffer.allocateDirect(request.length);
+                    direct.put(request).position(4).limit(4 + test.length());
+
+                    Assert.assertEquals(type + " " + test, expected.getHandler(), router.find(request, 4, test.length(), match));
+                    Assert.assertEquals(type + " " + test, expected.getParameters(), match.toMap());
+
+                    Assert.assertEquals(type + " " + test, expected.getHandler(),
+                            router.find((ByteBuffer) ByteBuffer.wrap(request).position(4).limit(4 + test.length()), match));
+                    Assert.assertEquals(type + " " + test, expected.getParameters(), match.toMap());
+
+                    Assert.assertEquals(type + " " + test, expected.getHandler(), router.find(direct, match));
+                    Assert.assertEquals(type + " " + test, 4, direct.position());
+
+                    for (int i = 0; i < match.getParameterCount(); i++) {
+                        if (match.isPresent(i)) {
+                            final int start = match.getInputOffset() + match.start(i);
+                            final int end = match.getInputOffset() + match.end(i);
+
+                            Assert.assertEquals(type + " " + test, match.getParameterString(i),
+                                    new String(request, start, end - start, StandardCharsets.US_ASCII));
+                        }
+                    }
+                }
+            }
+
+            Assert.assertEquals(type.toString(), router.find("").getHandler(),
+                    router.find("GET /offers".getBytes(StandardCharsets.US_ASCII), 4, 0, match));
+        }
+    }
+
+    @Test
+    public void testDecodedParameters() {
+        final ExpressRoute route = new ExpressRoute("/:commoditySlug/options/:optionId");
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+
+        Assert.assertTrue(route.match("/pork%20belly/options/caf%C3%a9+%F0%9F%98%80", match));
+        Assert.assertEquals("pork%20belly", match.getParameterString("commoditySlug"));
+        Assert.assertEquals("pork belly", match.getDecodedParameter("commoditySlug").toString());
+        Assert.assertEquals("caf\u00e9+\ud83d\ude00", match.getDecodedParameter(1).toString());
+        Assert.assertSame(match.getDecodedParameter(1), match.getDecodedParameter(1));
+        Assert.assertTrue(match.getDecodeErrors().isEmpty());
+
+        // Nothing to decode, so the parameter is a view of the path rather than a copy.
+        Assert.assertTrue(route.match("/porkbelly/options/1234", match));
+        Assert.assertFalse(match.getDecodedParameter(0) instanceof String);
+        Assert.assertEquals("porkbelly", match.getDecodedParameter(0).toString());
+
+        Assert.assertTrue(route.match("/%E0%A4/options/%zz", match));
+        Assert.assertNull(match.getDecodedParameter(0));
+        Assert.assertNull(match.getDecodedParameter(1));
+        Assert.assertEquals(2, match.getDecodeErrors().size());
+        Assert.assertEquals("commoditySlug", match.getDecodeError(0).getParameterName());
+        Assert.assertEquals(1, match.getDecodeError(0).getOffset());
+        Assert.assertEquals(ExpressRouteDecodeError.Reason.INVALID_UTF8, match.getDecodeError(0).getReason());
+        Assert.assertEquals(16, match.getDecodeError(1).getOffset());
+        Assert.assertEquals(ExpressRouteDecodeError.Reason.INVALID_ESCAPE, match.getDecodeError(1).getReason());
+
+        for (String malformed : Arrays.asList("ab%2", "%C0%AF", "%ED%A0%80", "%F4%90%80%80", "%C3a", "%80")) {
+            Assert.assertTrue(route.match("/" + malformed + "/options/1", match));
+            Assert.assertNull(malformed, match.getDecodedParameter(0));
+            Assert.assertNotNull(malformed, match.getDecodeError(0));
+        }
+
+        Assert.assertEquals(ExpressRouteDecodeError.Reason.TRUNCATED_ESCAPE, new ExpressRoute("/:a").match("/ab%2").getDecodeError(0).getReason());
+
+        final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.TRIE);
+        router.add("/:commoditySlug/options/:optionId", "option");
+
+        final byte[] target = "/caf\u00e9/options/%31".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals("option", router.find(target, 0, target.length, match));
+        Assert.assertEquals("caf\u00e9", match.getDecodedParameter(0).toString());
+        Assert.assertEquals("1", match.getDecodedParameter(1).toString());
+    }
+
+    @Test
+    public void testTypedParameters() {
+        final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.TRIE);
+        router.add("/:commoditySlug/bid/:bidId<long>", "bid");
+        router.add("/:commoditySlug/bid/:bidId", "untyped");
+        router.add("/orders/:orderId<uuid>/:line<int>?", "order");
+
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+
+        Assert.assertEquals("bid", router.find("/porkbelly/bid/-9223372036854775808", match));
+        Assert.assertEquals(Long.MIN_VALUE, match.getLong("bidId"));
+        Assert.assertEquals("untyped", router.find("/porkbelly/bid/9223372036854775808", match));
+        Assert.assertEquals("untyped", router.find("/porkbelly/bid/+1", match));
+
+        Assert.assertEquals("order", router.find("/orders/123e4567-e89b-12d3-a456-426614174000/0042", match));
+        Assert.assertEquals(java.util.UUID.fromString("123e4567-e89b-12d3-a456-426614174000"), match.getUuid("orderId"));
+        Assert.assertEquals(42, match.getInt(1));
+        Assert.assertEquals(42L, match.getLong("line"));
+
+        Assert.assertNull(router.find("/orders/123e4567-e89b-12d3-a456-426614174000/2147483648", match));
+
+        final ExpressRoute order = new ExpressRoute("/orders/:orderId<uuid>/:line<int>?");
+        Assert.assertEquals("/orders/123e4567-e89b-12d3-a456-426614174000/7", order.toPath(new LinkedHashMap<String, Object>() {{
+            put("orderId", "123e4567-e89b-12d3-a456-426614174000");
+            put("line", 7);
+        }}));
+
+        Assert.assertEquals("order", router.find("/orders/123e4567-e89b-12d3-a456-426614174000", match));
+
+        final List<Runnable> invalid = Arrays.asList(
+                () -> match.getInt("line"),
+                () -> match.getLong("orderId"),
+                () -> match.getInt("missing"),
+                () -> order.toPath(Collections.singletonMap("orderId", "123e4567")),
+                () -> new ExpressRoute("/:bidId<float>"),
+                () -> new ExpressRoute("/:bidId<long>(\\d+)"));
+
+        for (Runnable invalidUse : invalid) {
+            try {
+                invalidUse.run();
+                Assert.fail();
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRouterMetrics() throws Exception {
+        final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.REGEX);
+        router.add("/:commoditySlug/options/:optionId", "option");
+        router.add("/offers", "offers");
+
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+        Assert.assertEquals("option", router.find("/porkbelly/options/1", match));
+
+        final ExpressRouteMetrics metrics = new ExpressRouteMetrics();
+        router.setMetrics(metrics);
+
+        Assert.assertEquals("option", router.find("/porkbelly/options/1", match));
+        Assert.assertEquals("option", router.find("/porkbelly/options/2", match));
+        Assert.assertEquals("offers", router.find("/offers", match));
+        Assert.assertNull(router.find("/nothing/here/at/all", match));
+
+        Assert.assertEquals(2, metrics.getHitCount("/:commoditySlug/options/:optionId"));
+        Assert.assertEquals(1, metrics.getHitCount("/offers"));
+        Assert.assertEquals(3, metrics.getHitCount());
+        Assert.assertEquals(1, metrics.getMissCount());
+        Assert.assertEquals(4, metrics.getLatency().getCount());
+        // Only the patterns of routes whose fingerprints allow the path are run: one for each hit, none for the miss.
+        Assert.assertEquals(3, metrics.getRegexEvaluationCount());
+        Assert.assertEquals(2, metrics.getCompiledRouteCount());
+
+        // Lookups recorded as Flight Recorder events are counted just the same.
+        metrics.setFlightRecorderEvents(true);
+        Assert.assertEquals("offers", router.find("/offers", match));
+        Assert.assertEquals(2, metrics.getHitCount("/offers"));
+
+        final ObjectName name = metrics.register("testRouterMetrics");
+
+        try {
+            Assert.assertEquals(5L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "LookupCount"));
+        }
+        finally {
+            metrics.unregister(name);
+        }
+
+        router.setMetrics(null);
+        Assert.assertEquals("offers", router.find("/offers", match));
+        Assert.assertEquals(5, metrics.getLookupCount());
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getLookupCount());
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        final ExpressRouteLatencyHistogram histogram = new ExpressRouteLatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(0.99, TimeUnit.NANOSECONDS));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+
+        histogram.record(10_000);
+        histogram.record(0);
+
+        Assert.assertEquals(101, histogram.getCount());
+        Assert.assertEquals(127, histogram.getPercentile(0.5, TimeUnit.NANOSECONDS));
+        Assert.assertEquals(16_383, histogram.getPercentile(1, TimeUnit.NANOSECONDS));
+        Assert.assertEquals(19_900, histogram.getTotalTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testPatternHazards() {
+        for (String safe : Arrays.asList("/:commoditySlug/options/:optionId", "/:path+", "/:path*.json", "/*",
+                "/trades/:commoditySlug/:date(\\d{2}-\\d{2}-\\d{4})?", "/x/:code([a-z]{2}|\\d{3,4})", "/:id(\\d+)+",
+                "/:id(a+b)+", "/:id(\\w+\\d)", "/:id(a|aa)+", "/t/:id<long>")) {
+            Assert.assertNull(safe, new ExpressRoute(safe).findPatternHazard());
+        }
+
+        for (String hazardous : Arrays.asList("/:path(.+)+", "/:path(.*)*", "/:id([\\w/]+)+", "/:id(.|a)+",
+                "/:id(\\p{L}+)")) {
+            Assert.assertNotNull(hazardous, new ExpressRoute(hazardous).findPatternHazard());
+        }
+
+        for (String ambiguous : Arrays.asList("(a+)+", "(?:\\w+\\d)+", "(a|aa)*", "(\\d*)*x", "(?:a{1,5}){2,}")) {
+            Assert.assertNotNull(ambiguous, ExpressRouteRegex.parse(ambiguous).findAmbiguity());
+        }
+
+        for (String unambiguous : Arrays.asList("(?:ab)+c", "(?:a+b)+", "\\w+\\d", "(a|b)*", "(?:\\/[^\\/]+)*")) {
+            Assert.assertNull(unambiguous, ExpressRouteRegex.parse(unambiguous).findAmbiguity());
+        }
+    }
+
+    @Test
+    public void testSafeMode() {
+        final ExpressRouter<String> rejecting = new ExpressRouter<>(ExpressRouteEngineType.AUTOMATON);
+        rejecting.add("/:path(.+)+", "slow");
+
+        try {
+            rejecting.setSafeMode(ExpressRouteSafeMode.REJECT);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertEquals(ExpressRouteSafeMode.OFF, rejecting.getSafeMode());
+        }
+
+        rejecting.setSafeMode(ExpressRouteSafeMode.FLAG);
+        Assert.assertEquals(1, rejecting.getFlaggedRoutes().size());
+
+        final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.REGEX);
+        router.setSafeMode(ExpressRouteSafeMode.REJECT);
+        router.add("/:commoditySlug/options/:optionId", "option");
+
+        try {
+            router.addAll(Collections.singletonMap("/files/:path(.+)+.json", "slow"), ExpressRouteCompileMode.EAGER);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertEquals(1, router.size());
+        }
+
+        router.setSafeMode(ExpressRouteSafeMode.FLAG);
+        router.add("/files/:path(.+)+.json", "slow");
+        Assert.assertEquals("/files/:path(.+)+.json", router.getFlaggedRoutes().get(0).getPathDefinition());
+
+        // Every '/' can be taken by the pattern or by the delimiter, so backtracking tries each way to split this path
+        // before giving up: exponentially many before Java 9, and still quadratically many since; the budget stops it.
+        final StringBuilder hostile = new StringBuilder("/files");
+
+        for (int i = 0; i < 500; i++) {
+            hostile.append("/a");
+        }
+
+        // Passes the route's fingerprint, which wants ".json" somewhere after "/files/", so the pattern runs.
+        hostile.append(".json/x");
+
+        router.setStepBudget(20_000);
+
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+        Assert.assertEquals("slow", router.find("/files/a/b.json", match));
+        Assert.assertEquals("option", router.find("/porkbelly/options/1234", match));
+
+        try {
+            router.find(hostile, match);
+            Assert.fail();
+        }
+        catch (ExpressRouteBudgetExceededException e) {
+            Assert.assertEquals(20_000, e.getBudget());
+            Assert.assertNull(match.getRoute());
+        }
+
+        // The automaton runs the same pattern in linear time, well within the budget.
+        final ExpressRouter<String> linear = new ExpressRouter<>(ExpressRouteEngineType.AUTOMATON);
+        linear.add("/files/:path(.+)+.json", "slow");
+        linear.setStepBudget(20_000);
+
+        Assert.assertNull(linear.find(hostile, match));
+        Assert.assertEquals("slow", linear.find(hostile + ".json", match));
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(type);
+            final ExpressRoute first = router.add("/:commoditySlug/options", "first");
+            final ExpressRoute second = router.add("/:commoditySlug/shorts", "second");
+            router.add("/*", "catchAll");
+
+            Assert.assertEquals("first", router.find("/porkbelly/options").getHandler());
+
+            Assert.assertTrue(router.remove(first));
+            Assert.assertFalse(router.remove(first));
+            Assert.assertEquals("catchAll", router.find("/porkbelly/options").getHandler());
+
+            // Routes of equal rank keep the order they were added in, and a replacement takes the place of its route.
+            router.add("/:commoditySlug/:kind", "later");
+            Assert.assertTrue(router.replace(second, new ExpressRoute("/:commoditySlug/:type"), "replaced"));
+            Assert.assertEquals("replaced", router.find("/porkbelly/futures").getHandler());
+            Assert.assertFalse(router.replace(second, first, "first"));
+
+            Assert.assertTrue(router.remove("/:commoditySlug/:type"));
+            Assert.assertEquals("later", router.find("/porkbelly/futures").getHandler());
+
+            router.update(transaction -> {
+                transaction.remove("/:commoditySlug/:kind");
+                transaction.add("/offers/:offerslug", "offers");
+                transaction.add(first, "first");
+            });
+
+            Assert.assertEquals(Arrays.asList("/:commoditySlug/options", "/offers/:offerslug", "/*"),
+                    router.getRoutes().stream().map(ExpressRoute::getPathDefinition).collect(Collectors.toList()));
+
+            final ExpressRouteTransaction<?>[] escaped = new ExpressRouteTransaction<?>[1];
+
+            try {
+                router.update(transaction -> {
+                    escaped[0] = transaction;
+                    transaction.remove(first);
+                    transaction.add("/trades", "trades");
+                    throw new UnsupportedOperationException();
+                });
+                Assert.fail();
+            }
+            catch (UnsupportedOperationException e) {
+                Assert.assertEquals(type.name(), "first", router.find("/porkbelly/options").getHandler());
+                Assert.assertEquals(3, router.size());
+            }
+
+            try {
+                escaped[0].remove(first);
+                Assert.fail();
+            }
+            catch (IllegalStateException e) {
+                Assert.assertEquals(3, router.size());
+            }
+
+            try {
+                router.update(transaction -> {
+                    transaction.remove(first);
+                    router.add("/trades", "trades");
+                });
+                Assert.fail();
+            }
+            catch (IllegalStateException e) {
+                Assert.assertEquals("first", router.find("/porkbelly/options").getHandler());
+            }
+        }
+    }
+
+    @Test
+    public void testLookupsSeeWholeUpdates() throws InterruptedException {
+        final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.TRIE);
+
+        for (String pathDefinition : allPathDefinitions.keySet()) {
+            router.add(pathDefinition, pathDefinition);
+        }
+
+        final ExpressRoute offer = new ExpressRoute("/offers/:offerslug/v2");
+        final ExpressRoute bid = new ExpressRoute("/offers/:offerslug/v2/bid/:bidId");
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                router.update(transaction -> {
+                    transaction.add(offer, "offer");
+                    transaction.add(bid, "bid");
+                });
+                router.update(transaction -> {
+                    transaction.remove(offer);
+                    transaction.remove(bid);
+                });
+            }
+
+            done.set(true);
+        });
+
+        writer.start();
+
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+
+        while (!done.get() && failure.get() == null) {
+            // The two routes come and go together, so a lookup sees both or neither.
+            final List<ExpressRoute> routes = router.getRoutes();
+            final String offerHandler = router.find("/offers/e1264/v2", match);
+            final String bidHandler = router.find("/offers/e1264/v2/bid/1", match);
+
+            if (routes.contains(offer) != routes.contains(bid)) {
+                failure.set(routes.toString());
+            }
+
+            if (!offerHandler.equals("offer") && !offerHandler.equals("*") ||
+                    !bidHandler.equals("bid") && !bidHandler.equals("*") ||
+                    !"/offers/:offerslug".equals(router.find("/offers/e1264", match))) {
+                failure.set(offerHandler + " " + bidHandler);
+            }
+        }
+
+        writer.join();
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(allPathDefinitions.size(), router.size());
+    }
+
+    @Test
+    public void testRequestRouter() {
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRequestRouter<String> router = new ExpressRequestRouter<>(type);
+            router.add("GET", null, "/:commoditySlug/options/:optionId", "getOption");
+            router.add("POST", "*", "/:commoditySlug/options", "postOption");
+            router.add("GET", "api.example.com", "/offers/:offerslug", "apiOffer");
+            router.add(null, "*.tenant.example", "/offers/:offerslug", "tenantOffer");
+            router.add("DELETE", "a.tenant.example", "/offers/:offerslug", "deleteOffer");
+
+            final ExpressRequestMatch<String> match = new ExpressRequestMatch<>();
+
+            Assert.assertEquals("getOption", router.find("GET", "example.com", "/porkbelly/options/1234", match));
+            Assert.assertEquals(ExpressRequestStatus.FOUND, match.getStatus());
+            Assert.assertEquals("1234", match.getParameterString("optionId"));
+            Assert.assertEquals("getOption", router.find("HEAD", null, "/porkbelly/options/1234", match));
+
+            Assert.assertNull(router.find("PUT", null, "/porkbelly/options/1234", match));
+            Assert.assertEquals(ExpressRequestStatus.METHOD_NOT_ALLOWED, match.getStatus());
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("GET", "HEAD")), match.getAllowedMethods());
+            Assert.assertNull(match.getRoute());
+
+            Assert.assertNull(router.find("GET", null, "/porkbelly", match));
+            Assert.assertEquals(ExpressRequestStatus.NOT_FOUND, match.getStatus());
+            Assert.assertTrue(match.getAllowedMethods().isEmpty());
+
+            Assert.assertEquals("apiOffer", router.find("GET", "API.example.com:8080", "/offers/e1264", match));
+            Assert.assertEquals(type.name(), ExpressRequestStatus.METHOD_NOT_ALLOWED,
+                    router.find("POST", "api.example.com", "/offers/e1264").getStatus());
+            Assert.assertEquals(ExpressRequestStatus.NOT_FOUND, router.find("GET", "other.example.com", "/offers/e1264").getStatus());
+
+            Assert.assertEquals("tenantOffer", router.find("PATCH", "x.y.tenant.example", "/offers/e1264", match));
+            Assert.assertEquals(ExpressRequestStatus.NOT_FOUND, router.find("GET", "tenant.example", "/offers/e1264").getStatus());
+
+            // The exact host only has a DELETE route for the path, so other methods fall through to the wildcard.
+            Assert.assertEquals("deleteOffer", router.find("DELETE", "a.tenant.example", "/offers/e1264", match));
+            Assert.assertEquals("tenantOffer", router.find("GET", "a.tenant.example", "/offers/e1264", match));
+        }
+
+        final ExpressRequestRouter<String> ranked = new ExpressRequestRouter<>(ExpressRouteEngineType.TRIE);
+        final ExpressRouter<String> router = new ExpressRouter<>();
+
+        for (String pathDefinition : allPathDefinitions.keySet()) {
+            ranked.add("GET", null, pathDefinition, pathDefinition);
+            router.add(pathDefinition, pathDefinition);
+        }
+
+        for (String[] tests : allPathDefinitions.values()) {
+            for (String test : tests) {
+                Assert.assertEquals(test, router.find(test).getHandler(), ranked.find("GET", "example.com", test).getHandler());
+            }
+        }
+
+        try {
+            ranked.add("GET", "a*.example.com", "/", "invalid");
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e) {
+            Assert.assertEquals(allPathDefinitions.size(), ranked.size());
+        }
+    }
+
+    @Test
+    public void testRequestRouterAllowsEveryMatchingMethod() {
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRequestRouter<String> router = new ExpressRequestRouter<>(type);
+            router.add("GET", null, "/offers/:offerslug", "offer");
+            router.add("POST", null, "/offers/new", "newOffer");
+            router.add("GET", "api.example.com", "/x", "apiX");
+            router.add("PUT", null, "/x", "putX");
+
+            // Every route which matches the path counts, not just the most specific.
+            final ExpressRequestMatch<String> match = router.find("DELETE", null, "/offers/new");
+            Assert.assertEquals(type.name(), ExpressRequestStatus.METHOD_NOT_ALLOWED, match.getStatus());
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("GET", "HEAD", "POST")), match.getAllowedMethods());
+            Assert.assertEquals("offer", router.find("GET", null, "/offers/new").getHandler());
+
+            // As do the routes of every host the request may use.
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("GET", "HEAD", "PUT")),
+                    router.find("DELETE", "api.example.com", "/x").getAllowedMethods());
+            Assert.assertEquals(Collections.singleton("PUT"), router.find("DELETE", "example.com", "/x").getAllowedMethods());
+            Assert.assertEquals(ExpressRequestStatus.NOT_FOUND, router.find("DELETE", null, "/y").getStatus());
+        }
+
+        final ExpressRequestRouter<String> router = new ExpressRequestRouter<>(ExpressRouteEngineType.TRIE);
+        final ExpressRoute get = router.add("GET", null, "/offers/:offerslug", "getOffer");
+        final ExpressRoute any = router.add(null, null, "/offers/:offerslug", "anyOffer");
+
+        Assert.assertEquals("getOffer", router.find("HEAD", null, "/offers/e1264").getHandler());
+        Assert.assertTrue(router.remove(get));
+        Assert.assertFalse(router.remove(get));
+        Assert.assertEquals("anyOffer", router.find("GET", null, "/offers/e1264").getHandler());
+
+        Assert.assertTrue(router.replace(any, new ExpressRoute("/offers/:offerslug(\\d+)"), "numericOffer"));
+        Assert.assertEquals("numericOffer", router.find("PATCH", null, "/offers/1264").getHandler());
+        Assert.assertEquals(ExpressRequestStatus.NOT_FOUND, router.find("PATCH", null, "/offers/e1264").getStatus());
+        Assert.assertEquals(1, router.size());
+
+        // A method whose routes arrive later sees the routes for any method, and the mounts, added before it.
+        final ExpressRouter<String> v2 = new ExpressRouter<>();
+        v2.add("/offers/:offerslug", "v2Offer");
+        final ExpressRoute prefix = router.mount(null, null, "/v2", v2);
+        router.add("POST", null, "/offers", "postOffer");
+
+        Assert.assertEquals("v2Offer", router.find("POST", null, "/v2/offers/e1264").getHandler());
+        Assert.assertEquals("e1264", router.find("GET", null, "/v2/offers/e1264").getParameterString("offerslug"));
+        Assert.assertEquals("numericOffer", router.find("POST", null, "/offers/1264").getHandler());
+        Assert.assertEquals(Collections.singleton("POST"), router.find("GET", null, "/offers").getAllowedMethods());
+        Assert.assertTrue(router.unmount(prefix));
+        Assert.assertEquals(ExpressRequestStatus.NOT_FOUND, router.find("POST", null, "/v2/offers/e1264").getStatus());
+
+        router.setPathRules(EnumSet.of(ExpressRoutePathRule.DUPLICATE_SLASHES));
+        Assert.assertEquals("postOffer", router.find("POST", null, "//offers").getHandler());
+
+        final ExpressRouteMetrics metrics = new ExpressRouteMetrics();
+        router.setMetrics(metrics);
+        router.find("GET", null, "/offers");
+        Assert.assertEquals(Long.valueOf(0), metrics.getRouteHitCounts().getOrDefault("/offers", 0L));
+        router.find("POST", null, "/offers");
+        Assert.assertEquals(Long.valueOf(1), metrics.getRouteHitCounts().get("/offers"));
+    }
+
+    @Test
+    public void testRequestRouterFindsAllowedMethodsInOnePass() {
+        final ExpressRequestRouter<String> router = new ExpressRequestRouter<>(ExpressRouteEngineType.REGEX);
+        final ExpressRouter<String> plain = new ExpressRouter<>(ExpressRouteEngineType.REGEX);
+
+        for (String[] route : new String[][]{{"GET", "/items/:id"}, {"POST", "/items/:id"}, {"PUT", "/items/:id"},
+                {"GET", "/items/:slug"}, {"PATCH", "/other"}}) {
+            router.add(route[0], null, route[1], route[0] + " " + route[1]);
+            plain.add(route[1], route[1]);
+        }
+
+        final ExpressRequestMatch<String> match = new ExpressRequestMatch<>();
+        final ExpressRouterMatch<String> plainMatch = new ExpressRouterMatch<>();
+
+        // A path no route matches costs what it would in a single router, rather than a lookup per method.
+        int before = match.regexEvaluations();
+        router.find("DELETE", null, "/nothing/here", match);
+        final int notFound = match.regexEvaluations() - before;
+
+        before = plainMatch.regexEvaluations();
+        plain.find("/nothing/here", plainMatch);
+        Assert.assertEquals(plainMatch.regexEvaluations() - before, notFound);
+        Assert.assertEquals(ExpressRequestStatus.NOT_FOUND, match.getStatus());
+
+        // Each matching route runs once: the GET route the engine finds, then POST and PUT on the walk, which passes
+        // over the second GET route since its methods are already allowed.
+        before = match.regexEvaluations();
+        router.find("DELETE", null, "/items/5", match);
+        Assert.assertEquals(3, match.regexEvaluations() - before);
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("GET", "HEAD", "POST", "PUT")), match.getAllowedMethods());
+
+        before = match.regexEvaluations();
+        Assert.assertEquals("PUT /items/:id", router.find("PUT", null, "/items/5", match));
+        Assert.assertEquals(3, match.regexEvaluations() - before);
+        Assert.assertEquals("5", match.getParameterString("id"));
+    }
+
+    @Test
+    public void testRequestRouterPublishesChangesWhole() throws InterruptedException {
+        final ExpressRequestRouter<String> router = new ExpressRequestRouter<>(ExpressRouteEngineType.TRIE);
+        final ExpressRoute x = new ExpressRoute("/x");
+        final ExpressRoute y = new ExpressRoute("/y");
+        router.add("GET", "api.example.com", x, "getX");
+        router.add("PUT", null, x, "putX");
+        router.add("POST", null, "/x", "postX");
+
+        final Set<String> everyMethod = new TreeSet<>(Arrays.asList("GET", "HEAD", "POST", "PUT"));
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        final Thread reader = new Thread(() -> {
+            final ExpressRequestMatch<String> match = new ExpressRequestMatch<>();
+
+            while (!done.get()) {
+                router.find("DELETE", "api.example.com", "/x", match);
+
+                // The route is swapped for every method and host at once, so /x allows all three or just POST.
+                final Set<String> allowed = match.getAllowedMethods();
+
+                if (!allowed.equals(everyMethod) && !allowed.equals(Collections.singleton("POST"))) {
+                    failure.compareAndSet(null, allowed.toString());
+                }
+            }
+        });
+
+        reader.start();
+
+        for (int i = 0; i < 2000 && failure.get() == null; i++) {
+            Assert.assertTrue(router.replace(x, y, "y"));
+            Assert.assertTrue(router.replace(y, x, "x"));
+        }
+
+        done.set(true);
+        reader.join();
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(Arrays.asList(x, x), router.getRoutes().subList(0, 2));
+    }
+
+    @Test
+    public void testRouterCatchAllIsLast() {
+        ExpressRouter<Integer> router = new ExpressRouter<>();
+        router.add("/*", 1);
+        router.add("/:commoditySlug/options/:optionId?", 2);
+
+        Assert.assertEquals(Integer.valueOf(2), router.find("/porkbelly/options/1234").getHandler());
+        Assert.assertEquals(Integer.valueOf(1), router.find("/porkbelly/futures/1234/more").getHandler());
+        Assert.assertEquals("/*", router.getRoutes().get(1).getPathDefinition());
+    }
+
+    @Test
+    public void testRouterNoMatch() {
+        ExpressRouter<Integer> router = new ExpressRouter<>();
+        router.add("/offers/:offerslug", 1);
+
+        Assert.assertNull(router.find("/trades"));
+    }
+
+    @Test
+    public void testRouteOptions() throws IOException {
+        final ExpressRoute strict = new ExpressRoute("/offers/", ExpressRouteOptions.DEFAULT.strict(true));
+        Assert.assertTrue(strict.matches("/offers/"));
+        Assert.assertFalse(strict.matches("/offers"));
+        Assert.assertTrue(new ExpressRoute("/offers/").matches("/offers"));
+
+        final ExpressRoute prefix = new ExpressRoute("/:commoditySlug", ExpressRouteOptions.PREFIX);
+        Assert.assertTrue(prefix.matches("/porkbelly/options/1234"));
+        Assert.assertFalse(prefix.matches(""));
+        Assert.assertEquals(Collections.singletonMap("commoditySlug", "porkbelly"), prefix.getParametersFromPath("/porkbelly/"));
+
+        // A prefix only ends at the end of a segment.
+        final ExpressRoute offers = new ExpressRoute("/offers", ExpressRouteOptions.PREFIX);
+        Assert.assertTrue(offers.matches("/offers/e1264"));
+        Assert.assertFalse(offers.matches("/offersx"));
+
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(type);
+            router.add(strict, "strict");
+            router.add(offers, "offers");
+
+            Assert.assertEquals(type.name(), "strict", router.find("/offers/").getHandler());
+            Assert.assertEquals(type.name(), "offers", router.find("/offers/e1264").getHandler());
+            Assert.assertEquals(type.name(), "offers", router.find("/offers").getHandler());
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExpressRouteSnapshot.write(Arrays.asList(strict, prefix), out);
+
+        final List<ExpressRoute> loaded = ExpressRouteSnapshot.read(ByteBuffer.wrap(out.toByteArray())).getRoutes();
+        Assert.assertEquals(strict.getOptions(), loaded.get(0).getOptions());
+        Assert.assertEquals(ExpressRouteOptions.PREFIX, loaded.get(1).getOptions());
+        Assert.assertTrue(loaded.get(1).matches("/porkbelly/options"));
+    }
+
+    @Test
+    public void testMountedRouters() {
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> app = new ExpressRouter<>(type);
+            final ExpressRouter<String> commodities = new ExpressRouter<>(type);
+            final ExpressRouter<String> straddles = new ExpressRouter<>(type);
+
+            app.add("/offers", "offers");
+            app.add("/offers/:offerslug", "offer");
+            commodities.add("/", "commodity");
+            commodities.add("/options/:optionId", "option");
+            straddles.add("/bid/:bidId", "straddleBid");
+
+            app.mount("/:commoditySlug", commodities);
+            final ExpressRoute straddlePrefix = commodities.mount("/straddles/:straddleSlug", straddles);
+
+            final ExpressRouterMatch<String> match = new ExpressRouterMatch<>();
+            final String path = "/porkbelly/straddles/may-june/bid/42";
+
+            Assert.assertEquals("straddleBid", app.find(path, match));
+            Assert.assertSame(path, match.getInput());
+            Assert.assertEquals(Arrays.asList("commoditySlug", "straddleSlug", "bidId"),
+                    Arrays.asList(match.getParameterName(0), match.getParameterName(1), match.getParameterName(2)));
+            Assert.assertEquals("may-june", match.getParameterString("straddleSlug"));
+            Assert.assertEquals(path.indexOf("42"), match.start("bidId"));
+            Assert.assertEquals(42, match.getInt("bidId"));
+
+            Assert.assertEquals("option", app.find("/porkbelly/options/1234", match));
+            Assert.assertEquals(Arrays.asList("porkbelly", "1234"),
+                    Arrays.asList(match.getParameterString(0), match.getParameterString(1)));
+            Assert.assertEquals("commodity", app.find("/porkbelly", match));
+            Assert.assertEquals("commodity", app.find("/porkbelly/", match));
+            Assert.assertEquals(type.name(), "porkbelly", app.find("/porkbelly").getParameters().get("commoditySlug"));
+
+            // The router's own routes come first, and a prefix whose router has no match falls through.
+            Assert.assertEquals("offers", app.find("/offers", match));
+            Assert.assertEquals("offer", app.find("/offers/e1264", match));
+            Assert.assertEquals("option", app.find("/offers/options/1", match));
+            Assert.assertNull(app.find("/porkbelly/futures", match));
+            Assert.assertNull(match.getRoute());
+            Assert.assertEquals("/porkbelly/futures", match.getInput().toString());
+
+            Assert.assertTrue(commodities.unmount(straddlePrefix));
+            Assert.assertFalse(commodities.unmount(straddlePrefix));
+            Assert.assertNull(app.find(path, match));
+        }
+
+        final ExpressRouter<String> parent = new ExpressRouter<>();
+        final ExpressRouter<String> child = new ExpressRouter<>();
+        parent.mount("/a", child);
+
+        for (ExpressRouter<String> cycle : Arrays.asList(parent, child)) {
+            try {
+                child.mount("/b", cycle);
+                Assert.fail();
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testNormalizedPaths() {
+        final Set<ExpressRoutePathRule> all = EnumSet.allOf(ExpressRoutePathRule.class);
+
+        Assert.assertEquals("/porkbelly/options", ExpressRoutePath.parse("//porkbelly///options/", all).toString());
+        Assert.assertEquals("/porkbelly/options", ExpressRoutePath.parse("/porkbelly/./bids/../options", all).toString());
+        Assert.assertEquals("/", ExpressRoutePath.parse("/porkbelly/..", all).toString());
+        Assert.assertEquals("/", ExpressRoutePath.parse("/../..", all).toString());
+        Assert.assertEquals("/", ExpressRoutePath.parse("/", all).toString());
+        Assert.assertEquals("/porkbelly/...", ExpressRoutePath.parse("/porkbelly/...", all).toString());
+        Assert.assertEquals("/porkbelly/%2E%2E", ExpressRoutePath.parse("/porkbelly/%2E%2E", all).toString());
+        Assert.assertEquals("/porkbelly/", ExpressRoutePath.parse("/porkbelly/bids/..",
+                EnumSet.of(ExpressRoutePathRule.DOT_SEGMENTS)).toString());
+
+        // A path the rules leave alone is viewed, not copied.
+        final String canonical = "/porkbelly/options/1234";
+        final ExpressRoutePath parsed = ExpressRoutePath.parse(canonical, all);
+        Assert.assertFalse(parsed.isNormalized());
+        Assert.assertSame(canonical, parsed.getOriginal());
+        Assert.assertEquals(3, parsed.getSegmentCount());
+        Assert.assertEquals("options", canonical.substring(parsed.segmentStart(1), parsed.segmentEnd(1)));
+        Assert.assertEquals(canonical.length(), parsed.segmentEnd(2));
+
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(type);
+            router.add("/:commoditySlug/options/:optionId", "option");
+            router.add(new ExpressRoute("/offers", ExpressRouteOptions.DEFAULT.strict(true)), "offers");
+
+            Assert.assertNull(type.name(), router.find("//porkbelly/options/1234"));
+            Assert.assertEquals(type.name(), "offers", router.find("/offers").getHandler());
+            Assert.assertNull(type.name(), router.find("/offers/"));
+
+            router.setPathRules(all);
+
+            final ExpressRouterMatch<String> match = router.find("//porkbelly/./bids/../options//1234/");
+            Assert.assertEquals(type.name(), "option", match.getHandler());
+            Assert.assertEquals("/porkbelly/options/1234", match.getInput().toString());
+            Assert.assertEquals("1234", match.getParameterString("optionId"));
+            Assert.assertEquals(type.name(), "offers", router.find("/offers/").getHandler());
+
+            // A canonical path stays the match's input.
+            Assert.assertSame(canonical, router.find(canonical).getInput());
+
+            final ExpressRouteMatch reused = new ExpressRouteMatch();
+            Assert.assertEquals("option", router.find(ExpressRoutePath.parse("/porkbelly//options/1234", all), reused));
+            Assert.assertEquals("1234", reused.getParameterString("optionId"));
+
+            final byte[] bytes = "/porkbelly//options/1234".getBytes(StandardCharsets.US_ASCII);
+            Assert.assertEquals("option", router.find(bytes, 0, bytes.length, reused));
+            Assert.assertEquals("1234", reused.getParameterString("optionId"));
+        }
+    }
+
+    @Test
+    public void testRequestTargets() {
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(type);
+            router.add("/:commoditySlug/options/:optionId", "option");
+            router.add("/offers", "offers");
+
+            final String target = "/porkbelly;region=eu;region=us/options/1234?sort=price&tag=a+b&tag=c%2Bd&flag#top";
+            final ExpressRouterMatch<String> match = new ExpressRouterMatch<>();
+
+            Assert.assertEquals(type.name(), "option", router.find(target, match));
+            Assert.assertSame(target, match.getInput());
+            Assert.assertEquals("1234", match.getParameterString("optionId"));
+            Assert.assertEquals("sort=price&tag=a+b&tag=c%2Bd&flag", match.getQuery().toString());
+
+            final ExpressRouteParameters query = match.getQueryParameters();
+            Assert.assertEquals(4, query.size());
+            Assert.assertEquals("price", query.get("sort").toString());
+            Assert.assertEquals(Arrays.asList("a+b", "c%2Bd"),
+                    query.getAll("tag").stream().map(CharSequence::toString).collect(Collectors.toList()));
+            Assert.assertEquals("a b", query.getDecodedValue(1).toString());
+            Assert.assertEquals("c+d", query.getDecodedValue(2).toString());
+            Assert.assertTrue(query.contains("flag"));
+            Assert.assertEquals("", query.get("flag").toString());
+            Assert.assertNull(query.get("top"));
+
+            final ExpressRouteParameters matrix = match.getMatrixParameters("commoditySlug");
+            Assert.assertEquals(2, matrix.size());
+            Assert.assertEquals("region", matrix.getName(1).toString());
+            Assert.assertEquals("us", matrix.getValue(1).toString());
+            Assert.assertTrue(match.getMatrixParameters("optionId").isEmpty());
+
+            // The match's view moves to the next lookup's query string.
+            Assert.assertEquals("offers", router.find("/offers", match));
+            Assert.assertNull(match.getQuery());
+            Assert.assertTrue(query.isEmpty());
+            Assert.assertEquals("offers", router.find("/offers/?x=1/2", match));
+            Assert.assertEquals("1/2", match.getQueryParameters().get("x").toString());
+            Assert.assertEquals("offers", router.find("/offers?", match));
+            Assert.assertTrue(match.getQueryParameters().isEmpty());
+        }
+
+        final ExpressRequestRouter<String> requests = new ExpressRequestRouter<>();
+        requests.add("GET", null, "/offers/:offerslug", "offer");
+
+        final ExpressRequestMatch<String> request = requests.find("GET", null, "/offers/e1264?page=2");
+        Assert.assertEquals("e1264", request.getParameterString("offerslug"));
+        Assert.assertEquals("2", request.getQueryParameters().get("page").toString());
+    }
+
+    @Test
+    public void testCaseInsensitiveRoutes() throws IOException {
+        final ExpressRouteOptions insensitive = ExpressRouteOptions.DEFAULT.sensitive(false);
+
+        Assert.assertFalse(new ExpressRoute("/offers").matches("/OFFERS"));
+        Assert.assertTrue(new ExpressRoute("/offers", insensitive).matches("/OFFERS"));
+        Assert.assertEquals("/offers/", new ExpressRoute("/Offers/:offerslug", insensitive).getFingerprint().getPrefix());
+        Assert.assertNull(new ExpressRoute("/Offers/:offerslug", insensitive).findPatternHazard());
+
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(type);
+            router.add("/Offers/:offerslug", insensitive, "offer");
+            router.add("/offers/new", "newOffer");
+            router.add("/codes/:code([a-z]+)", insensitive, "code");
+
+            final String path = "/OFFERS/E1264";
+            final ExpressRouterMatch<String> match = router.find(path);
+
+            // The path is matched in place, and parameters keep their case.
+            Assert.assertEquals(type.name(), "offer", match.getHandler());
+            Assert.assertSame(path, match.getInput());
+            Assert.assertEquals("E1264", match.getParameterString("offerslug"));
+
+            Assert.assertEquals(type.name(), "newOffer", router.find("/offers/new").getHandler());
+            Assert.assertEquals(type.name(), "NEW", router.find("/OFFERS/NEW").getParameterString("offerslug"));
+            Assert.assertEquals(type.name(), "ABC", router.find("/Codes/ABC").getParameterString("code"));
+            Assert.assertNull(type.name(), router.find("/codes/123"));
+        }
+
+        // A value an insensitive route matches can also be generated from it, and the path round trips.
+        final ExpressRoute codes = new ExpressRoute("/codes/:code([a-z]+)", insensitive);
+        final String generated = codes.toPath(Collections.singletonMap("code", "ABC"));
+        Assert.assertEquals("/codes/ABC", generated);
+        Assert.assertEquals("ABC", codes.match(generated).getParameterString("code"));
+
+        try {
+            new ExpressRoute("/codes/:code([a-z]+)").toPath(Collections.singletonMap("code", "ABC"));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected: a sensitive route keeps checking the pattern's case
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ExpressRouteSnapshot.write(Collections.singletonList(new ExpressRoute("/Offers", insensitive)), out);
+
+        final ExpressRoute loaded = ExpressRouteSnapshot.read(ByteBuffer.wrap(out.toByteArray())).getRoutes().get(0);
+        Assert.assertEquals(insensitive, loaded.getOptions());
+        Assert.assertTrue(loaded.matches("/offers"));
+    }
+
+    @Test
+    public void testNfcPaths() {
+        final String composed = "/caf\u00e9/:table";
+        final String decomposed = "/cafe\u0301/12";
+
+        for (ExpressRouteEngineType type : ExpressRouteEngineType.values()) {
+            final ExpressRouter<String> router = new ExpressRouter<>(type);
+            router.add(composed, "cafe");
+
+            Assert.assertNull(type.name(), router.find(decomposed));
+
+            router.setPathRules(EnumSet.of(ExpressRoutePathRule.NFC));
+
+            Assert.assertEquals(type.name(), "12", router.find(decomposed).getParameterString("table"));
+
+            // A path which is already in form C, or plain ASCII, is not copied.
+            final String normal = "/caf\u00e9/12";
+            Assert.assertSame(normal, router.find(normal).getInput());
+            Assert.assertFalse(ExpressRoutePath.parse("/offers", EnumSet.of(ExpressRoutePathRule.NFC)).isNormalized());
+        }
+    }
+
+    @Test
+    public void testCompactRoutesShareParts() {
+        final ExpressRouteInterner interner = new ExpressRouteInterner();
+        final ExpressRouteCompiler compiler = new ExpressRouteCompiler(interner);
+
+        final ExpressRoute first = compiler.compile("/tenant-1/orders/:orderId");
+        final ExpressRoute second = compiler.compile("/tenant-2/orders/:orderId");
+        final ExpressRoute renamed = compiler.compile("/tenant-1/orders/:id");
+
+        // The parameter token is shared, and the keys list with it; only the literal differs, so the shape is shared.
+        Assert.assertSame(first.getTokens().get(1), second.getTokens().get(1));
+        Assert.assertSame(first.getKeys(), second.getKeys());
+        Assert.assertSame(first.getShape(), second.getShape());
+
+        // Parameter names are not part of the shape either, and a literal of another length is another shape.
+        Assert.assertSame(first.getShape(), renamed.getShape());
+        Assert.assertSame(first.getTokens(), compiler.compile("/tenant-1/orders/:orderId").getTokens());
+        Assert.assertNotSame(first.getShape(), compiler.compile("/tenant-10/orders/:orderId").getShape());
+        Assert.assertEquals(2, interner.getShapeCount());
+        Assert.assertEquals(2, compiler.getStats().getPatternCount());
+
+        // Each route checks its own literals against the shape, without a pattern of its own.
+        final ExpressRouteMatch match = new ExpressRouteMatch();
+        match.reset("/tenant-2/orders/7", 1);
+        Assert.assertTrue(second.find("/tenant-2/orders/7", match));
+        Assert.assertEquals(2, compiler.getStats().getPatternCount());
+
+        // Where the shape matches other literals, the route's own pattern decides.
+        Assert.assertFalse(first.find("/tenant-2/orders/7", match));
+        Assert.assertEquals(3, compiler.getStats().getPatternCount());
+
+        try {
+            first.getKeys().add(first.getKeys().get(0));
+            Assert.fail();
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.TRIE,
+                new ExpressRouteCache(100, interner), new ExpressRouteCompiler());
+        router.add("/tenant-2/orders/:orderId", "order");
+
+        Assert.assertSame(second.getTokens(), router.getRoutes().get(0).getTokens());
+        Assert.assertEquals("7", router.find("/tenant-2/orders/7").getParameters().get("orderId"));
+    }
+
+    @Test
+    public void testCompactRoutesShareTenantParts() {
+        final List<String> definitions = tenantDefinitions(2000);
+        final ExpressRouteInterner interner = new ExpressRouteInterner();
+        final ExpressRouteCompiler compiler = new ExpressRouteCompiler(interner);
+        final List<ExpressRoute> standard = new ExpressRouteCompiler().compileAll(definitions, ExpressRouteCompileMode.EAGER);
+        final List<ExpressRoute> compact = compiler.compileAll(definitions, ExpressRouteCompileMode.EAGER);
+
+        // Every tenant's copy of a route shares the first tenant's keys and tokens, all but its own literal.
+        for (int i = 5; i < definitions.size(); i++) {
+            final ExpressRoute first = compact.get(i % 5);
+            final ExpressRoute route = compact.get(i);
+
+            Assert.assertSame(first.getKeys(), route.getKeys());
+
+            for (int j = 0; j < route.getTokens().size(); j++) {
+                final ExpressRouteToken token = route.getTokens().get(j);
+
+                if (token.getName().startsWith("/tenant-")) {
+                    Assert.assertNotEquals(first.getTokens().get(j), token);
+                }
+                else {
+                    Assert.assertSame(first.getTokens().get(j), token);
+                }
+            }
+        }
+
+        Assert.assertNotSame(standard.get(1).getKeys(), standard.get(6).getKeys());
+        Assert.assertNotSame(standard.get(1).getTokens().get(1), standard.get(6).getTokens().get(1));
+
+        // Tenants whose names are as long share each route's shape: five routes for four lengths of name.
+        Assert.assertSame(compact.get(5 * 1000 + 1).getShape(), compact.get(5 * 1999 + 1).getShape());
+        Assert.assertEquals(5 * 4, interner.getShapeCount());
+        Assert.assertEquals(5 * 4, compiler.getStats().getPatternCount());
+        Assert.assertFalse(compact.stream().anyMatch(route -> route.getShape() == null));
+
+        // Compiled lazily, a route compiles its shape only when it is matched with it.
+        final ExpressRouteInterner lazy = new ExpressRouteInterner();
+        final ExpressRouteCompiler lazyCompiler = new ExpressRouteCompiler(lazy);
+        final ExpressRouter<String> router = new ExpressRouter<>(ExpressRouteEngineType.TRIE, null, lazyCompiler);
+        final Map<String, String> handlers = new LinkedHashMap<>();
+
+        for (String definition : definitions) {
+            handlers.put(definition, definition);
+        }
+
+        router.addAll(handlers, ExpressRouteCompileMode.LAZY);
+
+        Assert.assertEquals("/tenant-7/orders/:orderId", router.find("/tenant-7/orders/42").getHandler());
+        Assert.assertEquals(0, lazyCompiler.getStats().getPatternCount());
+
+        // A tenant's literals are its only tokens of its own: the parameters and shared literals are held once.
+        Assert.assertEquals(3 * 2000 + 8, lazy.getTokenCount());
+    }
+
+    @Test
+    public void testCompactRoutesAreReleased() {
+        final ExpressRouteInterner interner = new ExpressRouteInterner();
+        List<ExpressRoute> routes = new ExpressRouteCompiler(interner).compileAll(tenantDefinitions(100),
+                ExpressRouteCompileMode.EAGER);
+
+        Assert.assertEquals(5 * 2, interner.getShapeCount());
+        Assert.assertEquals(100 * 5, routes.size());
+
+        // Once no route uses them, the interner lets its parts go.
+        routes = null;
+
+        for (int i = 0; i < 20 && interner.getTokenCount() > 0; i++) {
+            System.gc();
+        }
+
+        Assert.assertNull(routes);
+        Assert.assertEquals(0, interner.getStringCount());
+        Assert.assertEquals(0, interner.getTokenCount());
+        Assert.assertEquals(0, interner.getTokenListCount());
+        Assert.assertEquals(0, interner.getShapeCount());
+    }
+
+    @Test
+    public void testCompactRoutesTakeLessHeap() {
+        final List<String> definitions = tenantDefinitions(2000);
+
+        // Both sides compile the same way, and each measure is the average of several builds.
+        for (ExpressRouteCompileMode mode : Arrays.asList(ExpressRouteCompileMode.EAGER, ExpressRouteCompileMode.LAZY)) {
+            long standard = 0;
+            long compact = 0;
+
+            for (int run = 0; run < 3; run++) {
+                standard += retainedHeap(() -> new ExpressRouteCompiler().compileAll(definitions, mode));
+                compact += retainedHeap(() -> new ExpressRouteCompiler(new ExpressRouteInterner()).compileAll(definitions,
+                        mode));
+            }
+
+            // About 1,740 bytes a route down to 355 compiled eagerly, and 670 down to 350 lazily.
+            final double bound = mode == ExpressRouteCompileMode.EAGER ? 0.3 : 0.65;
+
+            Assert.assertTrue(mode + " " + compact + " / " + standard, (double) compact / standard < bound);
+        }
+    }
+
+    /**
+     * @return the definitions of the same five routes for each of the tenants, with each tenant's name in them
+     */
+    private static List<String> tenantDefinitions(int tenants) {
+        final List<String> definitions = new ArrayList<>();
+
+        for (int tenant = 0; tenant < tenants; tenant++) {
+            definitions.add("/tenant-" + tenant + "/orders");
+            definitions.add("/tenant-" + tenant + "/orders/:orderId");
+            definitions.add("/tenant-" + tenant + "/orders/:orderId/items/:itemId");
+            definitions.add("/tenant-" + tenant + "/customers/:customerId/orders/:date(\\d{4}-\\d{2}-\\d{2})?");
+            definitions.add("/:commoditySlug/tenant-" + tenant + "/options/:optionId");
+        }
+
+        return definitions;
+    }
+
+    /**
+     * @return the bytes of heap which what the builder returns holds on to, measured between full collections
+     */
+    private static long retainedHeap(Supplier<Object> builder) {
+        final long before = usedHeap();
+        final Object built = builder.get();
+        final long after = usedHeap();
+
+        Assert.assertNotNull(built);
+
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        // A collection may leave some garbage for the next, so the least of a few is taken.
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        return used;
+    }
+}